@@ -19,12 +19,13 @@
  */
 package org.perfcake;
 
+import org.perfcake.common.IterationRange;
 import org.perfcake.common.Period;
 import org.perfcake.common.PeriodType;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -45,14 +46,14 @@ public class RunInfo {
     * on this value are influenced. The iterations however use {@link System.nanoTime()} so there is no
     * worry.
     */
-   private long startTime = -1;
+   private volatile long startTime = -1;
 
    /**
     * Unix time of the measurement end. If the system clock changes during the run, the results based
     * on this value are influenced. The iterations however use {@link System.nanoTime()} so there is no
     * worry.
     */
-   private long endTime = -1;
+   private volatile long endTime = -1;
 
    /**
     * Number of threads that is currently used to generate the load.
@@ -67,7 +68,7 @@ public class RunInfo {
    /**
     * Tags associated with this measurement run.
     */
-   private final Set<String> tags = new HashSet<>();
+   private final Set<String> tags = new CopyOnWriteArraySet<>();
 
    /**
     * Creates a new RunInfo.
@@ -135,6 +136,46 @@ public class RunInfo {
       return iterations.getAndIncrement();
    }
 
+   /**
+    * Reserves a block of consecutive iteration numbers at once. The iterations can be then consumed locally by the calling
+    * thread without touching the shared iteration counter for each of them.
+    * For an iteration based run, the block is shortened so that no iteration number above the configured duration is ever reserved.
+    *
+    * @param count
+    *           The maximal number of iterations to reserve.
+    * @return The reserved iterations, or null if there are no more iterations to be reserved.
+    */
+   public IterationRange reserveIterations(final long count) {
+      long first, end;
+
+      do {
+         first = iterations.get();
+         end = first + count;
+
+         if (duration.getPeriodType() == PeriodType.ITERATION) {
+            end = Math.min(end, duration.getPeriod());
+
+            if (first >= end) {
+               return null;
+            }
+         }
+      } while (!iterations.compareAndSet(first, end));
+
+      return new IterationRange(first, end);
+   }
+
+   /**
+    * Gives back the reserved iterations that were not used because the measurement was stopped, so that the iteration counter
+    * matches the number of the iterations actually executed. Must not be called before the measurement is stopped, otherwise
+    * the same iteration numbers could be reserved twice.
+    *
+    * @param count
+    *           The number of the unused iterations.
+    */
+   public void releaseIterations(final long count) {
+      iterations.addAndGet(-count);
+   }
+
    /**
     * Gets the current measurement run time in millisecond. If the system clock changed
     * during the running measurement, this value will be influenced.
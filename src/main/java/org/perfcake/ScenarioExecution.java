@@ -28,6 +28,8 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.perfcake.distributed.Coordinator;
+import org.perfcake.distributed.Worker;
 import org.perfcake.scenario.Scenario;
 import org.perfcake.scenario.ScenarioLoader;
 import org.perfcake.util.Utils;
@@ -126,6 +128,9 @@ public class ScenarioExecution {
       options.addOption(OptionBuilder.withLongOpt(PerfCakeConst.MESSAGES_DIR_OPT).withDescription("directory for messages").hasArg().withArgName("MESSAGES_DIR").create("md"));
       options.addOption(OptionBuilder.withLongOpt(PerfCakeConst.PLUGINS_DIR_OPT).withDescription("directory for plugins").hasArg().withArgName("PLUGINS_DIR").create("pd"));
       options.addOption(OptionBuilder.withLongOpt(PerfCakeConst.PROPERTIES_FILE_OPT).withDescription("custom system properties file").hasArg().withArgName("PROPERTIES_FILE").create("pf"));
+      options.addOption(OptionBuilder.withLongOpt(PerfCakeConst.COORDINATOR_PORT_OPT).withDescription("coordinate distributed workers connecting to the port").hasArg().withArgName("PORT").create("cp"));
+      options.addOption(OptionBuilder.withLongOpt(PerfCakeConst.WORKERS_OPT).withDescription("number of distributed workers").hasArg().withArgName("WORKERS").create("w"));
+      options.addOption(OptionBuilder.withLongOpt(PerfCakeConst.COORDINATOR_OPT).withDescription("run as a worker of the coordinator").hasArg().withArgName("HOST:PORT").create("c"));
       options.addOption(OptionBuilder.withArgName("property=value").hasArgs(2).withValueSeparator().withDescription("system properties").create("D"));
 
       final CommandLineParser commandLineParser = new GnuParser();
@@ -140,7 +145,7 @@ public class ScenarioExecution {
       if (commandLine.hasOption(PerfCakeConst.SCENARIO_OPT)) {
          System.setProperty(PerfCakeConst.SCENARIO_PROPERTY, commandLine.getOptionValue(PerfCakeConst.SCENARIO_OPT));
       } else {
-         formatter.printHelp("ScenarioExecution -s <SCENARIO> [-sd <SCENARIOS_DIR>] [-md <MESSAGES_DIR>] [-D<property=value>]*", options);
+         formatter.printHelp("ScenarioExecution -s <SCENARIO> [-sd <SCENARIOS_DIR>] [-md <MESSAGES_DIR>] [-cp <PORT> -w <WORKERS> | -c <HOST:PORT>] [-D<property=value>]*", options);
          System.exit(1);
          return;
       }
@@ -149,6 +154,9 @@ public class ScenarioExecution {
       parseParameter(PerfCakeConst.MESSAGES_DIR_OPT, PerfCakeConst.MESSAGES_DIR_PROPERTY, Utils.determineDefaultLocation("messages"));
       parseParameter(PerfCakeConst.PLUGINS_DIR_OPT, PerfCakeConst.PLUGINS_DIR_PROPERTY, Utils.DEFAULT_PLUGINS_DIR.getAbsolutePath());
       parseParameter(PerfCakeConst.PROPERTIES_FILE_OPT, PerfCakeConst.PROPERTIES_FILE_PROPERTY, null);
+      parseParameter(PerfCakeConst.COORDINATOR_PORT_OPT, PerfCakeConst.COORDINATOR_PORT_PROPERTY, null);
+      parseParameter(PerfCakeConst.WORKERS_OPT, PerfCakeConst.WORKERS_PROPERTY, "1");
+      parseParameter(PerfCakeConst.COORDINATOR_OPT, PerfCakeConst.COORDINATOR_PROPERTY, null);
 
       parseUserProperties();
 
@@ -199,10 +207,26 @@ public class ScenarioExecution {
     * Executes the loaded scenario.
     */
    private void executeScenario() {
+      final String coordinatorPort = Utils.getProperty(PerfCakeConst.COORDINATOR_PORT_PROPERTY);
+      if (coordinatorPort != null) {
+         coordinateScenario(coordinatorPort);
+         return;
+      }
+
+      final String coordinator = Utils.getProperty(PerfCakeConst.COORDINATOR_PROPERTY);
+
       try {
          scenario.init();
-         scenario.run();
-      } catch (PerfCakeException e) {
+         if (coordinator != null) {
+            final int separator = coordinator.lastIndexOf(':');
+            if (separator < 0) {
+               throw new PerfCakeException(String.format("The coordinator address '%s' must be in the form HOST:PORT.", coordinator));
+            }
+            new Worker(scenario, coordinator.substring(0, separator), Integer.parseInt(coordinator.substring(separator + 1))).run();
+         } else {
+            scenario.run();
+         }
+      } catch (PerfCakeException | NumberFormatException e) {
          log.fatal("Error running scenario: ", e);
       } finally {
          try {
@@ -213,6 +237,18 @@ public class ScenarioExecution {
       }
    }
 
+   /**
+    * Distributes the loaded scenario among the workers. The scenario is not initialized as the coordinator does not generate any load.
+    * @param port The port to listen on for the workers.
+    */
+   private void coordinateScenario(final String port) {
+      try {
+         new Coordinator(scenario, Integer.parseInt(port), Integer.parseInt(Utils.getProperty(PerfCakeConst.WORKERS_PROPERTY))).run();
+      } catch (PerfCakeException | NumberFormatException e) {
+         log.fatal("Error coordinating scenario: ", e);
+      }
+   }
+
    /**
     * The main method which creates an instance of ScenarioExecution and executes the scenario.
     * @param args Command line arguments.
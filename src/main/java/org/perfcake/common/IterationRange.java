@@ -0,0 +1,82 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.common;
+
+/**
+ * A continuous block of iteration numbers reserved by a single thread. See {@link org.perfcake.RunInfo#reserveIterations(long)}.
+ * IterationRange is an immutable type.
+ */
+public class IterationRange {
+
+   /**
+    * The first iteration number in the range.
+    */
+   private final long first;
+
+   /**
+    * The iteration number just after the last one in the range.
+    */
+   private final long end;
+
+   /**
+    * Creates a new IterationRange.
+    *
+    * @param first
+    *           The first iteration number in the range.
+    * @param end
+    *           The iteration number just after the last one in the range.
+    */
+   public IterationRange(final long first, final long end) {
+      this.first = first;
+      this.end = end;
+   }
+
+   /**
+    * Gets the first iteration number in the range.
+    *
+    * @return The first iteration number.
+    */
+   public long getFirst() {
+      return first;
+   }
+
+   /**
+    * Gets the iteration number just after the last one in the range (exclusive upper bound).
+    *
+    * @return The exclusive upper bound of the range.
+    */
+   public long getEnd() {
+      return end;
+   }
+
+   /**
+    * Gets the number of iterations in the range.
+    *
+    * @return The number of iterations.
+    */
+   public long getSize() {
+      return end - first;
+   }
+
+   @Override
+   public String toString() {
+      return "IterationRange [first=" + first + ", end=" + end + "]";
+   }
+}
@@ -0,0 +1,435 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.distributed;
+
+import org.apache.log4j.Logger;
+import org.perfcake.PerfCakeException;
+import org.perfcake.RunInfo;
+import org.perfcake.reporting.LatencyHistogram;
+import org.perfcake.reporting.Measurement;
+import org.perfcake.reporting.Quantity;
+import org.perfcake.reporting.ReportManager;
+import org.perfcake.reporting.reporters.StatsReporter;
+import org.perfcake.scenario.Scenario;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Runs a scenario distributed among several {@link Worker workers}. The coordinator does not generate any load, it waits for
+ * the configured number of workers to connect, assigns each of them its share of the load and starts them all at the same moment.
+ * </p>
+ * <p>
+ * The workers stream the aggregated response times back ({@link LatencyHistogram}). The coordinator merges them and once in
+ * {@link #reportingPeriod} publishes a single measurement with the statistics of the interval to all the destinations of its own scenario.
+ * The measurement carries the average response time as the default result, the minimum, the maximum, the median and the 90th and 99th
+ * percentiles of the response time with the precision of the histogram, and the throughput. The iteration counter of the coordinator
+ * follows the number of the iterations reported by the workers. Only the response times are transferred, the custom results
+ * of the senders are not.
+ * </p>
+ */
+public class Coordinator {
+
+   /**
+    * The name of the result carrying the median of the response time.
+    */
+   public static final String MEDIAN = "Median";
+
+   /**
+    * The name of the result carrying the 90th percentile of the response time.
+    */
+   public static final String PERCENTILE_90 = "90thPercentile";
+
+   /**
+    * The name of the result carrying the 99th percentile of the response time.
+    */
+   public static final String PERCENTILE_99 = "99thPercentile";
+
+   /**
+    * The name of the result carrying the throughput.
+    */
+   public static final String THROUGHPUT = "Throughput";
+
+   /**
+    * The coordinator's logger.
+    */
+   private static final Logger log = Logger.getLogger(Coordinator.class);
+
+   /**
+    * The scenario providing the reporting configuration.
+    */
+   private final Scenario scenario;
+
+   /**
+    * The number of workers to wait for.
+    */
+   private final int workers;
+
+   /**
+    * The socket accepting the workers.
+    */
+   private final ServerSocket serverSocket;
+
+   /**
+    * How long to wait for all the workers to connect in milliseconds.
+    */
+   private long connectTimeout = 60_000;
+
+   /**
+    * The delay between sending the start time to the workers and the start of the measurement in milliseconds.
+    */
+   private long startDelay = 1000;
+
+   /**
+    * The period of publishing the results in milliseconds.
+    */
+   private long reportingPeriod = 1000;
+
+   /**
+    * The response times received from all the workers.
+    */
+   private final LatencyHistogram results = new LatencyHistogram();
+
+   /**
+    * The response times received from all the workers since the results were published last time, guarded by {@link #results}.
+    */
+   private LatencyHistogram interval = new LatencyHistogram();
+
+   /**
+    * Creates a new coordinator and starts listening for the workers.
+    *
+    * @param scenario
+    *           The scenario providing the reporting configuration. It is not initialized by the coordinator.
+    * @param port
+    *           The port to listen on, 0 for any free port.
+    * @param workers
+    *           The number of workers to wait for.
+    * @throws PerfCakeException
+    *            When it was not possible to listen on the port.
+    */
+   public Coordinator(final Scenario scenario, final int port, final int workers) throws PerfCakeException {
+      if (workers < 1) {
+         throw new PerfCakeException("At least one worker is needed, but " + workers + " was configured.");
+      }
+
+      this.scenario = scenario;
+      this.workers = workers;
+
+      try {
+         serverSocket = new ServerSocket(port);
+      } catch (IOException e) {
+         throw new PerfCakeException(String.format("Cannot listen on port %d: ", port), e);
+      }
+   }
+
+   /**
+    * Connects the workers, runs the measurement and waits for the results of all the workers.
+    *
+    * @throws PerfCakeException
+    *            When it was not possible to connect the workers.
+    */
+   public void run() throws PerfCakeException {
+      final List<Socket> sockets = new ArrayList<>();
+
+      try {
+         final long startTime = connectWorkers(sockets);
+         final ReportManager reportManager = scenario.getReportManager();
+
+         final long delay = startTime - System.currentTimeMillis();
+         if (delay > 0) {
+            Thread.sleep(delay);
+         }
+
+         log.info("Starting the distributed measurement...");
+         reportManager.start();
+
+         final List<Thread> receivers = new ArrayList<>();
+         for (int i = 0; i < sockets.size(); i++) {
+            final Thread receiver = new Thread(new Receiver(sockets.get(i), i, reportManager), "PerfCake-coordinator-" + i);
+            receiver.start();
+            receivers.add(receiver);
+         }
+
+         long intervalStart = System.currentTimeMillis();
+         for (final Thread receiver : receivers) {
+            while (receiver.isAlive()) {
+               receiver.join(Math.max(1, intervalStart + reportingPeriod - System.currentTimeMillis()));
+
+               final long now = System.currentTimeMillis();
+               if (now - intervalStart >= reportingPeriod) {
+                  publish(reportManager, now - intervalStart);
+                  intervalStart = now;
+               }
+            }
+         }
+         publish(reportManager, System.currentTimeMillis() - intervalStart);
+
+         log.info("All workers finished, " + results);
+         reportManager.stop();
+      } catch (InterruptedException e) {
+         throw new PerfCakeException("The distributed measurement was interrupted: ", e);
+      } finally {
+         for (final Socket socket : sockets) {
+            closeQuietly(socket);
+         }
+         try {
+            serverSocket.close();
+         } catch (IOException e) {
+            log.warn("Cannot close the server socket: ", e);
+         }
+      }
+   }
+
+   /**
+    * Waits for all the workers to connect and sends them their shares of the load and the start time.
+    *
+    * @param sockets
+    *           The list to which the sockets of the connected workers are added.
+    * @return The start time of the measurement in Unix millis.
+    * @throws PerfCakeException
+    *            When not all the workers connected in time.
+    */
+   private long connectWorkers(final List<Socket> sockets) throws PerfCakeException {
+      log.info(String.format("Waiting for %d workers on port %d...", workers, serverSocket.getLocalPort()));
+      final long deadline = System.currentTimeMillis() + connectTimeout;
+
+      try {
+         while (sockets.size() < workers) {
+            serverSocket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+            final Socket socket = serverSocket.accept();
+            sockets.add(socket);
+            socket.setTcpNoDelay(true);
+
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            if (in.readByte() != Protocol.HELLO || in.readInt() != Protocol.MAGIC || in.readInt() != Protocol.VERSION) {
+               throw new IOException("Incompatible worker connected from " + socket.getRemoteSocketAddress());
+            }
+            log.info(String.format("Worker %d connected from %s.", sockets.size() - 1, socket.getRemoteSocketAddress()));
+         }
+
+         final long startTime = System.currentTimeMillis() + startDelay;
+         for (int i = 0; i < sockets.size(); i++) {
+            final DataOutputStream out = new DataOutputStream(sockets.get(i).getOutputStream());
+            out.writeByte(Protocol.START);
+            out.writeInt(i);
+            out.writeInt(workers);
+            out.writeLong(startTime);
+            out.flush();
+         }
+
+         return startTime;
+      } catch (SocketTimeoutException e) {
+         throw new PerfCakeException(String.format("Only %d of %d workers connected in %d ms.", sockets.size(), workers, connectTimeout), e);
+      } catch (IOException e) {
+         throw new PerfCakeException("Cannot connect the workers: ", e);
+      }
+   }
+
+   /**
+    * Publishes the statistics of the response times received since the last call to all the destinations.
+    *
+    * @param reportManager
+    *           The report manager of the scenario.
+    * @param duration
+    *           The time elapsed since the last call in milliseconds.
+    */
+   private void publish(final ReportManager reportManager, final long duration) {
+      final LatencyHistogram histogram;
+      synchronized (results) {
+         histogram = interval;
+         interval = new LatencyHistogram();
+      }
+
+      final RunInfo runInfo = reportManager.getRunInfo();
+      final Measurement m = new Measurement(Math.round(runInfo.getPercentage()), runInfo.getRunTime(), runInfo.getIteration());
+      if (histogram.getCount() > 0) {
+         m.set(new Quantity<Number>(histogram.getMean(), "ms"));
+         m.set(StatsReporter.MINIMUM, new Quantity<Number>(histogram.getMin(), "ms"));
+         m.set(StatsReporter.MAXIMUM, new Quantity<Number>(histogram.getMax(), "ms"));
+         m.set(MEDIAN, new Quantity<Number>(histogram.getValueAtPercentile(50), "ms"));
+         m.set(PERCENTILE_90, new Quantity<Number>(histogram.getValueAtPercentile(90), "ms"));
+         m.set(PERCENTILE_99, new Quantity<Number>(histogram.getValueAtPercentile(99), "ms"));
+      }
+      m.set(THROUGHPUT, new Quantity<Number>(duration > 0 ? 1000d * histogram.getCount() / duration : 0, "it/s"));
+
+      reportManager.publishToAllDestinations(m);
+   }
+
+   /**
+    * Closes a socket ignoring any errors.
+    *
+    * @param socket
+    *           The socket to close.
+    */
+   private static void closeQuietly(final Socket socket) {
+      try {
+         socket.close();
+      } catch (IOException e) {
+         // we did our best
+      }
+   }
+
+   /**
+    * Receives the results of a single worker until it finishes.
+    */
+   private class Receiver implements Runnable {
+
+      /**
+       * The socket connected to the worker.
+       */
+      private final Socket socket;
+
+      /**
+       * The index of the worker.
+       */
+      private final int index;
+
+      /**
+       * The report manager of the scenario.
+       */
+      private final ReportManager reportManager;
+
+      private Receiver(final Socket socket, final int index, final ReportManager reportManager) {
+         this.socket = socket;
+         this.index = index;
+         this.reportManager = reportManager;
+      }
+
+      @Override
+      public void run() {
+         try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            while (true) {
+               final byte type = in.readByte();
+               if (type == Protocol.FINISHED) {
+                  log.info(String.format("Worker %d finished.", index));
+                  return;
+               } else if (type == Protocol.RESULTS) {
+                  final LatencyHistogram histogram = LatencyHistogram.readFrom(in);
+                  synchronized (results) {
+                     results.merge(histogram);
+                     interval.merge(histogram);
+                  }
+                  if (histogram.getCount() > 0) {
+                     reportManager.getRunInfo().reserveIterations(histogram.getCount());
+                  }
+               } else {
+                  throw new IOException("Unexpected frame type " + type);
+               }
+            }
+         } catch (EOFException e) {
+            log.error(String.format("Worker %d disconnected before finishing the measurement.", index));
+         } catch (IOException e) {
+            log.error(String.format("Cannot receive the results of worker %d: ", index), e);
+         }
+      }
+   }
+
+   /**
+    * Gets the port the coordinator listens on.
+    *
+    * @return The port number.
+    */
+   public int getPort() {
+      return serverSocket.getLocalPort();
+   }
+
+   /**
+    * Gets the response times received from all the workers.
+    *
+    * @return The merged histogram of the response times.
+    */
+   public LatencyHistogram getResults() {
+      synchronized (results) {
+         final LatencyHistogram copy = new LatencyHistogram();
+         copy.merge(results);
+         return copy;
+      }
+   }
+
+   /**
+    * Used to read the period of publishing the results.
+    *
+    * @return The reporting period in milliseconds.
+    */
+   public long getReportingPeriod() {
+      return reportingPeriod;
+   }
+
+   /**
+    * Sets the period of publishing the results.
+    *
+    * @param reportingPeriod
+    *           The reporting period in milliseconds.
+    */
+   public void setReportingPeriod(final long reportingPeriod) {
+      this.reportingPeriod = reportingPeriod;
+   }
+
+   /**
+    * Used to read how long to wait for all the workers to connect.
+    *
+    * @return The connect timeout in milliseconds.
+    */
+   public long getConnectTimeout() {
+      return connectTimeout;
+   }
+
+   /**
+    * Sets how long to wait for all the workers to connect.
+    *
+    * @param connectTimeout
+    *           The connect timeout in milliseconds.
+    */
+   public void setConnectTimeout(final long connectTimeout) {
+      this.connectTimeout = connectTimeout;
+   }
+
+   /**
+    * Used to read the delay between sending the start time to the workers and the start of the measurement.
+    *
+    * @return The start delay in milliseconds.
+    */
+   public long getStartDelay() {
+      return startDelay;
+   }
+
+   /**
+    * Sets the delay between sending the start time to the workers and the start of the measurement. It must be longer
+    * than the time needed to deliver the start time to all the workers.
+    *
+    * @param startDelay
+    *           The start delay in milliseconds.
+    */
+   public void setStartDelay(final long startDelay) {
+      this.startDelay = startDelay;
+   }
+}
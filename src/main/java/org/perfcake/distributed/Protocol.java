@@ -0,0 +1,44 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.distributed;
+
+/**
+ * Constants of the protocol between {@link Coordinator} and {@link Worker}. Each frame starts with a type byte followed
+ * by the data written using {@link java.io.DataOutputStream}.
+ * <ul>
+ * <li>{@link #HELLO} (worker to coordinator): magic number, protocol version.</li>
+ * <li>{@link #START} (coordinator to worker): worker index, number of workers, start time in Unix millis.</li>
+ * <li>{@link #RESULTS} (worker to coordinator): {@link org.perfcake.reporting.LatencyHistogram} of the response times since the last frame.</li>
+ * <li>{@link #FINISHED} (worker to coordinator): no data, the worker has sent all the results.</li>
+ * </ul>
+ */
+final class Protocol {
+
+   static final int MAGIC = 0x5043414B;
+   static final int VERSION = 1;
+
+   static final byte HELLO = 1;
+   static final byte START = 2;
+   static final byte RESULTS = 3;
+   static final byte FINISHED = 4;
+
+   private Protocol() {
+   }
+}
@@ -0,0 +1,69 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.distributed;
+
+import org.perfcake.common.PeriodType;
+import org.perfcake.reporting.LatencyHistogram;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.ReportingException;
+import org.perfcake.reporting.StripedLatencyHistogram;
+import org.perfcake.reporting.destinations.Destination;
+import org.perfcake.reporting.reporters.AbstractReporter;
+
+/**
+ * Reporter used by {@link Worker} in place of the reporters of the scenario. It aggregates the response times
+ * into a {@link StripedLatencyHistogram} that is periodically drained and sent to {@link Coordinator}.
+ */
+class StreamingReporter extends AbstractReporter {
+
+   /**
+    * The response times reported since the last drain.
+    */
+   private final StripedLatencyHistogram responseTimes = new StripedLatencyHistogram();
+
+   @Override
+   protected void doReport(final MeasurementUnit mu) throws ReportingException {
+      responseTimes.record(mu.getTotalTime());
+   }
+
+   @Override
+   protected void doReset() {
+      drain();
+   }
+
+   @Override
+   protected boolean checkStart() {
+      return true; // there are no destinations, the results are drained by the worker
+   }
+
+   @Override
+   public void publishResult(final PeriodType periodType, final Destination d) throws ReportingException {
+      throw new ReportingException("No destination is allowed on " + getClass().getSimpleName());
+   }
+
+   /**
+    * Gets the response times reported since the last call and forgets them.
+    *
+    * @return The histogram of the response times.
+    */
+   LatencyHistogram drain() {
+      return responseTimes.drain();
+   }
+}
@@ -0,0 +1,335 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.distributed;
+
+import org.apache.log4j.Logger;
+import org.perfcake.PerfCakeException;
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.generator.AbstractMessageGenerator;
+import org.perfcake.reporting.LatencyHistogram;
+import org.perfcake.reporting.ReportManager;
+import org.perfcake.reporting.reporters.Reporter;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.util.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Generates a share of the load of a scenario distributed by {@link Coordinator}.
+ * </p>
+ * <p>
+ * The worker connects to the coordinator and receives its index, the number of workers and the start time. The load is split
+ * using {@link AbstractMessageGenerator#split(int, int)}, the iterations of an iteration bound run are divided among the workers.
+ * The reporters of the scenario are replaced by a reporter aggregating the response times that are sent to the coordinator every
+ * {@link #reportingInterval} milliseconds. When the coordinator disconnects, the scenario is stopped.
+ * </p>
+ */
+public class Worker {
+
+   /**
+    * The worker's logger.
+    */
+   private static final Logger log = Logger.getLogger(Worker.class);
+
+   /**
+    * The period of connection attempts in milliseconds.
+    */
+   private static final long RECONNECT_PERIOD = 500;
+
+   /**
+    * The scenario to run. It must be already initialized.
+    */
+   private final Scenario scenario;
+
+   /**
+    * The host of the coordinator.
+    */
+   private final String host;
+
+   /**
+    * The port of the coordinator.
+    */
+   private final int port;
+
+   /**
+    * How long to keep trying to connect to the coordinator in milliseconds.
+    */
+   private long connectTimeout = 60_000;
+
+   /**
+    * The period of sending the results to the coordinator in milliseconds.
+    */
+   private long reportingInterval = 500;
+
+   /**
+    * Aggregates the response times to be sent.
+    */
+   private final StreamingReporter reporter = new StreamingReporter();
+
+   /**
+    * Set to true when the worker has sent all its results.
+    */
+   private volatile boolean finished = false;
+
+   /**
+    * Creates a new worker.
+    *
+    * @param scenario
+    *           The scenario to run. It must be already initialized.
+    * @param host
+    *           The host of the coordinator.
+    * @param port
+    *           The port of the coordinator.
+    */
+   public Worker(final Scenario scenario, final String host, final int port) {
+      this.scenario = scenario;
+      this.host = host;
+      this.port = port;
+   }
+
+   /**
+    * Connects to the coordinator, runs the share of the scenario and sends the results.
+    *
+    * @throws PerfCakeException
+    *            When it was not possible to communicate with the coordinator or to run the scenario.
+    */
+   public void run() throws PerfCakeException {
+      try (Socket socket = connect()) {
+         final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+         final DataInputStream in = new DataInputStream(socket.getInputStream());
+
+         out.writeByte(Protocol.HELLO);
+         out.writeInt(Protocol.MAGIC);
+         out.writeInt(Protocol.VERSION);
+         out.flush();
+
+         if (in.readByte() != Protocol.START) {
+            throw new PerfCakeException("Unexpected response from the coordinator.");
+         }
+         final int index = in.readInt();
+         final int count = in.readInt();
+         final long startTime = in.readLong();
+
+         prepare(index, count);
+         watchCoordinator(in);
+
+         final long delay = startTime - System.currentTimeMillis();
+         if (delay > 0) {
+            Thread.sleep(delay);
+         }
+
+         final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+               final Thread thread = new Thread(r, "PerfCake-worker-results");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         sender.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  sendResults(out);
+               } catch (IOException e) {
+                  log.error("Cannot send the results to the coordinator: ", e);
+               }
+            }
+         }, reportingInterval, reportingInterval, TimeUnit.MILLISECONDS);
+
+         try {
+            scenario.run();
+         } finally {
+            sender.shutdown();
+            sender.awaitTermination(reportingInterval, TimeUnit.MILLISECONDS);
+         }
+
+         finished = true;
+         synchronized (out) {
+            sendResults(out);
+            out.writeByte(Protocol.FINISHED);
+            out.flush();
+         }
+         log.info("All results were sent to the coordinator.");
+      } catch (IOException e) {
+         throw new PerfCakeException(String.format("Cannot communicate with the coordinator at %s:%d: ", host, port), e);
+      } catch (InterruptedException e) {
+         throw new PerfCakeException("The worker was interrupted: ", e);
+      }
+   }
+
+   /**
+    * Connects to the coordinator. The connection is retried until {@link #connectTimeout} as the coordinator might not be started yet.
+    *
+    * @return The connected socket.
+    * @throws IOException
+    *            When it was not possible to connect in time.
+    * @throws InterruptedException
+    *            When the waiting for the next attempt was interrupted.
+    */
+   private Socket connect() throws IOException, InterruptedException {
+      final long deadline = System.currentTimeMillis() + connectTimeout;
+      log.info(String.format("Connecting to the coordinator at %s:%d...", host, port));
+
+      while (true) {
+         final Socket socket = new Socket();
+         try {
+            socket.connect(new InetSocketAddress(host, port), (int) connectTimeout);
+            socket.setTcpNoDelay(true);
+            return socket;
+         } catch (IOException e) {
+            socket.close();
+            if (System.currentTimeMillis() + RECONNECT_PERIOD > deadline) {
+               throw e;
+            }
+            Thread.sleep(RECONNECT_PERIOD);
+         }
+      }
+   }
+
+   /**
+    * Adjusts the scenario to generate only the share of the load of this worker and to send the results to the coordinator.
+    *
+    * @param index
+    *           The index of this worker.
+    * @param count
+    *           The number of workers.
+    */
+   private void prepare(final int index, final int count) {
+      final AbstractMessageGenerator generator = scenario.getGenerator();
+      final ReportManager reportManager = scenario.getReportManager();
+
+      generator.split(index, count);
+
+      final Period duration = reportManager.getRunInfo().getDuration();
+      if (duration.getPeriodType() == PeriodType.ITERATION) {
+         final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, Utils.share(duration.getPeriod(), index, count)));
+         generator.setRunInfo(runInfo);
+         reportManager.setRunInfo(runInfo);
+      }
+
+      for (final Reporter r : new ArrayList<>(reportManager.getReporters())) {
+         reportManager.unregisterReporter(r);
+      }
+      reportManager.registerReporter(reporter);
+
+      log.info(String.format("Running as worker %d of %d with %d threads.", index, count, generator.getThreads()));
+   }
+
+   /**
+    * Starts a thread that stops the scenario when the coordinator disconnects.
+    *
+    * @param in
+    *           The input from the coordinator.
+    */
+   private void watchCoordinator(final DataInputStream in) {
+      final Thread watcher = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               while (in.read() >= 0) {
+                  // no more frames are expected from the coordinator
+               }
+            } catch (IOException e) {
+               // handled the same way as the end of the stream
+            }
+
+            if (!finished) {
+               log.error("The coordinator disconnected, stopping the scenario.");
+               scenario.stop();
+            }
+         }
+      }, "PerfCake-worker-watcher");
+      watcher.setDaemon(true);
+      watcher.start();
+   }
+
+   /**
+    * Sends the response times reported since the last call to the coordinator.
+    *
+    * @param out
+    *           The output to the coordinator.
+    * @throws IOException
+    *            When it was not possible to send the results.
+    */
+   private void sendResults(final DataOutputStream out) throws IOException {
+      final LatencyHistogram histogram = reporter.drain();
+      if (histogram.getCount() == 0) {
+         return;
+      }
+
+      synchronized (out) {
+         out.writeByte(Protocol.RESULTS);
+         histogram.writeTo(out);
+         out.flush();
+      }
+   }
+
+   /**
+    * Used to read how long to keep trying to connect to the coordinator.
+    *
+    * @return The connect timeout in milliseconds.
+    */
+   public long getConnectTimeout() {
+      return connectTimeout;
+   }
+
+   /**
+    * Sets how long to keep trying to connect to the coordinator.
+    *
+    * @param connectTimeout
+    *           The connect timeout in milliseconds.
+    */
+   public void setConnectTimeout(final long connectTimeout) {
+      this.connectTimeout = connectTimeout;
+   }
+
+   /**
+    * Used to read the period of sending the results to the coordinator.
+    *
+    * @return The reporting interval in milliseconds.
+    */
+   public long getReportingInterval() {
+      return reportingInterval;
+   }
+
+   /**
+    * Sets the period of sending the results to the coordinator.
+    *
+    * @param reportingInterval
+    *           The reporting interval in milliseconds.
+    */
+   public void setReportingInterval(final long reportingInterval) {
+      this.reportingInterval = reportingInterval;
+   }
+}
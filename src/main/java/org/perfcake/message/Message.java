@@ -20,6 +20,7 @@
 package org.perfcake.message;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Properties;
 
 /**
@@ -33,6 +34,16 @@ public class Message implements Serializable {
    private Properties properties;
    private Serializable payload = null;
 
+   /**
+    * The payload encoded in advance, it is shared by all the threads sending the message.
+    */
+   private transient byte[] encodedPayload = null;
+
+   /**
+    * The name of the character encoding of {@link #encodedPayload}.
+    */
+   private transient String payloadEncoding = null;
+
    public Message() {
       this.headers = new Properties();
       this.properties = new Properties();
@@ -69,6 +80,45 @@ public class Message implements Serializable {
 
    public void setPayload(final Serializable payload) {
       this.payload = payload;
+      this.encodedPayload = null;
+      this.payloadEncoding = null;
+   }
+
+   /**
+    * Gets a read-only buffer with the payload encoded in advance by the message template. The underlying bytes are shared by all the threads,
+    * each call returns a new buffer with its own position and limit.
+    *
+    * @param encoding
+    *           The name of the character encoding.
+    * @return The buffer with the encoded payload, or null when the payload was not encoded in advance by the given encoding.
+    */
+   public ByteBuffer getEncodedPayload(final String encoding) {
+      return encodedPayload != null && payloadEncoding.equals(encoding) ? ByteBuffer.wrap(encodedPayload).asReadOnlyBuffer() : null;
+   }
+
+   /**
+    * Shares the payload encoded in advance by the source message with this message. It is used by {@link MessageTemplate} for the payloads
+    * that never change.
+    *
+    * @param source
+    *           The message with the payload encoded in advance.
+    */
+   void shareEncodedPayload(final Message source) {
+      this.encodedPayload = source.encodedPayload;
+      this.payloadEncoding = source.payloadEncoding;
+   }
+
+   /**
+    * Stores the payload encoded in advance. It is used by {@link MessageTemplate} for the payloads that never change.
+    *
+    * @param encodedPayload
+    *           The encoded payload.
+    * @param encoding
+    *           The name of the character encoding used.
+    */
+   void setEncodedPayload(final byte[] encodedPayload, final String encoding) {
+      this.encodedPayload = encodedPayload;
+      this.payloadEncoding = encoding;
    }
 
    public void setHeaders(final Properties headers) {
@@ -20,12 +20,17 @@
 package org.perfcake.message;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
+import org.perfcake.message.extractor.Extractor;
 import org.perfcake.util.Utils;
 import org.perfcake.util.properties.DefaultPropertyGetter;
 import org.perfcake.validation.MessageValidator;
@@ -40,11 +45,19 @@ public class MessageTemplate implements Serializable {
 
    private static final String propertyPattern = "[^\\\\](#\\{([^#\\{:]+)(:[^#\\{:]*)?})";
 
+   /**
+    * The pattern of the properties in the values of the headers and properties of the message, these can start with a property.
+    */
+   private static final Pattern valuePattern = Pattern.compile("(?<!\\\\)(#\\{([^#\\{:]+)(:[^#\\{:]*)?})");
+
    private transient Logger log = Logger.getLogger(MessageTemplate.class);
 
    private final Message message;
    private final long multiplicity;
    private final List<String> validatorIds;
+   private final ThinkTime thinkTime;
+   private final Map<String, Extractor> extractors = new LinkedHashMap<>();
+   private transient boolean headersFiltered;
    private transient Pattern pattern;
 
    public Matcher getMatcher(String text) {
@@ -52,10 +65,27 @@ public class MessageTemplate implements Serializable {
    }
 
    public MessageTemplate(final Message message, final long multiplicity, final List<String> validatorIds) {
+      this(message, multiplicity, validatorIds, null);
+   }
+
+   /**
+    * Creates a new message template with a think time the sender task pauses for after each sending of the message.
+    *
+    * @param message
+    *           The message.
+    * @param multiplicity
+    *           The number of times the message is sent in a single iteration.
+    * @param validatorIds
+    *           The ids of the validators of the responses.
+    * @param thinkTime
+    *           The think time after the message, or null for no pause.
+    */
+   public MessageTemplate(final Message message, final long multiplicity, final List<String> validatorIds, final ThinkTime thinkTime) {
       this.message = message;
       preparePattern();
       this.multiplicity = multiplicity;
       this.validatorIds = validatorIds;
+      this.thinkTime = thinkTime;
    }
 
    public Message getMessage() {
@@ -63,14 +93,26 @@ public class MessageTemplate implements Serializable {
    }
 
    public Message getFilteredMessage(final Properties props) {
-      if (pattern != null) {
+      if (pattern != null || headersFiltered) {
          final Message m = MessageFactory.getMessage();
-         String text = this.getMessage().getPayload().toString();
-         text = Utils.filterProperties(text, getMatcher(text), new DefaultPropertyGetter(props));
+         final DefaultPropertyGetter propertyGetter = new DefaultPropertyGetter(props);
+
+         if (pattern != null) {
+            String text = this.getMessage().getPayload().toString();
+            text = Utils.filterProperties(text, getMatcher(text), propertyGetter);
+            m.setPayload(text);
+         } else {
+            m.setPayload(message.getPayload());
+            m.shareEncodedPayload(message);
+         }
 
-         m.setPayload(text);
-         m.setHeaders(message.getHeaders());
-         m.setProperties(message.getProperties());
+         if (headersFiltered) {
+            m.setHeaders(filterValues(message.getHeaders(), propertyGetter));
+            m.setProperties(filterValues(message.getProperties(), propertyGetter));
+         } else {
+            m.setHeaders(message.getHeaders());
+            m.setProperties(message.getProperties());
+         }
 
          return m;
       } else {
@@ -78,8 +120,33 @@ public class MessageTemplate implements Serializable {
       }
    }
 
+   /**
+    * Replaces the properties in the values of the message headers or properties (e.g. a token extracted from a previous response).
+    *
+    * @param values
+    *           The headers or properties of the message.
+    * @param propertyGetter
+    *           The source of the property values.
+    * @return A copy of the headers or properties with the property values replaced.
+    */
+   private Properties filterValues(final Properties values, final DefaultPropertyGetter propertyGetter) {
+      if (values == null) {
+         return null;
+      }
+
+      final Properties filtered = new Properties();
+
+      for (final String name : values.stringPropertyNames()) {
+         final String value = values.getProperty(name);
+         filtered.setProperty(name, Utils.filterProperties(value, valuePattern.matcher(value), propertyGetter));
+      }
+
+      return filtered;
+   }
+
    private void preparePattern() {
       this.pattern = null;
+      this.headersFiltered = hasProperties(message.getHeaders()) || hasProperties(message.getProperties());
 
       // find out if there are any attributes in the text message to be replaced
       if (message.getPayload() instanceof String) {
@@ -94,6 +161,37 @@ public class MessageTemplate implements Serializable {
          }
       }
 
+      encodePayload();
+   }
+
+   /**
+    * Encodes the payload that does not contain any properties in advance, so that the senders can send the same bytes every time.
+    */
+   private void encodePayload() {
+      if (pattern != null || !(message.getPayload() instanceof String)) {
+         return;
+      }
+
+      final String encoding = Utils.getDefaultEncoding();
+      try {
+         message.setEncodedPayload(((String) message.getPayload()).getBytes(encoding), encoding);
+      } catch (UnsupportedEncodingException e) {
+         log.warn(String.format("Cannot encode the message payload using %s, it will be encoded by the senders.", encoding), e);
+      }
+   }
+
+   private boolean hasProperties(final Properties values) {
+      if (values == null) {
+         return false;
+      }
+
+      for (final String name : values.stringPropertyNames()) {
+         if (valuePattern.matcher(values.getProperty(name)).find()) {
+            return true;
+         }
+      }
+
+      return false;
    }
 
    public Long getMultiplicity() {
@@ -103,4 +201,34 @@ public class MessageTemplate implements Serializable {
    public List<String> getValidatorIds() {
       return validatorIds;
    }
+
+   /**
+    * Gets the think time the sender task pauses for after each sending of the message.
+    *
+    * @return The think time, or null for no pause.
+    */
+   public ThinkTime getThinkTime() {
+      return thinkTime;
+   }
+
+   /**
+    * Adds an extractor that pulls a value from the responses to this message into the session of the simulated user.
+    *
+    * @param name
+    *           The name of the session property the value is stored in.
+    * @param extractor
+    *           The extractor.
+    */
+   public void addExtractor(final String name, final Extractor extractor) {
+      extractors.put(name, extractor);
+   }
+
+   /**
+    * Gets the extractors of the values from the responses to this message.
+    *
+    * @return An immutable map of the extractors by the names of the session properties.
+    */
+   public Map<String, Extractor> getExtractors() {
+      return Collections.unmodifiableMap(extractors);
+   }
 }
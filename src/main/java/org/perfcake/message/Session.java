@@ -0,0 +1,103 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message;
+
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The state of a simulated user that persists across iterations. A session is used by a single sender task at a time,
+ * the sessions are pooled by the generator and reused by the following iterations.
+ * </p>
+ * <p>
+ * The values pulled from the responses by the extractors (see {@link org.perfcake.message.extractor.Extractor}) are stored
+ * in the session properties and they are available to all the following messages of the same user as the message properties
+ * (e.g. <code>#{token}</code>). The session also keeps the cookies of the user for the senders that support them.
+ * </p>
+ */
+public class Session {
+
+   /**
+    * The name of the property with the session identifier.
+    */
+   public static final String SESSION_ID_PROPERTY = "SessionId";
+
+   /**
+    * The generator of the session identifiers.
+    */
+   private static final AtomicLong nextId = new AtomicLong(0);
+
+   /**
+    * The identifier of the session.
+    */
+   private final long id = nextId.getAndIncrement();
+
+   /**
+    * The values extracted from the responses.
+    */
+   private final Properties properties = new Properties();
+
+   /**
+    * The cookies of the user.
+    */
+   private final CookieManager cookieManager = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+
+   /**
+    * Creates a new session.
+    */
+   public Session() {
+      properties.setProperty(SESSION_ID_PROPERTY, String.valueOf(id));
+   }
+
+   /**
+    * Gets the identifier of the session.
+    *
+    * @return The session identifier.
+    */
+   public long getId() {
+      return id;
+   }
+
+   /**
+    * Gets the properties of the session, i.e. the values extracted from the responses.
+    *
+    * @return The session properties.
+    */
+   public Properties getProperties() {
+      return properties;
+   }
+
+   /**
+    * Gets the cookie manager keeping the cookies of the user.
+    *
+    * @return The cookie manager.
+    */
+   public CookieManager getCookieManager() {
+      return cookieManager;
+   }
+
+   @Override
+   public String toString() {
+      return "Session [id=" + id + ", properties=" + properties + "]";
+   }
+}
@@ -0,0 +1,130 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * The time a simulated user pauses after sending a message before sending the next one in the same iteration.
+ * </p>
+ * <p>
+ * The think time is not included in the measured response time. The pause is either always the same, or it is drawn from a uniform
+ * distribution between zero and twice the mean, or from an exponential distribution with the given mean. The exponential distribution
+ * is capped at {@link #MAX_EXPONENTIAL_FACTOR} times the mean to avoid extremely long pauses.
+ * </p>
+ */
+public class ThinkTime implements Serializable {
+
+   private static final long serialVersionUID = -2791066733427806318L;
+
+   /**
+    * The maximal think time drawn from the exponential distribution as a multiple of the mean.
+    */
+   public static final double MAX_EXPONENTIAL_FACTOR = 10d;
+
+   /**
+    * Distributions of the think time.
+    */
+   public static enum Distribution {
+      /**
+       * Always the mean think time.
+       */
+      FIXED,
+
+      /**
+       * Uniformly distributed between zero and twice the mean think time.
+       */
+      UNIFORM,
+
+      /**
+       * Exponentially distributed with the given mean think time.
+       */
+      EXPONENTIAL
+   }
+
+   /**
+    * The mean think time in milliseconds.
+    */
+   private final long mean;
+
+   /**
+    * The distribution of the think time.
+    */
+   private final Distribution distribution;
+
+   /**
+    * Creates a new think time.
+    *
+    * @param mean
+    *           The mean think time in milliseconds.
+    * @param distribution
+    *           The distribution of the think time.
+    */
+   public ThinkTime(final long mean, final Distribution distribution) {
+      if (mean < 0) {
+         throw new IllegalArgumentException("The think time must not be negative: " + mean);
+      }
+
+      this.mean = mean;
+      this.distribution = distribution;
+   }
+
+   /**
+    * Draws a new think time from the distribution.
+    *
+    * @return The think time in milliseconds.
+    */
+   public long next() {
+      switch (distribution) {
+         case UNIFORM:
+            return Math.round(ThreadLocalRandom.current().nextDouble() * 2 * mean);
+         case EXPONENTIAL:
+            return Math.round(Math.min(-Math.log(1d - ThreadLocalRandom.current().nextDouble()), MAX_EXPONENTIAL_FACTOR) * mean);
+         case FIXED:
+         default:
+            return mean;
+      }
+   }
+
+   /**
+    * Gets the mean think time.
+    *
+    * @return The mean think time in milliseconds.
+    */
+   public long getMean() {
+      return mean;
+   }
+
+   /**
+    * Gets the distribution of the think time.
+    *
+    * @return The distribution.
+    */
+   public Distribution getDistribution() {
+      return distribution;
+   }
+
+   @Override
+   public String toString() {
+      return distribution.name().toLowerCase() + " " + mean + " ms";
+   }
+}
@@ -0,0 +1,40 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.extractor;
+
+/**
+ * A contract of an extractor that pulls a value from a response. The value is stored in the session of the simulated user
+ * (see {@link org.perfcake.message.Session}) under the name of the extractor and it can be used in the following messages
+ * as a property (e.g. <code>#{token}</code>). The extractors are shared by all the threads, so they must be thread safe.
+ * Any expensive preparation (e.g. compiling an expression) should be done just once when the extractor is configured.
+ */
+public interface Extractor {
+
+   /**
+    * Extracts a value from the response.
+    *
+    * @param response
+    *           The response payload.
+    * @return The extracted value, or null if the response does not contain it.
+    * @throws Exception
+    *            When it was not possible to process the response.
+    */
+   public String extract(String response) throws Exception;
+}
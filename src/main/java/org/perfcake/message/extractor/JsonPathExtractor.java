@@ -0,0 +1,292 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * An extractor that gets a value from a JSON response using a simple JSONPath. The path starts with <code>$</code> followed by
+ * the names of the object members (<code>.name</code> or <code>['name']</code>) and the indexes of the array elements
+ * (<code>[0]</code>), e.g. <code>$.data.items[0].token</code>. Wildcards, filters and recursive descent are not supported.
+ * </p>
+ * <p>
+ * The path is parsed once when it is set. The response is not parsed to a tree, it is scanned only up to the selected value
+ * and the members and elements not on the path are just skipped. A string value is extracted unescaped, a number or a boolean
+ * as it is, an object or an array as its JSON text. A null value is treated as no value.
+ * </p>
+ */
+public class JsonPathExtractor implements Extractor {
+
+   /**
+    * The path.
+    */
+   private String path;
+
+   /**
+    * The steps of the parsed path, either member names or element indexes.
+    */
+   private List<Object> steps = new ArrayList<>();
+
+   /**
+    * The position in the response being scanned.
+    */
+   private static class Cursor {
+
+      private final String json;
+
+      private int pos = 0;
+
+      private Cursor(final String json) {
+         this.json = json;
+      }
+
+      private char peek() {
+         skipWhitespace();
+         if (pos >= json.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON.");
+         }
+         return json.charAt(pos);
+      }
+
+      private void expect(final char c) {
+         if (peek() != c) {
+            throw new IllegalArgumentException(String.format("Expected '%c' at position %d of JSON.", c, pos));
+         }
+         pos++;
+      }
+
+      private void skipWhitespace() {
+         while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+         }
+      }
+
+      /**
+       * Reads a string starting at the current position.
+       *
+       * @return The unescaped string.
+       */
+      private String readString() {
+         expect('"');
+         final StringBuilder sb = new StringBuilder();
+
+         while (pos < json.length()) {
+            final char c = json.charAt(pos++);
+            if (c == '"') {
+               return sb.toString();
+            } else if (c == '\\') {
+               final char e = json.charAt(pos++);
+               switch (e) {
+                  case 'b':
+                     sb.append('\b');
+                     break;
+                  case 'f':
+                     sb.append('\f');
+                     break;
+                  case 'n':
+                     sb.append('\n');
+                     break;
+                  case 'r':
+                     sb.append('\r');
+                     break;
+                  case 't':
+                     sb.append('\t');
+                     break;
+                  case 'u':
+                     sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                     pos += 4;
+                     break;
+                  default:
+                     sb.append(e);
+               }
+            } else {
+               sb.append(c);
+            }
+         }
+
+         throw new IllegalArgumentException("Unterminated string in JSON.");
+      }
+
+      /**
+       * Skips the value starting at the current position.
+       */
+      private void skipValue() {
+         final char c = peek();
+
+         if (c == '"') {
+            readString();
+         } else if (c == '{' || c == '[') {
+            int depth = 0;
+            boolean inString = false;
+            while (pos < json.length()) {
+               final char d = json.charAt(pos++);
+               if (inString) {
+                  if (d == '\\') {
+                     pos++;
+                  } else if (d == '"') {
+                     inString = false;
+                  }
+               } else if (d == '"') {
+                  inString = true;
+               } else if (d == '{' || d == '[') {
+                  depth++;
+               } else if ((d == '}' || d == ']') && --depth == 0) {
+                  return;
+               }
+            }
+            throw new IllegalArgumentException("Unterminated object or array in JSON.");
+         } else {
+            while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+               pos++;
+            }
+         }
+      }
+
+      /**
+       * Moves to the value of the object member with the given name.
+       *
+       * @param name
+       *           The member name.
+       * @return True if the member was found.
+       */
+      private boolean member(final String name) {
+         if (peek() != '{') {
+            return false;
+         }
+         pos++;
+
+         if (peek() == '}') {
+            return false;
+         }
+         while (true) {
+            final String key = readString();
+            expect(':');
+            if (key.equals(name)) {
+               return true;
+            }
+            skipValue();
+            if (peek() != ',') {
+               return false;
+            }
+            pos++;
+         }
+      }
+
+      /**
+       * Moves to the array element with the given index.
+       *
+       * @param index
+       *           The element index.
+       * @return True if the element was found.
+       */
+      private boolean element(final int index) {
+         if (peek() != '[') {
+            return false;
+         }
+         pos++;
+
+         if (peek() == ']') {
+            return false;
+         }
+         for (int i = 0; i < index; i++) {
+            skipValue();
+            if (peek() != ',') {
+               return false;
+            }
+            pos++;
+         }
+
+         return true;
+      }
+   }
+
+   @Override
+   public String extract(final String response) {
+      final Cursor cursor = new Cursor(response);
+
+      for (final Object step : steps) {
+         if (step instanceof Integer ? !cursor.element((Integer) step) : !cursor.member((String) step)) {
+            return null;
+         }
+      }
+
+      final char c = cursor.peek();
+      if (c == '"') {
+         return cursor.readString();
+      }
+
+      final int start = cursor.pos;
+      cursor.skipValue();
+      final String value = response.substring(start, cursor.pos);
+
+      return "null".equals(value) ? null : value;
+   }
+
+   /**
+    * Used to read the value of path.
+    *
+    * @return The path.
+    */
+   public String getPath() {
+      return path;
+   }
+
+   /**
+    * Sets the value of path. The path is parsed immediately.
+    *
+    * @param path
+    *           The path.
+    */
+   public void setPath(final String path) {
+      final List<Object> parsed = new ArrayList<>();
+      int pos = path.startsWith("$") ? 1 : 0;
+
+      while (pos < path.length()) {
+         final char c = path.charAt(pos);
+         if (c == '.') {
+            int end = pos + 1;
+            while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+               end++;
+            }
+            parsed.add(path.substring(pos + 1, end));
+            pos = end;
+         } else if (c == '[') {
+            final int end = path.indexOf(']', pos);
+            if (end < 0) {
+               throw new IllegalArgumentException("Unterminated bracket in the JSON path: " + path);
+            }
+            final String step = path.substring(pos + 1, end).trim();
+            if (step.startsWith("'") && step.endsWith("'") && step.length() >= 2) {
+               parsed.add(step.substring(1, step.length() - 1));
+            } else {
+               parsed.add(Integer.valueOf(step));
+            }
+            pos = end + 1;
+         } else {
+            throw new IllegalArgumentException(String.format("Unexpected character '%c' at position %d of the JSON path: %s", c, pos, path));
+         }
+      }
+
+      this.path = path;
+      this.steps = parsed;
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.extractor;
+
+import org.w3c.dom.Element;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An extractor that finds the first match of a regular expression in the response. The value of the given {@link #group}
+ * is extracted, the first group is used by default when the pattern contains any, otherwise the whole match.
+ */
+public class RegExpExtractor implements Extractor {
+
+   /**
+    * The compiled pattern.
+    */
+   private Pattern pattern;
+
+   /**
+    * The group of the match to be extracted, or -1 for the default.
+    */
+   private int group = -1;
+
+   @Override
+   public String extract(final String response) {
+      final Matcher matcher = pattern.matcher(response);
+      if (!matcher.find()) {
+         return null;
+      }
+
+      return matcher.group(group < 0 ? Math.min(1, matcher.groupCount()) : group);
+   }
+
+   /**
+    * Used to read the value of pattern.
+    *
+    * @return The regular expression, or null when it is not set.
+    */
+   public String getPattern() {
+      return pattern == null ? null : pattern.pattern();
+   }
+
+   /**
+    * Sets the value of pattern. The regular expression is compiled immediately, the dot matches the line terminators as well.
+    *
+    * @param pattern
+    *           The regular expression.
+    */
+   public void setPattern(final String pattern) {
+      this.pattern = Pattern.compile(pattern, Pattern.DOTALL);
+   }
+
+   /**
+    * Sets the value of pattern from the text content of an XML element, so that the expression does not need to be escaped
+    * in an attribute.
+    *
+    * @param pattern
+    *           The XML element with the regular expression.
+    */
+   public void setPattern(final Element pattern) {
+      setPattern(pattern.getTextContent());
+   }
+
+   /**
+    * Used to read the value of group.
+    *
+    * @return The group of the match to be extracted, or -1 for the default.
+    */
+   public int getGroup() {
+      return group;
+   }
+
+   /**
+    * Sets the value of group.
+    *
+    * @param group
+    *           The group of the match to be extracted, 0 for the whole match.
+    */
+   public void setGroup(final int group) {
+      this.group = group;
+   }
+}
@@ -0,0 +1,83 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.extractor;
+
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * An extractor that evaluates an XPath expression on an XML response. The expression is compiled once for each thread
+ * that uses the extractor as the compiled expressions are not thread safe. An empty result is treated as no value.
+ */
+public class XPathExtractor implements Extractor {
+
+   /**
+    * The XPath expression.
+    */
+   private String expression;
+
+   /**
+    * The expression compiled for the current thread.
+    */
+   private final ThreadLocal<XPathExpression> compiled = new ThreadLocal<XPathExpression>() {
+      @Override
+      protected XPathExpression initialValue() {
+         try {
+            return XPathFactory.newInstance().newXPath().compile(expression);
+         } catch (XPathExpressionException e) {
+            throw new IllegalStateException("Invalid XPath expression: " + expression, e);
+         }
+      }
+   };
+
+   @Override
+   public String extract(final String response) throws XPathExpressionException {
+      final String value = compiled.get().evaluate(new InputSource(new StringReader(response)));
+
+      return value == null || value.isEmpty() ? null : value;
+   }
+
+   /**
+    * Used to read the value of expression.
+    *
+    * @return The XPath expression.
+    */
+   public String getExpression() {
+      return expression;
+   }
+
+   /**
+    * Sets the value of expression. The expression is validated immediately.
+    *
+    * @param expression
+    *           The XPath expression.
+    * @throws XPathExpressionException
+    *            When the expression is not valid.
+    */
+   public void setExpression(final String expression) throws XPathExpressionException {
+      XPathFactory.newInstance().newXPath().compile(expression);
+      this.expression = expression;
+      compiled.remove();
+   }
+}
@@ -19,16 +19,25 @@
  */
 package org.perfcake.message.generator;
 
+import org.apache.log4j.Logger;
 import org.perfcake.PerfCakeException;
 import org.perfcake.RunInfo;
 import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.Session;
 import org.perfcake.message.sender.MessageSender;
 import org.perfcake.message.sender.MessageSenderManager;
 import org.perfcake.reporting.ReportManager;
+import org.perfcake.util.Utils;
 import org.perfcake.validation.ValidationManager;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
@@ -38,11 +47,36 @@ import java.util.concurrent.ThreadPoolExecutor;
  * <p>
  * The generator should also have the ability to tag messages by the sequence number that indicated the order of messages.
  * </p>
+ * <p>
+ * When any of the messages has an extractor, or the sessions are enabled explicitly, each iteration is run in a {@link Session} of a simulated user.
+ * The sessions are pooled and reused by the following iterations, so the values extracted from the responses and the cookies persist across
+ * the iterations. A new session is created whenever all the existing ones are in use, i.e. their number follows the number of concurrent iterations.
+ * </p>
  * 
  * @author Pavel Macík <pavel.macik@gmail.com>
  */
 public abstract class AbstractMessageGenerator {
 
+   /**
+    * The generator's logger.
+    */
+   private static final Logger log = Logger.getLogger(AbstractMessageGenerator.class);
+
+   /**
+    * Types of threads the generator can use to run the {@link SenderTask sender tasks}.
+    */
+   public static enum ThreadType {
+      /**
+       * Ordinary threads backed by operating system threads.
+       */
+      PLATFORM,
+
+      /**
+       * Virtual threads that are cheap to block. These are available since Java 21, platform threads are used on older JVMs.
+       */
+      VIRTUAL
+   }
+
    /**
     * Message sender manager.
     */
@@ -69,10 +103,20 @@ public abstract class AbstractMessageGenerator {
    private int threads = 1;
 
    /**
-    * The executor service used to run the threads.
+    * The type of threads used to run the sender tasks.
+    */
+   private ThreadType threadType = ThreadType.PLATFORM;
+
+   /**
+    * The thread pool used to run the sender tasks in platform threads, <code>null</code> when virtual threads are used.
     */
    protected ThreadPoolExecutor executorService;
 
+   /**
+    * The executor running each sender task in a new virtual thread, <code>null</code> when platform threads are used.
+    */
+   private ThreadPerTaskExecutor virtualThreadExecutor;
+
    /**
     * The property of the generator indicating whether the message numbering feature is enabled or disabled.
     */
@@ -83,6 +127,17 @@ public abstract class AbstractMessageGenerator {
     */
    protected RunInfo runInfo;
 
+   /**
+    * Indicates whether each iteration is run in a session of a simulated user even when there are no extractors in the messages
+    * (e.g. to keep the cookies).
+    */
+   private boolean sessionsEnabled = false;
+
+   /**
+    * The pool of the sessions of the simulated users, or null when the sessions are not used.
+    */
+   private Queue<Session> sessions;
+
    /**
     * Initialize the generator. During the initialization the {@link #messageSenderManager} is initialized as well.
     * 
@@ -96,6 +151,15 @@ public abstract class AbstractMessageGenerator {
       this.messageStore = messageStore;
       this.messageSenderManager = messageSenderManager;
       this.messageSenderManager.init();
+
+      sessions = null;
+      boolean extractors = false;
+      for (final MessageTemplate messageTemplate : messageStore) {
+         extractors = extractors || !messageTemplate.getExtractors().isEmpty();
+      }
+      if (sessionsEnabled || extractors) {
+         sessions = new ConcurrentLinkedQueue<>();
+      }
    }
 
    protected SenderTask newSenderTask(Semaphore semaphore) {
@@ -106,10 +170,106 @@ public abstract class AbstractMessageGenerator {
       task.setSenderManager(messageSenderManager);
       task.setValidationManager(validationManager);
       task.setMessageNumberingEnabled(isMessageNumberingEnabled());
+      task.setSessions(sessions);
 
       return task;
    }
 
+   /**
+    * Creates a new executor service running at most the given number of tasks at the same time in threads of the configured {@link ThreadType}.
+    * Platform threads are pooled in {@link #executorService}. Virtual threads are not pooled, each task runs in a new virtual thread,
+    * so the number of threads represents the logical concurrency and can be much higher than what would be possible with platform threads.
+    * 
+    * @param threads
+    *           The number of threads.
+    */
+   protected void createExecutorService(final int threads) {
+      virtualThreadExecutor = null;
+      executorService = null;
+
+      if (threadType == ThreadType.VIRTUAL) {
+         final ThreadFactory virtualThreadFactory = newVirtualThreadFactory();
+         if (virtualThreadFactory != null) {
+            virtualThreadExecutor = new ThreadPerTaskExecutor(threads, virtualThreadFactory);
+            return;
+         }
+      }
+
+      executorService = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+   }
+
+   /**
+    * Gets the executor service running the sender tasks, either {@link #executorService} or the executor of virtual threads.
+    * 
+    * @return The executor service.
+    */
+   protected ExecutorService getExecutorService() {
+      return virtualThreadExecutor != null ? virtualThreadExecutor : executorService;
+   }
+
+   /**
+    * Creates a factory of virtual threads.
+    * 
+    * @return The thread factory, or null when virtual threads are not supported by the current JVM.
+    */
+   private ThreadFactory newVirtualThreadFactory() {
+      // virtual threads are accessed reflectively to keep the compatibility with older JVMs
+      try {
+         final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+         Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+         builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "PerfCake-virtual-", 0L);
+
+         return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+         log.warn("Virtual threads are not supported by the current JVM, using platform threads instead.");
+         return null;
+      }
+   }
+
+   /**
+    * Gets the number of the sender tasks being executed by {@link #getExecutorService()}.
+    * 
+    * @return The number of the running tasks.
+    */
+   protected int getActiveCount() {
+      if (virtualThreadExecutor != null) {
+         return virtualThreadExecutor.getActiveCount();
+      }
+
+      return executorService.getActiveCount();
+   }
+
+   /**
+    * Gets the number of the sender tasks waiting for a thread in {@link #getExecutorService()}.
+    * 
+    * @return The number of the waiting tasks.
+    */
+   protected int getQueueSize() {
+      if (virtualThreadExecutor != null) {
+         return virtualThreadExecutor.getQueueSize();
+      }
+
+      return executorService.getQueue().size();
+   }
+
+   /**
+    * Changes the number of the sender tasks {@link #getExecutorService()} runs at the same time.
+    * 
+    * @param threads
+    *           The new number of threads.
+    */
+   protected void resizeExecutorService(final int threads) {
+      if (virtualThreadExecutor != null) {
+         virtualThreadExecutor.setLimit(threads);
+      } else if (threads > executorService.getMaximumPoolSize()) { // the maximum must never be lower than the core size
+         executorService.setMaximumPoolSize(threads);
+         executorService.setCorePoolSize(threads);
+      } else {
+         executorService.setCorePoolSize(threads);
+         executorService.setMaximumPoolSize(threads);
+      }
+   }
+
    /**
     * Sets the message sender manager.
     * 
@@ -199,6 +359,20 @@ public abstract class AbstractMessageGenerator {
       // override if needed
    }
 
+   /**
+    * Adjusts the generator to generate only its share of the load when the scenario is distributed among several workers
+    * (see {@link org.perfcake.distributed.Worker}). The threads are divided among the workers by default, the generators
+    * with other means of controlling the load should override this.
+    * 
+    * @param index
+    *           The index of this worker starting from 0.
+    * @param count
+    *           The number of workers.
+    */
+   public void split(final int index, final int count) {
+      setThreads(Math.max(1, (int) Utils.share(threads, index, count)));
+   }
+
    /**
     * Used to read the value of threads.
     * 
@@ -240,6 +414,45 @@ public abstract class AbstractMessageGenerator {
       this.messageNumberingEnabled = messageNumberingEnabled;
    }
 
+   /**
+    * Used to read the type of threads used to run the sender tasks.
+    * 
+    * @return The thread type.
+    */
+   public ThreadType getThreadType() {
+      return threadType;
+   }
+
+   /**
+    * Sets the type of threads used to run the sender tasks.
+    * 
+    * @param threadType
+    *           The thread type.
+    */
+   public void setThreadType(final ThreadType threadType) {
+      this.threadType = threadType;
+   }
+
+   /**
+    * Checks whether each iteration is run in a session of a simulated user even when there are no extractors in the messages.
+    * 
+    * @return True if the sessions are enabled.
+    */
+   public boolean isSessionsEnabled() {
+      return sessionsEnabled;
+   }
+
+   /**
+    * Enables the sessions of the simulated users even when there are no extractors in the messages (e.g. to keep the cookies).
+    * The sessions are always used when any of the messages has an extractor.
+    * 
+    * @param sessionsEnabled
+    *           True to enable the sessions.
+    */
+   public void setSessionsEnabled(final boolean sessionsEnabled) {
+      this.sessionsEnabled = sessionsEnabled;
+   }
+
    public void setValidationManager(final ValidationManager validationManager) {
       this.validationManager = validationManager;
    }
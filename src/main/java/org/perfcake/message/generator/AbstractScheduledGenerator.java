@@ -0,0 +1,169 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.apache.log4j.Logger;
+import org.perfcake.common.PeriodType;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * The common ancestor of the generators that send each message at its intended send time no matter how fast the target responds
+ * (an open workload model). The subclasses compute the intended send times (see {@link #nextArrivalTime(long)}).
+ * </p>
+ * <p>
+ * The {@link SenderTask sender tasks} are scheduled at their intended send times. When the target slows down, the tasks wait
+ * in the internal thread queue and their response time is measured from the intended send time. This way the time spent
+ * in the queue behind slow requests is included in the results instead of being hidden by the generator slowing down.
+ * </p>
+ */
+public abstract class AbstractScheduledGenerator extends DefaultMessageGenerator {
+
+   /**
+    * The generator's logger.
+    */
+   private static final Logger log = Logger.getLogger(AbstractScheduledGenerator.class);
+
+   /**
+    * The number of nanoseconds before the scheduled time when the generator stops parking and starts spinning to hit the time precisely.
+    */
+   private static final long SPIN_THRESHOLD = 50_000;
+
+   /**
+    * The time when the generation started as obtained from {@link System#nanoTime()}. Written and read by the generating thread only.
+    */
+   protected long startNanoTime;
+
+   /**
+    * Set to true once the generator warned about the thread queue growing over its configured size.
+    */
+   private boolean queueWarningLogged = false;
+
+   @Override
+   public void generate() throws Exception {
+      log.info("Starting to generate...");
+      createExecutorService(getThreads());
+      runInfo.setThreads(getThreads());
+      setStartTime();
+
+      final boolean iterationBound = runInfo.getDuration().getPeriodType() == PeriodType.ITERATION;
+      final long iterations = runInfo.getDuration().getPeriod();
+      long scheduled = 0;
+      startNanoTime = System.nanoTime();
+      long next = firstArrivalTime();
+      final long end = startNanoTime + (iterationBound ? 0 : runInfo.getDuration().getPeriod() * 1_000_000);
+
+      while (runInfo.isRunning() && (!iterationBound || scheduled < iterations) && hasMoreArrivals()) {
+         waitUntil(iterationBound || next - end < 0 ? next : end); // do not wait for a message after the end of the run
+
+         // submit all tasks that are due, this catches up with the schedule when the generator itself was delayed
+         final long now = System.nanoTime();
+         while (next - now <= 0 && (!iterationBound || scheduled < iterations) && hasMoreArrivals()) {
+            submitTask(next);
+            scheduled++;
+            next = nextArrivalTime(next);
+         }
+      }
+
+      log.info("Reached test end.");
+      shutdown(iterationBound || !hasMoreArrivals()); // the messages scheduled before running out of them must be reported
+   }
+
+   /**
+    * Computes the intended time of sending the first message. This is the start of the generation by default.
+    *
+    * @return The intended time of sending the first message as obtained from {@link System#nanoTime()}.
+    */
+   protected long firstArrivalTime() {
+      return startNanoTime;
+   }
+
+   /**
+    * Computes the intended time of sending the next message.
+    *
+    * @param lastArrivalTime
+    *           The intended time of sending the previous message as obtained from {@link System#nanoTime()}.
+    * @return The intended time of sending the next message.
+    */
+   protected abstract long nextArrivalTime(final long lastArrivalTime);
+
+   /**
+    * Checks whether there are any more messages to be sent. The generation ends when this returns false even before the end of
+    * the configured run duration.
+    *
+    * @return True if {@link #nextArrivalTime(long)} returned a valid time of sending the next message.
+    */
+   protected boolean hasMoreArrivals() {
+      return true;
+   }
+
+   /**
+    * Submits a new {@link SenderTask} that is supposed to send the message at the given time.
+    *
+    * @param scheduledTime
+    *           The intended time of sending the message as obtained from {@link System#nanoTime()}.
+    */
+   protected void submitTask(final long scheduledTime) {
+      submitTask(newSenderTask(null), scheduledTime);
+   }
+
+   /**
+    * Submits the given {@link SenderTask} that is supposed to send the message at the given time.
+    *
+    * @param task
+    *           The task to submit.
+    * @param scheduledTime
+    *           The intended time of sending the message as obtained from {@link System#nanoTime()}.
+    */
+   protected void submitTask(final SenderTask task, final long scheduledTime) {
+      task.setScheduledTime(scheduledTime);
+      execute(task);
+
+      if (!queueWarningLogged && getQueueSize() > threadQueueSize) {
+         queueWarningLogged = true;
+         log.warn(String.format("The target cannot keep up with the load, there are more than %d messages waiting in the thread queue.", threadQueueSize));
+      }
+   }
+
+   /**
+    * Waits until the given time. The thread is parked for most of the time and spins for the last few microseconds to
+    * achieve a sub-millisecond precision.
+    *
+    * @param deadline
+    *           The time to wait for as obtained from {@link System#nanoTime()}.
+    * @throws InterruptedException
+    *            When the waiting thread was interrupted.
+    */
+   protected static void waitUntil(final long deadline) throws InterruptedException {
+      long remaining = deadline - System.nanoTime();
+      while (remaining > SPIN_THRESHOLD) {
+         LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         remaining = deadline - System.nanoTime();
+      }
+
+      while (deadline - System.nanoTime() > 0) {
+         // spin
+      }
+   }
+}
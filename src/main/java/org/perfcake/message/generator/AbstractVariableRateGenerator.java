@@ -0,0 +1,64 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+/**
+ * <p>
+ * The common ancestor of the scheduled generators whose rate of the messages changes in time as given by {@link #rateAt(long)}.
+ * The intended send time of the next message is computed by integrating the rate in small steps until it accounts for exactly one message.
+ * </p>
+ */
+public abstract class AbstractVariableRateGenerator extends AbstractScheduledGenerator {
+
+   /**
+    * The maximal time step in nanoseconds used to integrate a rate changing in time.
+    */
+   private static final long MAX_RATE_STEP = 10_000_000;
+
+   /**
+    * The maximal interval in nanoseconds between two messages when the rate changes in time. This prevents endless computation
+    * when the rate stays at zero.
+    */
+   private static final long MAX_RATE_INTERVAL = 3_600_000_000_000L;
+
+   @Override
+   protected long nextArrivalTime(final long lastArrivalTime) {
+      long next = lastArrivalTime;
+      double credit = 0; // the number of messages that should have been sent since the last one
+
+      while (credit < 1d && hasMoreArrivals() && next - lastArrivalTime < MAX_RATE_INTERVAL) {
+         final double currentRate = rateAt(next);
+         final long step = currentRate <= 0 ? MAX_RATE_STEP : Math.max(1, Math.min(MAX_RATE_STEP, Math.round((1d - credit) * 1_000_000_000d / currentRate)));
+         credit += Math.max(0, currentRate) * step / 1_000_000_000d;
+         next += step;
+      }
+
+      return next;
+   }
+
+   /**
+    * Gets the target rate at the given time.
+    *
+    * @param time
+    *           The time as obtained from {@link System#nanoTime()}.
+    * @return The rate in messages per second.
+    */
+   protected abstract double rateAt(final long time);
+}
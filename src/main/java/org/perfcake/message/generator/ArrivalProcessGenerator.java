@@ -0,0 +1,258 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import java.util.Random;
+
+/**
+ * <p>
+ * Generator that sends messages in random intervals simulating the arrivals of independent clients (a Poisson process).
+ * </p>
+ * <p>
+ * The intervals between two messages are drawn from the exponential distribution. The rate of the arrivals is either constant
+ * and equal to {@link #rate}, or it changes in time according to the configured {@link Distribution}:
+ * </p>
+ * <ul>
+ * <li>{@link Distribution#EXPONENTIAL} - a constant rate,</li>
+ * <li>{@link Distribution#ON_OFF} - bursts of messages at the given rate for {@link #onPeriod} milliseconds, followed by silence
+ * for {@link #offPeriod} milliseconds,</li>
+ * <li>{@link Distribution#SINUSOIDAL} - the rate oscillates around {@link #rate} by {@link #amplitude} with the given {@link #period}.</li>
+ * </ul>
+ * <p>
+ * The messages are scheduled in the same way as in {@link ConstantRateGenerator}, so the response time includes the time the
+ * message waited for a free thread.
+ * </p>
+ */
+public class ArrivalProcessGenerator extends ConstantRateGenerator {
+
+   /**
+    * Shapes of the arrival rate.
+    */
+   public static enum Distribution {
+      /**
+       * Constant rate of arrivals.
+       */
+      EXPONENTIAL,
+
+      /**
+       * Periodical bursts of arrivals with the silence in between.
+       */
+      ON_OFF,
+
+      /**
+       * Rate of arrivals changing as a sine wave.
+       */
+      SINUSOIDAL
+   }
+
+   /**
+    * The shape of the arrival rate.
+    */
+   private Distribution distribution = Distribution.EXPONENTIAL;
+
+   /**
+    * The duration of a burst in milliseconds.
+    */
+   private long onPeriod = 1000;
+
+   /**
+    * The duration of a silence between two bursts in milliseconds.
+    */
+   private long offPeriod = 1000;
+
+   /**
+    * The period of the sine wave in milliseconds.
+    */
+   private long period = 60_000;
+
+   /**
+    * The amplitude of the sine wave in messages per second.
+    */
+   private double amplitude = 0;
+
+   /**
+    * The source of randomness, it is used only by the generating thread.
+    */
+   private final Random random = new Random();
+
+   @Override
+   public void generate() throws Exception {
+      if (distribution == Distribution.ON_OFF && (onPeriod <= 0 || offPeriod < 0)) {
+         throw new IllegalStateException(String.format("%s requires a positive onPeriod and a non-negative offPeriod.", getClass().getName()));
+      }
+      if (distribution == Distribution.SINUSOIDAL && period <= 0) {
+         throw new IllegalStateException(String.format("%s requires a positive period.", getClass().getName()));
+      }
+
+      super.generate();
+   }
+
+   @Override
+   protected long nextArrivalTime(final long lastArrivalTime) {
+      long next = lastArrivalTime;
+
+      switch (distribution) {
+         case ON_OFF:
+            next += exponential(rate);
+
+            final long cycle = (onPeriod + offPeriod) * 1_000_000;
+            final long inCycle = (next - startNanoTime) % cycle;
+            if (inCycle >= onPeriod * 1_000_000) { // postpone the message to the beginning of the next burst
+               next += cycle - inCycle;
+            }
+            break;
+         case SINUSOIDAL:
+            // thinning, draw the arrivals at the maximal rate and drop some of them to follow the current rate
+            final double maxRate = rate + Math.abs(amplitude);
+            do {
+               next += exponential(maxRate);
+            } while (random.nextDouble() * maxRate > sineRateAt(next));
+            break;
+         case EXPONENTIAL:
+         default:
+            next += exponential(rate);
+      }
+
+      return next;
+   }
+
+   @Override
+   public void split(final int index, final int count) {
+      super.split(index, count);
+      amplitude = amplitude / count;
+   }
+
+   /**
+    * Computes the rate of the sine wave at the given time.
+    *
+    * @param time
+    *           The time as obtained from {@link System#nanoTime()}.
+    * @return The rate in messages per second.
+    */
+   private double sineRateAt(final long time) {
+      return rate + amplitude * Math.sin(2 * Math.PI * (time - startNanoTime) / (period * 1_000_000d));
+   }
+
+   /**
+    * Draws a random interval between two arrivals from the exponential distribution.
+    *
+    * @param rate
+    *           The rate of the arrivals in messages per second.
+    * @return The interval in nanoseconds.
+    */
+   private long exponential(final double rate) {
+      return Math.round(-Math.log(1d - random.nextDouble()) * 1_000_000_000d / rate);
+   }
+
+   /**
+    * Used to read the shape of the arrival rate.
+    *
+    * @return The distribution.
+    */
+   public Distribution getDistribution() {
+      return distribution;
+   }
+
+   /**
+    * Sets the shape of the arrival rate.
+    *
+    * @param distribution
+    *           The distribution.
+    */
+   public void setDistribution(final Distribution distribution) {
+      this.distribution = distribution;
+   }
+
+   /**
+    * Used to read the duration of a burst.
+    *
+    * @return The duration of a burst in milliseconds.
+    */
+   public long getOnPeriod() {
+      return onPeriod;
+   }
+
+   /**
+    * Sets the duration of a burst.
+    *
+    * @param onPeriod
+    *           The duration of a burst in milliseconds.
+    */
+   public void setOnPeriod(final long onPeriod) {
+      this.onPeriod = onPeriod;
+   }
+
+   /**
+    * Used to read the duration of a silence between two bursts.
+    *
+    * @return The duration of a silence in milliseconds.
+    */
+   public long getOffPeriod() {
+      return offPeriod;
+   }
+
+   /**
+    * Sets the duration of a silence between two bursts.
+    *
+    * @param offPeriod
+    *           The duration of a silence in milliseconds.
+    */
+   public void setOffPeriod(final long offPeriod) {
+      this.offPeriod = offPeriod;
+   }
+
+   /**
+    * Used to read the period of the sine wave.
+    *
+    * @return The period in milliseconds.
+    */
+   public long getPeriod() {
+      return period;
+   }
+
+   /**
+    * Sets the period of the sine wave.
+    *
+    * @param period
+    *           The period in milliseconds.
+    */
+   public void setPeriod(final long period) {
+      this.period = period;
+   }
+
+   /**
+    * Used to read the amplitude of the sine wave.
+    *
+    * @return The amplitude in messages per second.
+    */
+   public double getAmplitude() {
+      return amplitude;
+   }
+
+   /**
+    * Sets the amplitude of the sine wave.
+    *
+    * @param amplitude
+    *           The amplitude in messages per second.
+    */
+   public void setAmplitude(final double amplitude) {
+      this.amplitude = amplitude;
+   }
+}
@@ -0,0 +1,76 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+/**
+ * <p>
+ * Generator that sends messages at a constant rate no matter how fast the target responds (an open workload model).
+ * </p>
+ * <p>
+ * The messages are scheduled as described in {@link AbstractScheduledGenerator}, so the time spent in the internal thread queue
+ * behind slow requests is included in the results.
+ * </p>
+ */
+public class ConstantRateGenerator extends AbstractScheduledGenerator {
+
+   /**
+    * The target rate in messages per second.
+    */
+   protected double rate = 1000;
+
+   @Override
+   public void generate() throws Exception {
+      if (rate <= 0) {
+         throw new IllegalStateException(String.format("%s requires a positive rate, but %f was configured.", getClass().getName(), rate));
+      }
+
+      super.generate();
+   }
+
+   @Override
+   protected long nextArrivalTime(final long lastArrivalTime) {
+      return lastArrivalTime + Math.round(1_000_000_000d / rate);
+   }
+
+   @Override
+   public void split(final int index, final int count) {
+      super.split(index, count);
+      rate = rate / count;
+   }
+
+   /**
+    * Used to read the target rate.
+    *
+    * @return The target rate in messages per second.
+    */
+   public double getRate() {
+      return rate;
+   }
+
+   /**
+    * Sets the target rate.
+    *
+    * @param rate
+    *           The target rate in messages per second.
+    */
+   public void setRate(final double rate) {
+      this.rate = rate;
+   }
+}
@@ -21,11 +21,10 @@ package org.perfcake.message.generator;
 
 import org.apache.log4j.Logger;
 import org.perfcake.common.PeriodType;
+import org.perfcake.message.MessageTemplate;
 import org.perfcake.reporting.ReportManager;
 
-import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -58,8 +57,24 @@ public class DefaultMessageGenerator extends AbstractMessageGenerator {
     */
    protected int threadQueueSize = 1000; // default
 
+   /**
+    * The maximal time in milliseconds to wait for the submitted sender tasks to finish at the end of the measurement.
+    * A negative value means no limit.
+    */
+   protected long drainTimeout = -1; // default no limit
+
+   /**
+    * The number of sender tasks abandoned at the end of the last measurement because they did not finish in {@link #drainTimeout}.
+    */
+   private int abandonedTasks = 0;
+
    private Semaphore semaphore;
 
+   /**
+    * Keeps the sender tasks pausing for the think times of the messages, created only when there are any think times.
+    */
+   private ThinkTimeScheduler thinkTimeScheduler;
+
    @Override
    public void setReportManager(final ReportManager reportManager) {
       super.setReportManager(reportManager);
@@ -77,27 +92,82 @@ public class DefaultMessageGenerator extends AbstractMessageGenerator {
       }
 
       if (semaphore.tryAcquire(monitoringPeriod, TimeUnit.MILLISECONDS)) {
-         executorService.submit(newSenderTask(semaphore));
+         execute(newSenderTask(semaphore));
+      }
+   }
+
+   /**
+    * Submits the sender task to the executor service. When any of the messages has a think time, the task is parked
+    * in a {@link ThinkTimeScheduler} during the think time instead of blocking its thread. A task submitted with a semaphore
+    * holds its permit while it is parked, so {@link #threadQueueSize} limits the number of simulated users as well.
+    * 
+    * @param task
+    *           The task to submit.
+    */
+   protected void execute(final SenderTask task) {
+      if (thinkTimeScheduler == null && hasThinkTimes()) {
+         thinkTimeScheduler = new ThinkTimeScheduler(getExecutorService());
+      }
+
+      if (thinkTimeScheduler != null) {
+         task.setThinkTimeScheduler(thinkTimeScheduler);
+         thinkTimeScheduler.submitted();
       }
+      getExecutorService().execute(task);
    }
 
    /**
-    * Adaptive termination of sender tasks. Waits for tasks to be finished. While they are some tasks remaining and some of them get terminated, keep waiting.
+    * Checks whether any of the messages has a think time.
+    * 
+    * @return True if and only if there is a message with a think time.
+    */
+   private boolean hasThinkTimes() {
+      for (final MessageTemplate messageTemplate : messageStore) {
+         if (messageTemplate.getThinkTime() != null && messageTemplate.getThinkTime().getMean() > 0) {
+            return true;
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * Waits for all the submitted sender tasks to finish. The executor service terminates exactly at the moment the last queued or running
+    * task finishes, so there is no polling. The tasks parked for a think time are waited for first, unless the measurement has already been
+    * stopped and their results would not be reported anyway. The tasks that do not finish in {@link #drainTimeout} are abandoned and their
+    * number is logged.
     * 
     * @throws InterruptedException
+    *            When waiting for the tasks was interrupted.
     */
-   private void adaptiveTermination() throws InterruptedException {
-      executorService.shutdown();
-      int active = executorService.getActiveCount(), lastActive = 0;
+   private void drain() throws InterruptedException {
+      final long end = System.currentTimeMillis() + drainTimeout;
+      abandonedTasks = 0;
 
-      while (active > 0 && lastActive != active) { // make sure the threads arSubmitinge finishing
-         lastActive = active;
-         executorService.awaitTermination(monitoringPeriod, TimeUnit.MILLISECONDS);
-         active = executorService.getActiveCount();
+      int parked = 0;
+      if (thinkTimeScheduler != null) {
+         if (runInfo.isStarted()) { // the parked tasks are not in the executor's queue, wait for them first
+            thinkTimeScheduler.awaitFinished(drainTimeout);
+            parked = thinkTimeScheduler.close();
+         } else {
+            thinkTimeScheduler.close(); // the parked tasks would not report any result anyway
+         }
+         thinkTimeScheduler = null;
+      }
+
+      getExecutorService().shutdown();
 
-         if (log.isDebugEnabled()) {
-            log.debug(String.format("Adaptive test execution termination in progress. Tasks finished in last round: %d", lastActive - active));
+      if (!getExecutorService().awaitTermination(drainTimeout < 0 ? Long.MAX_VALUE : Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS) || parked > 0) {
+         final int running = getActiveCount();
+         int queued = getExecutorService().shutdownNow().size();
+         if (!runInfo.isRunning()) {
+            queued = 0; // the queued tasks would not send any message anyway
+         } else if (runInfo.getDuration().getPeriodType() == PeriodType.ITERATION) {
+            queued = (int) Math.min(queued, runInfo.getDuration().getPeriod() - runInfo.getIteration() - 1);
          }
+
+         abandonedTasks = running + queued + parked;
+         log.warn(String.format("%d sender tasks (%d running, %d queued, %d thinking) were abandoned because they did not finish in %d ms.", abandonedTasks, running, queued, parked, drainTimeout));
       }
    }
 
@@ -108,24 +178,38 @@ public class DefaultMessageGenerator extends AbstractMessageGenerator {
     *            When waiting for the termination was interrupted.
     */
    protected void shutdown() throws InterruptedException {
-      if (runInfo.getDuration().getPeriodType() == PeriodType.ITERATION) { // in case of iterations, we wait for the tasks to be finished first
+      shutdown(runInfo.getDuration().getPeriodType() == PeriodType.ITERATION);
+   }
+
+   /**
+    * Takes care of gentle shutdown of the generator. When the generation ended before the end of the measurement (in case of iterations,
+    * or when a generator ran out of the messages to send), the submitted tasks must be finished before the measurement is stopped.
+    * Otherwise, the measurement is stopped first.
+    * 
+    * @param drainFirst
+    *           True to wait for the submitted tasks to be finished before stopping the measurement.
+    * @throws java.lang.InterruptedException
+    *            When waiting for the termination was interrupted.
+    */
+   protected void shutdown(final boolean drainFirst) throws InterruptedException {
+      if (drainFirst) { // all the submitted tasks are supposed to be reported
          log.info(SHUTDOWN_LOG);
-         adaptiveTermination();
+         drain();
          setStopTime();
       } else { // in case of time, we must stop measurement first
          setStopTime();
          log.info(SHUTDOWN_LOG);
-         adaptiveTermination();
+         drain();
       }
 
-      executorService.shutdownNow();
+      getExecutorService().shutdownNow();
    }
 
    @Override
    public void generate() throws Exception {
       log.info("Starting to generate...");
-      semaphore = new Semaphore(threadQueueSize);
-      executorService = (ThreadPoolExecutor) Executors.newFixedThreadPool(getThreads());
+      semaphore = new Semaphore(Math.max(threadQueueSize, getThreads())); // all the threads must be able to get a task
+      createExecutorService(getThreads());
       runInfo.setThreads(getThreads());
       setStartTime();
 
@@ -156,6 +240,35 @@ public class DefaultMessageGenerator extends AbstractMessageGenerator {
       this.monitoringPeriod = monitoringPeriod;
    }
 
+   /**
+    * Used to read the maximal time to wait for the submitted sender tasks to finish at the end of the measurement.
+    * 
+    * @return The drain timeout in milliseconds, a negative value means no limit.
+    */
+   public long getDrainTimeout() {
+      return drainTimeout;
+   }
+
+   /**
+    * Sets the maximal time to wait for the submitted sender tasks to finish at the end of the measurement. The tasks still queued
+    * or running after this time are abandoned.
+    * 
+    * @param drainTimeout
+    *           The drain timeout in milliseconds, a negative value means no limit.
+    */
+   public void setDrainTimeout(final long drainTimeout) {
+      this.drainTimeout = drainTimeout;
+   }
+
+   /**
+    * Gets the number of sender tasks abandoned at the end of the last measurement because they did not finish in the drain timeout.
+    * 
+    * @return The number of abandoned tasks.
+    */
+   public int getAbandonedTasks() {
+      return abandonedTasks;
+   }
+
    /**
     * Used to read the amount of time (in seconds) for which the generator will generate the measured load.
     * 
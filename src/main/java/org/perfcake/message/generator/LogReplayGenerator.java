@@ -0,0 +1,385 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.apache.log4j.Logger;
+import org.perfcake.PerfCakeException;
+import org.perfcake.util.MappedLineReader;
+import org.perfcake.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Generator that replays requests recorded in a log file preserving the original intervals between them.
+ * </p>
+ * <p>
+ * Each line of the log starts with a timestamp followed by the {@link #delimiter} and the record of the request (e.g. a request
+ * body or URL parameters). The record is available in the message templates as the {@link #RECORD_PROPERTY} property
+ * (i.e. <code>#{LogRecord}</code>). The timestamp is either a number of milliseconds, or a date in the {@link #timestampFormat}.
+ * The replay can be made faster using the {@link #speedup} factor. The generation ends at the end of the log even before the
+ * configured run duration. When the scenario is distributed among several workers, each of them replays every n-th record.
+ * </p>
+ * <p>
+ * The log is never loaded to the heap. It is read by a background thread through memory mapped segments (see {@link MappedLineReader})
+ * and up to {@link #prefetchSize} parsed records are kept ahead of the scheduler. The messages are scheduled in the same way as in
+ * {@link AbstractScheduledGenerator}, so the response time includes the time the message waited for a free thread.
+ * </p>
+ */
+public class LogReplayGenerator extends AbstractScheduledGenerator {
+
+   /**
+    * The generator's logger.
+    */
+   private static final Logger log = Logger.getLogger(LogReplayGenerator.class);
+
+   /**
+    * The name of the message template property carrying the log record.
+    */
+   public static final String RECORD_PROPERTY = "LogRecord";
+
+   /**
+    * A single parsed line of the log.
+    */
+   private static class Record {
+
+      /**
+       * The timestamp of the record in milliseconds.
+       */
+      private final double time;
+
+      /**
+       * The content of the record.
+       */
+      private final String content;
+
+      private Record(final double time, final String content) {
+         this.time = time;
+         this.content = content;
+      }
+   }
+
+   /**
+    * Marks the end of the log in the queue of the prefetched records.
+    */
+   private static final Record END = new Record(0, null);
+
+   /**
+    * The path to the log file.
+    */
+   private String logFile;
+
+   /**
+    * The factor by which the log is replayed faster.
+    */
+   private double speedup = 1d;
+
+   /**
+    * The delimiter between the timestamp and the record on a log line.
+    */
+   private String delimiter = " ";
+
+   /**
+    * The format of the timestamp as used by {@link SimpleDateFormat}, or null for a number of milliseconds.
+    */
+   private String timestampFormat = null;
+
+   /**
+    * The maximal number of records read ahead of the scheduler.
+    */
+   private int prefetchSize = 10_000;
+
+   /**
+    * The index of this worker and the number of workers when the scenario is distributed. Only the records with the index
+    * equal to {@link #workerIndex} modulo {@link #workerCount} are replayed.
+    */
+   private int workerIndex = 0, workerCount = 1;
+
+   /**
+    * The records read ahead of the scheduler.
+    */
+   private BlockingQueue<Record> records;
+
+   /**
+    * The record to be sent by the next submitted task.
+    */
+   private Record current;
+
+   /**
+    * The timestamp of the first record in the log.
+    */
+   private volatile double firstTime;
+
+   /**
+    * Set to true when there are no more records in the log.
+    */
+   private volatile boolean logFinished;
+
+   /**
+    * Reads and parses the log in the background.
+    */
+   private class Prefetcher implements Runnable {
+
+      /**
+       * The reader of the log.
+       */
+      private final MappedLineReader reader;
+
+      private Prefetcher(final MappedLineReader reader) {
+         this.reader = reader;
+      }
+
+      @Override
+      public void run() {
+         final SimpleDateFormat dateFormat = timestampFormat == null ? null : new SimpleDateFormat(timestampFormat);
+         long lineNumber = 0, recordNumber = 0;
+
+         try (MappedLineReader r = reader) {
+            String line;
+            while ((line = r.readLine()) != null && !logFinished) {
+               lineNumber++;
+               if (line.isEmpty()) {
+                  continue;
+               }
+
+               final int index = line.indexOf(delimiter);
+               final String timestamp = index < 0 ? line : line.substring(0, index);
+               final String content = index < 0 ? "" : line.substring(index + delimiter.length());
+
+               try {
+                  final Record record = new Record(dateFormat == null ? Double.parseDouble(timestamp) : dateFormat.parse(timestamp).getTime(), content);
+                  if (recordNumber == 0) {
+                     firstTime = record.time; // all the workers must use the same time base
+                  }
+                  if (recordNumber++ % workerCount == workerIndex) {
+                     records.put(record);
+                  }
+               } catch (NumberFormatException | ParseException e) {
+                  log.warn(String.format("Skipping line %d of the log %s with an invalid timestamp: %s", lineNumber, logFile, timestamp));
+               }
+            }
+         } catch (IOException e) {
+            log.error(String.format("Cannot read the log %s: ", logFile), e);
+         } catch (InterruptedException e) {
+            return; // nobody waits for more records
+         }
+
+         try {
+            records.put(END);
+         } catch (InterruptedException e) {
+            // nobody waits for more records
+         }
+      }
+   }
+
+   @Override
+   public void generate() throws Exception {
+      if (speedup <= 0) {
+         throw new IllegalStateException(String.format("%s requires a positive speedup, but %f was configured.", getClass().getName(), speedup));
+      }
+      if (logFile == null) {
+         throw new PerfCakeException(String.format("%s requires a log file to be configured.", getClass().getName()));
+      }
+
+      records = new ArrayBlockingQueue<>(prefetchSize);
+      logFinished = false;
+
+      final MappedLineReader reader;
+      try {
+         reader = new MappedLineReader(new File(logFile), MappedLineReader.DEFAULT_SEGMENT_SIZE, Charset.forName(Utils.getDefaultEncoding()));
+      } catch (IOException e) {
+         throw new PerfCakeException(String.format("Cannot open the log %s: ", logFile), e);
+      }
+
+      final Thread prefetcher = new Thread(new Prefetcher(reader), "PerfCake-log-prefetcher");
+      prefetcher.setDaemon(true);
+      prefetcher.start();
+
+      try {
+         current = records.take();
+         if (current == END) {
+            throw new PerfCakeException(String.format("The log %s does not contain any records.", logFile));
+         }
+
+         super.generate();
+      } finally {
+         logFinished = true;
+         prefetcher.interrupt();
+      }
+   }
+
+   @Override
+   public void split(final int index, final int count) {
+      super.split(index, count);
+      workerIndex = index;
+      workerCount = count;
+   }
+
+   @Override
+   protected long firstArrivalTime() {
+      return arrivalTime(current); // the first record of a worker other than the first one is not the first record of the log
+   }
+
+   @Override
+   protected long nextArrivalTime(final long lastArrivalTime) {
+      try {
+         current = records.take();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         current = END;
+      }
+
+      if (current == END) {
+         logFinished = true;
+         return lastArrivalTime;
+      }
+
+      return arrivalTime(current);
+   }
+
+   /**
+    * Computes the intended time of sending the given record, i.e. its original offset from the first record of the log
+    * replayed with the {@link #speedup}.
+    *
+    * @param record
+    *           The record.
+    * @return The intended time of sending the record as obtained from {@link System#nanoTime()}.
+    */
+   private long arrivalTime(final Record record) {
+      return startNanoTime + Math.round((record.time - firstTime) * 1_000_000d / speedup);
+   }
+
+   @Override
+   protected boolean hasMoreArrivals() {
+      return !logFinished;
+   }
+
+   @Override
+   protected void submitTask(final long scheduledTime) {
+      final SenderTask task = newSenderTask(null);
+      final Properties attributes = new Properties();
+      attributes.setProperty(RECORD_PROPERTY, current.content);
+      task.setAttributes(attributes);
+
+      submitTask(task, scheduledTime);
+   }
+
+   /**
+    * Used to read the path to the log file.
+    *
+    * @return The log file path.
+    */
+   public String getLogFile() {
+      return logFile;
+   }
+
+   /**
+    * Sets the path to the log file.
+    *
+    * @param logFile
+    *           The log file path.
+    */
+   public void setLogFile(final String logFile) {
+      this.logFile = logFile;
+   }
+
+   /**
+    * Used to read the factor by which the log is replayed faster.
+    *
+    * @return The speedup factor.
+    */
+   public double getSpeedup() {
+      return speedup;
+   }
+
+   /**
+    * Sets the factor by which the log is replayed faster.
+    *
+    * @param speedup
+    *           The speedup factor.
+    */
+   public void setSpeedup(final double speedup) {
+      this.speedup = speedup;
+   }
+
+   /**
+    * Used to read the delimiter between the timestamp and the record.
+    *
+    * @return The delimiter.
+    */
+   public String getDelimiter() {
+      return delimiter;
+   }
+
+   /**
+    * Sets the delimiter between the timestamp and the record.
+    *
+    * @param delimiter
+    *           The delimiter.
+    */
+   public void setDelimiter(final String delimiter) {
+      this.delimiter = delimiter;
+   }
+
+   /**
+    * Used to read the format of the timestamp.
+    *
+    * @return The timestamp format, or null for a number of milliseconds.
+    */
+   public String getTimestampFormat() {
+      return timestampFormat;
+   }
+
+   /**
+    * Sets the format of the timestamp as used by {@link SimpleDateFormat}.
+    *
+    * @param timestampFormat
+    *           The timestamp format, or null for a number of milliseconds.
+    */
+   public void setTimestampFormat(final String timestampFormat) {
+      this.timestampFormat = timestampFormat;
+   }
+
+   /**
+    * Used to read the maximal number of records read ahead of the scheduler.
+    *
+    * @return The prefetch size.
+    */
+   public int getPrefetchSize() {
+      return prefetchSize;
+   }
+
+   /**
+    * Sets the maximal number of records read ahead of the scheduler.
+    *
+    * @param prefetchSize
+    *           The prefetch size.
+    */
+   public void setPrefetchSize(final int prefetchSize) {
+      this.prefetchSize = prefetchSize;
+   }
+}
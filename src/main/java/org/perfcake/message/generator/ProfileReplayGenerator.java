@@ -0,0 +1,336 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.apache.log4j.Logger;
+import org.perfcake.PerfCakeException;
+import org.perfcake.util.Utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+
+/**
+ * <p>
+ * Generator that replays a traffic profile, i.e. sends messages at the rate changing in time as recorded in a profile file.
+ * </p>
+ * <p>
+ * The profile is a plain text file with a timestamp in seconds and a rate in messages per second on each line, separated by
+ * a comma, a semicolon or white spaces. Empty lines, lines starting with # and a header on the first line are ignored.
+ * The timestamps must not decrease, they are taken relatively to the first one. The rate between two consecutive points is
+ * linearly interpolated. The profile is read line by line while the generator proceeds, so it can be arbitrarily long.
+ * </p>
+ * <p>
+ * The profile can be replayed faster using the {@link #compression} factor (e.g. 24 replays a day long profile in an hour,
+ * the rates stay the same). In the {@link #loop} mode, the profile is replayed again from the beginning once it ends.
+ * Otherwise, the generation ends with the end of the profile even before the configured run duration. When the scenario is distributed
+ * among several workers, each of them replays its share of the rates.
+ * </p>
+ * <p>
+ * The messages are scheduled in the same way as in {@link AbstractScheduledGenerator}, so the response time includes the time the
+ * message waited for a free thread.
+ * </p>
+ */
+public class ProfileReplayGenerator extends AbstractVariableRateGenerator {
+
+   /**
+    * The generator's logger.
+    */
+   private static final Logger log = Logger.getLogger(ProfileReplayGenerator.class);
+
+   /**
+    * The system property with the default location of the profile files.
+    */
+   public static final String PROFILES_DIR_PROPERTY = "perfcake.profiles.dir";
+
+   /**
+    * The location of the profile file.
+    */
+   private String profile;
+
+   /**
+    * The factor by which the profile is replayed faster.
+    */
+   private double compression = 1d;
+
+   /**
+    * Indicates whether the profile should be replayed again after its end.
+    */
+   private boolean loop = false;
+
+   /**
+    * The part of the profile rates generated by this generator when the scenario is distributed among several workers.
+    */
+   private double share = 1d;
+
+   /**
+    * The reader of the profile.
+    */
+   private BufferedReader reader;
+
+   /**
+    * The number of the last line read from the profile.
+    */
+   private long lineNumber;
+
+   /**
+    * The timestamp of the first point in the profile.
+    */
+   private double firstTimestamp;
+
+   /**
+    * The time of the beginning of the current loop in seconds of the profile.
+    */
+   private double loopStart;
+
+   /**
+    * The time and the rate of the point at the beginning of the current profile segment.
+    */
+   private double segmentStartTime, segmentStartRate;
+
+   /**
+    * The time and the rate of the point at the end of the current profile segment.
+    */
+   private double segmentEndTime, segmentEndRate;
+
+   /**
+    * Set to true when there are no more points in the profile.
+    */
+   private boolean profileFinished;
+
+   @Override
+   public void generate() throws Exception {
+      if (compression <= 0) {
+         throw new IllegalStateException(String.format("%s requires a positive compression, but %f was configured.", getClass().getName(), compression));
+      }
+
+      openProfile();
+      try {
+         super.generate();
+      } finally {
+         closeProfile();
+      }
+   }
+
+   /**
+    * Opens the profile and reads its first point.
+    *
+    * @throws PerfCakeException
+    *            When it was not possible to read the profile or the profile is empty.
+    */
+   private void openProfile() throws PerfCakeException {
+      if (profile == null) {
+         throw new PerfCakeException(String.format("%s requires a profile to be configured.", getClass().getName()));
+      }
+
+      try {
+         final URL profileUrl = Utils.locationToUrl(profile, PROFILES_DIR_PROPERTY, Utils.determineDefaultLocation("profiles"), "");
+         reader = new BufferedReader(new InputStreamReader(profileUrl.openStream(), Utils.getDefaultEncoding()));
+         lineNumber = 0;
+
+         final double[] point = readPoint();
+         if (point == null) {
+            throw new PerfCakeException(String.format("The profile %s does not contain any points.", profile));
+         }
+
+         firstTimestamp = point[0];
+         loopStart = 0;
+         segmentStartTime = segmentEndTime = 0;
+         segmentStartRate = segmentEndRate = point[1];
+         profileFinished = false;
+      } catch (IOException e) {
+         throw new PerfCakeException(String.format("Cannot read the profile %s: ", profile), e);
+      }
+   }
+
+   /**
+    * Closes the profile.
+    */
+   private void closeProfile() {
+      if (reader != null) {
+         try {
+            reader.close();
+         } catch (IOException e) {
+            log.warn("Cannot close the profile: ", e);
+         }
+         reader = null;
+      }
+   }
+
+   /**
+    * Reads the next point from the profile.
+    *
+    * @return The timestamp and the rate of the point, or null at the end of the profile.
+    * @throws IOException
+    *            When it was not possible to read the profile.
+    */
+   private double[] readPoint() throws IOException {
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+         lineNumber++;
+         line = line.trim();
+
+         if (line.isEmpty() || line.startsWith("#")) {
+            continue;
+         }
+
+         final String[] parts = line.split("[,;\\s]+");
+         try {
+            if (parts.length < 2) {
+               throw new NumberFormatException();
+            }
+
+            return new double[] { Double.parseDouble(parts[0]), Double.parseDouble(parts[1]) };
+         } catch (NumberFormatException e) {
+            if (lineNumber > 1) { // the first line can be a header
+               log.warn(String.format("Skipping invalid line %d in the profile %s: %s", lineNumber, profile, line));
+            }
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Moves to the next segment of the profile. At the end of the profile, it either starts from the beginning in the loop
+    * mode, or marks the profile as finished.
+    *
+    * @return True if and only if there is a next segment.
+    * @throws IOException
+    *            When it was not possible to read the profile.
+    */
+   private boolean nextSegment() throws IOException {
+      double[] point = readPoint();
+
+      if (point == null) {
+         if (!loop || segmentEndTime <= loopStart) { // an empty profile cannot be looped
+            return false;
+         }
+
+         closeProfile();
+         final double end = segmentEndTime;
+         try {
+            openProfile();
+         } catch (PerfCakeException e) {
+            throw new IOException(e);
+         }
+         loopStart = segmentStartTime = segmentEndTime = end;
+         return true;
+      }
+
+      segmentStartTime = segmentEndTime;
+      segmentStartRate = segmentEndRate;
+      segmentEndTime = Math.max(segmentStartTime, loopStart + point[0] - firstTimestamp);
+      segmentEndRate = point[1];
+
+      return true;
+   }
+
+   @Override
+   protected double rateAt(final long time) {
+      final double profileTime = (time - startNanoTime) / 1_000_000_000d * compression;
+
+      try {
+         while (profileTime >= segmentEndTime) {
+            if (!nextSegment()) {
+               profileFinished = true;
+               return 0;
+            }
+         }
+      } catch (IOException e) {
+         log.error(String.format("Cannot read the profile %s, stopping the generation: ", profile), e);
+         profileFinished = true;
+         return 0;
+      }
+
+      return share * (segmentStartRate + (segmentEndRate - segmentStartRate) * (profileTime - segmentStartTime) / (segmentEndTime - segmentStartTime));
+   }
+
+   @Override
+   public void split(final int index, final int count) {
+      super.split(index, count);
+      share = 1d / count;
+   }
+
+   @Override
+   protected boolean hasMoreArrivals() {
+      return !profileFinished;
+   }
+
+   /**
+    * Used to read the location of the profile file.
+    *
+    * @return The profile location.
+    */
+   public String getProfile() {
+      return profile;
+   }
+
+   /**
+    * Sets the location of the profile file. It is either a URL, or a file name in the directory specified by the
+    * {@link #PROFILES_DIR_PROPERTY} system property.
+    *
+    * @param profile
+    *           The profile location.
+    */
+   public void setProfile(final String profile) {
+      this.profile = profile;
+   }
+
+   /**
+    * Used to read the factor by which the profile is replayed faster.
+    *
+    * @return The compression factor.
+    */
+   public double getCompression() {
+      return compression;
+   }
+
+   /**
+    * Sets the factor by which the profile is replayed faster.
+    *
+    * @param compression
+    *           The compression factor.
+    */
+   public void setCompression(final double compression) {
+      this.compression = compression;
+   }
+
+   /**
+    * Checks whether the profile is replayed again after its end.
+    *
+    * @return True if the loop mode is enabled.
+    */
+   public boolean isLoop() {
+      return loop;
+   }
+
+   /**
+    * Enables or disables replaying the profile again after its end.
+    *
+    * @param loop
+    *           True to enable the loop mode.
+    */
+   public void setLoop(final boolean loop) {
+      this.loop = loop;
+   }
+}
@@ -24,27 +24,127 @@ import org.apache.log4j.Logger;
 import org.perfcake.common.PeriodType;
 import org.perfcake.message.MessageTemplate;
 import org.perfcake.message.sender.MessageSenderManager;
+import org.perfcake.reporting.Measurement;
+import org.perfcake.util.Utils;
 
 import java.util.List;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * <p>
+ * Generator that changes the load in the phases {@link Phase#PRE PRE}, {@link Phase#RAMP_UP RAMP_UP}, {@link Phase#MAIN MAIN},
+ * {@link Phase#RAMP_DOWN RAMP_DOWN} and {@link Phase#POST POST}.
+ * </p>
+ * <p>
+ * In the {@link Mode#THREADS THREADS} mode, the number of threads is changed in steps. In the {@link Mode#RATE RATE} mode,
+ * the messages are scheduled in the same way as in {@link AbstractScheduledGenerator} and the target rate is changed continuously
+ * (see {@link RampShape}) from {@link #preRate} to {@link #mainRate} and then to {@link #postRate}. The phase durations are
+ * always in milliseconds in the RATE mode and the phase transitions are watched by a timer independent of the message submission.
+ * </p>
+ * <p>
+ * Each phase transition is logged, the name of the phase is added as a tag to {@link org.perfcake.RunInfo} (replacing the previous
+ * phase) and a marker {@link Measurement} with the phase name as its default result ({@link #RATE} and {@link #THREADS} carry the load)
+ * is reported to all the destinations of the reporters in the scenario.
+ * </p>
+ *
  * @author Pavel Macík <pavel.macik@gmail.com>
  */
-public class RampUpDownGenerator extends DefaultMessageGenerator {
+public class RampUpDownGenerator extends AbstractVariableRateGenerator {
    /**
     * The generator's logger.
     */
    private static final Logger log = Logger.getLogger(RampUpDownGenerator.class);
 
+   /**
+    * The name of the result with the target rate in the phase marker.
+    */
+   public static final String RATE = "Rate";
+
+   /**
+    * The name of the result with the number of threads in the phase marker.
+    */
+   public static final String THREADS = "Threads";
+
+   /**
+    * The period in milliseconds in which the phase transitions are checked in the {@link Mode#RATE} mode.
+    */
+   private static final long PHASE_CHECK_PERIOD = 100;
+
    /**
     * Phase of the generator.
     */
-   private enum Phase {
+   public enum Phase {
       PRE, RAMP_UP, MAIN, RAMP_DOWN, POST;
    }
 
+   /**
+    * What is changed during the phases.
+    */
+   public enum Mode {
+      /**
+       * The number of threads is changed in steps.
+       */
+      THREADS,
+
+      /**
+       * The target rate is changed continuously.
+       */
+      RATE
+   }
+
+   /**
+    * How the rate changes during the ramp phases in the {@link Mode#RATE} mode.
+    */
+   public enum RampShape {
+      /**
+       * The rate changes linearly.
+       */
+      LINEAR,
+
+      /**
+       * The rate changes by the same ratio in the same time. This falls back to {@link #LINEAR} when any of the rates is zero.
+       */
+      EXPONENTIAL
+   }
+
+   /**
+    * What is changed during the phases.
+    */
+   private Mode mode = Mode.THREADS;
+
+   /**
+    * How the rate changes during the ramp phases.
+    */
+   private RampShape rampShape = RampShape.LINEAR;
+
+   /**
+    * The rate in messages per second in the {@link Phase#PRE} phase.
+    */
+   private double preRate = 0;
+
+   /**
+    * The rate in messages per second in the {@link Phase#MAIN} phase.
+    */
+   private double mainRate = 0;
+
+   /**
+    * The rate in messages per second in the {@link Phase#POST} phase.
+    */
+   private double postRate = 0;
+
+   /**
+    * The duration of the {@link Phase#RAMP_UP} phase in milliseconds in the {@link Mode#RATE} mode.
+    */
+   private long rampUpDuration = 0;
+
+   /**
+    * The duration of the {@link Phase#RAMP_DOWN} phase in milliseconds in the {@link Mode#RATE} mode.
+    */
+   private long rampDownDuration = 0;
+
    /**
     * An initial number of threads.
     */
@@ -93,7 +193,7 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
    /**
     * A current phase of the generator.
     */
-   private Phase currentPhase;
+   private volatile Phase currentPhase;
 
    @Override
    public void init(MessageSenderManager messageSenderManager, List<MessageTemplate> messageStore) throws Exception {
@@ -105,14 +205,28 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
 
    @Override
    public void generate() throws Exception {
+      if (mode == Mode.RATE) {
+         generateRate();
+      } else {
+         generateThreads();
+      }
+   }
+
+   /**
+    * Generates the load changing the number of threads in the {@link Mode#THREADS} mode.
+    *
+    * @throws Exception
+    *            When it was not possible to generate the load.
+    */
+   private void generateThreads() throws Exception {
       log.info("Starting to generate...");
-      executorService = (ThreadPoolExecutor) Executors.newFixedThreadPool(preThreadCount);
-      currentPhase = Phase.PRE;
+      createExecutorService(preThreadCount);
+      currentPhase = null;
       setThreads(preThreadCount);
       setStartTime();
+      setPhase(Phase.PRE);
       long last = 0;
       PeriodType runTimeType = runInfo.getDuration().getPeriodType();
-      runInfo.addTag("");
 
       mainLoop: while (runInfo.isRunning()) {
          final long runTime;
@@ -130,9 +244,9 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
          switch (currentPhase) {
             case PRE:
                if (runTime >= preDuration) {
-                  currentPhase = Phase.RAMP_UP;
                   setThreads(getThreads() + rampUpStep);
                   resizeExecutorService(getThreads());
+                  setPhase(Phase.RAMP_UP);
                   last = runTime;
                }
                break;
@@ -141,9 +255,10 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
                   int newThreadCount = getThreads() + rampUpStep;
                   if (newThreadCount >= mainThreadCount) {
                      setThreads(mainThreadCount);
-                     currentPhase = Phase.MAIN;
+                     setPhase(Phase.MAIN);
                   } else {
                      setThreads(newThreadCount);
+                     logThreads();
                   }
                   last = runTime;
                   resizeExecutorService(getThreads());
@@ -151,15 +266,16 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
                break;
             case MAIN:
                if (runTime - last >= mainDuration) {
-                  currentPhase = Phase.RAMP_DOWN;
                   setThreads(getThreads() - rampDownStep);
                   resizeExecutorService(getThreads());
+                  setPhase(Phase.RAMP_DOWN);
                   last = runTime;
                }
                break;
             case RAMP_DOWN:
                if (runTime - last >= rampDownStepPeriod) {
                   int newThreadCount = getThreads() - rampDownStep;
+                  boolean finished = false;
                   if (newThreadCount < postThreadCount) {
                      if (newThreadCount <= 1) {
                         if (log.isEnabledFor(Level.WARN)) {
@@ -169,11 +285,16 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
                      } else {
                         newThreadCount = postThreadCount;
                      }
-                     currentPhase = Phase.POST;
+                     finished = true;
                   }
                   last = runTime;
                   setThreads(newThreadCount);
                   resizeExecutorService(getThreads());
+                  if (finished) {
+                     setPhase(Phase.POST);
+                  } else {
+                     logThreads();
+                  }
                }
                break;
             case POST:
@@ -181,7 +302,6 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
                break;
          }
 
-         logCurrentPhase(getThreads());
          super.prepareTask();
       }
       log.info("Reached test end. Shutting down execution...");
@@ -189,15 +309,187 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
 
    }
 
-   private void logCurrentPhase(int threads) {
-      if (log.isInfoEnabled()) {
-         log.info(currentPhase.toString() + " phase [" + threads + " threads]");
+   /**
+    * Generates the load changing the target rate in the {@link Mode#RATE} mode.
+    *
+    * @throws Exception
+    *            When it was not possible to generate the load.
+    */
+   private void generateRate() throws Exception {
+      if (preRate < 0 || mainRate < 0 || postRate < 0) {
+         throw new IllegalStateException(String.format("%s requires non-negative rates, but %f, %f and %f were configured.", getClass().getName(), preRate, mainRate, postRate));
+      }
+
+      currentPhase = null;
+      final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "PerfCake-ramp-up-down-timer");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      timer.scheduleAtFixedRate(new Runnable() {
+         @Override
+         public void run() {
+            if (runInfo.isStarted()) {
+               setPhase(phaseAt(runInfo.getRunTime()));
+            }
+         }
+      }, 0, PHASE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+
+      try {
+         super.generate();
+      } finally {
+         timer.shutdownNow();
       }
    }
 
-   private void resizeExecutorService(int threads) throws InterruptedException {
-      executorService.setCorePoolSize(threads);
-      executorService.setMaximumPoolSize(threads);
+   @Override
+   public void split(final int index, final int count) {
+      super.split(index, count);
+      preThreadCount = splitThreads(preThreadCount, index, count);
+      mainThreadCount = splitThreads(mainThreadCount, index, count);
+      postThreadCount = splitThreads(postThreadCount, index, count);
+      rampUpStep = splitThreads(rampUpStep, index, count);
+      rampDownStep = splitThreads(rampDownStep, index, count);
+      preRate = preRate / count;
+      mainRate = mainRate / count;
+      postRate = postRate / count;
+   }
+
+   /**
+    * Computes the share of a positive number of threads for a worker. The share is at least one.
+    *
+    * @param threads
+    *           The number of threads.
+    * @param index
+    *           The index of the worker starting from 0.
+    * @param count
+    *           The number of workers.
+    * @return The share of the threads.
+    */
+   private static int splitThreads(final int threads, final int index, final int count) {
+      return threads <= 0 ? threads : Math.max(1, (int) Utils.share(threads, index, count));
+   }
+
+   /**
+    * Gets the phase at the given time since the start of the measurement in the {@link Mode#RATE} mode.
+    *
+    * @param time
+    *           The time in milliseconds.
+    * @return The phase.
+    */
+   private Phase phaseAt(final double time) {
+      if (time < preDuration) {
+         return Phase.PRE;
+      }
+
+      final double rampUpEnd = (double) preDuration + rampUpDuration;
+      if (time < rampUpEnd) {
+         return Phase.RAMP_UP;
+      }
+
+      final double mainEnd = rampUpEnd + mainDuration;
+      if (time < mainEnd) {
+         return Phase.MAIN;
+      }
+
+      return time < mainEnd + rampDownDuration ? Phase.RAMP_DOWN : Phase.POST;
+   }
+
+   @Override
+   protected double rateAt(final long time) {
+      return rateAfter((time - startNanoTime) / 1_000_000d);
+   }
+
+   /**
+    * Gets the target rate at the given time since the start of the measurement in the {@link Mode#RATE} mode. Unlike {@link #rateAt(long)},
+    * this does not depend on the state of the generating thread, so it can be used by the phase timer.
+    *
+    * @param elapsed
+    *           The time in milliseconds.
+    * @return The rate in messages per second.
+    */
+   private double rateAfter(final double elapsed) {
+      switch (phaseAt(elapsed)) {
+         case PRE:
+            return preRate;
+         case RAMP_UP:
+            return interpolate(preRate, mainRate, (elapsed - preDuration) / rampUpDuration);
+         case MAIN:
+            return mainRate;
+         case RAMP_DOWN:
+            return interpolate(mainRate, postRate, (elapsed - preDuration - rampUpDuration - mainDuration) / rampDownDuration);
+         case POST:
+         default:
+            return postRate;
+      }
+   }
+
+   /**
+    * Computes the rate during a ramp phase according to the {@link #rampShape}.
+    *
+    * @param from
+    *           The rate at the beginning of the ramp.
+    * @param to
+    *           The rate at the end of the ramp.
+    * @param fraction
+    *           The elapsed part of the ramp between 0 and 1.
+    * @return The rate.
+    */
+   private double interpolate(final double from, final double to, final double fraction) {
+      if (rampShape == RampShape.EXPONENTIAL && from > 0 && to > 0) {
+         return from * Math.pow(to / from, fraction);
+      }
+
+      return from + (to - from) * fraction;
+   }
+
+   /**
+    * Switches the generator to the given phase. When the phase changes, it is logged, tagged in {@link org.perfcake.RunInfo}
+    * and a marker is reported to all the destinations. Synchronized as the phase timer and the generating thread can switch the phase concurrently.
+    *
+    * @param phase
+    *           The new phase.
+    */
+   private synchronized void setPhase(final Phase phase) {
+      final Phase previous = currentPhase;
+      if (phase == previous) {
+         return;
+      }
+      currentPhase = phase;
+
+      if (previous != null) {
+         runInfo.removeTag(previous.toString());
+      }
+      runInfo.addTag(phase.toString());
+
+      final Measurement m = new Measurement(Math.round(runInfo.getPercentage()), runInfo.getRunTime(), runInfo.getIteration());
+      m.set(phase.toString());
+      if (mode == Mode.RATE) {
+         final double currentRate = rateAfter(runInfo.getRunTime());
+         m.set(RATE, currentRate);
+         if (log.isInfoEnabled()) {
+            log.info(String.format("%s phase [%.2f msg/s]", phase, currentRate));
+         }
+      } else {
+         m.set(THREADS, getThreads());
+         if (log.isInfoEnabled()) {
+            log.info(phase.toString() + " phase [" + getThreads() + " threads]");
+         }
+      }
+
+      reportManager.publishToAllDestinations(m);
+   }
+
+   /**
+    * Logs the number of threads changed within a phase.
+    */
+   private void logThreads() {
+      if (log.isDebugEnabled()) {
+         log.debug(currentPhase.toString() + " phase [" + getThreads() + " threads]");
+      }
    }
 
    public int getPreThreadCount() {
@@ -271,4 +563,60 @@ public class RampUpDownGenerator extends DefaultMessageGenerator {
    public void setMaxThreadCount(int maxThreadCount) {
       this.mainThreadCount = maxThreadCount;
    }
+
+   public Mode getMode() {
+      return mode;
+   }
+
+   public void setMode(Mode mode) {
+      this.mode = mode;
+   }
+
+   public RampShape getRampShape() {
+      return rampShape;
+   }
+
+   public void setRampShape(RampShape rampShape) {
+      this.rampShape = rampShape;
+   }
+
+   public double getPreRate() {
+      return preRate;
+   }
+
+   public void setPreRate(double preRate) {
+      this.preRate = preRate;
+   }
+
+   public double getMainRate() {
+      return mainRate;
+   }
+
+   public void setMainRate(double mainRate) {
+      this.mainRate = mainRate;
+   }
+
+   public double getPostRate() {
+      return postRate;
+   }
+
+   public void setPostRate(double postRate) {
+      this.postRate = postRate;
+   }
+
+   public long getRampUpDuration() {
+      return rampUpDuration;
+   }
+
+   public void setRampUpDuration(long rampUpDuration) {
+      this.rampUpDuration = rampUpDuration;
+   }
+
+   public long getRampDownDuration() {
+      return rampDownDuration;
+   }
+
+   public void setRampDownDuration(long rampDownDuration) {
+      this.rampDownDuration = rampDownDuration;
+   }
 }
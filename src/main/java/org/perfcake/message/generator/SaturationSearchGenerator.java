@@ -0,0 +1,401 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.apache.log4j.Logger;
+import org.perfcake.common.PeriodType;
+import org.perfcake.reporting.LatencyHistogram;
+import org.perfcake.reporting.Measurement;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.Quantity;
+import org.perfcake.reporting.ReportingException;
+import org.perfcake.reporting.StripedLatencyHistogram;
+import org.perfcake.reporting.destinations.Destination;
+import org.perfcake.reporting.reporters.AbstractReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Generator that searches for the maximal sustainable throughput of the tested system under a latency limit.
+ * </p>
+ * <p>
+ * The load is generated in steps of {@link #stepDuration} milliseconds. In each step, a fixed number of threads keeps sending
+ * the messages and the throughput and the {@link #percentile} of the response time are measured. The number of threads is doubled
+ * until the percentile exceeds {@link #latencyThreshold} or the configured number of threads is reached. Then the highest number
+ * of threads that keeps the percentile under the threshold (the knee of the throughput/latency curve) is found using binary search.
+ * The response times of a step are counted in a {@link LatencyHistogram}, so the percentile is read with its precision.
+ * </p>
+ * <p>
+ * The search ends the measurement even when the configured run duration has not been reached yet. At the end, the complete
+ * load/latency curve and the knee are reported as a single {@link Measurement} to all the destinations of the reporters in the scenario.
+ * The default result is the knee throughput, {@link #KNEE_THREADS}, {@link #KNEE_LATENCY} and {@link #CURVE} carry the rest.
+ * </p>
+ */
+public class SaturationSearchGenerator extends DefaultMessageGenerator {
+
+   /**
+    * The generator's logger.
+    */
+   private static final Logger log = Logger.getLogger(SaturationSearchGenerator.class);
+
+   /**
+    * The name of the result with the number of threads at the knee of the curve.
+    */
+   public static final String KNEE_THREADS = "KneeThreads";
+
+   /**
+    * The name of the result with the response time percentile at the knee of the curve.
+    */
+   public static final String KNEE_LATENCY = "KneeLatency";
+
+   /**
+    * The name of the result with the complete load/latency curve.
+    */
+   public static final String CURVE = "Curve";
+
+   /**
+    * The response time percentile that is compared with the threshold.
+    */
+   protected double percentile = 99d;
+
+   /**
+    * The maximal allowed value of the response time percentile in milliseconds.
+    */
+   protected double latencyThreshold = 100d;
+
+   /**
+    * The duration of a single step of the search in milliseconds.
+    */
+   protected long stepDuration = 5000;
+
+   /**
+    * Collects the response times of the current step.
+    */
+   private StepReporter stepReporter;
+
+   /**
+    * Indicates that the current step is running and the workers should keep sending messages.
+    */
+   private volatile boolean stepRunning = false;
+
+   /**
+    * Results of a single step of the search.
+    */
+   private static class Step {
+
+      /**
+       * The number of threads used in the step.
+       */
+      private final int threads;
+
+      /**
+       * The number of messages sent in the step.
+       */
+      private final long count;
+
+      /**
+       * The throughput in iterations per second.
+       */
+      private final double throughput;
+
+      /**
+       * The response time percentile in milliseconds.
+       */
+      private final double latency;
+
+      private Step(final int threads, final long count, final double throughput, final double latency) {
+         this.threads = threads;
+         this.count = count;
+         this.throughput = throughput;
+         this.latency = latency;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%d threads: %.2f it/s, %.2f ms", threads, throughput, latency);
+      }
+   }
+
+   /**
+    * Reporter that remembers the response times reported during the current step.
+    */
+   private static class StepReporter extends AbstractReporter {
+
+      /**
+       * The response times of the current step.
+       */
+      private final StripedLatencyHistogram responseTimes = new StripedLatencyHistogram();
+
+      @Override
+      protected void doReport(final MeasurementUnit mu) throws ReportingException {
+         responseTimes.record(mu.getTotalTime());
+      }
+
+      @Override
+      protected void doReset() {
+         // the response times are managed by the generator
+      }
+
+      @Override
+      public void publishResult(final PeriodType periodType, final Destination d) throws ReportingException {
+         throw new ReportingException("No destination is allowed on " + getClass().getSimpleName());
+      }
+
+      /**
+       * Gets the response times reported since the last call and forgets them.
+       *
+       * @return The histogram of the response times.
+       */
+      private LatencyHistogram drain() {
+         return responseTimes.drain();
+      }
+   }
+
+   /**
+    * A worker that keeps sending messages until the end of the current step.
+    */
+   private class Worker implements Runnable {
+
+      /**
+       * The sender task reused for all the iterations executed by this worker.
+       */
+      private final SenderTask task = newSenderTask(null);
+
+      @Override
+      public void run() {
+         while (stepRunning && runInfo.isRunning() && !Thread.currentThread().isInterrupted()) {
+            task.run();
+         }
+      }
+   }
+
+   @Override
+   public void generate() throws Exception {
+      log.info("Starting to generate...");
+      createExecutorService(getThreads());
+      setStartTime();
+
+      stepReporter = new StepReporter();
+      reportManager.registerReporter(stepReporter);
+
+      final Map<Integer, Step> curve = new TreeMap<>();
+      Step knee = null;
+      int low = 0, high = getThreads() + 1; // the highest known good and the lowest known bad number of threads
+
+      // first, raise the load exponentially until the threshold is exceeded
+      int threads = 1;
+      while (runInfo.isRunning()) {
+         final Step step = measureStep(threads);
+         if (step == null) {
+            break;
+         }
+         curve.put(threads, step);
+
+         if (isSustainable(step)) {
+            low = threads;
+            knee = step;
+            if (threads == getThreads()) {
+               break;
+            }
+            threads = Math.min(threads * 2, getThreads());
+         } else {
+            high = threads;
+            break;
+         }
+      }
+
+      // then find the knee using binary search
+      while (runInfo.isRunning() && high - low > 1) {
+         threads = (low + high) / 2;
+         final Step step = measureStep(threads);
+         if (step == null) {
+            break;
+         }
+         curve.put(threads, step);
+
+         if (isSustainable(step)) {
+            low = threads;
+            knee = step;
+         } else {
+            high = threads;
+         }
+      }
+
+      reportManager.unregisterReporter(stepReporter);
+      runInfo.setThreads(getThreads());
+      publishCurve(curve, knee);
+
+      log.info("Reached test end.");
+      shutdown();
+   }
+
+   /**
+    * Generates the load with the given number of threads for the duration of a single step and measures the results.
+    *
+    * @param threads
+    *           The number of threads to use.
+    * @return The results of the step, or null if the measurement ended before any message was sent.
+    * @throws InterruptedException
+    *            When the waiting for the end of the step was interrupted.
+    */
+   private Step measureStep(final int threads) throws InterruptedException {
+      log.info(String.format("Measuring the load of %d threads...", threads));
+      runInfo.setThreads(threads);
+      stepReporter.drain(); // forget any leftovers from the previous step
+
+      stepRunning = true;
+      final List<Future<?>> workers = new ArrayList<>();
+      final long start = System.currentTimeMillis();
+      for (int i = 0; i < threads; i++) {
+         workers.add(getExecutorService().submit(new Worker()));
+      }
+
+      final long end = start + stepDuration;
+      long now;
+      while (runInfo.isRunning() && (now = System.currentTimeMillis()) < end) {
+         Thread.sleep(Math.min(end - now, monitoringPeriod));
+      }
+
+      stepRunning = false;
+      for (final Future<?> worker : workers) {
+         try {
+            worker.get();
+         } catch (ExecutionException e) {
+            log.warn("A worker failed: ", e.getCause());
+         }
+      }
+      final long elapsed = System.currentTimeMillis() - start;
+
+      final LatencyHistogram responseTimes = stepReporter.drain();
+      if (responseTimes.getCount() == 0) {
+         return null;
+      }
+
+      final Step step = new Step(threads, responseTimes.getCount(), 1000d * responseTimes.getCount() / Math.max(1, elapsed), responseTimes.getValueAtPercentile(percentile));
+      log.info("Step result: " + step);
+
+      return step;
+   }
+
+   /**
+    * Checks whether the response time percentile of the given step is under the threshold.
+    *
+    * @param step
+    *           The step to check.
+    * @return True if and only if the load of the step is sustainable.
+    */
+   private boolean isSustainable(final Step step) {
+      return step.latency <= latencyThreshold;
+   }
+
+   /**
+    * Reports the complete curve and its knee to all the destinations in the scenario.
+    *
+    * @param curve
+    *           The measured steps ordered by the number of threads.
+    * @param knee
+    *           The highest sustainable step, or null if there was none.
+    */
+   private void publishCurve(final Map<Integer, Step> curve, final Step knee) {
+      final Measurement m = new Measurement(Math.round(runInfo.getPercentage()), runInfo.getRunTime(), runInfo.getIteration());
+      final StringBuilder sb = new StringBuilder();
+      for (final Step step : curve.values()) {
+         if (sb.length() > 0) {
+            sb.append("; ");
+         }
+         sb.append(step.toString());
+      }
+      m.set(CURVE, sb.toString());
+
+      if (knee != null) {
+         m.set(new Quantity<>(knee.throughput, "it/s"));
+         m.set(KNEE_THREADS, knee.threads);
+         m.set(KNEE_LATENCY, new Quantity<>(knee.latency, "ms"));
+         log.info(String.format("Maximal sustainable load found at %s.", knee));
+      } else {
+         log.warn(String.format("No sustainable load found, the %.1f percentile of the response time was over %.2f ms even with a single thread.", percentile, latencyThreshold));
+      }
+
+      reportManager.publishToAllDestinations(m);
+   }
+
+   /**
+    * Used to read the response time percentile that is compared with the threshold.
+    *
+    * @return The percentile.
+    */
+   public double getPercentile() {
+      return percentile;
+   }
+
+   /**
+    * Sets the response time percentile that is compared with the threshold.
+    *
+    * @param percentile
+    *           The percentile (e.g. 99 for the 99th percentile).
+    */
+   public void setPercentile(final double percentile) {
+      this.percentile = percentile;
+   }
+
+   /**
+    * Used to read the maximal allowed value of the response time percentile.
+    *
+    * @return The latency threshold in milliseconds.
+    */
+   public double getLatencyThreshold() {
+      return latencyThreshold;
+   }
+
+   /**
+    * Sets the maximal allowed value of the response time percentile.
+    *
+    * @param latencyThreshold
+    *           The latency threshold in milliseconds.
+    */
+   public void setLatencyThreshold(final double latencyThreshold) {
+      this.latencyThreshold = latencyThreshold;
+   }
+
+   /**
+    * Used to read the duration of a single step of the search.
+    *
+    * @return The step duration in milliseconds.
+    */
+   public long getStepDuration() {
+      return stepDuration;
+   }
+
+   /**
+    * Sets the duration of a single step of the search.
+    *
+    * @param stepDuration
+    *           The step duration in milliseconds.
+    */
+   public void setStepDuration(final long stepDuration) {
+      this.stepDuration = stepDuration;
+   }
+}
@@ -25,6 +25,9 @@ import org.perfcake.PerfCakeConst;
 import org.perfcake.message.Message;
 import org.perfcake.message.MessageTemplate;
 import org.perfcake.message.ReceivedMessage;
+import org.perfcake.message.Session;
+import org.perfcake.message.extractor.Extractor;
+import org.perfcake.message.sender.AbstractSender;
 import org.perfcake.message.sender.MessageSender;
 import org.perfcake.message.sender.MessageSenderManager;
 import org.perfcake.reporting.MeasurementUnit;
@@ -33,13 +36,14 @@ import org.perfcake.validation.ValidationManager;
 
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.concurrent.Semaphore;
 
 /**
- * <p> The sender task is a runnable class that is executing a single task of sending the message(s) from the message store using instances of {@link MessageSender} provided by message sender manager (see {@link MessageSenderManager}), receiving the message sender's response and handling the reporting and response message validation. </p> <p> It is used by the generators. </p>
+ * <p> The sender task is a runnable class that is executing a single task of sending the message(s) from the message store using instances of {@link MessageSender} provided by message sender manager (see {@link MessageSenderManager}), receiving the message sender's response and handling the reporting and response message validation. </p> <p> The task pauses for the think time of a message (see {@link MessageTemplate#getThinkTime()}) between the messages of an iteration. With a {@link ThinkTimeScheduler}, the task is parked during the pause and continues on any thread of the executor afterwards, the measured response time does not include the pause. </p> <p> It is used by the generators. </p>
  *
  * @author Pavel Macík <pavel.macik@gmail.com>
  * @author Martin Večeřa <marvenec@gmail.com>
@@ -81,6 +85,71 @@ class SenderTask implements Runnable {
     */
    private Semaphore semaphore;
 
+   /**
+    * Indicates whether the time of sending the message was planned in advance by the generator.
+    */
+   private boolean scheduled = false;
+
+   /**
+    * The time when the message was supposed to be sent as obtained from {@link System#nanoTime()}. Valid only when {@link #scheduled} is set.
+    */
+   private long scheduledTime;
+
+   /**
+    * Indicates whether the iteration number was reserved in advance by the generator.
+    */
+   private boolean iterationAssigned = false;
+
+   /**
+    * The iteration number reserved by the generator. Valid only when {@link #iterationAssigned} is set.
+    */
+   private long iteration;
+
+   /**
+    * Additional attributes used to filter the messages in the next run of this task. Set by the generator when needed.
+    */
+   private Properties attributes;
+
+   /**
+    * The scheduler that keeps the task while it pauses for a think time. When not set, the task pauses in place blocking its thread.
+    */
+   private ThinkTimeScheduler thinkTimeScheduler;
+
+   /**
+    * The pool of the sessions of the simulated users, or null when the sessions are not used.
+    */
+   private Queue<Session> sessions;
+
+   /**
+    * The session of the simulated user used in the current iteration.
+    */
+   private Session session;
+
+   /**
+    * The measurement unit of the current iteration. It is set only while an iteration is in progress, i.e. also during a think time.
+    */
+   private MeasurementUnit mu;
+
+   /**
+    * The attributes used to filter the messages in the current iteration.
+    */
+   private Properties messageAttributes;
+
+   /**
+    * The headers of the messages in the current iteration.
+    */
+   private HashMap<String, String> messageHeaders;
+
+   /**
+    * The index of the message template to be sent next in the current iteration.
+    */
+   private int templateIndex;
+
+   /**
+    * The number of times the current message template has already been sent in the current iteration.
+    */
+   private long repetition;
+
    // limit the possibilities to construct this class
    protected SenderTask(Semaphore semaphore) {
       this.semaphore = semaphore;
@@ -95,7 +164,12 @@ class SenderTask implements Runnable {
          }
       }
 
-      mu.startMeasure();
+      if (scheduled) { // the time spent in the queue counts as well
+         mu.startMeasure(scheduledTime);
+         scheduled = false;
+      } else {
+         mu.startMeasure();
+      }
 
       Serializable result = null;
       try {
@@ -122,64 +196,277 @@ class SenderTask implements Runnable {
    public void run() {
       assert messageStore != null && reportManager != null && validationManager != null && senderManager != null : "SenderTask was not properly initialized.";
 
-      final Properties messageAttributes = new Properties();
-      final HashMap<String, String> messageHeaders = new HashMap<>();
       MessageSender sender = null;
       ReceivedMessage receivedMessage = null;
+      boolean parked = false;
       try {
-         MeasurementUnit mu = reportManager.newMeasurementUnit();
+         if (mu == null) { // a new iteration, otherwise we continue after a think time
+            if (sessions != null) { // the values extracted by the previous iterations of the same user are available in the messages
+               session = sessions.poll();
+               if (session == null) {
+                  session = new Session();
+               }
+               messageAttributes = new Properties(session.getProperties());
+               if (attributes != null) {
+                  messageAttributes.putAll(attributes);
+               }
+            } else {
+               messageAttributes = attributes != null ? attributes : new Properties();
+            }
+            attributes = null;
+            messageHeaders = new HashMap<>();
+            templateIndex = 0;
+            repetition = 0;
+
+            if (iterationAssigned) {
+               mu = reportManager.newMeasurementUnit(iteration);
+               iterationAssigned = mu == null; // the unused iteration is left to the generator
+            } else {
+               mu = reportManager.newMeasurementUnit();
+            }
 
-         if (mu != null) {
             // only set numbering to headers if it is enabled, later there is no change to
             // filter out the headers before sending
-            if (messageNumberingEnabled) {
+            if (mu != null && messageNumberingEnabled) {
                messageHeaders.put(PerfCakeConst.MESSAGE_NUMBER_HEADER, String.valueOf(mu.getIteration()));
                messageAttributes.setProperty(PerfCakeConst.MESSAGE_NUMBER_PROPERTY, String.valueOf(mu.getIteration()));
             }
+         }
 
-            sender = senderManager.acquireSender();
+         if (mu != null) {
+            sender = acquireSender();
 
-            Iterator<MessageTemplate> iterator = messageStore.iterator();
-            if (iterator.hasNext()) {
-               while (iterator.hasNext()) {
+            if (!messageStore.isEmpty()) {
+               while (templateIndex < messageStore.size()) {
 
-                  MessageTemplate messageToSend = iterator.next();
+                  MessageTemplate messageToSend = messageStore.get(templateIndex);
                   Message currentMessage = messageToSend.getFilteredMessage(messageAttributes);
                   long multiplicity = messageToSend.getMultiplicity();
+                  if (sender instanceof AbstractSender) {
+                     ((AbstractSender) sender).setResponseNeeded(isResponseNeeded(messageToSend));
+                  }
 
-                  for (int i = 0; i < multiplicity; i++) {
-                     receivedMessage = new ReceivedMessage(sendMessage(sender, currentMessage, messageHeaders, mu), messageToSend, currentMessage);
+                  while (repetition < multiplicity) {
+                     final Serializable response = sendMessage(sender, currentMessage, messageHeaders, mu);
+                     receivedMessage = new ReceivedMessage(response, messageToSend, currentMessage);
                      if (validationManager.isEnabled()) {
                         validationManager.addToResultMessages(receivedMessage);
                      }
+                     extract(messageToSend, response);
+                     repetition++;
+
+                     final long thinkTime = nextThinkTime(messageToSend);
+                     if (thinkTime > 0) {
+                        releaseSender(sender); // the sender can serve other tasks in the meantime
+                        sender = null;
+
+                        if (thinkTimeScheduler != null) {
+                           parked = thinkTimeScheduler.park(this, thinkTime);
+                           return; // the iteration is abandoned when the scheduler has already been closed at the end of the measurement
+                        }
+
+                        Thread.sleep(thinkTime);
+                        sender = acquireSender();
+                     }
                   }
 
+                  templateIndex++;
+                  repetition = 0;
                }
             } else {
+               if (sender instanceof AbstractSender) {
+                  ((AbstractSender) sender).setResponseNeeded(validationManager.isEnabled());
+               }
                receivedMessage = new ReceivedMessage(sendMessage(sender, null, messageHeaders, mu), null, null);
                if (validationManager.isEnabled()) {
                   validationManager.addToResultMessages(receivedMessage);
                }
             }
 
-            senderManager.releaseSender(sender); // !!! important !!!
+            releaseSender(sender); // !!! important !!!
             sender = null;
 
             reportManager.report(mu);
          }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt(); // the iteration is abandoned
       } catch (Exception e) {
          e.printStackTrace();
       } finally {
-         if (semaphore != null) {
-            semaphore.release();
+         if (sender != null) {
+            releaseSender(sender);
          }
 
-         if (sender != null) {
-            senderManager.releaseSender(sender);
+         if (!parked) {
+            mu = null;
+            messageAttributes = null;
+            messageHeaders = null;
+
+            if (semaphore != null) {
+               semaphore.release();
+            }
+
+            if (session != null) {
+               sessions.offer(session);
+               session = null;
+            }
+
+            if (thinkTimeScheduler != null) {
+               thinkTimeScheduler.finished();
+            }
+         }
+      }
+   }
+
+   /**
+    * Acquires a sender and binds it to the session of the current iteration.
+    *
+    * @return The sender.
+    * @throws Exception
+    *            When there is no sender available.
+    */
+   private MessageSender acquireSender() throws Exception {
+      final MessageSender sender = senderManager.acquireSender();
+      if (session != null && sender instanceof AbstractSender) {
+         ((AbstractSender) sender).setSession(session);
+      }
+
+      return sender;
+   }
+
+   /**
+    * Unbinds the sender from the session and returns it to the pool.
+    *
+    * @param sender
+    *           The sender.
+    */
+   private void releaseSender(final MessageSender sender) {
+      if (session != null && sender instanceof AbstractSender) {
+         ((AbstractSender) sender).setSession(null);
+      }
+
+      senderManager.releaseSender(sender);
+   }
+
+   /**
+    * Finds out whether the responses to the given message are used by a validator or an extractor.
+    *
+    * @param messageTemplate
+    *           The message to be sent.
+    * @return True when the response is needed.
+    */
+   private boolean isResponseNeeded(final MessageTemplate messageTemplate) {
+      final boolean validated = validationManager.isEnabled() && messageTemplate.getValidatorIds() != null && !messageTemplate.getValidatorIds().isEmpty();
+      final boolean extracted = session != null && !messageTemplate.getExtractors().isEmpty();
+
+      return validated || extracted;
+   }
+
+   /**
+    * Pulls the values from the response into the session using the extractors of the message.
+    *
+    * @param messageTemplate
+    *           The message that has been sent.
+    * @param response
+    *           The response to the message.
+    */
+   private void extract(final MessageTemplate messageTemplate, final Serializable response) {
+      if (session == null || response == null || messageTemplate.getExtractors().isEmpty()) {
+         return;
+      }
+
+      final String text = response.toString();
+      for (final Map.Entry<String, Extractor> extractor : messageTemplate.getExtractors().entrySet()) {
+         try {
+            final String value = extractor.getValue().extract(text);
+            if (value != null) {
+               session.getProperties().setProperty(extractor.getKey(), value);
+            } else if (log.isDebugEnabled()) {
+               log.debug(String.format("The extractor %s found no value in the response.", extractor.getKey()));
+            }
+         } catch (Exception e) {
+            log.warn(String.format("The extractor %s failed: ", extractor.getKey()), e);
          }
       }
    }
 
+   /**
+    * Gets the time to pause for after the last sending of the given message. There is no pause after the last message of the iteration.
+    *
+    * @param messageTemplate
+    *           The message that has just been sent.
+    * @return The think time in milliseconds.
+    */
+   private long nextThinkTime(final MessageTemplate messageTemplate) {
+      if (messageTemplate.getThinkTime() == null || (templateIndex == messageStore.size() - 1 && repetition >= messageTemplate.getMultiplicity())) {
+         return 0;
+      }
+
+      return messageTemplate.getThinkTime().next();
+   }
+
+   /**
+    * Sets the time when the message was supposed to be sent. The response time of the first message in this task is measured from this moment.
+    *
+    * @param scheduledTime
+    *           The intended time of sending the message as obtained from {@link System#nanoTime()}.
+    */
+   protected void setScheduledTime(final long scheduledTime) {
+      this.scheduledTime = scheduledTime;
+      this.scheduled = true;
+   }
+
+   /**
+    * Sets the iteration number reserved for the next run of this task using {@link org.perfcake.RunInfo#reserveIterations(long)}.
+    *
+    * @param iteration
+    *           The reserved iteration number.
+    */
+   protected void setIteration(final long iteration) {
+      this.iteration = iteration;
+      this.iterationAssigned = true;
+   }
+
+   /**
+    * Checks whether the iteration number set by {@link #setIteration(long)} has not been used yet, either because the task
+    * has not run since, or because the measurement was not running and no message was sent.
+    *
+    * @return True if the iteration number has not been used.
+    */
+   protected boolean isIterationAssigned() {
+      return iterationAssigned;
+   }
+
+   /**
+    * Sets additional attributes that can be used in the message templates in the next run of this task.
+    *
+    * @param attributes
+    *           The attributes. The task takes the ownership of the object.
+    */
+   protected void setAttributes(final Properties attributes) {
+      this.attributes = attributes;
+   }
+
+   /**
+    * Sets the scheduler that keeps the task while it pauses for a think time.
+    *
+    * @param thinkTimeScheduler
+    *           The think time scheduler.
+    */
+   protected void setThinkTimeScheduler(final ThinkTimeScheduler thinkTimeScheduler) {
+      this.thinkTimeScheduler = thinkTimeScheduler;
+   }
+
+   /**
+    * Sets the pool of the sessions of the simulated users. A session is taken from the pool for each iteration and returned at its end.
+    *
+    * @param sessions
+    *           The session pool, or null when the sessions are not used.
+    */
+   protected void setSessions(final Queue<Session> sessions) {
+      this.sessions = sessions;
+   }
+
    protected void setSenderManager(final MessageSenderManager senderManager) {
       this.senderManager = senderManager;
    }
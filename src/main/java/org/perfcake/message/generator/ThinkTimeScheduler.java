@@ -0,0 +1,166 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.apache.log4j.Logger;
+import org.perfcake.util.HashedWheelTimer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * Pauses the {@link SenderTask sender tasks} for the think time of a message without blocking a thread. A paused (parked) task
+ * is kept in a {@link HashedWheelTimer} and it is submitted to the executor again to continue with the next message once the
+ * think time elapses. This way, a few threads can drive a large number of simulated users.
+ * </p>
+ * <p>
+ * The scheduler also counts the tasks in progress, i.e. submitted and not finished yet including the parked ones. This allows waiting
+ * for the end of all the iterations at the end of the measurement, which the executor service cannot tell as the parked tasks are not in its queue.
+ * </p>
+ */
+class ThinkTimeScheduler {
+
+   /**
+    * The scheduler's logger.
+    */
+   private static final Logger log = Logger.getLogger(ThinkTimeScheduler.class);
+
+   /**
+    * The timer keeping the parked tasks.
+    */
+   private final HashedWheelTimer timer = new HashedWheelTimer("PerfCake-think-time");
+
+   /**
+    * The executor running the resumed tasks.
+    */
+   private final Executor executor;
+
+   /**
+    * The number of tasks in progress. Guarded by this.
+    */
+   private int inProgress = 0;
+
+   /**
+    * Set to true when no more tasks can be parked. Guarded by this.
+    */
+   private boolean closed = false;
+
+   /**
+    * Creates a new scheduler.
+    *
+    * @param executor
+    *           The executor running the resumed tasks.
+    */
+   ThinkTimeScheduler(final Executor executor) {
+      this.executor = executor;
+   }
+
+   /**
+    * Registers a task that is being submitted to the executor.
+    */
+   synchronized void submitted() {
+      inProgress++;
+   }
+
+   /**
+    * Unregisters a task that has finished its iteration.
+    */
+   synchronized void finished() {
+      if (--inProgress == 0) {
+         notifyAll();
+      }
+   }
+
+   /**
+    * Parks the task for the given think time. The task is submitted to the executor again after the think time.
+    *
+    * @param task
+    *           The task to park.
+    * @param thinkTime
+    *           The think time in milliseconds.
+    * @return True if the task was parked, false if the scheduler is already closed and the task should abandon its iteration.
+    */
+   synchronized boolean park(final SenderTask task, final long thinkTime) {
+      if (closed) {
+         return false;
+      }
+
+      timer.schedule(new Runnable() {
+         @Override
+         public void run() {
+            resume(task);
+         }
+      }, thinkTime);
+
+      return true;
+   }
+
+   /**
+    * Submits the parked task to the executor again.
+    *
+    * @param task
+    *           The task to resume.
+    */
+   private void resume(final SenderTask task) {
+      try {
+         executor.execute(task);
+      } catch (RejectedExecutionException e) {
+         log.warn("Cannot resume a sender task after its think time: ", e);
+         finished();
+      }
+   }
+
+   /**
+    * Waits for all the tasks in progress to finish.
+    *
+    * @param timeout
+    *           The maximal time to wait in milliseconds, a negative value means no limit.
+    * @return The number of tasks still in progress after the timeout.
+    * @throws InterruptedException
+    *            When the waiting was interrupted.
+    */
+   synchronized int awaitFinished(final long timeout) throws InterruptedException {
+      final long end = System.currentTimeMillis() + timeout;
+      long remaining = timeout;
+
+      while (inProgress > 0 && (timeout < 0 || remaining > 0)) {
+         wait(timeout < 0 ? 0 : remaining);
+         remaining = end - System.currentTimeMillis();
+      }
+
+      return inProgress;
+   }
+
+   /**
+    * Closes the scheduler. No more tasks can be parked and the tasks still parked are never resumed.
+    *
+    * @return The number of the parked tasks that were dropped.
+    * @throws InterruptedException
+    *            When waiting for the timer to stop was interrupted.
+    */
+   int close() throws InterruptedException {
+      synchronized (this) {
+         closed = true;
+      }
+
+      return timer.stop().size();
+   }
+}
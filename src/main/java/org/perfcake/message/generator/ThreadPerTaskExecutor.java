@@ -0,0 +1,256 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor service that runs each task in a new thread created by the given factory, no thread is ever reused. This is the way
+ * to use virtual threads, that are cheap to create but should not be pooled. At most {@link #limit} tasks run at the same time,
+ * the other tasks wait in a queue, so the number of threads of a generator keeps its meaning. Submitting and finishing
+ * the tasks does not take any lock, the lock is used only to wait for the termination.
+ */
+class ThreadPerTaskExecutor extends AbstractExecutorService {
+
+   /**
+    * The factory of the threads.
+    */
+   private final ThreadFactory threadFactory;
+
+   /**
+    * Used to wait for the termination.
+    */
+   private final Object terminationLock = new Object();
+
+   /**
+    * The tasks waiting for a free place.
+    */
+   private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+   /**
+    * The number of the tasks in {@link #queue}, the size of the queue itself is not computed in a constant time.
+    */
+   private final AtomicInteger queueSize = new AtomicInteger();
+
+   /**
+    * The number of the places taken by the running tasks.
+    */
+   private final AtomicInteger active = new AtomicInteger();
+
+   /**
+    * The threads running the tasks, kept to be able to interrupt them.
+    */
+   private final Set<Thread> running = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+   /**
+    * The maximal number of tasks running at the same time.
+    */
+   private volatile int limit;
+
+   /**
+    * Indicates whether the executor was shut down.
+    */
+   private volatile boolean shutdown = false;
+
+   /**
+    * Creates a new executor.
+    *
+    * @param limit
+    *           The maximal number of tasks running at the same time.
+    * @param threadFactory
+    *           The factory of the threads.
+    */
+   ThreadPerTaskExecutor(final int limit, final ThreadFactory threadFactory) {
+      this.limit = limit;
+      this.threadFactory = threadFactory;
+   }
+
+   @Override
+   public void execute(final Runnable task) {
+      if (shutdown) {
+         throw new RejectedExecutionException("The executor has been shut down.");
+      }
+
+      queueSize.incrementAndGet();
+      queue.add(task);
+      if (shutdown && queue.remove(task)) { // shut down in the meantime
+         queueSize.decrementAndGet();
+         throw new RejectedExecutionException("The executor has been shut down.");
+      }
+      startWaiting();
+   }
+
+   /**
+    * Starts the waiting tasks while there are free places. Both the submitting and the finishing threads call this after changing
+    * their part of the state, so a task is never left waiting with a free place.
+    */
+   private void startWaiting() {
+      while (!queue.isEmpty()) {
+         final int current = active.get();
+         if (current >= limit) {
+            return;
+         }
+
+         if (active.compareAndSet(current, current + 1)) {
+            final Runnable task = queue.poll();
+            if (task == null) { // taken by another thread in the meantime
+               active.decrementAndGet();
+            } else {
+               queueSize.decrementAndGet();
+               start(task);
+            }
+         }
+      }
+   }
+
+   /**
+    * Starts a new thread for the task in a place that has already been taken.
+    *
+    * @param task
+    *           The task to run.
+    */
+   private void start(final Runnable task) {
+      final Thread thread = threadFactory.newThread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               task.run();
+            } finally {
+               finished();
+            }
+         }
+      });
+      running.add(thread);
+      thread.start();
+   }
+
+   /**
+    * Frees the place of the task that has just finished in the current thread and starts the next waiting task, if any.
+    */
+   private void finished() {
+      running.remove(Thread.currentThread());
+      active.decrementAndGet();
+      startWaiting();
+      signalTermination();
+   }
+
+   /**
+    * Wakes up the threads waiting for the termination once the executor is terminated.
+    */
+   private void signalTermination() {
+      if (isTerminated()) {
+         synchronized (terminationLock) {
+            terminationLock.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Sets the maximal number of tasks running at the same time. When the limit is lowered, the running tasks are not interrupted,
+    * the new tasks just wait until the number of the running tasks falls under the limit.
+    *
+    * @param limit
+    *           The maximal number of tasks running at the same time.
+    */
+   void setLimit(final int limit) {
+      this.limit = limit;
+      startWaiting();
+   }
+
+   /**
+    * Gets the number of the running tasks.
+    *
+    * @return The number of the running tasks.
+    */
+   int getActiveCount() {
+      return active.get();
+   }
+
+   /**
+    * Gets the number of the tasks waiting for a free place.
+    *
+    * @return The number of the waiting tasks.
+    */
+   int getQueueSize() {
+      return queueSize.get();
+   }
+
+   @Override
+   public void shutdown() {
+      shutdown = true;
+      signalTermination();
+   }
+
+   @Override
+   public List<Runnable> shutdownNow() {
+      shutdown = true;
+      final List<Runnable> waiting = new ArrayList<>();
+      Runnable task;
+      while ((task = queue.poll()) != null) {
+         queueSize.decrementAndGet();
+         waiting.add(task);
+      }
+      for (final Thread thread : running) {
+         thread.interrupt();
+      }
+      signalTermination();
+
+      return waiting;
+   }
+
+   @Override
+   public boolean isShutdown() {
+      return shutdown;
+   }
+
+   @Override
+   public boolean isTerminated() {
+      return shutdown && active.get() == 0 && queue.isEmpty();
+   }
+
+   @Override
+   public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+      final long end = System.nanoTime() + unit.toNanos(timeout);
+
+      synchronized (terminationLock) {
+         long remaining;
+         while (!isTerminated()) {
+            remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+               return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+         }
+
+         return true;
+      }
+   }
+}
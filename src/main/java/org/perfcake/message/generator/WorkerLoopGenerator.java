@@ -0,0 +1,143 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.apache.log4j.Logger;
+import org.perfcake.common.IterationRange;
+import org.perfcake.common.PeriodType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Generator that is able to generate maximal load with the lowest possible overhead.
+ * </p>
+ * <p>
+ * Unlike {@link DefaultMessageGenerator}, no task is submitted per iteration. Each of the threads runs a single worker that keeps
+ * executing its own {@link SenderTask} until the measurement ends. There is no internal thread queue and the
+ * {@link #threadQueueSize} property is ignored.
+ * </p>
+ * <p>
+ * The workers reserve the iteration numbers in blocks of {@link #iterationBatchSize} to avoid contention on the shared iteration counter.
+ * The iterations reserved but not executed by the end of the measurement are given back, so the iteration counter matches the number
+ * of the iterations executed, only the intermediate results can be ahead by up to one block per worker.
+ * The end of a time bound measurement is watched by the generator itself so that the workers do not need to check the time for every message.
+ * </p>
+ */
+public class WorkerLoopGenerator extends DefaultMessageGenerator {
+
+   /**
+    * The generator's logger.
+    */
+   private static final Logger log = Logger.getLogger(WorkerLoopGenerator.class);
+
+   /**
+    * A worker that repeatedly executes the same sender task while the measurement is running.
+    */
+   private class Worker implements Runnable {
+
+      /**
+       * The sender task reused for all the iterations executed by this worker.
+       */
+      private final SenderTask task = newSenderTask(null);
+
+      @Override
+      public void run() {
+         IterationRange range;
+
+         while (runInfo.isStarted() && (range = runInfo.reserveIterations(iterationBatchSize)) != null) {
+            long i = range.getFirst();
+            while (i < range.getEnd() && runInfo.isStarted() && !Thread.currentThread().isInterrupted()) {
+               task.setIteration(i);
+               task.run();
+               if (task.isIterationAssigned()) {
+                  break; // the measurement has been stopped in the meantime
+               }
+               i++;
+            }
+
+            if (i < range.getEnd()) { // the measurement ended, the rest of the block must not be counted
+               runInfo.releaseIterations(range.getEnd() - i);
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * The number of iterations each worker reserves at once.
+    */
+   protected int iterationBatchSize = 100;
+
+   @Override
+   public void generate() throws Exception {
+      log.info("Starting to generate...");
+      createExecutorService(getThreads());
+      runInfo.setThreads(getThreads());
+      setStartTime();
+
+      for (int i = 0; i < getThreads(); i++) {
+         getExecutorService().submit(new Worker());
+      }
+      getExecutorService().shutdown(); // no more tasks, the workers finish when the measurement ends
+
+      // in case of iterations, the workers end on their own after all the reserved iterations are processed
+      final boolean iterationBound = runInfo.getDuration().getPeriodType() == PeriodType.ITERATION;
+      while (!getExecutorService().awaitTermination(getWaitPeriod(), TimeUnit.MILLISECONDS) && (iterationBound || runInfo.isRunning())) {
+         // wait for the end of the measurement
+      }
+
+      log.info("Reached test end.");
+      shutdown();
+   }
+
+   /**
+    * Computes how long the generator should wait before checking the state of the measurement again.
+    * In case of a time bound measurement, the generator never waits after the measurement end.
+    *
+    * @return The time to wait in milliseconds.
+    */
+   private long getWaitPeriod() {
+      if (runInfo.getDuration().getPeriodType() == PeriodType.TIME) {
+         return Math.max(1, Math.min(monitoringPeriod, runInfo.getDuration().getPeriod() - runInfo.getRunTime()));
+      }
+
+      return monitoringPeriod;
+   }
+
+   /**
+    * Used to read the number of iterations each worker reserves at once.
+    *
+    * @return The iteration batch size.
+    */
+   public int getIterationBatchSize() {
+      return iterationBatchSize;
+   }
+
+   /**
+    * Sets the number of iterations each worker reserves at once. Higher values lower the contention among the workers.
+    *
+    * @param iterationBatchSize
+    *           The iteration batch size.
+    */
+   public void setIterationBatchSize(final int iterationBatchSize) {
+      this.iterationBatchSize = iterationBatchSize;
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.util.Utils;
+
+import java.nio.charset.Charset;
+
+/**
+ * The common ancestor of the senders framing the messages and the responses (see {@link Framing}). It holds the configuration
+ * of the framing, a response longer than {@link #maxFrameSize} fails the message.
+ */
+abstract public class AbstractFramedSender extends AbstractSender {
+
+   /**
+    * The framing of the messages and the responses.
+    */
+   private Framing.Type framing = Framing.Type.NONE;
+
+   /**
+    * The delimiter of the messages used by the {@link Framing.Type#DELIMITER} framing.
+    */
+   private String delimiter = "\n";
+
+   /**
+    * The size of the messages in bytes used by the {@link Framing.Type#FIXED_SIZE} framing.
+    */
+   private int frameSize = 0;
+
+   /**
+    * The maximal size of the responses in bytes, a longer response fails the message.
+    */
+   private int maxFrameSize = 16 * 1024 * 1024;
+
+   /**
+    * Creates the framing according to the configuration.
+    * 
+    * @return The framing, or null when the messages are not framed.
+    * @throws PerfCakeException
+    *            When the configuration of the framing is not valid.
+    */
+   protected Framing newFraming() throws PerfCakeException {
+      return Framing.newInstance(framing, delimiter.getBytes(Charset.forName(Utils.getDefaultEncoding())), frameSize, maxFrameSize);
+   }
+
+   /**
+    * Used to read the framing of the messages.
+    * 
+    * @return The framing.
+    */
+   public Framing.Type getFraming() {
+      return framing;
+   }
+
+   /**
+    * Sets the framing of the messages and the responses.
+    * 
+    * @param framing
+    *           The framing to set.
+    */
+   public void setFraming(final Framing.Type framing) {
+      this.framing = framing;
+   }
+
+   /**
+    * Used to read the delimiter of the messages.
+    * 
+    * @return The delimiter.
+    */
+   public String getDelimiter() {
+      return delimiter;
+   }
+
+   /**
+    * Sets the delimiter of the messages used by the {@link Framing.Type#DELIMITER} framing. It is encoded by the default encoding.
+    * 
+    * @param delimiter
+    *           The delimiter to set.
+    */
+   public void setDelimiter(final String delimiter) {
+      this.delimiter = delimiter;
+   }
+
+   /**
+    * Used to read the size of the messages.
+    * 
+    * @return The frame size in bytes.
+    */
+   public int getFrameSize() {
+      return frameSize;
+   }
+
+   /**
+    * Sets the size of the messages used by the {@link Framing.Type#FIXED_SIZE} framing.
+    * 
+    * @param frameSize
+    *           The frame size in bytes.
+    */
+   public void setFrameSize(final int frameSize) {
+      this.frameSize = frameSize;
+   }
+
+   /**
+    * Used to read the maximal size of the responses.
+    * 
+    * @return The maximal frame size in bytes.
+    */
+   public int getMaxFrameSize() {
+      return maxFrameSize;
+   }
+
+   /**
+    * Sets the maximal size of the responses. A response that is longer, or that announces a longer length, fails the message
+    * and the connection is closed.
+    * 
+    * @param maxFrameSize
+    *           The maximal frame size in bytes.
+    */
+   public void setMaxFrameSize(final int maxFrameSize) {
+      this.maxFrameSize = maxFrameSize;
+   }
+}
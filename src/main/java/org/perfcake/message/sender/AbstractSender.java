@@ -20,12 +20,16 @@
 package org.perfcake.message.sender;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.perfcake.PerfCakeException;
 import org.perfcake.message.Message;
+import org.perfcake.message.Session;
 import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.util.Utils;
 
 /**
  * The common ancestor for all senders.
@@ -43,6 +47,17 @@ abstract public class AbstractSender implements MessageSender {
     */
    protected String target = "";
 
+   /**
+    * The session of the simulated user the sender currently sends the messages for, or null when the sessions are not used.
+    */
+   protected Session session;
+
+   /**
+    * Indicates whether the response to the current message is used (e.g. by a validator or an extractor). When it is not,
+    * the sender does not need to keep the response.
+    */
+   private boolean responseNeeded = true;
+
    /*
     * (non-Javadoc)
     * 
@@ -128,6 +143,62 @@ abstract public class AbstractSender implements MessageSender {
       return send(message, null, mu);
    }
 
+   /**
+    * Gets a read-only buffer with the payload of the message encoded by the default encoding. The payloads that never change are encoded
+    * only once by the message template and the bytes are shared by all the threads, otherwise the payload is encoded now.
+    * @param message
+    *           The message.
+    * @return The buffer with the encoded payload, or null when there is no payload.
+    * @throws UnsupportedEncodingException
+    *            When the default encoding is not supported.
+    */
+   protected ByteBuffer getPayloadBuffer(final Message message) throws UnsupportedEncodingException {
+      if (message == null || message.getPayload() == null) {
+         return null;
+      }
+
+      final String encoding = Utils.getDefaultEncoding();
+      final ByteBuffer encodedPayload = message.getEncodedPayload(encoding);
+
+      return encodedPayload != null ? encodedPayload : ByteBuffer.wrap(message.getPayload().toString().getBytes(encoding)).asReadOnlyBuffer();
+   }
+
+   /**
+    * Used to read the session of the simulated user the sender currently sends the messages for.
+    * @return The current session, or null when the sessions are not used.
+    */
+   public Session getSession() {
+      return session;
+   }
+
+   /**
+    * Sets the session of the simulated user the sender sends the following messages for. The senders that keep a per user state
+    * (e.g. cookies) should take it from the session.
+    * @param session
+    *           The session, or null when the sessions are not used.
+    */
+   public void setSession(final Session session) {
+      this.session = session;
+   }
+
+   /**
+    * Used to read whether the response to the current message is used after the message has been sent.
+    * @return True when the response is used and must be returned by {@link #doSend(Message, Map, MeasurementUnit)}.
+    */
+   public boolean isResponseNeeded() {
+      return responseNeeded;
+   }
+
+   /**
+    * Sets whether the response to the following messages is used after they have been sent. It is set by the sender task
+    * according to the validators and extractors of the message. The senders may skip reading or decoding the responses that are not needed.
+    * @param responseNeeded
+    *           True when the response is used.
+    */
+   public void setResponseNeeded(final boolean responseNeeded) {
+      this.responseNeeded = responseNeeded;
+   }
+
    /**
     * Used to read the value of target.
     * 
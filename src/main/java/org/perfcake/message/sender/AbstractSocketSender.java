@@ -1,15 +1,15 @@
 /*
  * -----------------------------------------------------------------------\
  * PerfCake
- *  
+ *
  * Copyright (C) 2010 - 2013 the original author or authors.
- *  
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -27,14 +27,30 @@ import org.perfcake.util.Utils;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 
 /**
+ * <p>
  * The common ancestor for all senders that are able to send messages through a socket.
+ * </p>
+ * <p>
+ * By default, a new connection is opened for each message and the response is read as long as there is some data available
+ * without blocking, so the end of the response cannot be recognized reliably. With a framing configured, the messages
+ * are framed (see {@link Framing}) and the whole response is awaited. Then the connection can also be kept open and reused
+ * for the following messages sent by the same sender instance (see {@link #persistentConnection}).
+ * </p>
  * 
  * @author Martin Večeřa <marvenec@gmail.com>
  */
-abstract public class AbstractSocketSender extends AbstractSender {
+abstract public class AbstractSocketSender extends AbstractFramedSender {
+
+   /**
+    * The initial size of the buffer for the received bytes.
+    */
+   private static final int RECEIVE_BUFFER_SIZE = 8 * 1024;
 
    /**
     * The host of the socket.
@@ -52,14 +68,54 @@ abstract public class AbstractSocketSender extends AbstractSender {
    protected Socket socket;
 
    /**
-    * A writer for message to be written into the socket.
+    * Indicates whether the connection is kept open for the following messages.
+    */
+   private boolean persistentConnection = false;
+
+   /**
+    * The framing created according to the configuration, or null when the messages are not framed.
+    */
+   private Framing framer;
+
+   /**
+    * A stream for the encoded message to be written into the socket.
+    */
+   private OutputStream out;
+
+   /**
+    * A channel writing the encoded message into {@link #out}.
+    */
+   private WritableByteChannel outChannel;
+
+   /**
+    * A stream for the response to be received from the socket.
+    */
+   private InputStream in;
+
+   /**
+    * A reader for response to be received from the socket when the messages are not framed.
     */
-   private PrintWriter out;
+   private BufferedReader reader;
 
    /**
-    * A reader for response to be received from the socket.
+    * The buffer for the frame header.
     */
-   private BufferedReader in;
+   private ByteBuffer header;
+
+   /**
+    * The received bytes not processed yet, between the position and the limit of the buffer.
+    */
+   private ByteBuffer received;
+
+   /**
+    * Indicates whether the current message is sent over a connection that was already used before.
+    */
+   private boolean reused;
+
+   /**
+    * Indicates whether a part of the response to the current message has been received.
+    */
+   private boolean responseStarted;
 
    /**
     * The sender's logger.
@@ -76,6 +132,14 @@ abstract public class AbstractSocketSender extends AbstractSender {
       String[] parts = target.split(":", 2);
       host = parts[0];
       port = Integer.valueOf(parts[1]);
+
+      framer = newFraming();
+      if (framer != null) {
+         header = ByteBuffer.allocate(framer.getHeaderLength());
+         received = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+      } else if (persistentConnection) {
+         throw new PerfCakeException("The persistent connection requires a framing to recognize the end of the responses.");
+      }
    }
 
    /*
@@ -85,7 +149,9 @@ abstract public class AbstractSocketSender extends AbstractSender {
     */
    @Override
    public void close() {
-      // closed per message
+      if (socket != null) { // the persistent connection
+         closeSocket();
+      }
    }
 
    /**
@@ -96,22 +162,39 @@ abstract public class AbstractSocketSender extends AbstractSender {
    abstract protected void openSocket() throws Exception;
 
    /**
-    * Opens the writer to an outbound socket's stream and the reader to read from inbound socket's stream.
+    * Opens the outbound socket's stream and the inbound socket's stream or a reader of it.
     * 
     * @throws Exception
     */
    private void openStreams() throws Exception {
-      out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), Utils.getDefaultEncoding()), true);
-      in = new BufferedReader(new InputStreamReader(socket.getInputStream(), Utils.getDefaultEncoding()));
+      if (framer != null) {
+         out = new BufferedOutputStream(socket.getOutputStream());
+         outChannel = Channels.newChannel(out);
+         in = socket.getInputStream();
+         received.clear();
+         received.flip();
+      } else {
+         out = socket.getOutputStream();
+         outChannel = Channels.newChannel(out);
+         reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Utils.getDefaultEncoding()));
+      }
    }
 
    /**
     * Closes the socket along with the outbound and inbound streams.
     */
    private void closeSocket() {
-      out.close();
       try {
-         in.close();
+         out.close();
+      } catch (IOException e) {
+         log.warn("Cannot close output stream.", e);
+      }
+      try {
+         if (reader != null) {
+            reader.close();
+         } else {
+            in.close();
+         }
       } catch (IOException e) {
          log.warn("Cannot close input stream.", e);
       }
@@ -120,6 +203,7 @@ abstract public class AbstractSocketSender extends AbstractSender {
       } catch (IOException e) {
          log.warn("Cannot close socket.", e);
       }
+      socket = null;
    }
 
    /*
@@ -130,8 +214,11 @@ abstract public class AbstractSocketSender extends AbstractSender {
    @Override
    public void preSend(final Message message, final Map<String, String> properties) throws Exception {
       super.preSend(message, properties);
-      openSocket();
-      openStreams();
+      reused = socket != null;
+      if (!reused) {
+         openSocket();
+         openStreams();
+      }
    }
 
    /*
@@ -141,20 +228,101 @@ abstract public class AbstractSocketSender extends AbstractSender {
     */
    @Override
    public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
-      out.print(message.getPayload().toString());
+      if (framer != null) {
+         return exchange(getPayloadBuffer(message));
+      }
 
-      if (out.checkError()) { // flush and check for error
-         throw new PerfCakeException(String.format("Error writing to a socket at %s:%d.", host, port));
+      try {
+         outChannel.write(getPayloadBuffer(message));
+         out.flush();
+      } catch (IOException e) {
+         throw new PerfCakeException(String.format("Error writing to a socket at %s:%d.", host, port), e);
       }
 
       StringBuilder sb = new StringBuilder();
-      while (in.ready()) {
-         sb.append(in.readLine());
+      while (reader.ready()) {
+         sb.append(reader.readLine());
       }
 
       return sb.toString();
    }
 
+   /**
+    * Sends the framed message and waits for the whole framed response. When the server has closed the persistent connection
+    * in the meantime, the message is sent once more over a new connection.
+    * 
+    * @param payload
+    *           The message payload.
+    * @return The response.
+    * @throws Exception
+    *            When the message could not be sent or the response could not be received.
+    */
+   private String exchange(final ByteBuffer payload) throws Exception {
+      try {
+         return sendFrame(payload);
+      } catch (IOException e) {
+         closeSocket();
+         if (!reused || responseStarted) {
+            throw new PerfCakeException(String.format("Error communicating over a socket at %s:%d.", host, port), e);
+         }
+      }
+
+      openSocket();
+      openStreams();
+      reused = false;
+      try {
+         return sendFrame(payload);
+      } catch (IOException e) {
+         closeSocket();
+         throw new PerfCakeException(String.format("Error communicating over a socket at %s:%d.", host, port), e);
+      }
+   }
+
+   /**
+    * Writes the framed message to the socket and reads the response frame.
+    * 
+    * @param payload
+    *           The read-only buffer with the message payload, its position is not changed.
+    * @return The response.
+    * @throws Exception
+    *            When the message could not be framed or the connection failed.
+    */
+   private String sendFrame(final ByteBuffer payload) throws Exception {
+      final int length = payload == null ? 0 : payload.remaining();
+      responseStarted = false;
+
+      header.clear();
+      framer.writeHeader(header, length);
+      out.write(header.array(), 0, header.position());
+      if (payload != null) {
+         outChannel.write(payload.duplicate());
+      }
+      out.write(framer.getTrailer(), 0, framer.getTrailerLength(length));
+      out.flush();
+
+      ByteBuffer frame;
+      while ((frame = framer.nextFrame(received)) == null) {
+         received.compact();
+         if (!received.hasRemaining()) { // the response does not fit into the buffer
+            final ByteBuffer larger = ByteBuffer.allocate(received.capacity() * 2);
+            received.flip();
+            larger.put(received);
+            received = larger;
+         }
+
+         final int read = in.read(received.array(), received.position(), received.remaining());
+         if (read < 0) {
+            received.flip();
+            throw new EOFException("The connection was closed before the whole response was received.");
+         }
+         received.position(received.position() + read);
+         received.flip();
+         responseStarted = true;
+      }
+
+      return new String(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), Utils.getDefaultEncoding());
+   }
+
    /*
     * (non-Javadoc)
     * 
@@ -163,7 +331,27 @@ abstract public class AbstractSocketSender extends AbstractSender {
    @Override
    public void postSend(final Message message) throws Exception {
       super.postSend(message);
-      closeSocket();
+      if (!persistentConnection && socket != null) {
+         closeSocket();
+      }
    }
 
+   /**
+    * Used to read whether the connection is kept open for the following messages.
+    * 
+    * @return True when the connection is persistent.
+    */
+   public boolean isPersistentConnection() {
+      return persistentConnection;
+   }
+
+   /**
+    * Sets whether the connection is kept open for the following messages. It requires a framing to be configured.
+    * 
+    * @param persistentConnection
+    *           True to keep the connection open.
+    */
+   public void setPersistentConnection(final boolean persistentConnection) {
+      this.persistentConnection = persistentConnection;
+   }
 }
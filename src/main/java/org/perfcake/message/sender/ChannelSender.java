@@ -1,15 +1,15 @@
 /*
  * -----------------------------------------------------------------------\
  * PerfCake
- *  
+ *
  * Copyright (C) 2010 - 2013 the original author or authors.
- *  
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -20,32 +20,194 @@
 package org.perfcake.message.sender;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Map;
 
 import org.perfcake.message.Message;
-import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.util.Utils;
 
 /**
- * TODO: Provide implementation. This should write to NIO channels.
+ * <p>
+ * The common ancestor for all senders writing the messages to NIO channels. The messages are framed (see {@link Framing}) and
+ * copied to direct buffers before they are sent, so that the measured sending does not need to encode the message nor copy
+ * it from the heap. The buffers are reused by the sender instance and the payloads encoded in advance by the message template are
+ * copied only once. The header, the payload and the trailer of the frame are written together by a gathering write.
+ * </p>
+ * <p>
+ * The responses are collected in a direct buffer, {@link #nextResponse()} takes the complete responses out of it.
+ * </p>
  * 
  * @author Martin Večeřa <marvenec@gmail.com>
  * 
  */
-public class ChannelSender extends AbstractSender {
+abstract public class ChannelSender extends AbstractFramedSender {
+
+   /**
+    * The initial size of the buffers for the payload and for the received bytes.
+    */
+   private static final int BUFFER_SIZE = 8 * 1024;
+
+   /**
+    * The framing created according to the configuration, or null when the messages are not framed.
+    */
+   protected Framing framer;
+
+   /**
+    * The frame of the current message ready to be written, the header, the payload and the trailer.
+    */
+   protected ByteBuffer[] frame;
+
+   /**
+    * The direct buffer with the header of the frame.
+    */
+   private ByteBuffer header;
+
+   /**
+    * The direct buffer with the payload.
+    */
+   private ByteBuffer payload;
+
+   /**
+    * The direct buffer with the trailer of the frame.
+    */
+   private ByteBuffer trailer;
+
+   /**
+    * The payload copied to the direct buffer, as long as the same string is sent the encoding and copying is skipped.
+    */
+   private String bufferedPayload;
+
+   /**
+    * The direct buffer the received bytes are read into, it is kept ready for reading from the channel.
+    */
+   private ByteBuffer received;
+
+   /**
+    * The character set of the responses.
+    */
+   private Charset charset;
 
    @Override
    public void init() throws Exception {
-      // TODO Auto-generated method stub
+      charset = Charset.forName(Utils.getDefaultEncoding());
+      framer = newFraming();
+
+      payload = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      received = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      if (framer != null) {
+         header = ByteBuffer.allocateDirect(framer.getHeaderLength());
+         trailer = ByteBuffer.allocateDirect(framer.getTrailer().length);
+         trailer.put(framer.getTrailer());
+         frame = new ByteBuffer[] { header, payload, trailer };
+      } else {
+         frame = new ByteBuffer[] { payload };
+      }
    }
 
    @Override
-   public void close() {
-      // TODO Auto-generated method stub
+   public void preSend(final Message message, final Map<String, String> properties) throws Exception {
+      super.preSend(message, properties);
+
+      final Serializable messagePayload = message == null ? null : message.getPayload();
+      if (messagePayload == null || messagePayload != bufferedPayload) { // the payload that never changes is always the same string
+         final ByteBuffer bytes = getPayloadBuffer(message);
+         final int length = bytes == null ? 0 : bytes.remaining();
+         if (payload.capacity() < length) {
+            payload = ByteBuffer.allocateDirect(Math.max(length, payload.capacity() * 2));
+            frame[framer != null ? 1 : 0] = payload;
+         }
+         payload.clear();
+         if (bytes != null) {
+            payload.put(bytes);
+         }
+         payload.flip();
+         bufferedPayload = messagePayload instanceof String ? (String) messagePayload : null;
+      }
+      final int length = payload.limit();
+      payload.position(0);
+
+      if (framer != null) {
+         header.clear();
+         framer.writeHeader(header, length);
+         header.flip();
+         trailer.limit(framer.getTrailerLength(length));
+         trailer.position(0);
+      }
    }
 
-   @Override
-   public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
-      // TODO Auto-generated method stub
-      return null;
+   /**
+    * Gets the number of bytes of the frame of the current message.
+    * 
+    * @return The frame length.
+    */
+   protected long getFrameLength() {
+      long length = 0;
+      for (final ByteBuffer buffer : frame) {
+         length += buffer.limit();
+      }
+
+      return length;
+   }
+
+   /**
+    * Rewinds the frame of the current message so that it can be written again.
+    */
+   protected void rewindFrame() {
+      for (final ByteBuffer buffer : frame) {
+         buffer.position(0);
+      }
+   }
+
+   /**
+    * Gets the buffer the received bytes should be read into. It has always some space remaining.
+    * 
+    * @return The buffer for the received bytes.
+    */
+   protected ByteBuffer getReceiveBuffer() {
+      if (!received.hasRemaining()) { // the response does not fit into the buffer
+         final ByteBuffer larger = ByteBuffer.allocateDirect(received.capacity() * 2);
+         received.flip();
+         larger.put(received);
+         received = larger;
+      }
+
+      return received;
+   }
+
+   /**
+    * Throws away all the received bytes.
+    */
+   protected void clearReceived() {
+      received.clear();
+   }
+
+   /**
+    * Takes the next complete response out of the received bytes using the framing.
+    * 
+    * @return The response, or null when it has not been received completely yet.
+    * @throws Exception
+    *            When the received bytes do not form a valid frame.
+    */
+   protected String nextResponse() throws Exception {
+      received.flip();
+      try {
+         final ByteBuffer response = framer.nextFrame(received);
+
+         return response == null ? null : decode(response);
+      } finally {
+         received.compact();
+      }
+   }
+
+   /**
+    * Decodes the received bytes using the default encoding.
+    * 
+    * @param bytes
+    *           The received bytes between the position and the limit of the buffer.
+    * @return The decoded response.
+    */
+   protected String decode(final ByteBuffer bytes) {
+      return charset.decode(bytes).toString();
    }
 }
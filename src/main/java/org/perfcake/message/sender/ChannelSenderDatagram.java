@@ -1,15 +1,15 @@
 /*
  * -----------------------------------------------------------------------\
  * PerfCake
- *  
+ *
  * Copyright (C) 2010 - 2013 the original author or authors.
- *  
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -19,10 +19,340 @@
  */
 package org.perfcake.message.sender;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.message.Message;
+import org.perfcake.reporting.MeasurementUnit;
+
 /**
+ * <p>
+ * The sender writing the messages as UDP datagrams to a non-blocking datagram channel. The target is specified as <code>host:port</code>.
+ * Each sending of a message sends {@link #batchSize} datagrams at once. The datagrams that do not fit into the send buffer
+ * of the channel are dropped instead of waiting for the buffer.
+ * </p>
+ * <p>
+ * When {@link #awaitResponse} is set, each datagram starts with its 8 byte big-endian sequence number, and the replies are expected
+ * to start with the sequence number of the datagram they respond to. The sender waits for the replies to all the datagrams
+ * of the batch at most for {@link #responseTimeout} milliseconds, the replies to older datagrams are ignored. The last reply
+ * without the sequence number is returned as the response.
+ * </p>
+ * <p>
+ * The numbers of sent ({@link #SENT_PACKETS}), dropped ({@link #DROPPED_PACKETS}) and timed out ({@link #TIMED_OUT_PACKETS})
+ * datagrams are stored in the measurement unit.
+ * </p>
  * 
  * @author Lucie Fabriková <lucie.fabrikova@gmail.com>
  */
-public class ChannelSenderDatagram {
+public class ChannelSenderDatagram extends ChannelSender {
+
+   /**
+    * The name of the result carrying the number of sent datagrams.
+    */
+   public static final String SENT_PACKETS = "SentPackets";
+
+   /**
+    * The name of the result carrying the number of datagrams dropped before sending.
+    */
+   public static final String DROPPED_PACKETS = "DroppedPackets";
+
+   /**
+    * The name of the result carrying the number of datagrams without a reply in time.
+    */
+   public static final String TIMED_OUT_PACKETS = "TimedOutPackets";
+
+   /**
+    * The maximal size of a datagram.
+    */
+   private static final int MAX_DATAGRAM_SIZE = 65_535;
+
+   /**
+    * The number of datagrams sent at once.
+    */
+   private int batchSize = 1;
+
+   /**
+    * Indicates whether the replies to the datagrams are awaited.
+    */
+   private boolean awaitResponse = false;
+
+   /**
+    * The maximal time in milliseconds to wait for the replies.
+    */
+   private long responseTimeout = 1_000;
+
+   /**
+    * The channel connected to the target.
+    */
+   private DatagramChannel channel;
+
+   /**
+    * The selector used to wait for the replies.
+    */
+   private Selector selector;
+
+   /**
+    * The direct buffer with the sequence number of the datagram.
+    */
+   private final ByteBuffer sequenceHeader = ByteBuffer.allocateDirect(8);
+
+   /**
+    * The sequence number, the frame of the current message and the framing trailer.
+    */
+   private ByteBuffer[] datagram;
+
+   /**
+    * The direct buffer the replies are received into.
+    */
+   private ByteBuffer reply;
+
+   /**
+    * The sequence number of the last sent datagram.
+    */
+   private long sequence = 0;
+
+   /**
+    * The datagrams of the current batch the replies are awaited for.
+    */
+   private boolean[] pending;
+
+   /**
+    * The total numbers of the sent, dropped and timed out datagrams.
+    */
+   private long sentPackets = 0, droppedPackets = 0, timedOutPackets = 0;
+
+   @Override
+   public void init() throws Exception {
+      super.init();
+
+      final String[] parts = target.split(":", 2);
+      channel = DatagramChannel.open();
+      channel.connect(new InetSocketAddress(parts[0], Integer.valueOf(parts[1])));
+      channel.configureBlocking(false);
+
+      if (awaitResponse) {
+         selector = Selector.open();
+         channel.register(selector, SelectionKey.OP_READ);
+         reply = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+         pending = new boolean[batchSize];
+         datagram = new ByteBuffer[frame.length + 1];
+         datagram[0] = sequenceHeader;
+      }
+   }
+
+   @Override
+   public void close() throws PerfCakeException {
+      try {
+         if (selector != null) {
+            selector.close();
+         }
+         channel.close();
+      } catch (IOException e) {
+         throw new PerfCakeException("Cannot close the datagram channel.", e);
+      }
+   }
+
+   @Override
+   public void preSend(final Message message, final Map<String, String> properties) throws Exception {
+      super.preSend(message, properties);
+
+      if (awaitResponse) { // the payload buffer might have been replaced
+         System.arraycopy(frame, 0, datagram, 1, frame.length);
+      }
+   }
+
+   @Override
+   public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+      final long firstSequence = sequence + 1;
+      int sent = 0;
+      int dropped = 0;
+
+      for (int i = 0; i < batchSize; i++) {
+         rewindFrame();
+         boolean written;
+         if (awaitResponse) {
+            sequenceHeader.clear();
+            sequenceHeader.putLong(++sequence);
+            sequenceHeader.flip();
+            written = write(datagram);
+            pending[i] = written;
+         } else {
+            written = write(frame);
+         }
+
+         if (written) {
+            sent++;
+         } else {
+            dropped++;
+         }
+      }
+
+      String response = null;
+      int timedOut = 0;
+      if (awaitResponse) {
+         timedOut = sent;
+         final long deadline = System.nanoTime() + responseTimeout * 1_000_000;
+         while (timedOut > 0) {
+            reply.clear();
+            if (receive() == 0) {
+               final long timeout = (deadline - System.nanoTime()) / 1_000_000;
+               if (timeout <= 0) {
+                  break;
+               }
+               selector.select(timeout);
+               selector.selectedKeys().clear();
+               continue;
+            }
+
+            reply.flip();
+            if (reply.remaining() >= 8) {
+               final long index = reply.getLong() - firstSequence;
+               if (index >= 0 && index < batchSize && pending[(int) index]) {
+                  pending[(int) index] = false;
+                  timedOut--;
+                  response = decode(reply);
+               }
+            }
+         }
+         Arrays.fill(pending, false);
+      }
+
+      sentPackets += sent;
+      droppedPackets += dropped;
+      timedOutPackets += timedOut;
+      if (mu != null) {
+         mu.appendResult(SENT_PACKETS, (double) sent);
+         mu.appendResult(DROPPED_PACKETS, (double) dropped);
+         if (awaitResponse) {
+            mu.appendResult(TIMED_OUT_PACKETS, (double) timedOut);
+         }
+      }
+
+      return response;
+   }
+
+   /**
+    * Writes a single datagram.
+    * 
+    * @param buffers
+    *           The content of the datagram.
+    * @return True when the datagram was sent, false when it was dropped.
+    * @throws IOException
+    *            When the channel failed.
+    */
+   private boolean write(final ByteBuffer[] buffers) throws IOException {
+      try {
+         return channel.write(buffers) > 0 || getFrameLength() == 0;
+      } catch (PortUnreachableException e) { // reported for a previous datagram
+         return false;
+      }
+   }
+
+   /**
+    * Receives a single reply into {@link #reply}.
+    * 
+    * @return The number of bytes received, or 0 when there is no reply available.
+    * @throws IOException
+    *            When the channel failed.
+    */
+   private int receive() throws IOException {
+      try {
+         return channel.read(reply);
+      } catch (PortUnreachableException e) { // nobody listens, the replies will time out
+         return 0;
+      }
+   }
+
+   /**
+    * Used to read the total number of sent datagrams.
+    * 
+    * @return The number of sent datagrams.
+    */
+   long getSentPackets() {
+      return sentPackets;
+   }
+
+   /**
+    * Used to read the total number of datagrams dropped before sending.
+    * 
+    * @return The number of dropped datagrams.
+    */
+   long getDroppedPackets() {
+      return droppedPackets;
+   }
+
+   /**
+    * Used to read the total number of datagrams without a reply in time.
+    * 
+    * @return The number of timed out datagrams.
+    */
+   long getTimedOutPackets() {
+      return timedOutPackets;
+   }
+
+   /**
+    * Used to read the number of datagrams sent at once.
+    * 
+    * @return The batch size.
+    */
+   public int getBatchSize() {
+      return batchSize;
+   }
+
+   /**
+    * Sets the number of datagrams sent at once by each sending of a message.
+    * 
+    * @param batchSize
+    *           The batch size.
+    */
+   public void setBatchSize(final int batchSize) {
+      this.batchSize = batchSize;
+   }
+
+   /**
+    * Used to read whether the replies to the datagrams are awaited.
+    * 
+    * @return True when the replies are awaited.
+    */
+   public boolean isAwaitResponse() {
+      return awaitResponse;
+   }
+
+   /**
+    * Sets whether the datagrams are numbered and the replies to them are awaited.
+    * 
+    * @param awaitResponse
+    *           True to await the replies.
+    */
+   public void setAwaitResponse(final boolean awaitResponse) {
+      this.awaitResponse = awaitResponse;
+   }
+
+   /**
+    * Used to read the maximal time to wait for the replies.
+    * 
+    * @return The response timeout in milliseconds.
+    */
+   public long getResponseTimeout() {
+      return responseTimeout;
+   }
 
+   /**
+    * Sets the maximal time to wait for the replies to a batch of datagrams.
+    * 
+    * @param responseTimeout
+    *           The response timeout in milliseconds.
+    */
+   public void setResponseTimeout(final long responseTimeout) {
+      this.responseTimeout = responseTimeout;
+   }
 }
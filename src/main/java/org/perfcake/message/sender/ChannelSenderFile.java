@@ -1,15 +1,15 @@
 /*
  * -----------------------------------------------------------------------\
  * PerfCake
- *  
+ *
  * Copyright (C) 2010 - 2013 the original author or authors.
- *  
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -19,10 +19,469 @@
  */
 package org.perfcake.message.sender;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.message.Message;
+import org.perfcake.reporting.MeasurementUnit;
+
 /**
+ * <p>
+ * The sender writing the messages to a file using a file channel to put a load on the storage. The target is the path to the file.
+ * The messages are written according to {@link #writeMode}:
+ * </p>
+ * <ul>
+ * <li>{@link WriteMode#APPEND} appends the messages to the end of the file.</li>
+ * <li>{@link WriteMode#MMAP} maps segments of {@link #segmentSize} bytes at the end of the file to the memory and copies the messages
+ * into them. All the sender instances writing to the same file share the file, each of them writes to its own segment.</li>
+ * <li>{@link WriteMode#RANDOM} writes the messages to random positions within the first {@link #fileSize} bytes of the file.</li>
+ * </ul>
+ * <p>
+ * The written data are forced to the storage device according to {@link #syncPolicy}. The time of writing the message
+ * ({@link #WRITE_LATENCY}) and the time of forcing the data to the device ({@link #SYNC_LATENCY}) are stored in the measurement unit
+ * in milliseconds. The sender does not return any response.
+ * </p>
  * 
  * @author Lucie Fabriková <lucie.fabrikova@gmail.com>
  */
-public class ChannelSenderFile {
+public class ChannelSenderFile extends ChannelSender {
+
+   /**
+    * The name of the result carrying the time of writing the message in milliseconds.
+    */
+   public static final String WRITE_LATENCY = "WriteLatency";
+
+   /**
+    * The name of the result carrying the time of forcing the data to the storage device in milliseconds.
+    */
+   public static final String SYNC_LATENCY = "SyncLatency";
+
+   /**
+    * Enumeration on the ways of writing the messages to the file.
+    */
+   public static enum WriteMode {
+      APPEND, MMAP, RANDOM
+   }
+
+   /**
+    * Enumeration on the policies of forcing the written data to the storage device.
+    */
+   public static enum SyncPolicy {
+      /**
+       * The data are never forced, the operating system writes them when it decides to.
+       */
+      NONE,
+      /**
+       * The data are forced after each message.
+       */
+      MESSAGE,
+      /**
+       * The data are forced after each {@link ChannelSenderFile#syncCount} messages sent by the sender instance.
+       */
+      COUNT,
+      /**
+       * The data are forced after a message when at least {@link ChannelSenderFile#syncInterval} milliseconds elapsed since the last forcing.
+       */
+      INTERVAL
+   }
+
+   /**
+    * The ends of the files written in the {@link WriteMode#MMAP} mode by the sender instances, guarded by itself.
+    */
+   private static final Map<String, MappedFile> mappedFiles = new HashMap<>();
+
+   /**
+    * The way of writing the messages.
+    */
+   private WriteMode writeMode = WriteMode.APPEND;
+
+   /**
+    * The policy of forcing the written data to the storage device.
+    */
+   private SyncPolicy syncPolicy = SyncPolicy.NONE;
+
+   /**
+    * The number of messages between forcing the data for {@link SyncPolicy#COUNT}.
+    */
+   private int syncCount = 100;
+
+   /**
+    * The minimal time in milliseconds between forcing the data for {@link SyncPolicy#INTERVAL}.
+    */
+   private long syncInterval = 1_000;
+
+   /**
+    * The size of the segments mapped to the memory in bytes.
+    */
+   private int segmentSize = 64 * 1024 * 1024;
+
+   /**
+    * The size of the area of the file written by the random writes in bytes.
+    */
+   private long fileSize = 64 * 1024 * 1024;
+
+   /**
+    * The file channel.
+    */
+   private FileChannel channel;
+
+   /**
+    * The file shared by the senders in the {@link WriteMode#MMAP} mode.
+    */
+   private MappedFile mappedFile;
+
+   /**
+    * The segment of the file mapped to the memory in the {@link WriteMode#MMAP} mode.
+    */
+   private MappedByteBuffer segment;
+
+   /**
+    * The generator of the positions of the random writes.
+    */
+   private final Random random = new Random();
+
+   /**
+    * The number of messages written since the data were forced.
+    */
+   private int unsyncedMessages = 0;
+
+   /**
+    * The time of the last forcing of the data as obtained from {@link System#nanoTime()}.
+    */
+   private long lastSync;
+
+   @Override
+   public void init() throws Exception {
+      super.init();
+
+      final File file = new File(target);
+      if (writeMode == WriteMode.APPEND) {
+         channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      } else {
+         channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+
+      if (writeMode == WriteMode.MMAP) {
+         mappedFile = MappedFile.acquire(file.getCanonicalPath(), channel.size());
+      }
+      lastSync = System.nanoTime();
+   }
+
+   @Override
+   public void close() throws PerfCakeException {
+      segment = null;
+      if (mappedFile != null) {
+         MappedFile.release(mappedFile);
+         mappedFile = null;
+      }
+
+      try {
+         channel.close();
+      } catch (IOException e) {
+         throw new PerfCakeException("Cannot close the file channel.", e);
+      }
+   }
+
+   @Override
+   public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+      final long writeStart = System.nanoTime();
+      switch (writeMode) {
+         case APPEND:
+            writeFully();
+            break;
+         case MMAP:
+            writeMapped();
+            break;
+         case RANDOM:
+            writeRandom();
+            break;
+      }
+      final long writeEnd = System.nanoTime();
+      unsyncedMessages++;
+
+      if (mu != null) {
+         mu.appendResult(WRITE_LATENCY, (writeEnd - writeStart) / 1_000_000d);
+      }
+
+      if (isSyncNeeded(writeEnd)) {
+         if (segment != null) {
+            segment.force();
+         } else {
+            channel.force(false);
+         }
+         lastSync = System.nanoTime();
+         unsyncedMessages = 0;
+
+         if (mu != null) {
+            mu.appendResult(SYNC_LATENCY, (lastSync - writeEnd) / 1_000_000d);
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Finds out whether the data should be forced to the storage device after the current message.
+    * 
+    * @param now
+    *           The current time as obtained from {@link System#nanoTime()}.
+    * @return True when the data should be forced.
+    */
+   private boolean isSyncNeeded(final long now) {
+      switch (syncPolicy) {
+         case MESSAGE:
+            return true;
+         case COUNT:
+            return unsyncedMessages >= syncCount;
+         case INTERVAL:
+            return now - lastSync >= syncInterval * 1_000_000;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * Appends the whole frame to the file.
+    * 
+    * @throws IOException
+    *            When the file could not be written.
+    */
+   private void writeFully() throws IOException {
+      long remaining = getFrameLength();
+      while (remaining > 0) {
+         remaining -= channel.write(frame);
+      }
+   }
+
+   /**
+    * Copies the frame to the mapped segment, a new segment is mapped when there is not enough space left.
+    * 
+    * @throws Exception
+    *            When the frame does not fit into a segment or a new segment could not be mapped.
+    */
+   private void writeMapped() throws Exception {
+      final long length = getFrameLength();
+      if (length > segmentSize) {
+         throw new PerfCakeException(String.format("The message of %d bytes does not fit into the mapped segment of %d bytes.", length, segmentSize));
+      }
+
+      if (segment == null || segment.remaining() < length) {
+         if (segment != null && syncPolicy != SyncPolicy.NONE) { // the data written since the last forcing would not be forced any more
+            segment.force();
+         }
+         segment = channel.map(FileChannel.MapMode.READ_WRITE, mappedFile.reserve(segmentSize), segmentSize);
+      }
+
+      for (final ByteBuffer buffer : frame) {
+         segment.put(buffer);
+      }
+   }
+
+   /**
+    * Writes the frame to a random position in the file.
+    * 
+    * @throws Exception
+    *            When the frame does not fit into the file or the file could not be written.
+    */
+   private void writeRandom() throws Exception {
+      final long length = getFrameLength();
+      if (length > fileSize) {
+         throw new PerfCakeException(String.format("The message of %d bytes does not fit into the file of %d bytes.", length, fileSize));
+      }
+
+      long position = (long) (random.nextDouble() * (fileSize - length + 1));
+      for (final ByteBuffer buffer : frame) {
+         while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+         }
+      }
+   }
+
+   /**
+    * The end of a file shared by the senders writing to the segments of the file mapped to the memory.
+    */
+   private static class MappedFile {
+
+      private final String path;
+
+      private final AtomicLong end;
+
+      private int references = 0;
+
+      private MappedFile(final String path, final long size) {
+         this.path = path;
+         this.end = new AtomicLong(size);
+      }
+
+      /**
+       * Gets the shared end of the file. Each call must be paired with {@link #release(MappedFile)}.
+       * 
+       * @param path
+       *           The canonical path of the file.
+       * @param size
+       *           The current size of the file.
+       * @return The shared end of the file.
+       */
+      private static MappedFile acquire(final String path, final long size) {
+         synchronized (mappedFiles) {
+            MappedFile mappedFile = mappedFiles.get(path);
+            if (mappedFile == null) {
+               mappedFile = new MappedFile(path, size);
+               mappedFiles.put(path, mappedFile);
+            }
+            mappedFile.references++;
+
+            return mappedFile;
+         }
+      }
+
+      /**
+       * Releases the shared end of the file obtained by {@link #acquire(String, long)}.
+       * 
+       * @param mappedFile
+       *           The shared end of the file.
+       */
+      private static void release(final MappedFile mappedFile) {
+         synchronized (mappedFiles) {
+            if (--mappedFile.references == 0) {
+               mappedFiles.remove(mappedFile.path);
+            }
+         }
+      }
+
+      /**
+       * Reserves a new segment at the end of the file.
+       * 
+       * @param size
+       *           The size of the segment.
+       * @return The position of the segment in the file.
+       */
+      private long reserve(final long size) {
+         return end.getAndAdd(size);
+      }
+   }
+
+   /**
+    * Used to read the way of writing the messages.
+    * 
+    * @return The write mode.
+    */
+   public WriteMode getWriteMode() {
+      return writeMode;
+   }
+
+   /**
+    * Sets the way of writing the messages.
+    * 
+    * @param writeMode
+    *           The write mode.
+    */
+   public void setWriteMode(final WriteMode writeMode) {
+      this.writeMode = writeMode;
+   }
+
+   /**
+    * Used to read the policy of forcing the written data to the storage device.
+    * 
+    * @return The sync policy.
+    */
+   public SyncPolicy getSyncPolicy() {
+      return syncPolicy;
+   }
+
+   /**
+    * Sets the policy of forcing the written data to the storage device.
+    * 
+    * @param syncPolicy
+    *           The sync policy.
+    */
+   public void setSyncPolicy(final SyncPolicy syncPolicy) {
+      this.syncPolicy = syncPolicy;
+   }
+
+   /**
+    * Used to read the number of messages between forcing the data.
+    * 
+    * @return The number of messages.
+    */
+   public int getSyncCount() {
+      return syncCount;
+   }
+
+   /**
+    * Sets the number of messages sent by the sender instance between forcing the data for {@link SyncPolicy#COUNT}.
+    * 
+    * @param syncCount
+    *           The number of messages.
+    */
+   public void setSyncCount(final int syncCount) {
+      this.syncCount = syncCount;
+   }
+
+   /**
+    * Used to read the minimal time between forcing the data.
+    * 
+    * @return The time in milliseconds.
+    */
+   public long getSyncInterval() {
+      return syncInterval;
+   }
+
+   /**
+    * Sets the minimal time between forcing the data for {@link SyncPolicy#INTERVAL}.
+    * 
+    * @param syncInterval
+    *           The time in milliseconds.
+    */
+   public void setSyncInterval(final long syncInterval) {
+      this.syncInterval = syncInterval;
+   }
+
+   /**
+    * Used to read the size of the segments mapped to the memory.
+    * 
+    * @return The segment size in bytes.
+    */
+   public int getSegmentSize() {
+      return segmentSize;
+   }
+
+   /**
+    * Sets the size of the segments mapped to the memory in the {@link WriteMode#MMAP} mode.
+    * 
+    * @param segmentSize
+    *           The segment size in bytes.
+    */
+   public void setSegmentSize(final int segmentSize) {
+      this.segmentSize = segmentSize;
+   }
+
+   /**
+    * Used to read the size of the area of the file written by the random writes.
+    * 
+    * @return The file size in bytes.
+    */
+   public long getFileSize() {
+      return fileSize;
+   }
 
+   /**
+    * Sets the size of the area of the file written by the random writes in the {@link WriteMode#RANDOM} mode.
+    * 
+    * @param fileSize
+    *           The file size in bytes.
+    */
+   public void setFileSize(final long fileSize) {
+      this.fileSize = fileSize;
+   }
 }
@@ -1,15 +1,15 @@
 /*
  * -----------------------------------------------------------------------\
  * PerfCake
- *  
+ *
  * Copyright (C) 2010 - 2013 the original author or authors.
- *  
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -19,10 +19,277 @@
  */
 package org.perfcake.message.sender;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.perfcake.PerfCakeException;
+import org.perfcake.message.Message;
+import org.perfcake.reporting.MeasurementUnit;
+
 /**
+ * <p>
+ * The sender writing the messages to a TCP connection using a non-blocking socket channel. The target is specified as
+ * <code>host:port</code>. The connection is kept open for all the messages sent by the sender instance and it is replaced when
+ * it is closed by the server.
+ * </p>
+ * <p>
+ * With a framing configured (see {@link ChannelSender}), the sender waits for the whole framed response at most for
+ * {@link #responseTimeout} milliseconds. Without the framing, the responses are not awaited and any received bytes are thrown away.
+ * </p>
  * 
  * @author Lucie Fabriková <lucie.fabrikova@gmail.com>
  */
-public class ChannelSenderSocket {
+public class ChannelSenderSocket extends ChannelSender {
+
+   /**
+    * The sender's logger.
+    */
+   private static final Logger log = Logger.getLogger(ChannelSenderSocket.class);
+
+   /**
+    * The maximal time in milliseconds to wait for sending the message and for the response.
+    */
+   private long responseTimeout = 30_000;
+
+   /**
+    * The address of the target.
+    */
+   private SocketAddress address;
+
+   /**
+    * The selector used to wait for the channel.
+    */
+   private Selector selector;
+
+   /**
+    * The channel connected to the target.
+    */
+   private SocketChannel channel;
+
+   /**
+    * The key of the channel registered with the selector.
+    */
+   private SelectionKey key;
+
+   /**
+    * Indicates whether the current message is sent over a connection that was already used before.
+    */
+   private boolean reused;
+
+   /**
+    * Indicates whether a part of the response to the current message has been received.
+    */
+   private boolean responseStarted;
+
+   @Override
+   public void init() throws Exception {
+      super.init();
+
+      address = createAddress();
+      selector = Selector.open();
+   }
+
+   @Override
+   public void close() throws PerfCakeException {
+      closeChannel();
+      try {
+         selector.close();
+      } catch (IOException e) {
+         throw new PerfCakeException("Cannot close the selector.", e);
+      }
+   }
+
+   @Override
+   public void preSend(final Message message, final Map<String, String> properties) throws Exception {
+      super.preSend(message, properties);
+
+      reused = channel != null;
+      if (!reused) {
+         connect();
+      }
+   }
+
+   @Override
+   public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+      try {
+         return exchange();
+      } catch (SocketTimeoutException e) {
+         closeChannel(); // the late response must not be taken for the response to the next message
+         throw new PerfCakeException(String.format("No response from %s within %d ms.", address, responseTimeout), e);
+      } catch (IOException e) {
+         closeChannel();
+         if (!reused || responseStarted) {
+            throw new PerfCakeException(String.format("Error communicating over a channel with %s.", address), e);
+         }
+      }
+
+      // the server has closed the connection in the meantime
+      connect();
+      reused = false;
+      rewindFrame();
+      try {
+         return exchange();
+      } catch (IOException e) {
+         closeChannel();
+         throw new PerfCakeException(String.format("Error communicating over a channel with %s.", address), e);
+      }
+   }
+
+   /**
+    * Writes the frame of the current message and reads the response.
+    * 
+    * @return The response, or null when there is no framing.
+    * @throws Exception
+    *            When the connection failed, the time out elapsed or the response is not a valid frame.
+    */
+   private String exchange() throws Exception {
+      final long deadline = System.nanoTime() + responseTimeout * 1_000_000;
+      responseStarted = false;
+
+      long remaining = getFrameLength();
+      while (remaining > 0) {
+         final long written = channel.write(frame);
+         if (written == 0) {
+            await(SelectionKey.OP_WRITE, deadline);
+         }
+         remaining -= written;
+      }
+
+      if (framer == null) { // just make room for the following responses
+         while (channel.read(getReceiveBuffer()) > 0) {
+            clearReceived();
+         }
+         clearReceived();
+
+         return null;
+      }
+
+      String response;
+      while ((response = nextResponse()) == null) {
+         final int read = channel.read(getReceiveBuffer());
+         if (read < 0) {
+            throw new EOFException("The connection was closed before the whole response was received.");
+         } else if (read == 0) {
+            await(SelectionKey.OP_READ, deadline);
+         } else {
+            responseStarted = true;
+         }
+      }
+
+      return response;
+   }
+
+   /**
+    * Waits until the channel is ready for the given operation.
+    * 
+    * @param operation
+    *           The operation as in {@link SelectionKey}.
+    * @param deadline
+    *           The time when the waiting ends at latest as obtained from {@link System#nanoTime()}.
+    * @throws IOException
+    *            When the channel is not ready before the deadline.
+    */
+   private void await(final int operation, final long deadline) throws IOException {
+      key.interestOps(operation);
+      try {
+         while (true) {
+            final long timeout = (deadline - System.nanoTime()) / 1_000_000;
+            if (timeout <= 0) {
+               throw new SocketTimeoutException();
+            }
+            if (selector.select(timeout) > 0) {
+               selector.selectedKeys().clear();
+               return;
+            }
+         }
+      } finally {
+         key.interestOps(0);
+      }
+   }
+
+   /**
+    * Creates the address of the target.
+    * 
+    * @return The address of the target.
+    * @throws Exception
+    *            When the target is not a valid address.
+    */
+   protected SocketAddress createAddress() throws Exception {
+      final String[] parts = target.split(":", 2);
+
+      return new InetSocketAddress(parts[0], Integer.valueOf(parts[1]));
+   }
+
+   /**
+    * Opens a blocking channel connected to the given address.
+    * 
+    * @param address
+    *           The address of the target.
+    * @return The connected channel.
+    * @throws IOException
+    *            When the connection could not be opened.
+    */
+   protected SocketChannel openChannel(final SocketAddress address) throws IOException {
+      final SocketChannel channel = SocketChannel.open(address);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+      return channel;
+   }
+
+   /**
+    * Opens a new connection to the target.
+    * 
+    * @throws IOException
+    *            When the connection could not be opened.
+    */
+   private void connect() throws IOException {
+      channel = openChannel(address);
+      channel.configureBlocking(false);
+      key = channel.register(selector, 0);
+      clearReceived();
+   }
+
+   /**
+    * Closes the connection to the target.
+    */
+   private void closeChannel() {
+      if (channel != null) {
+         try {
+            channel.close();
+         } catch (IOException e) {
+            log.warn("Cannot close the channel.", e);
+         }
+         channel = null;
+         key = null;
+      }
+   }
+
+   /**
+    * Used to read the maximal time to wait for sending the message and for the response.
+    * 
+    * @return The response timeout in milliseconds.
+    */
+   public long getResponseTimeout() {
+      return responseTimeout;
+   }
 
+   /**
+    * Sets the maximal time to wait for sending the message and for the response.
+    * 
+    * @param responseTimeout
+    *           The response timeout in milliseconds.
+    */
+   public void setResponseTimeout(final long responseTimeout) {
+      this.responseTimeout = responseTimeout;
+   }
 }
@@ -0,0 +1,85 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+
+import org.perfcake.PerfCakeException;
+
+/**
+ * The sender writing the messages to a Unix domain socket, e.g. to measure the latency of a local proxy without the overhead
+ * of the TCP loopback. The target is the path to the socket file. Apart from the target, the sender works the same way
+ * as {@link ChannelSenderSocket}, i.e. the connection is kept open and the responses are recognized by the framing.
+ * The Unix domain socket channels require Java 16 or newer.
+ */
+public class ChannelSenderUnixSocket extends ChannelSenderSocket {
+
+   /**
+    * The method opening a socket channel of the given protocol family.
+    */
+   private Method open;
+
+   /**
+    * The protocol family of the Unix domain sockets.
+    */
+   private ProtocolFamily unix;
+
+   @Override
+   protected SocketAddress createAddress() throws Exception {
+      try {
+         unix = StandardProtocolFamily.valueOf("UNIX");
+         open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+
+         return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, target);
+      } catch (IllegalArgumentException | ReflectiveOperationException e) {
+         throw new PerfCakeException("The Unix domain sockets are not supported by this Java runtime, Java 16 or newer is required.", e);
+      }
+   }
+
+   @Override
+   protected SocketChannel openChannel(final SocketAddress address) throws IOException {
+      final SocketChannel channel;
+      try {
+         channel = (SocketChannel) open.invoke(null, unix);
+      } catch (InvocationTargetException e) {
+         if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+         }
+         throw new IOException("Cannot open a Unix domain socket channel.", e.getCause());
+      } catch (IllegalAccessException e) {
+         throw new IOException("Cannot open a Unix domain socket channel.", e);
+      }
+
+      try {
+         channel.connect(address);
+      } catch (IOException e) {
+         channel.close();
+         throw e;
+      }
+
+      return channel;
+   }
+}
@@ -0,0 +1,327 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.perfcake.PerfCakeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Delimits the messages in a stream of bytes, so that the messages and their responses can be sent over a single connection
+ * one after another. The senders write {@link #getHeaderLength()} bytes filled by {@link #writeHeader(ByteBuffer, int)}, the payload
+ * and the first {@link #getTrailerLength(int)} bytes of {@link #getTrailer()} for each message, and take the responses out of the received bytes using {@link #nextFrame(ByteBuffer)}.
+ */
+public abstract class Framing {
+
+   /**
+    * Enumeration on the available kinds of framing.
+    */
+   public static enum Type {
+      /**
+       * There is no framing, the end of a response cannot be recognized.
+       */
+      NONE,
+      /**
+       * Each message is preceded by its length in bytes as a 4 byte big-endian integer.
+       */
+      LENGTH_PREFIX,
+      /**
+       * Each message is followed by a delimiter that must not appear in the messages.
+       */
+      DELIMITER,
+      /**
+       * All the messages have the same length, shorter messages are padded by zero bytes.
+       */
+      FIXED_SIZE
+   }
+
+   /**
+    * The maximal length of a received message in bytes.
+    */
+   private int maxFrameSize = Integer.MAX_VALUE;
+
+   /**
+    * Creates the framing of the given type.
+    * 
+    * @param type
+    *           The type of the framing.
+    * @param delimiter
+    *           The delimiter used by {@link Type#DELIMITER}.
+    * @param frameSize
+    *           The length of all the messages in bytes used by {@link Type#FIXED_SIZE}.
+    * @param maxFrameSize
+    *           The maximal length of a received message in bytes, a longer message is not awaited and fails the sending.
+    * @return The framing, or null for {@link Type#NONE}.
+    * @throws PerfCakeException
+    *            When the parameters of the framing are not valid.
+    */
+   public static Framing newInstance(final Type type, final byte[] delimiter, final int frameSize, final int maxFrameSize) throws PerfCakeException {
+      if (maxFrameSize <= 0) {
+         throw new PerfCakeException("The maximal frame size must be positive.");
+      }
+
+      final Framing framing;
+      switch (type) {
+         case LENGTH_PREFIX:
+            framing = new LengthPrefixFraming();
+            break;
+         case DELIMITER:
+            if (delimiter == null || delimiter.length == 0) {
+               throw new PerfCakeException("The delimiter framing requires a non-empty delimiter.");
+            }
+            framing = new DelimiterFraming(delimiter);
+            break;
+         case FIXED_SIZE:
+            if (frameSize <= 0 || frameSize > maxFrameSize) {
+               throw new PerfCakeException(String.format("The fixed size framing requires a positive frame size not exceeding the maximal frame size of %d bytes.", maxFrameSize));
+            }
+            framing = new FixedSizeFraming(frameSize);
+            break;
+         default:
+            return null;
+      }
+      framing.maxFrameSize = maxFrameSize;
+
+      return framing;
+   }
+
+   /**
+    * Gets the number of bytes preceding each message.
+    * 
+    * @return The length of the header.
+    */
+   public abstract int getHeaderLength();
+
+   /**
+    * Writes the header of the message of the given length into the buffer.
+    * 
+    * @param header
+    *           The buffer with at least {@link #getHeaderLength()} bytes remaining.
+    * @param payloadLength
+    *           The length of the message payload in bytes.
+    * @throws PerfCakeException
+    *            When the message cannot be framed.
+    */
+   public abstract void writeHeader(final ByteBuffer header, final int payloadLength) throws PerfCakeException;
+
+   /**
+    * Gets the bytes following the messages. The returned array is shared and must not be modified.
+    * 
+    * @return The trailer, only its first {@link #getTrailerLength(int)} bytes are sent.
+    */
+   public abstract byte[] getTrailer();
+
+   /**
+    * Gets the number of bytes of {@link #getTrailer()} following the message of the given length.
+    * 
+    * @param payloadLength
+    *           The length of the message payload in bytes.
+    * @return The length of the trailer.
+    */
+   public abstract int getTrailerLength(final int payloadLength);
+
+   /**
+    * Takes the next complete message out of the received bytes.
+    * 
+    * @param in
+    *           The received bytes between the position and the limit of the buffer.
+    * @return A buffer sharing the content of the input buffer with the payload of the message, or null when the message is not
+    *         complete yet. When a message is returned, the position of the input buffer is moved after it.
+    * @throws IOException
+    *            When the received bytes do not form a valid frame.
+    */
+   public abstract ByteBuffer nextFrame(final ByteBuffer in) throws IOException;
+
+   /**
+    * Checks that a received message is not longer than the maximal frame size.
+    * 
+    * @param length
+    *           The length of the message in bytes, or the number of its bytes received so far.
+    * @throws IOException
+    *            When the message is longer than the maximal frame size.
+    */
+   protected void checkFrameSize(final long length) throws IOException {
+      if (length > maxFrameSize) {
+         throw new IOException(String.format("The received message of at least %d bytes exceeds the maximal frame size of %d bytes.", length, maxFrameSize));
+      }
+   }
+
+   /**
+    * Gets the part of the buffer with the payload and moves the position of the buffer after the frame.
+    * 
+    * @param in
+    *           The received bytes.
+    * @param payloadOffset
+    *           The offset of the payload from the position of the buffer.
+    * @param payloadLength
+    *           The length of the payload.
+    * @param frameLength
+    *           The length of the whole frame.
+    * @return The payload.
+    */
+   protected static ByteBuffer slice(final ByteBuffer in, final int payloadOffset, final int payloadLength, final int frameLength) {
+      final ByteBuffer payload = in.duplicate();
+      payload.position(in.position() + payloadOffset);
+      payload.limit(in.position() + payloadOffset + payloadLength);
+      in.position(in.position() + frameLength);
+
+      return payload.slice();
+   }
+
+   /**
+    * The messages preceded by their length.
+    */
+   private static class LengthPrefixFraming extends Framing {
+
+      private static final byte[] EMPTY = new byte[0];
+
+      @Override
+      public int getHeaderLength() {
+         return 4;
+      }
+
+      @Override
+      public void writeHeader(final ByteBuffer header, final int payloadLength) {
+         header.putInt(payloadLength);
+      }
+
+      @Override
+      public byte[] getTrailer() {
+         return EMPTY;
+      }
+
+      @Override
+      public int getTrailerLength(final int payloadLength) {
+         return 0;
+      }
+
+      @Override
+      public ByteBuffer nextFrame(final ByteBuffer in) throws IOException {
+         if (in.remaining() < 4) {
+            return null;
+         }
+
+         final int length = in.getInt(in.position());
+         if (length < 0) {
+            throw new IOException("Invalid frame length: " + length);
+         }
+         checkFrameSize(length);
+
+         return in.remaining() - 4 < length ? null : slice(in, 4, length, 4 + length);
+      }
+   }
+
+   /**
+    * The messages followed by a delimiter.
+    */
+   private static class DelimiterFraming extends Framing {
+
+      private final byte[] delimiter;
+
+      private DelimiterFraming(final byte[] delimiter) {
+         this.delimiter = delimiter.clone();
+      }
+
+      @Override
+      public int getHeaderLength() {
+         return 0;
+      }
+
+      @Override
+      public void writeHeader(final ByteBuffer header, final int payloadLength) {
+         // there is no header
+      }
+
+      @Override
+      public byte[] getTrailer() {
+         return delimiter;
+      }
+
+      @Override
+      public int getTrailerLength(final int payloadLength) {
+         return delimiter.length;
+      }
+
+      @Override
+      public ByteBuffer nextFrame(final ByteBuffer in) throws IOException {
+         final int start = in.position();
+         final int last = in.limit() - delimiter.length;
+
+         search: for (int i = start; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+               if (in.get(i + j) != delimiter[j]) {
+                  continue search;
+               }
+            }
+
+            return slice(in, 0, i - start, i - start + delimiter.length);
+         }
+
+         checkFrameSize(in.remaining() - delimiter.length + 1); // the delimiter might have been received partially
+         return null;
+      }
+   }
+
+   /**
+    * The messages of the same length.
+    */
+   private static class FixedSizeFraming extends Framing {
+
+      private final int frameSize;
+
+      /**
+       * The zero bytes the messages are padded by.
+       */
+      private final byte[] padding;
+
+      private FixedSizeFraming(final int frameSize) {
+         this.frameSize = frameSize;
+         this.padding = new byte[frameSize];
+      }
+
+      @Override
+      public int getHeaderLength() {
+         return 0;
+      }
+
+      @Override
+      public void writeHeader(final ByteBuffer header, final int payloadLength) throws PerfCakeException {
+         if (payloadLength > frameSize) {
+            throw new PerfCakeException(String.format("The message of %d bytes does not fit into the frame of %d bytes.", payloadLength, frameSize));
+         }
+      }
+
+      @Override
+      public byte[] getTrailer() {
+         return padding;
+      }
+
+      @Override
+      public int getTrailerLength(final int payloadLength) {
+         return frameSize - payloadLength;
+      }
+
+      @Override
+      public ByteBuffer nextFrame(final ByteBuffer in) {
+         return in.remaining() < frameSize ? null : slice(in, 0, frameSize, frameSize);
+      }
+   }
+}
@@ -0,0 +1,494 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * HPACK header compression (RFC 7541) used by {@link Http2Sender}.
+ * </p>
+ * <p>
+ * The encoder does not insert anything to the dynamic table. It refers to the static table where possible and writes all the other
+ * headers as literals without indexing, so it has no state that would need to be kept in sync with the peer. The decoder supports
+ * the complete format including the dynamic table and the Huffman coded strings. The Huffman code is canonical, so only the code
+ * lengths of the symbols are listed and the codes are computed from them.
+ * </p>
+ */
+final class Hpack {
+
+   /**
+    * The encoding of the header names and values.
+    */
+   static final Charset ENCODING = Charset.forName("ISO-8859-1");
+
+   /**
+    * The default maximal size of the dynamic table.
+    */
+   static final int DEFAULT_TABLE_SIZE = 4096;
+
+   /**
+    * The static table, the first entry has the index 1.
+    */
+   private static final String[][] STATIC_TABLE = {
+         { ":authority", "" }, { ":method", "GET" }, { ":method", "POST" }, { ":path", "/" }, { ":path", "/index.html" },
+         { ":scheme", "http" }, { ":scheme", "https" }, { ":status", "200" }, { ":status", "204" }, { ":status", "206" },
+         { ":status", "304" }, { ":status", "400" }, { ":status", "404" }, { ":status", "500" }, { "accept-charset", "" },
+         { "accept-encoding", "gzip, deflate" }, { "accept-language", "" }, { "accept-ranges", "" }, { "accept", "" },
+         { "access-control-allow-origin", "" }, { "age", "" }, { "allow", "" }, { "authorization", "" }, { "cache-control", "" },
+         { "content-disposition", "" }, { "content-encoding", "" }, { "content-language", "" }, { "content-length", "" },
+         { "content-location", "" }, { "content-range", "" }, { "content-type", "" }, { "cookie", "" }, { "date", "" }, { "etag", "" },
+         { "expect", "" }, { "expires", "" }, { "from", "" }, { "host", "" }, { "if-match", "" }, { "if-modified-since", "" },
+         { "if-none-match", "" }, { "if-range", "" }, { "if-unmodified-since", "" }, { "last-modified", "" }, { "link", "" },
+         { "location", "" }, { "max-forwards", "" }, { "proxy-authenticate", "" }, { "proxy-authorization", "" }, { "range", "" },
+         { "referer", "" }, { "refresh", "" }, { "retry-after", "" }, { "server", "" }, { "set-cookie", "" },
+         { "strict-transport-security", "" }, { "transfer-encoding", "" }, { "user-agent", "" }, { "vary", "" }, { "via", "" },
+         { "www-authenticate", "" } };
+
+   /**
+    * The static table indexes of the header names.
+    */
+   private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+   /**
+    * The static table indexes of the complete headers.
+    */
+   private static final Map<String, Integer> STATIC_HEADERS = new HashMap<>();
+
+   /**
+    * The lengths of the Huffman codes of all the symbols.
+    */
+   private static final byte[] HUFFMAN_LENGTHS = {
+         13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, // 0 - 15
+         28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28, // 16 - 31
+         6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, // 32 - 47
+         5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10, // 48 - 63
+         13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, // 64 - 79
+         7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6, // 80 - 95
+         15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, // 96 - 111
+         6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28, // 112 - 127
+         20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, // 128 - 143
+         24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24, // 144 - 159
+         22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, // 160 - 175
+         21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, // 176 - 191
+         26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, // 192 - 207
+         19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27, // 208 - 223
+         20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, // 224 - 239
+         26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26, // 240 - 255
+         30 // 256 (the end of string)
+   };
+
+   /**
+    * The Huffman codes of all the symbols.
+    */
+   private static final int[] HUFFMAN_CODES = new int[HUFFMAN_LENGTHS.length];
+
+   /**
+    * The Huffman decoding tree. Each node has two children, a non-negative child is the index of another node, a negative child
+    * is a symbol (-1 for the symbol 0, -2 for the symbol 1 etc.).
+    */
+   private static final int[][] HUFFMAN_TREE;
+
+   /**
+    * The end of string symbol of the Huffman code.
+    */
+   private static final int HUFFMAN_EOS = 256;
+
+   static {
+      for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+         STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+         STATIC_HEADERS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+      }
+
+      // the canonical code assigns consecutive codes to the symbols sorted by the code length and the symbol value
+      int code = 0;
+      int length = 0;
+      for (int l = 1; l <= 30; l++) {
+         for (int symbol = 0; symbol < HUFFMAN_LENGTHS.length; symbol++) {
+            if (HUFFMAN_LENGTHS[symbol] == l) {
+               code <<= l - length;
+               length = l;
+               HUFFMAN_CODES[symbol] = code++;
+            }
+         }
+      }
+
+      final List<int[]> tree = new ArrayList<>();
+      tree.add(new int[] { 0, 0 });
+      for (int symbol = 0; symbol < HUFFMAN_LENGTHS.length; symbol++) {
+         int node = 0;
+         for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+            final int branch = (HUFFMAN_CODES[symbol] >>> bit) & 1;
+            if (bit == 0) {
+               tree.get(node)[branch] = -symbol - 1;
+            } else {
+               if (tree.get(node)[branch] == 0) {
+                  tree.get(node)[branch] = tree.size();
+                  tree.add(new int[] { 0, 0 });
+               }
+               node = tree.get(node)[branch];
+            }
+         }
+      }
+      HUFFMAN_TREE = tree.toArray(new int[tree.size()][]);
+   }
+
+   private Hpack() {
+   }
+
+   /**
+    * Writes an integer with the given prefix.
+    *
+    * @param out
+    *           The output.
+    * @param flags
+    *           The bits of the first byte above the prefix.
+    * @param prefixBits
+    *           The number of bits of the prefix.
+    * @param value
+    *           The integer.
+    */
+   private static void writeInt(final ByteArrayOutputStream out, final int flags, final int prefixBits, final int value) {
+      final int max = (1 << prefixBits) - 1;
+      if (value < max) {
+         out.write(flags | value);
+         return;
+      }
+
+      out.write(flags | max);
+      int rest = value - max;
+      while (rest >= 0x80) {
+         out.write((rest & 0x7f) | 0x80);
+         rest >>>= 7;
+      }
+      out.write(rest);
+   }
+
+   /**
+    * Writes a string, it is Huffman coded when it makes it shorter.
+    *
+    * @param out
+    *           The output.
+    * @param string
+    *           The string.
+    */
+   private static void writeString(final ByteArrayOutputStream out, final String string) {
+      final byte[] bytes = string.getBytes(ENCODING);
+
+      long bits = 0;
+      for (final byte b : bytes) {
+         bits += HUFFMAN_LENGTHS[b & 0xff];
+      }
+      final int huffmanLength = (int) ((bits + 7) / 8);
+
+      if (huffmanLength >= bytes.length) {
+         writeInt(out, 0x00, 7, bytes.length);
+         out.write(bytes, 0, bytes.length);
+         return;
+      }
+
+      writeInt(out, 0x80, 7, huffmanLength);
+      long buffer = 0;
+      int buffered = 0;
+      for (final byte b : bytes) {
+         final int symbol = b & 0xff;
+         buffer = (buffer << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+         buffered += HUFFMAN_LENGTHS[symbol];
+         while (buffered >= 8) {
+            buffered -= 8;
+            out.write((int) (buffer >>> buffered));
+         }
+      }
+      if (buffered > 0) { // padded by the most significant bits of the end of string symbol
+         out.write((int) ((buffer << (8 - buffered)) | (0xff >>> buffered)));
+      }
+   }
+
+   /**
+    * Encodes the header lists.
+    */
+   static class Encoder {
+
+      /**
+       * Encodes the headers to a header block.
+       *
+       * @param headers
+       *           The headers as pairs of a name and a value, the names must be in lower case.
+       * @return The header block.
+       */
+      byte[] encode(final List<String[]> headers) {
+         final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+         for (final String[] header : headers) {
+            final Integer index = STATIC_HEADERS.get(header[0] + '\0' + header[1]);
+            if (index != null) {
+               writeInt(out, 0x80, 7, index);
+            } else {
+               final Integer nameIndex = STATIC_NAMES.get(header[0]);
+               if (nameIndex != null) {
+                  writeInt(out, 0x00, 4, nameIndex);
+               } else {
+                  out.write(0x00);
+                  writeString(out, header[0]);
+               }
+               writeString(out, header[1]);
+            }
+         }
+
+         return out.toByteArray();
+      }
+   }
+
+   /**
+    * Decodes the header blocks. A single decoder must process all the header blocks received over a connection in their order.
+    */
+   static class Decoder {
+
+      /**
+       * The dynamic table, the newest entry first.
+       */
+      private final LinkedList<String[]> dynamicTable = new LinkedList<>();
+
+      /**
+       * The maximal size of the dynamic table allowed by the settings.
+       */
+      private final int settingsTableSize;
+
+      /**
+       * The current maximal size of the dynamic table.
+       */
+      private int maxTableSize;
+
+      /**
+       * The current size of the dynamic table.
+       */
+      private int tableSize = 0;
+
+      /**
+       * The header block being decoded.
+       */
+      private byte[] block;
+
+      /**
+       * The position in the header block.
+       */
+      private int position;
+
+      /**
+       * The end of the header block.
+       */
+      private int limit;
+
+      /**
+       * Creates a decoder with the default size of the dynamic table.
+       */
+      Decoder() {
+         this(DEFAULT_TABLE_SIZE);
+      }
+
+      /**
+       * Creates a decoder.
+       *
+       * @param settingsTableSize
+       *           The maximal size of the dynamic table announced to the peer.
+       */
+      Decoder(final int settingsTableSize) {
+         this.settingsTableSize = settingsTableSize;
+         this.maxTableSize = settingsTableSize;
+      }
+
+      /**
+       * Decodes a header block.
+       *
+       * @param block
+       *           The buffer with the header block.
+       * @param offset
+       *           The start of the header block.
+       * @param length
+       *           The length of the header block.
+       * @return The headers as pairs of a name and a value.
+       * @throws IOException
+       *            When the header block is not valid.
+       */
+      List<String[]> decode(final byte[] block, final int offset, final int length) throws IOException {
+         this.block = block;
+         position = offset;
+         limit = offset + length;
+
+         final List<String[]> headers = new ArrayList<>();
+         try {
+            while (position < limit) {
+               final int b = block[position] & 0xff;
+
+               if ((b & 0x80) != 0) { // indexed header field
+                  headers.add(get(readInt(7)));
+               } else if ((b & 0x40) != 0) { // literal header field with incremental indexing
+                  final String[] header = readLiteral(6);
+                  headers.add(header);
+                  insert(header);
+               } else if ((b & 0x20) != 0) { // dynamic table size update
+                  final int size = readInt(5);
+                  if (size > settingsTableSize) {
+                     throw new IOException(String.format("The dynamic table size %d exceeds the limit %d.", size, settingsTableSize));
+                  }
+                  maxTableSize = size;
+                  evict(0);
+               } else { // literal header field without indexing or never indexed
+                  headers.add(readLiteral(4));
+               }
+            }
+         } finally {
+            this.block = null;
+         }
+
+         return headers;
+      }
+
+      private String[] get(final int index) throws IOException {
+         if (index > 0 && index <= STATIC_TABLE.length) {
+            return STATIC_TABLE[index - 1];
+         }
+         if (index > STATIC_TABLE.length && index <= STATIC_TABLE.length + dynamicTable.size()) {
+            return dynamicTable.get(index - STATIC_TABLE.length - 1);
+         }
+
+         throw new IOException("Invalid header table index " + index);
+      }
+
+      private void insert(final String[] header) {
+         final int size = entrySize(header);
+         evict(size);
+         if (size <= maxTableSize) {
+            dynamicTable.addFirst(header);
+            tableSize += size;
+         }
+      }
+
+      /**
+       * Evicts the oldest entries until there is enough space for the new one.
+       *
+       * @param required
+       *           The size of the new entry.
+       */
+      private void evict(final int required) {
+         while (!dynamicTable.isEmpty() && tableSize + required > maxTableSize) {
+            tableSize -= entrySize(dynamicTable.removeLast());
+         }
+      }
+
+      private static int entrySize(final String[] header) {
+         return header[0].length() + header[1].length() + 32;
+      }
+
+      private String[] readLiteral(final int prefixBits) throws IOException {
+         final int index = readInt(prefixBits);
+         final String name = index == 0 ? readString() : get(index)[0];
+
+         return new String[] { name, readString() };
+      }
+
+      private int readByte() throws IOException {
+         if (position >= limit) {
+            throw new IOException("Truncated header block.");
+         }
+         return block[position++] & 0xff;
+      }
+
+      private int readInt(final int prefixBits) throws IOException {
+         final int max = (1 << prefixBits) - 1;
+         int value = readByte() & max;
+         if (value < max) {
+            return value;
+         }
+
+         int shift = 0;
+         int b;
+         do {
+            b = readByte();
+            if (shift > 21) {
+               throw new IOException("Integer overflow in the header block.");
+            }
+            value += (b & 0x7f) << shift;
+            shift += 7;
+         } while ((b & 0x80) != 0);
+
+         return value;
+      }
+
+      private String readString() throws IOException {
+         if (position >= limit) {
+            throw new IOException("Truncated header block.");
+         }
+
+         final boolean huffman = (block[position] & 0x80) != 0;
+         final int length = readInt(7);
+         if (length > limit - position) {
+            throw new IOException("Truncated header block.");
+         }
+
+         final String string = huffman ? decodeHuffman(position, length) : new String(block, position, length, ENCODING);
+         position += length;
+
+         return string;
+      }
+
+      private String decodeHuffman(final int offset, final int length) throws IOException {
+         final StringBuilder sb = new StringBuilder(length * 8 / 5);
+         int node = 0;
+         int depth = 0;
+         boolean ones = true; // the bits since the last symbol are all ones
+
+         for (int i = offset; i < offset + length; i++) {
+            final int b = block[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+               final int branch = (b >>> bit) & 1;
+               final int next = HUFFMAN_TREE[node][branch];
+               if (next < 0) {
+                  final int symbol = -next - 1;
+                  if (symbol == HUFFMAN_EOS) {
+                     throw new IOException("The end of string symbol in a Huffman coded string.");
+                  }
+                  sb.append((char) symbol);
+                  node = 0;
+                  depth = 0;
+                  ones = true;
+               } else {
+                  node = next;
+                  depth++;
+                  ones = ones && branch == 1;
+               }
+            }
+         }
+
+         if (depth > 7 || !ones) {
+            throw new IOException("Invalid padding of a Huffman coded string.");
+         }
+
+         return sb.toString();
+      }
+   }
+}
@@ -0,0 +1,748 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A client HTTP/2 connection without TLS (h2c) with the prior knowledge, i.e. the client starts with the HTTP/2 connection preface
+ * right away. The requests are multiplexed over the connection as concurrent streams.
+ * </p>
+ * <p>
+ * The sender threads encode and write the requests themselves, a single reader thread of the connection dispatches the frames
+ * received from the server to the streams. The client announces the maximal flow control windows, so that the server never waits
+ * for the client, while the data sent by the client respect the windows and the limit of concurrent streams announced by the server.
+ * </p>
+ */
+class Http2Connection implements Runnable {
+
+   /**
+    * The connection's logger.
+    */
+   private static final Logger log = Logger.getLogger(Http2Connection.class);
+
+   /**
+    * The maximal stream identifier.
+    */
+   private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+   /**
+    * The address of the server.
+    */
+   private final String address;
+
+   /**
+    * The socket of the connection.
+    */
+   private final Socket socket;
+
+   /**
+    * The input of the connection, read only by the reader thread.
+    */
+   private final DataInputStream in;
+
+   /**
+    * The output of the connection, guarded by itself.
+    */
+   private final OutputStream out;
+
+   /**
+    * The channel writing the request bodies to {@link #out}, guarded by the output.
+    */
+   private final WritableByteChannel outChannel;
+
+   /**
+    * The encoder of the request headers.
+    */
+   private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+   /**
+    * The decoder of the response headers, used only by the reader thread.
+    */
+   private final Hpack.Decoder decoder = new Hpack.Decoder();
+
+   /**
+    * The open streams.
+    */
+   private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+   /**
+    * The identifier of the next stream, guarded by {@link #out}.
+    */
+   private int nextStreamId = 1;
+
+   /**
+    * Guards the flow control windows and the stream limits.
+    */
+   private final Object flow = new Object();
+
+   /**
+    * The flow control window of the connection for sending data.
+    */
+   private long sendWindow = Http2Frame.DEFAULT_WINDOW_SIZE;
+
+   /**
+    * The initial flow control window of a stream for sending data announced by the server.
+    */
+   private int initialStreamWindow = Http2Frame.DEFAULT_WINDOW_SIZE;
+
+   /**
+    * The maximal frame size announced by the server.
+    */
+   private volatile int maxFrameSize = Http2Frame.DEFAULT_MAX_FRAME_SIZE;
+
+   /**
+    * The maximal number of concurrent streams announced by the server.
+    */
+   private long maxConcurrentStreams = Long.MAX_VALUE;
+
+   /**
+    * The number of open streams including those waiting for a free slot.
+    */
+   private volatile int activeStreams = 0;
+
+   /**
+    * The number of streams the server allowed to open.
+    */
+   private int openStreams = 0;
+
+   /**
+    * The received data not yet acknowledged by a WINDOW_UPDATE frame, used only by the reader thread.
+    */
+   private long unacknowledged = 0;
+
+   /**
+    * Set when no new streams can be opened on the connection.
+    */
+   private volatile boolean exhausted = false;
+
+   /**
+    * Set when the connection is closed.
+    */
+   private volatile boolean closed = false;
+
+   /**
+    * The reason of closing the connection.
+    */
+   private volatile IOException failure;
+
+   /**
+    * A request and its response.
+    */
+   private static class Stream {
+
+      /**
+       * The stream identifier.
+       */
+      private final int id;
+
+      /**
+       * The time when the stream was opened in nanoseconds.
+       */
+      private final long start;
+
+      /**
+       * Released when the response is complete or the stream fails.
+       */
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      /**
+       * The flow control window of the stream for sending data, guarded by {@link Http2Connection#flow}.
+       */
+      private long sendWindow;
+
+      /**
+       * The status code, 0 until the final response headers are received.
+       */
+      private int status = 0;
+
+      /**
+       * The response headers and trailers.
+       */
+      private final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+      /**
+       * The response body, only the first {@link #bodyLength} bytes are valid.
+       */
+      private byte[] body = new byte[0];
+
+      /**
+       * The length of the response body.
+       */
+      private int bodyLength = 0;
+
+      /**
+       * The time when the response was complete in nanoseconds.
+       */
+      private long end;
+
+      /**
+       * The reason of the failure of the stream.
+       */
+      private volatile IOException failure;
+
+      private Stream(final int id, final long sendWindow) {
+         this.id = id;
+         this.sendWindow = sendWindow;
+         this.start = System.nanoTime();
+      }
+
+      private void append(final byte[] data, final int offset, final int length) {
+         if (body.length - bodyLength < length) {
+            final byte[] newBody = new byte[Math.max(body.length * 2, bodyLength + length)];
+            System.arraycopy(body, 0, newBody, 0, bodyLength);
+            body = newBody;
+         }
+         System.arraycopy(data, offset, body, bodyLength, length);
+         bodyLength += length;
+      }
+
+      private void finish() {
+         end = System.nanoTime();
+         done.countDown();
+      }
+
+      private void fail(final IOException e) {
+         if (failure == null) {
+            failure = e;
+         }
+         done.countDown();
+      }
+   }
+
+   /**
+    * A response received over a stream.
+    */
+   static class Response {
+
+      private final int status;
+
+      private final Map<String, List<String>> headers;
+
+      private final byte[] body;
+
+      private final int bodyLength;
+
+      /**
+       * The time in nanoseconds between opening the stream and receiving the end of the response.
+       */
+      private final long latency;
+
+      /**
+       * The number of streams open on the connection when the stream was opened, including the stream itself.
+       */
+      private final int concurrency;
+
+      private Response(final Stream stream, final int concurrency) {
+         this.status = stream.status;
+         this.headers = stream.headers;
+         this.body = stream.body;
+         this.bodyLength = stream.bodyLength;
+         this.latency = stream.end - stream.start;
+         this.concurrency = concurrency;
+      }
+
+      int getStatus() {
+         return status;
+      }
+
+      Map<String, List<String>> getHeaders() {
+         return headers;
+      }
+
+      byte[] getBody() {
+         return body;
+      }
+
+      int getBodyLength() {
+         return bodyLength;
+      }
+
+      long getLatency() {
+         return latency;
+      }
+
+      int getConcurrency() {
+         return concurrency;
+      }
+   }
+
+   /**
+    * Opens a new connection to the server and starts its reader thread.
+    *
+    * @param host
+    *           The server host.
+    * @param port
+    *           The server port.
+    * @throws IOException
+    *            When the connection could not be established.
+    */
+   Http2Connection(final String host, final int port) throws IOException {
+      address = host + ":" + port;
+      socket = new Socket();
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(host, port));
+
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+      out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+      outChannel = Channels.newChannel(out);
+
+      synchronized (out) {
+         out.write(Http2Frame.PREFACE);
+         Http2Frame.writeSettings(out, Http2Frame.SETTINGS_ENABLE_PUSH, 0, Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE, Http2Frame.MAX_WINDOW_SIZE);
+         Http2Frame.writeInts(out, Http2Frame.WINDOW_UPDATE, 0, 0, Http2Frame.MAX_WINDOW_SIZE - Http2Frame.DEFAULT_WINDOW_SIZE);
+         out.flush();
+      }
+
+      final Thread reader = new Thread(this, "PerfCake-h2c-reader-" + address);
+      reader.setDaemon(true);
+      reader.start();
+   }
+
+   /**
+    * Checks whether new streams can be opened on the connection.
+    *
+    * @return True if and only if the connection is usable for new requests.
+    */
+   boolean isUsable() {
+      return !closed && !exhausted;
+   }
+
+   /**
+    * Used to read the number of streams open on the connection.
+    *
+    * @return The number of open streams.
+    */
+   int getActiveStreams() {
+      return activeStreams;
+   }
+
+   /**
+    * Sends a request as a new stream and waits for the response.
+    *
+    * @param headers
+    *           The request headers including the pseudo headers, the names must be in lower case.
+    * @param body
+    *           The read-only buffer with the request body, or null when there is no body. Its position is not changed.
+    * @param timeout
+    *           The maximal time in milliseconds to wait for a free stream slot and for the response.
+    * @return The response.
+    * @throws IOException
+    *            When the request could not be sent or the response could not be received in time.
+    * @throws InterruptedException
+    *            When the waiting for the response was interrupted.
+    */
+   Response exchange(final List<String[]> headers, final ByteBuffer body, final long timeout) throws IOException, InterruptedException {
+      final long deadline = System.currentTimeMillis() + timeout;
+      final byte[] block = encoder.encode(headers);
+      final int concurrency;
+
+      synchronized (flow) {
+         activeStreams++;
+         try {
+            while (openStreams >= maxConcurrentStreams && !closed) {
+               final long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0) {
+                  throw new SocketTimeoutException(String.format("No stream to %s became available in %d ms.", address, timeout));
+               }
+               flow.wait(remaining);
+            }
+         } catch (IOException | InterruptedException e) {
+            activeStreams--;
+            throw e;
+         }
+         openStreams++;
+         concurrency = openStreams;
+      }
+
+      Stream stream = null;
+      try {
+         synchronized (out) {
+            checkOpen();
+            if (exhausted) {
+               throw new IOException(String.format("No more streams can be opened on the connection to %s.", address));
+            }
+
+            synchronized (flow) {
+               stream = new Stream(nextStreamId, initialStreamWindow);
+            }
+            streams.put(stream.id, stream);
+            if (nextStreamId >= MAX_STREAM_ID - 2) {
+               exhausted = true;
+            } else {
+               nextStreamId += 2;
+            }
+
+            Http2Frame.writeHeaders(out, stream.id, block, body == null, maxFrameSize);
+            out.flush();
+         }
+
+         if (body != null) {
+            writeData(stream, body.duplicate(), deadline);
+         }
+
+         if (!stream.done.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            cancel(stream);
+            throw new SocketTimeoutException(String.format("No response received from %s in %d ms.", address, timeout));
+         }
+         if (stream.failure != null) {
+            throw stream.failure;
+         }
+
+         return new Response(stream, concurrency);
+      } catch (InterruptedException e) {
+         if (stream != null) {
+            cancel(stream);
+         }
+         throw e;
+      } finally {
+         if (stream != null) {
+            streams.remove(stream.id);
+         }
+         synchronized (flow) {
+            activeStreams--;
+            openStreams--;
+            flow.notifyAll();
+         }
+         if (exhausted && activeStreams == 0) {
+            close(null);
+         }
+      }
+   }
+
+   /**
+    * Writes the request body as DATA frames respecting the flow control windows.
+    *
+    * @param stream
+    *           The stream.
+    * @param body
+    *           The buffer with the request body, it is consumed.
+    * @param deadline
+    *           The time until the body must be written.
+    * @throws IOException
+    *            When the body could not be written in time.
+    * @throws InterruptedException
+    *            When the waiting for the flow control window was interrupted.
+    */
+   private void writeData(final Stream stream, final ByteBuffer body, final long deadline) throws IOException, InterruptedException {
+      final int bodyLength = body.remaining();
+      int offset = 0;
+
+      do {
+         int length = -1;
+         synchronized (flow) {
+            long remaining = deadline - System.currentTimeMillis();
+            while ((sendWindow <= 0 || stream.sendWindow <= 0) && bodyLength > 0 && stream.failure == null && !closed && remaining > 0) {
+               flow.wait(remaining);
+               remaining = deadline - System.currentTimeMillis();
+            }
+
+            if ((sendWindow > 0 && stream.sendWindow > 0) || bodyLength == 0) {
+               length = (int) Math.min(Math.min(bodyLength - offset, maxFrameSize), Math.min(sendWindow, stream.sendWindow));
+               sendWindow -= length;
+               stream.sendWindow -= length;
+            }
+         }
+
+         if (stream.failure != null) {
+            throw stream.failure;
+         }
+         checkOpen();
+         if (length < 0) {
+            cancel(stream);
+            throw new SocketTimeoutException(String.format("The flow control window of the connection to %s was not opened in time.", address));
+         }
+
+         synchronized (out) {
+            checkOpen();
+            Http2Frame.writeHeader(out, Http2Frame.DATA, offset + length == bodyLength ? Http2Frame.FLAG_END_STREAM : 0, stream.id, length);
+            body.limit(body.position() + length);
+            outChannel.write(body);
+            out.flush();
+         }
+         offset += length;
+      } while (offset < bodyLength);
+   }
+
+   /**
+    * Cancels the stream by the RST_STREAM frame.
+    *
+    * @param stream
+    *           The stream.
+    */
+   private void cancel(final Stream stream) {
+      stream.fail(new IOException("The stream was cancelled."));
+      try {
+         synchronized (out) {
+            if (!closed) {
+               Http2Frame.writeInts(out, Http2Frame.RST_STREAM, 0, stream.id, Http2Frame.ERROR_CANCEL);
+               out.flush();
+            }
+         }
+      } catch (IOException e) {
+         close(e);
+      }
+   }
+
+   /**
+    * Checks that the connection has not been closed.
+    *
+    * @throws IOException
+    *            When the connection is closed.
+    */
+   private void checkOpen() throws IOException {
+      if (closed) {
+         throw failure != null ? new IOException(String.format("The connection to %s failed: %s", address, failure.getMessage()), failure) : new EOFException(String.format("The connection to %s is closed.", address));
+      }
+   }
+
+   @Override
+   public void run() {
+      try {
+         while (!closed) {
+            final Http2Frame frame = Http2Frame.read(in, Http2Frame.DEFAULT_MAX_FRAME_SIZE);
+
+            switch (frame.type) {
+               case Http2Frame.DATA:
+                  onData(frame);
+                  break;
+               case Http2Frame.HEADERS:
+                  onHeaders(frame, Http2Frame.readHeaderBlock(in, frame, Http2Frame.DEFAULT_MAX_FRAME_SIZE));
+                  break;
+               case Http2Frame.RST_STREAM:
+                  final Stream stream = streams.get(frame.streamId);
+                  if (stream != null) {
+                     stream.fail(new IOException(String.format("The stream was reset by the server with the error code %d.", frame.readInt(0))));
+                  }
+                  break;
+               case Http2Frame.SETTINGS:
+                  if (!frame.hasFlag(Http2Frame.FLAG_ACK)) {
+                     onSettings(frame);
+                  }
+                  break;
+               case Http2Frame.PING:
+                  if (!frame.hasFlag(Http2Frame.FLAG_ACK)) {
+                     synchronized (out) {
+                        Http2Frame.write(out, Http2Frame.PING, Http2Frame.FLAG_ACK, 0, frame.payload, 0, frame.payload.length);
+                        out.flush();
+                     }
+                  }
+                  break;
+               case Http2Frame.GOAWAY:
+                  onGoAway(frame);
+                  break;
+               case Http2Frame.WINDOW_UPDATE:
+                  onWindowUpdate(frame);
+                  break;
+               case Http2Frame.PUSH_PROMISE:
+               case Http2Frame.CONTINUATION:
+                  throw new IOException(String.format("Unexpected frame of the type %d.", frame.type));
+               default:
+                  // PRIORITY and unknown frames are ignored
+            }
+         }
+      } catch (IOException e) {
+         if (!closed) {
+            log.warn(String.format("The connection to %s failed: ", address), e);
+            close(e);
+         }
+      }
+   }
+
+   private void onData(final Http2Frame frame) throws IOException {
+      final Stream stream = streams.get(frame.streamId);
+      if (stream != null) {
+         stream.append(frame.payload, frame.dataOffset(), frame.dataLength());
+         if (frame.hasFlag(Http2Frame.FLAG_END_STREAM)) {
+            stream.finish();
+         }
+      }
+
+      // the stream windows are large enough for any response, only the connection window needs to be replenished
+      unacknowledged += frame.payload.length;
+      if (unacknowledged > Http2Frame.MAX_WINDOW_SIZE / 2) {
+         synchronized (out) {
+            Http2Frame.writeInts(out, Http2Frame.WINDOW_UPDATE, 0, 0, (int) unacknowledged);
+            out.flush();
+         }
+         unacknowledged = 0;
+      }
+   }
+
+   private void onHeaders(final Http2Frame frame, final byte[] block) throws IOException {
+      final List<String[]> headers = decoder.decode(block, 0, block.length); // must be decoded to keep the dynamic table in sync
+      final Stream stream = streams.get(frame.streamId);
+      if (stream == null) {
+         return;
+      }
+
+      int status = stream.status;
+      for (final String[] header : headers) {
+         if (":status".equals(header[0])) {
+            try {
+               status = Integer.parseInt(header[1]);
+            } catch (NumberFormatException e) {
+               throw new IOException("Invalid status " + header[1]);
+            }
+         } else {
+            List<String> values = stream.headers.get(header[0]);
+            if (values == null) {
+               values = new ArrayList<>(1);
+               stream.headers.put(header[0], values);
+            }
+            values.add(header[1]);
+         }
+      }
+
+      if (status < 100 || status >= 200) { // the interim responses are ignored
+         stream.status = status;
+      }
+      if (frame.hasFlag(Http2Frame.FLAG_END_STREAM)) {
+         stream.finish();
+      }
+   }
+
+   private void onSettings(final Http2Frame frame) throws IOException {
+      synchronized (flow) {
+         for (int i = 0; i + 6 <= frame.payload.length; i += 6) {
+            final int id = ((frame.payload[i] & 0xff) << 8) | (frame.payload[i + 1] & 0xff);
+            final long value = ((long) frame.readInt(i + 2)) | ((frame.payload[i + 2] & 0x80L) << 24);
+
+            switch (id) {
+               case Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE:
+                  final long delta = value - initialStreamWindow;
+                  for (final Stream stream : streams.values()) {
+                     stream.sendWindow += delta;
+                  }
+                  initialStreamWindow = (int) value;
+                  break;
+               case Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS:
+                  maxConcurrentStreams = value;
+                  break;
+               case Http2Frame.SETTINGS_MAX_FRAME_SIZE:
+                  maxFrameSize = (int) value;
+                  break;
+               default:
+                  // the encoder does not use the dynamic table and the other settings do not concern the client
+            }
+         }
+         flow.notifyAll();
+      }
+
+      synchronized (out) {
+         Http2Frame.write(out, Http2Frame.SETTINGS, Http2Frame.FLAG_ACK, 0, frame.payload, 0, 0);
+         out.flush();
+      }
+   }
+
+   private void onGoAway(final Http2Frame frame) {
+      final int lastStreamId = frame.readInt(0);
+      final int errorCode = frame.readInt(4);
+      if (log.isDebugEnabled()) {
+         log.debug(String.format("The server %s is going away with the error code %d.", address, errorCode));
+      }
+
+      exhausted = true;
+      for (final Stream stream : streams.values()) {
+         if (stream.id > lastStreamId) {
+            stream.fail(new IOException(String.format("The stream was refused by the server going away with the error code %d.", errorCode)));
+         }
+      }
+      if (activeStreams == 0) {
+         close(null);
+      }
+   }
+
+   private void onWindowUpdate(final Http2Frame frame) {
+      final int increment = frame.readInt(0);
+
+      synchronized (flow) {
+         if (frame.streamId == 0) {
+            sendWindow += increment;
+         } else {
+            final Stream stream = streams.get(frame.streamId);
+            if (stream != null) {
+               stream.sendWindow += increment;
+            }
+         }
+         flow.notifyAll();
+      }
+   }
+
+   /**
+    * Closes the connection and fails all its streams.
+    *
+    * @param e
+    *           The reason of closing the connection, or null when the connection is closed regularly.
+    */
+   void close(final IOException e) {
+      synchronized (out) {
+         if (closed) {
+            return;
+         }
+         failure = e;
+         closed = true;
+
+         if (e == null) {
+            try {
+               Http2Frame.writeInts(out, Http2Frame.GOAWAY, 0, 0, 0, Http2Frame.ERROR_NO_ERROR);
+               out.flush();
+            } catch (IOException ioe) {
+               // the connection is being closed anyway
+            }
+         }
+      }
+
+      try {
+         socket.close();
+      } catch (IOException ioe) {
+         log.warn(String.format("Cannot close the connection to %s: ", address), ioe);
+      }
+
+      final IOException reason = e != null ? e : new EOFException(String.format("The connection to %s was closed.", address));
+      for (final Stream stream : streams.values()) {
+         stream.fail(reason);
+      }
+      synchronized (flow) {
+         flow.notifyAll();
+      }
+   }
+}
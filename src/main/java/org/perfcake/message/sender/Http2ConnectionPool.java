@@ -0,0 +1,174 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed number of HTTP/2 connections to a single target host and port shared by all the {@link Http2Sender} instances sending there.
+ * Each request is sent as a new stream over the connection with the least open streams. A connection that failed or cannot open
+ * new streams any more is replaced by a new one.
+ */
+class Http2ConnectionPool {
+
+   /**
+    * The pool's logger.
+    */
+   private static final Logger log = Logger.getLogger(Http2ConnectionPool.class);
+
+   /**
+    * The pools shared by the senders, one per target host and port.
+    */
+   private static final Map<String, Http2ConnectionPool> pools = new HashMap<>();
+
+   /**
+    * The target host and port identifying the pool.
+    */
+   private final String key;
+
+   /**
+    * The target host.
+    */
+   private final String host;
+
+   /**
+    * The target port.
+    */
+   private final int port;
+
+   /**
+    * The connections, guarded by itself.
+    */
+   private final Http2Connection[] connections;
+
+   /**
+    * The number of the senders using the pool, guarded by {@link #pools}.
+    */
+   private int references = 0;
+
+   /**
+    * The total number of connections opened by the pool.
+    */
+   private final AtomicLong openedConnections = new AtomicLong();
+
+   private Http2ConnectionPool(final String key, final String host, final int port, final int connections) {
+      this.key = key;
+      this.host = host;
+      this.port = port;
+      this.connections = new Http2Connection[Math.max(1, connections)];
+   }
+
+   /**
+    * Gets the pool of connections to the given target shared by all the senders. The pool is created with the given number of
+    * connections when it does not exist yet. Each call must be paired with {@link #release(Http2ConnectionPool)}.
+    *
+    * @param host
+    *           The target host.
+    * @param port
+    *           The target port.
+    * @param connections
+    *           The number of connections.
+    * @return The shared pool.
+    */
+   static Http2ConnectionPool acquire(final String host, final int port, final int connections) {
+      final String key = host + ":" + port;
+
+      synchronized (pools) {
+         Http2ConnectionPool pool = pools.get(key);
+         if (pool == null) {
+            pool = new Http2ConnectionPool(key, host, port, connections);
+            pools.put(key, pool);
+         } else if (pool.connections.length != Math.max(1, connections)) {
+            log.warn(String.format("The HTTP/2 connections to %s already exist with a different configuration, using the existing ones.", key));
+         }
+         pool.references++;
+
+         return pool;
+      }
+   }
+
+   /**
+    * Releases the pool obtained by {@link #acquire(String, int, int)}. The pool closes all its connections when it is released
+    * by the last sender.
+    *
+    * @param pool
+    *           The pool to be released.
+    */
+   static void release(final Http2ConnectionPool pool) {
+      synchronized (pools) {
+         if (--pool.references == 0) {
+            pools.remove(pool.key);
+            pool.close();
+         }
+      }
+   }
+
+   /**
+    * Gets the connection with the least open streams. The connections are opened when they are needed for the first time.
+    *
+    * @return The connection.
+    * @throws IOException
+    *            When a new connection could not be opened.
+    */
+   Http2Connection getConnection() throws IOException {
+      synchronized (connections) {
+         Http2Connection best = null;
+         for (int i = 0; i < connections.length; i++) {
+            if (connections[i] == null || !connections[i].isUsable()) {
+               connections[i] = new Http2Connection(host, port);
+               openedConnections.incrementAndGet();
+            }
+            if (best == null || connections[i].getActiveStreams() < best.getActiveStreams()) {
+               best = connections[i];
+            }
+         }
+
+         return best;
+      }
+   }
+
+   /**
+    * Closes all the connections.
+    */
+   private void close() {
+      synchronized (connections) {
+         for (int i = 0; i < connections.length; i++) {
+            if (connections[i] != null) {
+               connections[i].close(null);
+               connections[i] = null;
+            }
+         }
+      }
+   }
+
+   /**
+    * Used to read the total number of connections opened by the pool.
+    *
+    * @return The number of opened connections.
+    */
+   long getOpenedConnections() {
+      return openedConnections.get();
+   }
+}
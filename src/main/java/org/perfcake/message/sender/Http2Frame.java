@@ -0,0 +1,356 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A frame of the HTTP/2 protocol (RFC 7540) with the constants of the protocol used by {@link Http2Sender}.
+ */
+final class Http2Frame {
+
+   /**
+    * The connection preface sent by the client.
+    */
+   static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Charset.forName("ISO-8859-1"));
+
+   static final int DATA = 0x0;
+   static final int HEADERS = 0x1;
+   static final int PRIORITY = 0x2;
+   static final int RST_STREAM = 0x3;
+   static final int SETTINGS = 0x4;
+   static final int PUSH_PROMISE = 0x5;
+   static final int PING = 0x6;
+   static final int GOAWAY = 0x7;
+   static final int WINDOW_UPDATE = 0x8;
+   static final int CONTINUATION = 0x9;
+
+   static final int FLAG_END_STREAM = 0x1;
+   static final int FLAG_ACK = 0x1;
+   static final int FLAG_END_HEADERS = 0x4;
+   static final int FLAG_PADDED = 0x8;
+   static final int FLAG_PRIORITY = 0x20;
+
+   static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+   static final int SETTINGS_ENABLE_PUSH = 0x2;
+   static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+   static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+   static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+   static final int ERROR_NO_ERROR = 0x0;
+   static final int ERROR_PROTOCOL_ERROR = 0x1;
+   static final int ERROR_CANCEL = 0x8;
+
+   /**
+    * The initial flow control window size defined by the protocol.
+    */
+   static final int DEFAULT_WINDOW_SIZE = 65_535;
+
+   /**
+    * The maximal flow control window size.
+    */
+   static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+   /**
+    * The initial maximal frame size defined by the protocol.
+    */
+   static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+
+   /**
+    * The length of the frame header.
+    */
+   private static final int HEADER_LENGTH = 9;
+
+   /**
+    * The type of the frame.
+    */
+   final int type;
+
+   /**
+    * The flags of the frame.
+    */
+   final int flags;
+
+   /**
+    * The stream identifier, 0 for the connection.
+    */
+   final int streamId;
+
+   /**
+    * The payload of the frame.
+    */
+   final byte[] payload;
+
+   private Http2Frame(final int type, final int flags, final int streamId, final byte[] payload) {
+      this.type = type;
+      this.flags = flags;
+      this.streamId = streamId;
+      this.payload = payload;
+   }
+
+   /**
+    * Checks whether the flag is set.
+    *
+    * @param flag
+    *           The flag.
+    * @return True if and only if the flag is set.
+    */
+   boolean hasFlag(final int flag) {
+      return (flags & flag) != 0;
+   }
+
+   /**
+    * Gets the start of the data in the payload of the DATA and HEADERS frames, i.e. after the padding length and the priority.
+    *
+    * @return The offset of the data.
+    */
+   int dataOffset() {
+      return (hasFlag(FLAG_PADDED) ? 1 : 0) + (type == HEADERS && hasFlag(FLAG_PRIORITY) ? 5 : 0);
+   }
+
+   /**
+    * Gets the length of the data in the payload of the DATA and HEADERS frames, i.e. without the padding and the priority.
+    *
+    * @return The length of the data.
+    * @throws IOException
+    *            When the padding is longer than the payload.
+    */
+   int dataLength() throws IOException {
+      final int length = payload.length - dataOffset() - (hasFlag(FLAG_PADDED) ? payload[0] & 0xff : 0);
+      if (length < 0) {
+         throw new IOException("Invalid padding of a frame.");
+      }
+      return length;
+   }
+
+   /**
+    * Reads a 31-bit integer from the payload.
+    *
+    * @param offset
+    *           The offset of the integer.
+    * @return The integer.
+    */
+   int readInt(final int offset) {
+      return ((payload[offset] & 0x7f) << 24) | ((payload[offset + 1] & 0xff) << 16) | ((payload[offset + 2] & 0xff) << 8) | (payload[offset + 3] & 0xff);
+   }
+
+   /**
+    * Reads a frame.
+    *
+    * @param in
+    *           The input.
+    * @param maxFrameSize
+    *           The maximal size of the payload.
+    * @return The frame.
+    * @throws IOException
+    *            When the frame could not be read or it is too large.
+    */
+   static Http2Frame read(final DataInputStream in, final int maxFrameSize) throws IOException {
+      final int length = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
+      final int type = in.readUnsignedByte();
+      final int flags = in.readUnsignedByte();
+      final int streamId = in.readInt() & 0x7fffffff;
+
+      if (length > maxFrameSize) {
+         throw new IOException(String.format("The frame size %d exceeds the limit %d.", length, maxFrameSize));
+      }
+
+      final byte[] payload = new byte[length];
+      in.readFully(payload);
+
+      return new Http2Frame(type, flags, streamId, payload);
+   }
+
+   /**
+    * Writes a frame, the output is not flushed.
+    *
+    * @param out
+    *           The output.
+    * @param type
+    *           The type of the frame.
+    * @param flags
+    *           The flags of the frame.
+    * @param streamId
+    *           The stream identifier.
+    * @param payload
+    *           The buffer with the payload.
+    * @param offset
+    *           The start of the payload in the buffer.
+    * @param length
+    *           The length of the payload.
+    * @throws IOException
+    *            When the frame could not be written.
+    */
+   static void write(final OutputStream out, final int type, final int flags, final int streamId, final byte[] payload, final int offset, final int length) throws IOException {
+      writeHeader(out, type, flags, streamId, length);
+      out.write(payload, offset, length);
+   }
+
+   /**
+    * Writes the header of a frame, the payload of the given length must follow. The output is not flushed.
+    *
+    * @param out
+    *           The output.
+    * @param type
+    *           The type of the frame.
+    * @param flags
+    *           The flags of the frame.
+    * @param streamId
+    *           The stream identifier.
+    * @param length
+    *           The length of the payload.
+    * @throws IOException
+    *            When the header could not be written.
+    */
+   static void writeHeader(final OutputStream out, final int type, final int flags, final int streamId, final int length) throws IOException {
+      final byte[] header = new byte[HEADER_LENGTH];
+      header[0] = (byte) (length >>> 16);
+      header[1] = (byte) (length >>> 8);
+      header[2] = (byte) length;
+      header[3] = (byte) type;
+      header[4] = (byte) flags;
+      header[5] = (byte) (streamId >>> 24);
+      header[6] = (byte) (streamId >>> 16);
+      header[7] = (byte) (streamId >>> 8);
+      header[8] = (byte) streamId;
+
+      out.write(header);
+   }
+
+   /**
+    * Writes a frame with the payload consisting of 32-bit integers (e.g. WINDOW_UPDATE, RST_STREAM, GOAWAY), the output is not flushed.
+    *
+    * @param out
+    *           The output.
+    * @param type
+    *           The type of the frame.
+    * @param flags
+    *           The flags of the frame.
+    * @param streamId
+    *           The stream identifier.
+    * @param values
+    *           The integers.
+    * @throws IOException
+    *            When the frame could not be written.
+    */
+   static void writeInts(final OutputStream out, final int type, final int flags, final int streamId, final int... values) throws IOException {
+      final byte[] payload = new byte[values.length * 4];
+      for (int i = 0; i < values.length; i++) {
+         payload[i * 4] = (byte) (values[i] >>> 24);
+         payload[i * 4 + 1] = (byte) (values[i] >>> 16);
+         payload[i * 4 + 2] = (byte) (values[i] >>> 8);
+         payload[i * 4 + 3] = (byte) values[i];
+      }
+
+      write(out, type, flags, streamId, payload, 0, payload.length);
+   }
+
+   /**
+    * Writes a SETTINGS frame, the output is not flushed.
+    *
+    * @param out
+    *           The output.
+    * @param settings
+    *           Pairs of the setting identifier and its value.
+    * @throws IOException
+    *            When the frame could not be written.
+    */
+   static void writeSettings(final OutputStream out, final int... settings) throws IOException {
+      final byte[] payload = new byte[settings.length / 2 * 6];
+      for (int i = 0; i < settings.length / 2; i++) {
+         final int id = settings[i * 2];
+         final int value = settings[i * 2 + 1];
+         payload[i * 6] = (byte) (id >>> 8);
+         payload[i * 6 + 1] = (byte) id;
+         payload[i * 6 + 2] = (byte) (value >>> 24);
+         payload[i * 6 + 3] = (byte) (value >>> 16);
+         payload[i * 6 + 4] = (byte) (value >>> 8);
+         payload[i * 6 + 5] = (byte) value;
+      }
+
+      write(out, SETTINGS, 0, 0, payload, 0, payload.length);
+   }
+
+   /**
+    * Writes a header block as a HEADERS frame followed by as many CONTINUATION frames as needed, the output is not flushed.
+    *
+    * @param out
+    *           The output.
+    * @param streamId
+    *           The stream identifier.
+    * @param block
+    *           The header block.
+    * @param endStream
+    *           True if no data follow the headers.
+    * @param maxFrameSize
+    *           The maximal size of the payload.
+    * @throws IOException
+    *            When the frames could not be written.
+    */
+   static void writeHeaders(final OutputStream out, final int streamId, final byte[] block, final boolean endStream, final int maxFrameSize) throws IOException {
+      int offset = 0;
+      int type = HEADERS;
+      do {
+         final int length = Math.min(maxFrameSize, block.length - offset);
+         final boolean last = offset + length == block.length;
+         final int flags = (last ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+         write(out, type, flags, streamId, block, offset, length);
+         offset += length;
+         type = CONTINUATION;
+      } while (offset < block.length);
+   }
+
+   /**
+    * Reads the complete header block of a HEADERS frame including the following CONTINUATION frames.
+    *
+    * @param in
+    *           The input.
+    * @param headers
+    *           The HEADERS frame.
+    * @param maxFrameSize
+    *           The maximal size of the payload.
+    * @return The header block.
+    * @throws IOException
+    *            When the frames could not be read or they are not valid.
+    */
+   static byte[] readHeaderBlock(final DataInputStream in, final Http2Frame headers, final int maxFrameSize) throws IOException {
+      byte[] block = new byte[headers.dataLength()];
+      System.arraycopy(headers.payload, headers.dataOffset(), block, 0, block.length);
+
+      boolean endHeaders = headers.hasFlag(FLAG_END_HEADERS);
+      while (!endHeaders) {
+         final Http2Frame continuation = read(in, maxFrameSize);
+         if (continuation.type != CONTINUATION || continuation.streamId != headers.streamId) {
+            throw new IOException("A CONTINUATION frame expected.");
+         }
+
+         final byte[] newBlock = new byte[block.length + continuation.payload.length];
+         System.arraycopy(block, 0, newBlock, 0, block.length);
+         System.arraycopy(continuation.payload, 0, newBlock, block.length, continuation.payload.length);
+         block = newBlock;
+         endHeaders = continuation.hasFlag(FLAG_END_HEADERS);
+      }
+
+      return block;
+   }
+}
@@ -0,0 +1,340 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.message.Message;
+import org.perfcake.message.sender.HttpSender.Method;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.util.Utils;
+
+/**
+ * <p>
+ * The sender that is able to send the messages via HTTP/2 protocol without TLS (h2c). The connection starts directly with the HTTP/2
+ * preface (the prior knowledge), the upgrade from HTTP/1.1 is not supported.
+ * </p>
+ * <p>
+ * All the sender instances sending to the same host and port share {@link #connections} connections. Each message is sent as a new
+ * stream over the connection with the least open streams, so the number of concurrent requests is not limited by the number
+ * of connections but by the number of concurrent streams allowed by the server. The time between opening the stream and receiving
+ * the complete response ({@link #STREAM_LATENCY}, in milliseconds) and the number of streams open on the connection at the time
+ * the stream was opened ({@link #STREAM_CONCURRENCY}) are stored in the measurement unit. Unlike the measured response time,
+ * the stream latency does not include the time spent waiting for a free stream.
+ * </p>
+ */
+public class Http2Sender extends AbstractSender {
+
+   /**
+    * The name of the result carrying the latency of the stream in milliseconds.
+    */
+   public static final String STREAM_LATENCY = "StreamLatency";
+
+   /**
+    * The name of the result carrying the number of streams open on the connection.
+    */
+   public static final String STREAM_CONCURRENCY = "StreamConcurrency";
+
+   /**
+    * The headers specific to HTTP/1.1 connections that must not be sent over HTTP/2.
+    */
+   private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host"));
+
+   /**
+    * The HTTP method that will be used.
+    */
+   private Method method = Method.POST;
+
+   /**
+    * The list of response codes that are expected to be returned by HTTP response.
+    */
+   private List<Integer> expectedResponseCodeList = new LinkedList<>();
+
+   /**
+    * The property for expected response codes.
+    */
+   private String expectedResponseCodes = null;
+
+   /**
+    * The number of connections to the target.
+    */
+   private int connections = 1;
+
+   /**
+    * The maximal time in milliseconds to wait for a free stream and for the response.
+    */
+   private long responseTimeout = 30_000;
+
+   /**
+    * The URI of the target.
+    */
+   private URI uri;
+
+   /**
+    * The authority of the target.
+    */
+   private String authority;
+
+   /**
+    * The path and the query of the target.
+    */
+   private String path;
+
+   /**
+    * The connections to the target.
+    */
+   private Http2ConnectionPool pool;
+
+   /**
+    * The request headers.
+    */
+   private List<String[]> headers;
+
+   /**
+    * The read-only buffer with the request body.
+    */
+   private ByteBuffer body;
+
+   /**
+    * The last received response.
+    */
+   private Http2Connection.Response response;
+
+   @Override
+   public void init() throws Exception {
+      final URL url = new URL(target);
+      if (!"http".equalsIgnoreCase(url.getProtocol())) {
+         throw new PerfCakeException(String.format("%s supports only HTTP/2 without TLS (h2c), but %s was configured.", getClass().getName(), target));
+      }
+
+      final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+      uri = url.toURI();
+      authority = url.getAuthority();
+      path = url.getFile().isEmpty() ? "/" : url.getFile();
+      pool = Http2ConnectionPool.acquire(url.getHost(), port, connections);
+   }
+
+   @Override
+   public void close() {
+      if (pool != null) {
+         Http2ConnectionPool.release(pool);
+         pool = null;
+      }
+   }
+
+   @Override
+   public void preSend(final Message message, final Map<String, String> properties) throws Exception {
+      super.preSend(message, properties);
+
+      final boolean withBody = method == Method.POST || method == Method.PUT;
+      body = withBody ? getPayloadBuffer(message) : null;
+
+      headers = new ArrayList<>();
+      headers.add(new String[] { ":method", method.name() });
+      headers.add(new String[] { ":scheme", "http" });
+      headers.add(new String[] { ":authority", authority });
+      headers.add(new String[] { ":path", path });
+
+      setHeader("content-type", "text/xml; charset=utf-8");
+      if (message != null) {
+         for (Entry<Object, Object> property : message.getProperties().entrySet()) {
+            setHeader(property.getKey().toString(), property.getValue().toString());
+         }
+         for (Entry<Object, Object> header : message.getHeaders().entrySet()) {
+            setHeader(header.getKey().toString(), header.getValue().toString());
+         }
+      }
+      if (properties != null) {
+         for (Entry<String, String> property : properties.entrySet()) {
+            setHeader(property.getKey(), property.getValue());
+         }
+      }
+      if (body != null) {
+         setHeader("content-length", Integer.toString(body.remaining()));
+      }
+
+      // set the cookies of the simulated user
+      if (session != null) {
+         for (Entry<String, List<String>> cookies : session.getCookieManager().get(uri, Collections.<String, List<String>> emptyMap()).entrySet()) {
+            for (String cookie : cookies.getValue()) {
+               headers.add(new String[] { cookies.getKey().toLowerCase(), cookie });
+            }
+         }
+      }
+   }
+
+   /**
+    * Sets the request header, replacing the header of the same name. The names are converted to lower case as required by HTTP/2
+    * and the headers specific to HTTP/1.1 connections are skipped.
+    *
+    * @param name
+    *           The header name.
+    * @param value
+    *           The header value.
+    */
+   private void setHeader(final String name, final String value) {
+      final String lowerName = name.toLowerCase();
+      if (CONNECTION_HEADERS.contains(lowerName)) {
+         return;
+      }
+
+      for (final String[] header : headers) {
+         if (header[0].equals(lowerName)) {
+            header[1] = value;
+            return;
+         }
+      }
+      headers.add(new String[] { lowerName, value });
+   }
+
+   @Override
+   public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+      response = pool.getConnection().exchange(headers, body, responseTimeout);
+
+      mu.appendResult(STREAM_LATENCY, response.getLatency() / 1_000_000d);
+      mu.appendResult(STREAM_CONCURRENCY, (double) response.getConcurrency());
+
+      final int respCode = response.getStatus();
+      if (!expectedResponseCodeList.isEmpty() && !expectedResponseCodeList.contains(respCode)) {
+         StringBuffer errorMess = new StringBuffer();
+         errorMess.append("The server returned an unexpected HTTP response code: ").append(respCode).append(". Expected HTTP codes are ");
+         for (int code : expectedResponseCodeList) {
+            errorMess.append(Integer.toString(code)).append(", ");
+         }
+         throw new PerfCakeException(errorMess.substring(0, errorMess.length() - 2) + ".");
+      }
+
+      return new String(response.getBody(), 0, response.getBodyLength(), Utils.getDefaultEncoding());
+   }
+
+   @Override
+   public void postSend(final Message message) throws Exception {
+      super.postSend(message);
+
+      if (session != null && response != null) {
+         session.getCookieManager().put(uri, response.getHeaders());
+      }
+      response = null;
+   }
+
+   /**
+    * Gets the connections used by the sender.
+    *
+    * @return The connection pool.
+    */
+   Http2ConnectionPool getConnectionPool() {
+      return pool;
+   }
+
+   /**
+    * Used to read the value of HTTP method.
+    *
+    * @return The HTTP method.
+    */
+   public Method getMethod() {
+      return method;
+   }
+
+   /**
+    * Sets the value of HTTP method.
+    *
+    * @param method
+    *           The HTTP method to set.
+    */
+   public void setMethod(final Method method) {
+      this.method = method;
+   }
+
+   /**
+    * Used to read the value of expectedResponseCodes property.
+    *
+    * @return The expectedResponseCodes.
+    */
+   public String getExpectedResponseCodes() {
+      return expectedResponseCodes;
+   }
+
+   /**
+    * Sets the value of expectedResponseCodes property.
+    *
+    * @param expectedResponseCodes
+    *           The comma separated list of expected response codes.
+    */
+   public void setExpectedResponseCodes(final String expectedResponseCodes) {
+      this.expectedResponseCodes = expectedResponseCodes;
+
+      final List<Integer> codes = new LinkedList<>();
+      for (String code : expectedResponseCodes.split(",")) {
+         codes.add(Integer.parseInt(code.trim()));
+      }
+      expectedResponseCodeList = codes;
+   }
+
+   /**
+    * Used to read the number of connections to the target.
+    *
+    * @return The number of connections.
+    */
+   public int getConnections() {
+      return connections;
+   }
+
+   /**
+    * Sets the number of connections to the target shared by all the sender instances.
+    *
+    * @param connections
+    *           The number of connections.
+    */
+   public void setConnections(final int connections) {
+      this.connections = connections;
+   }
+
+   /**
+    * Used to read the maximal time to wait for a free stream and for the response.
+    *
+    * @return The response timeout in milliseconds.
+    */
+   public long getResponseTimeout() {
+      return responseTimeout;
+   }
+
+   /**
+    * Sets the maximal time to wait for a free stream and for the response.
+    *
+    * @param responseTimeout
+    *           The response timeout in milliseconds.
+    */
+   public void setResponseTimeout(final long responseTimeout) {
+      this.responseTimeout = responseTimeout;
+   }
+}
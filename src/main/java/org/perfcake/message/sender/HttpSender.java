@@ -19,12 +19,16 @@
  */
 package org.perfcake.message.sender;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,7 +42,12 @@ import org.perfcake.reporting.MeasurementUnit;
 import org.perfcake.util.Utils;
 
 /**
- * The sender that is able to send the messages via HTTP protocol.
+ * The sender that is able to send the messages via HTTP protocol. When the messages are sent for the sessions of simulated users
+ * (see {@link org.perfcake.message.Session}), the cookies are kept for each user and the connections are left open after the requests
+ * to be reused by the HTTP keep-alive.
+ * <p>
+ * The response body is handled according to {@link #responseHandling}. Unless configured otherwise, the response is read completely
+ * only when it is needed by a validator or an extractor of the message, otherwise it is just read and thrown away.
  * 
  * @author Martin Večeřa <marvenec@gmail.com>
  * @author Pavel Macík <pavel.macik@gmail.com>
@@ -51,11 +60,21 @@ public class HttpSender extends AbstractSender {
     */
    protected static final int DEFAULT_EXPECTED_CODE = 200;
 
+   /**
+    * The name of the result carrying the size of the response body in bytes when the body is not kept.
+    */
+   public static final String RESPONSE_SIZE = "ResponseSize";
+
    /**
     * The sender's logger.
     */
    private static final Logger log = Logger.getLogger(HttpSender.class);
 
+   /**
+    * The size of the buffer the discarded and digested responses are read into.
+    */
+   private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+
    /**
     * The URL where the HTTP request is send.
     */
@@ -73,6 +92,48 @@ public class HttpSender extends AbstractSender {
       GET, POST, HEAD, OPTIONS, PUT, DELETE, TRACE
    }
 
+   /**
+    * Enumeration on the ways the response body can be handled.
+    */
+   public static enum ResponseHandling {
+      /**
+       * {@link #FULL} when the response is needed by a validator or an extractor of the message, {@link #DISCARD} otherwise.
+       */
+      AUTO,
+      /**
+       * The body is read and thrown away, only its size is stored in the measurement unit. The response is null.
+       */
+      DISCARD,
+      /**
+       * The hash of the body is computed while reading it. The response is the hash in hexadecimal digits.
+       */
+      DIGEST,
+      /**
+       * The whole body is decoded and returned as the response.
+       */
+      FULL
+   }
+
+   /**
+    * The way the response body is handled.
+    */
+   private ResponseHandling responseHandling = ResponseHandling.AUTO;
+
+   /**
+    * The algorithm used to compute the hash of the response body in the {@link ResponseHandling#DIGEST} mode.
+    */
+   private String digestAlgorithm = "SHA-256";
+
+   /**
+    * The hash function of the response body, it is reused for all the responses.
+    */
+   private MessageDigest digest;
+
+   /**
+    * The buffer the discarded and digested responses are read into, it is reused for all the responses.
+    */
+   private byte[] responseBuffer;
+
    /**
     * The list of response codes that are expected to be returned by HTTP response.
     */
@@ -89,18 +150,21 @@ public class HttpSender extends AbstractSender {
    protected HttpURLConnection requestConnection;
 
    /**
-    * The request payload.
+    * The read-only buffer with the encoded request payload.
     */
-   private String payload;
+   private ByteBuffer payload;
 
    /**
-    * The request payload lenght.
+    * The request payload lenght in bytes.
     */
    private int payloadLenght;
 
    @Override
    public void init() throws Exception {
       url = new URL(target);
+      if (responseHandling == ResponseHandling.DIGEST) {
+         digest = MessageDigest.getInstance(digestAlgorithm);
+      }
    }
 
    @Override
@@ -175,13 +239,8 @@ public class HttpSender extends AbstractSender {
    public void preSend(final Message message, final Map<String, String> properties) throws Exception {
       super.preSend(message, properties);
 
-      payloadLenght = 0;
-      if (message == null) {
-         payload = null;
-      } else if (message.getPayload() != null) {
-         payload = message.getPayload().toString();
-         payloadLenght = payload.length();
-      }
+      payload = getPayloadBuffer(message);
+      payloadLenght = payload == null ? 0 : payload.remaining();
 
       requestConnection = (HttpURLConnection) url.openConnection();
       requestConnection.setRequestMethod(method.name());
@@ -235,6 +294,15 @@ public class HttpSender extends AbstractSender {
             }
          }
       }
+
+      // set the cookies of the simulated user
+      if (session != null) {
+         for (Entry<String, List<String>> cookies : session.getCookieManager().get(url.toURI(), requestConnection.getRequestProperties()).entrySet()) {
+            for (String cookie : cookies.getValue()) {
+               requestConnection.addRequestProperty(cookies.getKey(), cookie);
+            }
+         }
+      }
    }
 
    @Override
@@ -242,11 +310,9 @@ public class HttpSender extends AbstractSender {
       int respCode = -1;
       requestConnection.connect();
       if (payload != null && (method == Method.POST || method == Method.PUT)) {
-         OutputStreamWriter out = new OutputStreamWriter(requestConnection.getOutputStream(), Utils.getDefaultEncoding());
-         out.write(payload, 0, payloadLenght);
-         out.flush();
+         OutputStream out = requestConnection.getOutputStream();
+         Channels.newChannel(out).write(payload.duplicate());
          out.close();
-         requestConnection.getOutputStream().close();
       }
 
       respCode = requestConnection.getResponseCode();
@@ -264,6 +330,40 @@ public class HttpSender extends AbstractSender {
       } else {
          rcis = requestConnection.getErrorStream();
       }
+      switch (getEffectiveResponseHandling()) {
+         case DISCARD:
+            discard(rcis, mu);
+            return null;
+         case DIGEST:
+            return digest(rcis, mu);
+         default:
+            return read(rcis);
+      }
+   }
+
+   /**
+    * Gets the way the response to the current message is handled.
+    * 
+    * @return The configured response handling, or the one chosen according to whether the response is needed.
+    */
+   private ResponseHandling getEffectiveResponseHandling() {
+      if (responseHandling == ResponseHandling.AUTO) {
+         return isResponseNeeded() ? ResponseHandling.FULL : ResponseHandling.DISCARD;
+      }
+
+      return responseHandling;
+   }
+
+   /**
+    * Reads the response body and decodes it into a string.
+    * 
+    * @param rcis
+    *           The response body.
+    * @return The response.
+    * @throws IOException
+    *            When the response could not be read.
+    */
+   private String read(final InputStream rcis) throws IOException {
       char[] cbuf = new char[10 * 1024];
       InputStreamReader read = new InputStreamReader(rcis, Utils.getDefaultEncoding());
       // note that Content-Length is available at this point
@@ -275,15 +375,96 @@ public class HttpSender extends AbstractSender {
       }
       read.close();
       rcis.close();
-      String payload = sb.toString();
 
-      return payload;
+      return sb.toString();
+   }
+
+   /**
+    * Reads the response body and throws it away. The size of the body is stored in the measurement unit.
+    * 
+    * @param rcis
+    *           The response body.
+    * @param mu
+    *           The measurement unit.
+    * @throws IOException
+    *            When the response could not be read.
+    */
+   private void discard(final InputStream rcis, final MeasurementUnit mu) throws IOException {
+      final byte[] buffer = getResponseBuffer();
+      long size = 0;
+      int read;
+      while ((read = rcis.read(buffer)) != -1) {
+         size += read;
+      }
+      rcis.close();
+
+      if (mu != null) {
+         mu.appendResult(RESPONSE_SIZE, (double) size);
+      }
+   }
+
+   /**
+    * Reads the response body while computing its hash. The size of the body is stored in the measurement unit.
+    * 
+    * @param rcis
+    *           The response body.
+    * @param mu
+    *           The measurement unit.
+    * @return The hash in hexadecimal digits.
+    * @throws Exception
+    *            When the response could not be read or the digest algorithm is not available.
+    */
+   private String digest(final InputStream rcis, final MeasurementUnit mu) throws Exception {
+      if (digest == null) { // the response handling was changed after the initialization
+         digest = MessageDigest.getInstance(digestAlgorithm);
+      }
+
+      final byte[] buffer = getResponseBuffer();
+      long size = 0;
+      int read;
+      while ((read = rcis.read(buffer)) != -1) {
+         digest.update(buffer, 0, read);
+         size += read;
+      }
+      rcis.close();
+
+      if (mu != null) {
+         mu.appendResult(RESPONSE_SIZE, (double) size);
+      }
+
+      final byte[] hash = digest.digest();
+      final char[] hex = new char[hash.length * 2];
+      for (int i = 0; i < hash.length; i++) {
+         hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0xf, 16);
+         hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xf, 16);
+      }
+
+      return new String(hex);
+   }
+
+   /**
+    * Gets the buffer the discarded and digested responses are read into.
+    * 
+    * @return The buffer.
+    */
+   private byte[] getResponseBuffer() {
+      if (responseBuffer == null) {
+         responseBuffer = new byte[RESPONSE_BUFFER_SIZE];
+      }
+
+      return responseBuffer;
    }
 
    @Override
    public void postSend(final Message message) throws Exception {
       super.postSend(message);
-      requestConnection.disconnect();
+
+      if (session != null) {
+         // remember the cookies and keep the connection open to be reused by the next request of the simulated user
+         session.getCookieManager().put(url.toURI(), requestConnection.getHeaderFields());
+      } else {
+         requestConnection.disconnect();
+      }
    }
 
    /**
@@ -305,4 +486,43 @@ public class HttpSender extends AbstractSender {
       this.method = method;
    }
 
+   /**
+    * Used to read the way the response body is handled.
+    * 
+    * @return The response handling.
+    */
+   public ResponseHandling getResponseHandling() {
+      return responseHandling;
+   }
+
+   /**
+    * Sets the way the response body is handled.
+    * 
+    * @param responseHandling
+    *           The response handling to set.
+    */
+   public void setResponseHandling(final ResponseHandling responseHandling) {
+      this.responseHandling = responseHandling;
+   }
+
+   /**
+    * Used to read the algorithm of the hash of the response body.
+    * 
+    * @return The name of the digest algorithm.
+    */
+   public String getDigestAlgorithm() {
+      return digestAlgorithm;
+   }
+
+   /**
+    * Sets the algorithm of the hash of the response body used in the {@link ResponseHandling#DIGEST} mode.
+    * 
+    * @param digestAlgorithm
+    *           The name of the digest algorithm as known to {@link MessageDigest}.
+    */
+   public void setDigestAlgorithm(final String digestAlgorithm) {
+      this.digestAlgorithm = digestAlgorithm;
+      this.digest = null;
+   }
+
 }
@@ -0,0 +1,220 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.apache.log4j.Logger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A fixed number of JMS connections shared by all the {@link JmsSender} instances using the same JNDI context, connection factory
+ * and credentials. The JNDI context and the connection factory are looked up only once and the destinations are looked up once
+ * per name. Each sender creates its own session on the next connection in turn, so the sessions are spread evenly over the connections.
+ */
+class JmsConnectionPool {
+
+   /**
+    * The pool's logger.
+    */
+   private static final Logger log = Logger.getLogger(JmsConnectionPool.class);
+
+   /**
+    * The pools shared by the senders, one per JNDI context, connection factory and credentials.
+    */
+   private static final Map<String, JmsConnectionPool> pools = new HashMap<>();
+
+   /**
+    * The key identifying the pool.
+    */
+   private final String key;
+
+   /**
+    * The JNDI context.
+    */
+   private final InitialContext ctx;
+
+   /**
+    * The connections.
+    */
+   private final Connection[] connections;
+
+   /**
+    * The destinations already looked up, guarded by this pool.
+    */
+   private final Map<String, Destination> destinations = new HashMap<>();
+
+   /**
+    * The index of the connection for the next session, guarded by this pool.
+    */
+   private int next = 0;
+
+   /**
+    * The number of the senders using the pool, guarded by {@link #pools}.
+    */
+   private int references = 0;
+
+   private JmsConnectionPool(final String key, final InitialContext ctx, final int connections) {
+      this.key = key;
+      this.ctx = ctx;
+      this.connections = new Connection[Math.max(1, connections)];
+   }
+
+   /**
+    * Gets the pool of connections shared by all the senders with the same configuration. The pool is created and its connections
+    * are opened and started when it does not exist yet. Each call must be paired with {@link #release(JmsConnectionPool)}.
+    *
+    * @param ctxProps
+    *           The JNDI context properties, the default context is used when empty.
+    * @param connectionFactory
+    *           The JNDI name of the connection factory.
+    * @param username
+    *           The JMS username or <code>null</code>.
+    * @param password
+    *           The JMS password or <code>null</code>.
+    * @param connections
+    *           The number of connections.
+    * @return The shared pool.
+    * @throws NamingException
+    *            When the connection factory could not be looked up.
+    * @throws JMSException
+    *            When the connections could not be opened.
+    */
+   static JmsConnectionPool acquire(final Properties ctxProps, final String connectionFactory, final String username, final String password, final int connections) throws NamingException, JMSException {
+      final String key = ctxProps + "|" + connectionFactory + "|" + username + "|" + password;
+
+      synchronized (pools) {
+         JmsConnectionPool pool = pools.get(key);
+         if (pool == null) {
+            pool = new JmsConnectionPool(key, ctxProps.isEmpty() ? new InitialContext() : new InitialContext(ctxProps), connections);
+            try {
+               pool.open(connectionFactory, username, password);
+            } catch (NamingException | JMSException | RuntimeException e) {
+               pool.close();
+               throw e;
+            }
+            pools.put(key, pool);
+         } else if (pool.connections.length != Math.max(1, connections)) {
+            log.warn(String.format("The shared JMS connections created by %s already exist with a different configuration, using the existing ones.", connectionFactory));
+         }
+         pool.references++;
+
+         return pool;
+      }
+   }
+
+   /**
+    * Releases the pool obtained by {@link #acquire(Properties, String, String, String, int)}. The pool closes all its connections
+    * and the JNDI context when it is released by the last sender.
+    *
+    * @param pool
+    *           The pool to be released.
+    */
+   static void release(final JmsConnectionPool pool) {
+      synchronized (pools) {
+         if (--pool.references == 0) {
+            pools.remove(pool.key);
+            pool.close();
+         }
+      }
+   }
+
+   /**
+    * Opens and starts all the connections.
+    *
+    * @param connectionFactory
+    *           The JNDI name of the connection factory.
+    * @param username
+    *           The JMS username or <code>null</code>.
+    * @param password
+    *           The JMS password or <code>null</code>.
+    * @throws NamingException
+    *            When the connection factory could not be looked up.
+    * @throws JMSException
+    *            When the connections could not be opened.
+    */
+   private void open(final String connectionFactory, final String username, final String password) throws NamingException, JMSException {
+      final ConnectionFactory factory = (ConnectionFactory) ctx.lookup(connectionFactory);
+      for (int i = 0; i < connections.length; i++) {
+         connections[i] = username != null ? factory.createConnection(username, password) : factory.createConnection();
+         connections[i].start();
+      }
+   }
+
+   /**
+    * Gets the connection for a new session. The connections are handed out in turns.
+    *
+    * @return The connection.
+    */
+   synchronized Connection nextConnection() {
+      final Connection connection = connections[next];
+      next = (next + 1) % connections.length;
+
+      return connection;
+   }
+
+   /**
+    * Looks up the destination of the given name, each name is looked up only once.
+    *
+    * @param name
+    *           The JNDI name of the destination.
+    * @return The destination.
+    * @throws NamingException
+    *            When the destination could not be looked up.
+    */
+   synchronized Destination lookup(final String name) throws NamingException {
+      Destination destination = destinations.get(name);
+      if (destination == null) {
+         destination = (Destination) ctx.lookup(name);
+         destinations.put(name, destination);
+      }
+
+      return destination;
+   }
+
+   /**
+    * Closes all the connections and the JNDI context.
+    */
+   private void close() {
+      for (int i = 0; i < connections.length; i++) {
+         if (connections[i] != null) {
+            try {
+               connections[i].close();
+            } catch (JMSException e) {
+               log.warn("Unable to close a shared JMS connection: ", e);
+            }
+            connections[i] = null;
+         }
+      }
+
+      try {
+         ctx.close();
+      } catch (NamingException e) {
+         log.warn("Unable to close the JNDI context of the shared JMS connections: ", e);
+      }
+   }
+}
@@ -19,6 +19,7 @@
  */
 package org.perfcake.message.sender;
 
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.perfcake.PerfCakeException;
 import org.perfcake.reporting.MeasurementUnit;
@@ -36,12 +37,43 @@ import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * <p>
  * The sender that is able to send messages via JMS.
+ * </p>
+ * <p>
+ * With {@link #async} set to <code>true</code>, the messages are sent asynchronously with a completion listener of JMS 2.0. The sending
+ * of a message returns once the message is handed over to the JMS provider and the listener completes its measurement when the broker
+ * acknowledges it, so the measured time is the broker acknowledgement latency of the message and the iteration is reported after that.
+ * At most {@link #maxInFlight} messages sent by a single sender instance can wait for the acknowledgement, the sending blocks until there
+ * is a free place. The number of messages waiting for the acknowledgement when a message was sent ({@link #IN_FLIGHT}) is stored
+ * in the measurement unit. A failure reported by the completion listener is logged. When the JMS provider does not support JMS 2.0,
+ * the messages are sent synchronously.
+ * </p>
+ * <p>
+ * A transacted session is committed when the sender is closed. To commit in batches during the measurement, set {@link #commitEvery}
+ * to the number of messages in a batch and/or {@link #commitInterval} to the maximal age of a batch in milliseconds. The batch is committed
+ * by the sending of the message that completes it, so the commit is included in the measured time of that message and its duration
+ * in milliseconds is also stored in the measurement unit ({@link #COMMIT_LATENCY}).
+ * </p>
+ * <p>
+ * By default, each sender instance looks up the connection factory and the destinations and opens its own connection. With {@link #sharedConnections}
+ * set to a positive number, all the sender instances with the same JNDI context, connection factory and credentials share the given number
+ * of connections and the results of the lookups. Each sender instance still has its own session and producer created on the next shared
+ * connection in turn.
+ * </p>
  *
  * @author Martin Večeřa <marvenec@gmail.com>
  * @author Pavel Macík <pavel.macik@gmail.com>
@@ -57,11 +89,26 @@ public class JmsSender extends AbstractSender {
 	   OBJECT, STRING, BYTEARRAY
    }
 
+   /**
+    * The name of the result carrying the number of asynchronously sent messages waiting for the acknowledgement when a message was sent, including the message.
+    */
+   public static final String IN_FLIGHT = "InFlight";
+
+   /**
+    * The name of the result carrying the time in milliseconds of committing a batch of messages.
+    */
+   public static final String COMMIT_LATENCY = "CommitLatency";
+
    /**
     * The logger's logger.
     */
    private static final Logger log = Logger.getLogger(JmsSender.class);
 
+   /**
+    * The maximal time in milliseconds to wait for the acknowledgement of the asynchronously sent messages when the sender is closed.
+    */
+   private static final long ASYNC_CLOSE_TIMEOUT = 30_000;
+
    /**
     * JMS initial context.
     */
@@ -158,6 +205,61 @@ public class JmsSender extends AbstractSender {
     */
    protected Message mess = null;
 
+   /**
+    * The number of messages sent in a transacted session after which the session is committed, 0 to commit only when the sender is closed.
+    */
+   protected int commitEvery = 0;
+
+   /**
+    * The time in milliseconds after which a transacted session with sent messages is committed, 0 to commit only when the sender is closed.
+    */
+   protected long commitInterval = 0;
+
+   /**
+    * The number of messages sent since the last commit.
+    */
+   private int uncommitted = 0;
+
+   /**
+    * The time of the last commit as obtained from {@link System#nanoTime()}.
+    */
+   private long lastCommit;
+
+   /**
+    * The number of JMS connections shared by all the sender instances with the same configuration, 0 to open a connection per sender instance.
+    */
+   protected int sharedConnections = 0;
+
+   /**
+    * The shared JMS connections, <code>null</code> when the sender has its own connection.
+    */
+   private JmsConnectionPool pool = null;
+
+   /**
+    * Indicates whether the messages are sent asynchronously with a completion listener.
+    */
+   protected boolean async = false;
+
+   /**
+    * The maximal number of asynchronously sent messages waiting for the acknowledgement.
+    */
+   protected int maxInFlight = 100;
+
+   /**
+    * The method of JMS 2.0 producer sending a message with a completion listener, <code>null</code> when sending synchronously.
+    */
+   private Method asyncSend = null;
+
+   /**
+    * The JMS 2.0 completion listener interface.
+    */
+   private Class<?> listenerClass = null;
+
+   /**
+    * The free places for the asynchronously sent messages.
+    */
+   private Semaphore inFlight = null;
+
    /**
     * Creates a new instance of JmsSender.
     */
@@ -190,31 +292,91 @@ public class JmsSender extends AbstractSender {
             ctxProps.setProperty(Context.SECURITY_CREDENTIALS, jndiSecurityCredentials);
          }
 
-         if (ctxProps.isEmpty()) {
-            ctx = new InitialContext();
+         if (sharedConnections > 0) {
+            checkCredentials(username, password);
+            pool = JmsConnectionPool.acquire(ctxProps, connectionFactory, username, password, sharedConnections);
+            connection = pool.nextConnection();
+            destination = pool.lookup(target);
+            if (replyTo != null && !"".equals(replyTo)) {
+               replyToDestination = pool.lookup(replyTo);
+            }
          } else {
-            ctx = new InitialContext(ctxProps);
-         }
+            if (ctxProps.isEmpty()) {
+               ctx = new InitialContext();
+            } else {
+               ctx = new InitialContext(ctxProps);
+            }
 
-         qcf = (ConnectionFactory) ctx.lookup(connectionFactory);
-         if (checkCredentials(username, password)) {
-            connection = qcf.createConnection(username, password);
-         } else {
-            connection = qcf.createConnection();
-         }
-         destination = (Destination) ctx.lookup(target);
-         if (replyTo != null && !"".equals(replyTo)) {
-            replyToDestination = (Destination) ctx.lookup(replyTo);
+            qcf = (ConnectionFactory) ctx.lookup(connectionFactory);
+            if (checkCredentials(username, password)) {
+               connection = qcf.createConnection(username, password);
+            } else {
+               connection = qcf.createConnection();
+            }
+            destination = (Destination) ctx.lookup(target);
+            if (replyTo != null && !"".equals(replyTo)) {
+               replyToDestination = (Destination) ctx.lookup(replyTo);
+            }
          }
          session = connection.createSession(transacted, Session.AUTO_ACKNOWLEDGE);
          connection.start();
          sender = session.createProducer(destination);
          sender.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+         if (async) {
+            initAsync();
+         }
+         uncommitted = 0;
+         lastCommit = System.nanoTime();
       } catch (JMSException | NamingException | RuntimeException e) {
+         if (pool != null) {
+            JmsConnectionPool.release(pool);
+            pool = null;
+         }
          throw new PerfCakeException(e);
       }
    }
 
+   /**
+    * Looks up the JMS 2.0 method sending a message with a completion listener and prepares the listener implementation.
+    * The messages are sent synchronously when the JMS provider does not support JMS 2.0.
+    */
+   private void initAsync() {
+      try {
+         final ClassLoader loader = sender.getClass().getClassLoader();
+         listenerClass = Class.forName("javax.jms.CompletionListener", true, loader);
+         asyncSend = findAsyncSend(sender.getClass(), listenerClass);
+         inFlight = new Semaphore(Math.max(1, maxInFlight));
+      } catch (ClassNotFoundException | NoSuchMethodException e) {
+         log.warn("The JMS provider does not support asynchronous sending (JMS 2.0 is required), the messages will be sent synchronously.");
+         asyncSend = null;
+      }
+   }
+
+   /**
+    * Finds the method sending a message with a completion listener in the interfaces implemented by the producer.
+    *
+    * @param producerClass
+    *           The class of the producer.
+    * @param listenerClass
+    *           The completion listener interface.
+    * @return The sending method.
+    * @throws NoSuchMethodException
+    *            When none of the interfaces declares the method.
+    */
+   private static Method findAsyncSend(final Class<?> producerClass, final Class<?> listenerClass) throws NoSuchMethodException {
+      for (Class<?> c = producerClass; c != null; c = c.getSuperclass()) {
+         for (final Class<?> i : c.getInterfaces()) {
+            try {
+               return i.getMethod("send", Message.class, listenerClass);
+            } catch (NoSuchMethodException e) {
+               // try the next interface
+            }
+         }
+      }
+
+      throw new NoSuchMethodException("send(Message, CompletionListener)");
+   }
+
    /*
     * (non-Javadoc)
     *
@@ -227,6 +389,7 @@ public class JmsSender extends AbstractSender {
       }
       try {
          try {
+            awaitInFlight();
             if (sender != null) {
                sender.close();
             }
@@ -243,7 +406,10 @@ public class JmsSender extends AbstractSender {
                   }
                } finally {
                   try {
-                     if (connection != null) {
+                     if (pool != null) {
+                        JmsConnectionPool.release(pool);
+                        pool = null;
+                     } else if (connection != null) {
                         connection.close();
                      }
                   } finally {
@@ -274,7 +440,7 @@ public class JmsSender extends AbstractSender {
             break;
          case BYTEARRAY:
             BytesMessage bytesMessage = session.createBytesMessage();
-            bytesMessage.writeUTF((String) message.getPayload());
+            writeUtf(bytesMessage, message);
             mess = bytesMessage;
             break;
          case OBJECT:
@@ -307,14 +473,203 @@ public class JmsSender extends AbstractSender {
          log.debug("Sending a message: " + message.getPayload().toString());
       }
       try {
-         sender.send(mess);
+         if (asyncSend != null) {
+            sendAsync(mess, mu);
+         } else {
+            sender.send(mess);
+         }
       } catch (JMSException e) {
          throw new PerfCakeException("JMS Message cannot be sent", e);
       }
 
+      if (transacted && (commitEvery > 0 || commitInterval > 0)) {
+         commitBatch(mu);
+      }
+
       return null;
    }
 
+   /**
+    * Commits the transacted session when the current batch of messages is complete and stores the duration of the commit
+    * in the measurement unit.
+    *
+    * @param mu
+    *           The measurement unit of the current iteration.
+    * @throws PerfCakeException
+    *            When the session could not be committed.
+    */
+   private void commitBatch(final MeasurementUnit mu) throws PerfCakeException {
+      uncommitted++;
+
+      final long now = System.nanoTime();
+      if ((commitEvery > 0 && uncommitted >= commitEvery) || (commitInterval > 0 && now - lastCommit >= commitInterval * 1_000_000)) {
+         try {
+            session.commit();
+         } catch (JMSException e) {
+            throw new PerfCakeException("JMS transaction cannot be committed", e);
+         }
+
+         lastCommit = System.nanoTime();
+         uncommitted = 0;
+         mu.appendResult(COMMIT_LATENCY, (lastCommit - now) / 1_000_000d);
+      }
+   }
+
+   /**
+    * Sends the message with a completion listener once there is a free place for it. The measurement of the message is completed
+    * by the listener when the message is acknowledged, so the sending does not wait for the acknowledgement.
+    *
+    * @param message
+    *           The message to be sent.
+    * @param mu
+    *           The measurement unit of the current iteration.
+    * @throws Exception
+    *            When the message could not be sent.
+    */
+   private void sendAsync(final Message message, final MeasurementUnit mu) throws Exception {
+      inFlight.acquire();
+      mu.appendResult(IN_FLIGHT, (double) (Math.max(1, maxInFlight) - inFlight.availablePermits()));
+      final Completion completion = new Completion(mu);
+      try {
+         asyncSend.invoke(sender, message, Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[] { listenerClass }, completion));
+      } catch (InvocationTargetException e) {
+         completion.complete(null); // nothing was sent, the message is not in flight
+         if (e.getCause() instanceof JMSException) {
+            throw (JMSException) e.getCause();
+         }
+         throw new PerfCakeException("JMS Message cannot be sent asynchronously", e.getCause());
+      }
+   }
+
+   /**
+    * Waits for the acknowledgement of all the asynchronously sent messages.
+    */
+   private void awaitInFlight() {
+      if (asyncSend == null) {
+         return;
+      }
+
+      try {
+         if (inFlight.tryAcquire(Math.max(1, maxInFlight), ASYNC_CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            inFlight.release(Math.max(1, maxInFlight));
+         } else {
+            log.warn(String.format("Not all the asynchronously sent JMS messages were acknowledged within %d ms.", ASYNC_CLOSE_TIMEOUT));
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Implements the JMS 2.0 completion listener of a single asynchronously sent message.
+    */
+   private class Completion implements InvocationHandler {
+
+      /**
+       * The measurement unit of the message.
+       */
+      private final MeasurementUnit mu;
+
+      /**
+       * The start time of the measurement of the message.
+       */
+      private final long startTime;
+
+      /**
+       * Indicates whether the message was already acknowledged or failed.
+       */
+      private final AtomicBoolean completed = new AtomicBoolean(false);
+
+      /**
+       * Creates the listener of a message that is about to be sent.
+       *
+       * @param mu
+       *           The measurement unit of the message, its current measurement is completed by the listener.
+       */
+      private Completion(final MeasurementUnit mu) {
+         this.mu = mu;
+         this.startTime = mu.deferMeasure();
+      }
+
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) {
+         switch (method.getName()) {
+            case "onCompletion":
+               complete(null);
+               return null;
+            case "onException":
+               complete((Throwable) args[1]);
+               return null;
+            case "equals":
+               return proxy == args[0];
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            default:
+               return "JmsSender completion listener";
+         }
+      }
+
+      /**
+       * Completes the measurement of the message and frees its place.
+       *
+       * @param failure
+       *           The failure of the message, <code>null</code> when it was acknowledged.
+       */
+      private void complete(final Throwable failure) {
+         if (!completed.compareAndSet(false, true)) {
+            return;
+         }
+
+         if (failure != null && log.isEnabledFor(Level.ERROR)) {
+            log.error("An asynchronously sent JMS message was not acknowledged", failure);
+         }
+         inFlight.release();
+         mu.completeMeasure(startTime);
+      }
+   }
+
+   /**
+    * Writes the payload into the bytes message the same way as {@link BytesMessage#writeUTF(String)} does. The payload encoded in advance
+    * by the message template is used when it is the same in the modified UTF-8 encoding, i.e. when it contains neither the null characters
+    * nor the supplementary characters.
+    *
+    * @param bytesMessage
+    *           The bytes message.
+    * @param message
+    *           The message with the payload.
+    * @throws JMSException
+    *            When the payload could not be written.
+    */
+   private static void writeUtf(final BytesMessage bytesMessage, final org.perfcake.message.Message message) throws JMSException {
+      final ByteBuffer encodedPayload = message.getEncodedPayload("UTF-8");
+      if (encodedPayload != null && encodedPayload.remaining() <= 0xffff && isModifiedUtf8(encodedPayload)) {
+         final byte[] bytes = new byte[encodedPayload.remaining()];
+         encodedPayload.get(bytes);
+         bytesMessage.writeShort((short) bytes.length);
+         bytesMessage.writeBytes(bytes);
+      } else {
+         bytesMessage.writeUTF((String) message.getPayload());
+      }
+   }
+
+   /**
+    * Checks whether the UTF-8 encoded bytes are the same in the modified UTF-8 encoding used by {@link java.io.DataOutput#writeUTF(String)}.
+    *
+    * @param bytes
+    *           The buffer with the UTF-8 encoded bytes, its position is not changed.
+    * @return <code>true</code> if there are no null characters and no four byte sequences.
+    */
+   private static boolean isModifiedUtf8(final ByteBuffer bytes) {
+      for (int i = bytes.position(); i < bytes.limit(); i++) {
+         final byte b = bytes.get(i);
+         if (b == 0 || (b & 0xf8) == 0xf0) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
    /**
     * Checks if both of the provided credentials are set.
     *
@@ -409,6 +764,101 @@ public class JmsSender extends AbstractSender {
       this.persistent = persistent;
    }
 
+   /**
+    * Used to read the number of messages in a batch committed in a transacted session.
+    *
+    * @return The number of messages after which the session is committed.
+    */
+   public int getCommitEvery() {
+      return commitEvery;
+   }
+
+   /**
+    * Sets the number of messages in a batch committed in a transacted session.
+    *
+    * @param commitEvery
+    *           The number of messages after which the session is committed, 0 to commit only when the sender is closed.
+    */
+   public void setCommitEvery(final int commitEvery) {
+      this.commitEvery = commitEvery;
+   }
+
+   /**
+    * Used to read the maximal age of a batch of messages committed in a transacted session.
+    *
+    * @return The time in milliseconds after which the session is committed.
+    */
+   public long getCommitInterval() {
+      return commitInterval;
+   }
+
+   /**
+    * Sets the maximal age of a batch of messages committed in a transacted session.
+    *
+    * @param commitInterval
+    *           The time in milliseconds after which the session is committed, 0 to commit only when the sender is closed.
+    */
+   public void setCommitInterval(final long commitInterval) {
+      this.commitInterval = commitInterval;
+   }
+
+   /**
+    * Used to read the number of JMS connections shared by the sender instances.
+    *
+    * @return The number of shared connections, 0 when each sender instance has its own connection.
+    */
+   public int getSharedConnections() {
+      return sharedConnections;
+   }
+
+   /**
+    * Sets the number of JMS connections shared by the sender instances.
+    *
+    * @param sharedConnections
+    *           The number of shared connections, 0 to open a connection per sender instance.
+    */
+   public void setSharedConnections(final int sharedConnections) {
+      this.sharedConnections = sharedConnections;
+   }
+
+   /**
+    * Used to read the value of async.
+    *
+    * @return The async.
+    */
+   public boolean isAsync() {
+      return async;
+   }
+
+   /**
+    * Sets the value of async.
+    *
+    * @param async
+    *           <code>true</code> to send the messages asynchronously with a completion listener.
+    */
+   public void setAsync(final boolean async) {
+      this.async = async;
+   }
+
+   /**
+    * Used to read the maximal number of asynchronously sent messages waiting for the acknowledgement.
+    *
+    * @return The maximal number of messages in flight.
+    */
+   public int getMaxInFlight() {
+      return maxInFlight;
+   }
+
+   /**
+    * Sets the maximal number of asynchronously sent messages waiting for the acknowledgement.
+    *
+    * @param maxInFlight
+    *           The maximal number of messages in flight.
+    */
+   public void setMaxInFlight(final int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+   }
+
    /**
     * Set the value of messageType.
     *
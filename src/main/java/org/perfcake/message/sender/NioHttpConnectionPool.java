@@ -0,0 +1,1175 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A bounded pool of persistent HTTP/1.1 connections to a single target host and port shared by all the {@link NioHttpSender}
+ * instances sending there.
+ * </p>
+ * <p>
+ * The connections are non-blocking and they are served by a small number of selector threads, each of them multiplexing its part
+ * of the connections. The sender threads only hand over the encoded requests and wait for the parsed responses. At most {@link #poolSize}
+ * connections are used at the same time, a sender waits for a free one when all of them are busy. The idle connections are reused
+ * in the LIFO order so that the superfluous ones are closed after the idle timeout. When the server closes an idle connection
+ * before it receives the request, the request is repeated once on a new connection.
+ * </p>
+ */
+class NioHttpConnectionPool {
+
+   /**
+    * The pool's logger.
+    */
+   private static final Logger log = Logger.getLogger(NioHttpConnectionPool.class);
+
+   /**
+    * The pools shared by the senders, one per target host and port.
+    */
+   private static final Map<String, NioHttpConnectionPool> pools = new HashMap<>();
+
+   /**
+    * The maximal length of the status line and the headers of a response.
+    */
+   private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+   /**
+    * The size of the buffer used by a selector thread to read the responses.
+    */
+   private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+   /**
+    * The maximal size of the body buffer allocated in advance according to the content length.
+    */
+   private static final int MAX_PREALLOCATED_BODY = 1024 * 1024;
+
+   /**
+    * The target host and port identifying the pool.
+    */
+   private final String key;
+
+   /**
+    * The address of the target.
+    */
+   private final InetSocketAddress address;
+
+   /**
+    * The maximal number of connections used at the same time.
+    */
+   private final int poolSize;
+
+   /**
+    * The time in milliseconds after which an idle connection is closed.
+    */
+   private final long idleTimeout;
+
+   /**
+    * The number of the senders using the pool, guarded by {@link #pools}.
+    */
+   private int references = 0;
+
+   /**
+    * Limits the number of connections used at the same time.
+    */
+   private final Semaphore permits;
+
+   /**
+    * The idle connections, the most recently used first.
+    */
+   private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+   /**
+    * The selector threads serving the connections.
+    */
+   private final Reactor[] reactors;
+
+   /**
+    * The index of the selector thread for the next new connection.
+    */
+   private final AtomicInteger nextReactor = new AtomicInteger();
+
+   /**
+    * The number of currently open connections.
+    */
+   private final AtomicInteger openConnections = new AtomicInteger();
+
+   /**
+    * The total number of connections opened by the pool.
+    */
+   private final AtomicLong openedConnections = new AtomicLong();
+
+   /**
+    * The total number of requests sent over a reused connection.
+    */
+   private final AtomicLong reusedConnections = new AtomicLong();
+
+   private NioHttpConnectionPool(final String key, final InetSocketAddress address, final int poolSize, final long idleTimeout, final int selectorThreads) throws IOException {
+      this.key = key;
+      this.address = address;
+      this.poolSize = poolSize;
+      this.idleTimeout = idleTimeout;
+      permits = new Semaphore(poolSize, true);
+
+      reactors = new Reactor[Math.max(1, selectorThreads)];
+      try {
+         for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+         }
+      } catch (IOException e) {
+         shutdown();
+         throw e;
+      }
+   }
+
+   /**
+    * Gets the pool of connections to the given target shared by all the senders. The pool is created with the given configuration
+    * when it does not exist yet. Each successful call must be paired with {@link #release(NioHttpConnectionPool)}.
+    *
+    * @param host
+    *           The target host.
+    * @param port
+    *           The target port.
+    * @param poolSize
+    *           The maximal number of connections used at the same time.
+    * @param idleTimeout
+    *           The time in milliseconds after which an idle connection is closed.
+    * @param selectorThreads
+    *           The number of selector threads serving the connections.
+    * @return The shared pool.
+    * @throws IOException
+    *            When it was not possible to start the selector threads.
+    */
+   static NioHttpConnectionPool acquire(final String host, final int port, final int poolSize, final long idleTimeout, final int selectorThreads) throws IOException {
+      final String key = host + ":" + port;
+
+      synchronized (pools) {
+         NioHttpConnectionPool pool = pools.get(key);
+         if (pool == null) {
+            pool = new NioHttpConnectionPool(key, new InetSocketAddress(host, port), poolSize, idleTimeout, selectorThreads);
+            pools.put(key, pool);
+         } else if (pool.poolSize != poolSize || pool.idleTimeout != idleTimeout || pool.reactors.length != Math.max(1, selectorThreads)) {
+            log.warn(String.format("The connection pool for %s already exists with a different configuration, using the existing one.", key));
+         }
+         pool.references++;
+
+         return pool;
+      }
+   }
+
+   /**
+    * Releases the pool obtained by {@link #acquire(String, int, int, long, int)}. The pool closes all its connections and stops
+    * the selector threads when it is released by the last sender.
+    *
+    * @param pool
+    *           The pool to be released.
+    */
+   static void release(final NioHttpConnectionPool pool) {
+      synchronized (pools) {
+         if (--pool.references == 0) {
+            pools.remove(pool.key);
+            pool.shutdown();
+         }
+      }
+   }
+
+   /**
+    * Sends the request over a pooled connection and waits for the response.
+    *
+    * @param request
+    *           The encoded request. The buffer is not modified.
+    * @param head
+    *           True if the response does not carry any body (i.e. it is a response to the HEAD request).
+    * @param timeout
+    *           The maximal time in milliseconds to wait for a free connection and for the response.
+    * @return The response.
+    * @throws IOException
+    *            When the request could not be sent or the response could not be received in time.
+    * @throws InterruptedException
+    *            When the waiting for the response was interrupted.
+    */
+   Response execute(final ByteBuffer request, final boolean head, final long timeout) throws IOException, InterruptedException {
+      final long deadline = System.currentTimeMillis() + timeout;
+      if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+         throw new SocketTimeoutException(String.format("No connection to %s became available in %d ms.", key, timeout));
+      }
+
+      try {
+         Connection c = pollIdle();
+         if (c != null) {
+            final Exchange ex = exchange(c, request.duplicate(), head, deadline);
+            if (!ex.stale) {
+               reusedConnections.incrementAndGet();
+               return ex.getResponse(true);
+            }
+
+            if (log.isDebugEnabled()) {
+               log.debug(String.format("The idle connection to %s was closed by the server, repeating the request on a new connection.", key));
+            }
+         }
+
+         c = new Connection(reactors[(nextReactor.getAndIncrement() & Integer.MAX_VALUE) % reactors.length]);
+         openConnections.incrementAndGet();
+         openedConnections.incrementAndGet();
+
+         return exchange(c, request.duplicate(), head, deadline).getResponse(false);
+      } finally {
+         permits.release();
+      }
+   }
+
+   /**
+    * Takes the most recently used idle connection that is still open.
+    *
+    * @return The idle connection, or null if there is none.
+    */
+   private Connection pollIdle() {
+      Connection c;
+      while ((c = idle.pollFirst()) != null) {
+         if (!c.closed) {
+            if (System.currentTimeMillis() - c.lastUsed <= idleTimeout) {
+               return c;
+            }
+            c.reactor.close(c);
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Sends the request over the given connection and waits for the response. Then it either returns the connection among the idle
+    * ones, or closes it when it cannot be reused.
+    *
+    * @param c
+    *           The connection.
+    * @param request
+    *           The request.
+    * @param head
+    *           True if the response does not carry any body.
+    * @param deadline
+    *           The time until the response must be received.
+    * @return The finished exchange.
+    * @throws InterruptedException
+    *            When the waiting for the response was interrupted.
+    */
+   private Exchange exchange(final Connection c, final ByteBuffer request, final boolean head, final long deadline) throws InterruptedException {
+      final Exchange ex = new Exchange(request, head);
+      c.reactor.submit(c, ex);
+
+      try {
+         if (!ex.await(deadline - System.currentTimeMillis())) {
+            if (!ex.fail(new SocketTimeoutException(String.format("No response received from %s in time.", key)), false)) {
+               ex.await(); // the response has just arrived
+            }
+         }
+      } catch (InterruptedException e) {
+         ex.fail(new IOException("Interrupted while waiting for the response."), false);
+         c.reactor.close(c);
+         throw e;
+      }
+
+      if (ex.response != null && ex.response.keepAlive) {
+         c.lastUsed = System.currentTimeMillis();
+         idle.offerFirst(c);
+      } else {
+         c.reactor.close(c);
+      }
+
+      return ex;
+   }
+
+   /**
+    * Closes all the connections and stops the selector threads.
+    */
+   private void shutdown() {
+      for (final Reactor r : reactors) {
+         if (r != null) {
+            r.stop();
+         }
+      }
+   }
+
+   /**
+    * Used to read the number of currently open connections.
+    *
+    * @return The number of open connections.
+    */
+   int getOpenConnections() {
+      return openConnections.get();
+   }
+
+   /**
+    * Used to read the total number of connections opened by the pool.
+    *
+    * @return The number of opened connections.
+    */
+   long getOpenedConnections() {
+      return openedConnections.get();
+   }
+
+   /**
+    * Used to read the total number of requests sent over a reused connection.
+    *
+    * @return The number of reused connections.
+    */
+   long getReusedConnections() {
+      return reusedConnections.get();
+   }
+
+   /**
+    * A response received from the target.
+    */
+   static class Response {
+
+      /**
+       * The status code.
+       */
+      private final int code;
+
+      /**
+       * The reason phrase.
+       */
+      private final String reason;
+
+      /**
+       * The response headers.
+       */
+      private final Map<String, List<String>> headers;
+
+      /**
+       * The body of the response, only the first {@link #bodyLength} bytes are valid.
+       */
+      private final byte[] body;
+
+      /**
+       * The length of the body.
+       */
+      private final int bodyLength;
+
+      /**
+       * True if the connection can be used for the next request.
+       */
+      private final boolean keepAlive;
+
+      /**
+       * True if the response was received over a reused connection.
+       */
+      private boolean reused;
+
+      private Response(final int code, final String reason, final Map<String, List<String>> headers, final byte[] body, final int bodyLength, final boolean keepAlive) {
+         this.code = code;
+         this.reason = reason;
+         this.headers = headers;
+         this.body = body;
+         this.bodyLength = bodyLength;
+         this.keepAlive = keepAlive;
+      }
+
+      int getCode() {
+         return code;
+      }
+
+      String getReason() {
+         return reason;
+      }
+
+      Map<String, List<String>> getHeaders() {
+         return headers;
+      }
+
+      byte[] getBody() {
+         return body;
+      }
+
+      int getBodyLength() {
+         return bodyLength;
+      }
+
+      boolean isReused() {
+         return reused;
+      }
+   }
+
+   /**
+    * A request waiting for its response. It is finished exactly once, either by the selector thread, or by the sender on a timeout.
+    */
+   private static class Exchange {
+
+      /**
+       * The request remaining to be written.
+       */
+      private final ByteBuffer request;
+
+      /**
+       * True if the response does not carry any body.
+       */
+      private final boolean head;
+
+      /**
+       * Set when the exchange is finished.
+       */
+      private final AtomicBoolean finished = new AtomicBoolean(false);
+
+      /**
+       * Released when the exchange is finished.
+       */
+      private final CountDownLatch latch = new CountDownLatch(1);
+
+      /**
+       * The received response.
+       */
+      private Response response;
+
+      /**
+       * The reason of the failure.
+       */
+      private IOException failure;
+
+      /**
+       * True if the request failed on a connection closed by the server before it received the request.
+       */
+      private boolean stale;
+
+      private Exchange(final ByteBuffer request, final boolean head) {
+         this.request = request;
+         this.head = head;
+      }
+
+      private boolean complete(final Response response) {
+         if (finished.compareAndSet(false, true)) {
+            this.response = response;
+            latch.countDown();
+            return true;
+         }
+         return false;
+      }
+
+      private boolean fail(final IOException failure, final boolean stale) {
+         if (finished.compareAndSet(false, true)) {
+            this.failure = failure;
+            this.stale = stale;
+            latch.countDown();
+            return true;
+         }
+         return false;
+      }
+
+      private boolean await(final long timeout) throws InterruptedException {
+         return latch.await(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+      }
+
+      private void await() throws InterruptedException {
+         latch.await();
+      }
+
+      private Response getResponse(final boolean reused) throws IOException {
+         if (failure != null) {
+            throw failure;
+         }
+         response.reused = reused;
+         return response;
+      }
+   }
+
+   /**
+    * A persistent connection to the target. Apart from the flags, it is accessed only by its selector thread.
+    */
+   private class Connection {
+
+      /**
+       * The selector thread serving the connection.
+       */
+      private final Reactor reactor;
+
+      /**
+       * The parser of the responses.
+       */
+      private final ResponseParser parser = new ResponseParser();
+
+      /**
+       * The channel of the connection, null until it is opened.
+       */
+      private SocketChannel channel;
+
+      /**
+       * The registration of the channel with the selector.
+       */
+      private SelectionKey selectionKey;
+
+      /**
+       * The exchange in progress.
+       */
+      private Exchange exchange;
+
+      /**
+       * The number of responses received over the connection.
+       */
+      private long served = 0;
+
+      /**
+       * The time when the connection became idle.
+       */
+      private volatile long lastUsed;
+
+      /**
+       * Set when the connection is closed.
+       */
+      private volatile boolean closed = false;
+
+      private Connection(final Reactor reactor) {
+         this.reactor = reactor;
+      }
+   }
+
+   /**
+    * A selector thread serving a part of the connections.
+    */
+   private class Reactor implements Runnable {
+
+      /**
+       * The selector of the connections.
+       */
+      private final Selector selector;
+
+      /**
+       * The tasks handed over by the senders to be run by the selector thread.
+       */
+      private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+      /**
+       * The buffer for reading the responses shared by all the connections of the thread.
+       */
+      private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+      /**
+       * The period of checking the idle connections.
+       */
+      private final long checkPeriod = Math.max(10, Math.min(1000, idleTimeout / 2));
+
+      /**
+       * The thread running the selector.
+       */
+      private final Thread thread;
+
+      /**
+       * Cleared when the thread should stop.
+       */
+      private volatile boolean running = true;
+
+      private Reactor(final int index) throws IOException {
+         selector = Selector.open();
+         thread = new Thread(this, "PerfCake-http-selector-" + key + "-" + index);
+         thread.setDaemon(true);
+         thread.start();
+      }
+
+      @Override
+      public void run() {
+         long lastCheck = System.currentTimeMillis();
+
+         try {
+            while (running) {
+               selector.select(checkPeriod);
+
+               Runnable task;
+               while ((task = tasks.poll()) != null) {
+                  task.run();
+               }
+
+               final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+               while (keys.hasNext()) {
+                  final SelectionKey selectionKey = keys.next();
+                  keys.remove();
+                  process((Connection) selectionKey.attachment(), selectionKey);
+               }
+
+               final long now = System.currentTimeMillis();
+               if (now - lastCheck >= checkPeriod) {
+                  lastCheck = now;
+                  closeExpired(now);
+               }
+            }
+         } catch (IOException e) {
+            log.error(String.format("The selector thread of the connections to %s failed: ", key), e);
+         } finally {
+            for (final SelectionKey selectionKey : new ArrayList<>(selector.keys())) {
+               close((Connection) selectionKey.attachment());
+            }
+            try {
+               selector.close();
+            } catch (IOException e) {
+               log.warn("Cannot close the selector: ", e);
+            }
+         }
+      }
+
+      /**
+       * Hands the exchange over to the selector thread to be sent over the connection.
+       *
+       * @param c
+       *           The connection.
+       * @param ex
+       *           The exchange.
+       */
+      private void submit(final Connection c, final Exchange ex) {
+         tasks.offer(new Runnable() {
+            @Override
+            public void run() {
+               start(c, ex);
+            }
+         });
+         selector.wakeup();
+      }
+
+      /**
+       * Closes the connection from any thread.
+       *
+       * @param c
+       *           The connection.
+       */
+      private void close(final Connection c) {
+         if (Thread.currentThread() == thread) {
+            doClose(c);
+         } else {
+            tasks.offer(new Runnable() {
+               @Override
+               public void run() {
+                  doClose(c);
+               }
+            });
+            selector.wakeup();
+         }
+      }
+
+      /**
+       * Stops the thread, it closes all its connections.
+       */
+      private void stop() {
+         running = false;
+         selector.wakeup();
+      }
+
+      /**
+       * Starts the exchange, the connection is opened when it is used for the first time.
+       *
+       * @param c
+       *           The connection.
+       * @param ex
+       *           The exchange.
+       */
+      private void start(final Connection c, final Exchange ex) {
+         if (c.closed) {
+            ex.fail(new ClosedChannelException(), c.served > 0);
+            return;
+         }
+
+         c.exchange = ex;
+         c.parser.reset(ex.head);
+
+         try {
+            if (c.channel == null) {
+               c.channel = SocketChannel.open();
+               c.channel.configureBlocking(false);
+               c.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+               final boolean connected = c.channel.connect(address);
+               c.selectionKey = c.channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, c);
+            } else {
+               write(c);
+            }
+         } catch (IOException e) {
+            fail(c, e);
+         }
+      }
+
+      /**
+       * Processes the ready operations of the connection.
+       *
+       * @param c
+       *           The connection.
+       * @param selectionKey
+       *           The selection key of the connection.
+       */
+      private void process(final Connection c, final SelectionKey selectionKey) {
+         try {
+            if (selectionKey.isValid() && selectionKey.isConnectable()) {
+               if (c.channel.finishConnect()) {
+                  selectionKey.interestOps(SelectionKey.OP_WRITE);
+               }
+            } else {
+               if (selectionKey.isValid() && selectionKey.isWritable()) {
+                  write(c);
+               }
+               if (selectionKey.isValid() && selectionKey.isReadable()) {
+                  read(c);
+               }
+            }
+         } catch (IOException e) {
+            fail(c, e);
+         }
+      }
+
+      /**
+       * Writes as much of the request as possible, then it waits for the response.
+       *
+       * @param c
+       *           The connection.
+       * @throws IOException
+       *            When the request cannot be written.
+       */
+      private void write(final Connection c) throws IOException {
+         if (c.exchange == null) {
+            c.selectionKey.interestOps(SelectionKey.OP_READ);
+            return;
+         }
+
+         c.channel.write(c.exchange.request);
+         c.selectionKey.interestOps(c.exchange.request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      }
+
+      /**
+       * Reads the available part of the response. The idle connections are read too, in order to detect that the server closed them.
+       *
+       * @param c
+       *           The connection.
+       * @throws IOException
+       *            When the response cannot be read or parsed.
+       */
+      private void read(final Connection c) throws IOException {
+         readBuffer.clear();
+         final int read = c.channel.read(readBuffer);
+
+         if (read < 0) {
+            if (c.exchange != null) {
+               if (c.parser.finish()) {
+                  complete(c);
+               } else {
+                  fail(c, new EOFException(String.format("The connection to %s was closed before the complete response was received.", key)));
+               }
+            }
+            doClose(c);
+            return;
+         }
+
+         if (c.exchange == null) {
+            log.warn(String.format("Unexpected data received on an idle connection to %s, closing it.", key));
+            doClose(c);
+            return;
+         }
+
+         readBuffer.flip();
+         if (c.parser.feed(readBuffer)) {
+            complete(c);
+         }
+      }
+
+      /**
+       * Finishes the exchange in progress with the parsed response.
+       *
+       * @param c
+       *           The connection.
+       */
+      private void complete(final Connection c) {
+         final Exchange ex = c.exchange;
+         c.exchange = null;
+         c.served++;
+         ex.complete(c.parser.getResponse());
+      }
+
+      /**
+       * Fails the exchange in progress and closes the connection.
+       *
+       * @param c
+       *           The connection.
+       * @param e
+       *           The reason of the failure.
+       */
+      private void fail(final Connection c, final IOException e) {
+         final Exchange ex = c.exchange;
+         c.exchange = null;
+         if (ex != null) {
+            ex.fail(e, c.served > 0 && !c.parser.isStarted());
+         }
+         doClose(c);
+      }
+
+      /**
+       * Closes the connection in the selector thread.
+       *
+       * @param c
+       *           The connection.
+       */
+      private void doClose(final Connection c) {
+         if (c.closed) {
+            return;
+         }
+
+         c.closed = true;
+         idle.remove(c);
+         openConnections.decrementAndGet();
+
+         if (c.exchange != null) {
+            c.exchange.fail(new ClosedChannelException(), false);
+            c.exchange = null;
+         }
+         if (c.selectionKey != null) {
+            c.selectionKey.cancel();
+         }
+         if (c.channel != null) {
+            try {
+               c.channel.close();
+            } catch (IOException e) {
+               log.warn(String.format("Cannot close the connection to %s: ", key), e);
+            }
+         }
+      }
+
+      /**
+       * Closes the idle connections of this thread that were not used for longer than the idle timeout.
+       *
+       * @param now
+       *           The current time.
+       */
+      private void closeExpired(final long now) {
+         for (final Connection c : idle) {
+            if (c.reactor == this && now - c.lastUsed > idleTimeout && idle.remove(c)) {
+               doClose(c);
+            }
+         }
+      }
+   }
+
+   /**
+    * An incremental parser of the HTTP/1.1 responses.
+    */
+   private static class ResponseParser {
+
+      /**
+       * The parts of a response.
+       */
+      private static enum State {
+         STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE
+      }
+
+      /**
+       * The line being read.
+       */
+      private final StringBuilder line = new StringBuilder();
+
+      /**
+       * The part of the response being read.
+       */
+      private State state;
+
+      /**
+       * True if the response does not carry any body.
+       */
+      private boolean head;
+
+      /**
+       * True if any part of the response has been received.
+       */
+      private boolean started;
+
+      private int code;
+
+      private String reason;
+
+      private Map<String, List<String>> headers;
+
+      private boolean keepAlive;
+
+      private boolean chunked;
+
+      private long contentLength;
+
+      /**
+       * The number of bytes remaining in the body or in the current chunk.
+       */
+      private long remaining;
+
+      private byte[] body;
+
+      private int bodyLength;
+
+      /**
+       * Prepares the parser for a new response.
+       *
+       * @param head
+       *           True if the response does not carry any body.
+       */
+      private void reset(final boolean head) {
+         this.head = head;
+         state = State.STATUS_LINE;
+         started = false;
+         line.setLength(0);
+         body = null;
+         bodyLength = 0;
+      }
+
+      private boolean isStarted() {
+         return started;
+      }
+
+      /**
+       * Parses the received bytes.
+       *
+       * @param buffer
+       *           The received bytes.
+       * @return True if the response is complete.
+       * @throws IOException
+       *            When the response is not valid.
+       */
+      private boolean feed(final ByteBuffer buffer) throws IOException {
+         started = started || buffer.hasRemaining();
+
+         while (buffer.hasRemaining() && state != State.DONE) {
+            switch (state) {
+               case BODY:
+               case CHUNK_DATA:
+                  final int length = (int) Math.min(remaining, buffer.remaining());
+                  append(buffer, length);
+                  remaining -= length;
+                  if (remaining == 0) {
+                     state = state == State.BODY ? State.DONE : State.CHUNK_END;
+                  }
+                  break;
+               case UNTIL_CLOSE:
+                  append(buffer, buffer.remaining());
+                  break;
+               default:
+                  if (readLine(buffer)) {
+                     processLine(line.toString());
+                     line.setLength(0);
+                  }
+            }
+         }
+
+         return state == State.DONE;
+      }
+
+      /**
+       * Finishes the response when the server closed the connection.
+       *
+       * @return True if the response is complete.
+       */
+      private boolean finish() {
+         if (state == State.UNTIL_CLOSE) {
+            state = State.DONE;
+         }
+
+         return state == State.DONE;
+      }
+
+      private Response getResponse() {
+         final Response response = new Response(code, reason, headers, body == null ? new byte[0] : body, bodyLength, keepAlive);
+         body = null;
+
+         return response;
+      }
+
+      /**
+       * Reads the bytes up to the end of line.
+       *
+       * @param buffer
+       *           The received bytes.
+       * @return True if a complete line has been read.
+       * @throws IOException
+       *            When the line is too long.
+       */
+      private boolean readLine(final ByteBuffer buffer) throws IOException {
+         while (buffer.hasRemaining()) {
+            final char c = (char) (buffer.get() & 0xff);
+            if (c == '\n') {
+               final int last = line.length() - 1;
+               if (last >= 0 && line.charAt(last) == '\r') {
+                  line.setLength(last);
+               }
+               return true;
+            }
+
+            line.append(c);
+            if (line.length() > MAX_LINE_LENGTH) {
+               throw new IOException("The response header is too long.");
+            }
+         }
+
+         return false;
+      }
+
+      private void processLine(final String line) throws IOException {
+         switch (state) {
+            case STATUS_LINE:
+               if (!line.isEmpty()) {
+                  processStatusLine(line);
+               }
+               break;
+            case HEADERS:
+               if (line.isEmpty()) {
+                  processEndOfHeaders();
+               } else {
+                  processHeader(line);
+               }
+               break;
+            case CHUNK_SIZE:
+               final int extension = line.indexOf(';');
+               try {
+                  remaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+               } catch (NumberFormatException e) {
+                  throw new IOException("Invalid chunk size: " + line);
+               }
+               state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+               break;
+            case CHUNK_END:
+               if (!line.isEmpty()) {
+                  throw new IOException("Invalid end of chunk: " + line);
+               }
+               state = State.CHUNK_SIZE;
+               break;
+            case TRAILERS:
+               if (line.isEmpty()) {
+                  state = State.DONE;
+               }
+               break;
+            default:
+               throw new IllegalStateException("Unexpected line in the state " + state);
+         }
+      }
+
+      private void processStatusLine(final String line) throws IOException {
+         final int versionEnd = line.indexOf(' ');
+         if (!line.startsWith("HTTP/") || versionEnd < 0) {
+            throw new IOException("Invalid status line: " + line);
+         }
+
+         final int codeEnd = line.indexOf(' ', versionEnd + 1);
+         try {
+            code = Integer.parseInt(line.substring(versionEnd + 1, codeEnd < 0 ? line.length() : codeEnd).trim());
+         } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + line);
+         }
+         reason = codeEnd < 0 ? "" : line.substring(codeEnd + 1);
+
+         headers = new LinkedHashMap<>();
+         keepAlive = !line.startsWith("HTTP/1.0");
+         chunked = false;
+         contentLength = -1;
+         state = State.HEADERS;
+      }
+
+      private void processHeader(final String line) throws IOException {
+         final int colon = line.indexOf(':');
+         if (colon <= 0) {
+            throw new IOException("Invalid header: " + line);
+         }
+
+         final String name = line.substring(0, colon).trim();
+         final String value = line.substring(colon + 1).trim();
+
+         List<String> values = headers.get(name);
+         if (values == null) {
+            values = new ArrayList<>(1);
+            headers.put(name, values);
+         }
+         values.add(value);
+
+         if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+               contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+               throw new IOException("Invalid content length: " + value);
+            }
+         } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+            chunked = value.toLowerCase().contains("chunked");
+         } else if ("Connection".equalsIgnoreCase(name)) {
+            if ("close".equalsIgnoreCase(value)) {
+               keepAlive = false;
+            } else if ("keep-alive".equalsIgnoreCase(value)) {
+               keepAlive = true;
+            }
+         }
+      }
+
+      private void processEndOfHeaders() {
+         if (code >= 100 && code < 200) { // an interim response, the final one follows
+            state = State.STATUS_LINE;
+         } else if (head || code == 204 || code == 304) {
+            state = State.DONE;
+         } else if (chunked) {
+            state = State.CHUNK_SIZE;
+         } else if (contentLength >= 0) {
+            remaining = contentLength;
+            body = new byte[(int) Math.min(contentLength, MAX_PREALLOCATED_BODY)];
+            state = contentLength == 0 ? State.DONE : State.BODY;
+         } else {
+            keepAlive = false;
+            state = State.UNTIL_CLOSE;
+         }
+      }
+
+      /**
+       * Appends the given number of bytes to the body.
+       *
+       * @param buffer
+       *           The received bytes.
+       * @param length
+       *           The number of bytes to append.
+       */
+      private void append(final ByteBuffer buffer, final int length) {
+         if (body == null) {
+            body = new byte[Math.max(length, 1024)];
+         } else if (body.length - bodyLength < length) {
+            final byte[] newBody = new byte[Math.max(body.length * 2, bodyLength + length)];
+            System.arraycopy(body, 0, newBody, 0, bodyLength);
+            body = newBody;
+         }
+
+         buffer.get(body, bodyLength, length);
+         bodyLength += length;
+      }
+   }
+}
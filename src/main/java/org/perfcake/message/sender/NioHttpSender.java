@@ -0,0 +1,421 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+import org.perfcake.PerfCakeException;
+import org.perfcake.message.Message;
+import org.perfcake.message.sender.HttpSender.Method;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.util.Utils;
+
+/**
+ * <p>
+ * The sender that is able to send the messages via HTTP/1.1 protocol over persistent non-blocking connections.
+ * </p>
+ * <p>
+ * Unlike {@link HttpSender}, it does not open a new connection for each message. All the sender instances sending to the same
+ * host and port share a pool of at most {@link #poolSize} keep-alive connections, which are served by {@link #selectorThreads}
+ * selector threads. The connection not used for {@link #idleTimeout} milliseconds is closed. The pool is configured by the first
+ * sender instance that uses it. With {@link #reuseMetrics} enabled, the ratio of the requests sent over a reused connection
+ * ({@link #CONNECTION_REUSE}) and the number of open connections ({@link #OPEN_CONNECTIONS}) are stored in the measurement unit.
+ * </p>
+ * <p>
+ * Only plain HTTP targets are supported. Cookies are kept for the sessions of simulated users the same way as in {@link HttpSender}.
+ * </p>
+ */
+public class NioHttpSender extends AbstractSender {
+
+   /**
+    * The sender's logger.
+    */
+   private static final Logger log = Logger.getLogger(NioHttpSender.class);
+
+   /**
+    * The name of the result carrying 1 when the request was sent over a reused connection and 0 otherwise.
+    */
+   public static final String CONNECTION_REUSE = "ConnectionReuse";
+
+   /**
+    * The name of the result carrying the number of connections open in the pool.
+    */
+   public static final String OPEN_CONNECTIONS = "OpenConnections";
+
+   /**
+    * The encoding of the request line and the headers.
+    */
+   private static final Charset HEADER_ENCODING = Charset.forName("ISO-8859-1");
+
+   /**
+    * The HTTP method that will be used.
+    */
+   private Method method = Method.POST;
+
+   /**
+    * The list of response codes that are expected to be returned by HTTP response.
+    */
+   private List<Integer> expectedResponseCodeList = new LinkedList<>();
+
+   /**
+    * The property for expected response codes.
+    */
+   private String expectedResponseCodes = null;
+
+   /**
+    * The maximal number of connections to the target used at the same time.
+    */
+   private int poolSize = 10;
+
+   /**
+    * The time in milliseconds after which an idle connection is closed.
+    */
+   private long idleTimeout = 60_000;
+
+   /**
+    * The number of selector threads serving the connections.
+    */
+   private int selectorThreads = 1;
+
+   /**
+    * The maximal time in milliseconds to wait for a free connection and for the response.
+    */
+   private long responseTimeout = 30_000;
+
+   /**
+    * Indicates whether the connection reuse metrics are stored in the measurement unit.
+    */
+   private boolean reuseMetrics = false;
+
+   /**
+    * The URI of the target.
+    */
+   private URI uri;
+
+   /**
+    * The target host including the port.
+    */
+   private String hostHeader;
+
+   /**
+    * The path and the query of the target.
+    */
+   private String path;
+
+   /**
+    * The pool of connections to the target.
+    */
+   private NioHttpConnectionPool pool;
+
+   /**
+    * The encoded request, the buffer is reused for all the messages.
+    */
+   private ByteBuffer request = ByteBuffer.allocate(1024);
+
+   /**
+    * The last received response.
+    */
+   private NioHttpConnectionPool.Response response;
+
+   @Override
+   public void init() throws Exception {
+      final URL url = new URL(target);
+      if (!"http".equalsIgnoreCase(url.getProtocol())) {
+         throw new PerfCakeException(String.format("%s supports only plain HTTP targets, but %s was configured.", getClass().getName(), target));
+      }
+
+      final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+      uri = url.toURI();
+      hostHeader = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + port;
+      path = url.getFile().isEmpty() ? "/" : url.getFile();
+      pool = NioHttpConnectionPool.acquire(url.getHost(), port, poolSize, idleTimeout, selectorThreads);
+   }
+
+   @Override
+   public void close() {
+      if (pool != null) {
+         NioHttpConnectionPool.release(pool);
+         pool = null;
+      }
+   }
+
+   @Override
+   public void preSend(final Message message, final Map<String, String> properties) throws Exception {
+      super.preSend(message, properties);
+
+      final boolean withBody = method == Method.POST || method == Method.PUT;
+      final ByteBuffer body = withBody ? getPayloadBuffer(message) : null;
+
+      final Map<String, String> headers = new LinkedHashMap<>();
+      headers.put("Host", hostHeader);
+      headers.put("Content-Type", "text/xml; charset=utf-8");
+
+      // set message properties, headers and additional properties as HTTP headers
+      if (message != null) {
+         for (Entry<Object, Object> property : message.getProperties().entrySet()) {
+            headers.put(property.getKey().toString(), property.getValue().toString());
+         }
+         for (Entry<Object, Object> header : message.getHeaders().entrySet()) {
+            headers.put(header.getKey().toString(), header.getValue().toString());
+         }
+      }
+      if (properties != null) {
+         headers.putAll(properties);
+      }
+      if (withBody) {
+         headers.put("Content-Length", Integer.toString(body == null ? 0 : body.remaining()));
+      }
+
+      final StringBuilder head = new StringBuilder(256);
+      head.append(method.name()).append(' ').append(path).append(" HTTP/1.1\r\n");
+      for (Entry<String, String> header : headers.entrySet()) {
+         head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+         if (log.isDebugEnabled()) {
+            log.debug(header.getKey() + ": " + header.getValue());
+         }
+      }
+
+      // set the cookies of the simulated user
+      if (session != null) {
+         for (Entry<String, List<String>> cookies : session.getCookieManager().get(uri, Collections.<String, List<String>> emptyMap()).entrySet()) {
+            for (String cookie : cookies.getValue()) {
+               head.append(cookies.getKey()).append(": ").append(cookie).append("\r\n");
+            }
+         }
+      }
+      head.append("\r\n");
+
+      final byte[] headBytes = head.toString().getBytes(HEADER_ENCODING);
+      final int length = headBytes.length + (body == null ? 0 : body.remaining());
+      if (request.capacity() < length) {
+         request = ByteBuffer.allocate(Math.max(length, request.capacity() * 2));
+      }
+
+      request.clear();
+      request.put(headBytes);
+      if (body != null) {
+         request.put(body);
+      }
+      request.flip();
+   }
+
+   @Override
+   public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+      response = pool.execute(request, method == Method.HEAD, responseTimeout);
+
+      if (reuseMetrics) {
+         mu.appendResult(CONNECTION_REUSE, response.isReused() ? 1d : 0d);
+         mu.appendResult(OPEN_CONNECTIONS, (double) pool.getOpenConnections());
+      }
+
+      final int respCode = response.getCode();
+      if (!checkResponseCode(respCode)) {
+         StringBuffer errorMess = new StringBuffer();
+         errorMess.append("The server returned an unexpected HTTP response code: ").append(respCode).append(" ").append("\"").append(response.getReason()).append("\". Expected HTTP codes are ");
+         for (int code : expectedResponseCodeList) {
+            errorMess.append(Integer.toString(code)).append(", ");
+         }
+         throw new PerfCakeException(errorMess.substring(0, errorMess.length() - 2) + ".");
+      }
+
+      return new String(response.getBody(), 0, response.getBodyLength(), Utils.getDefaultEncoding());
+   }
+
+   @Override
+   public void postSend(final Message message) throws Exception {
+      super.postSend(message);
+
+      if (session != null && response != null) {
+         session.getCookieManager().put(uri, response.getHeaders());
+      }
+      response = null;
+   }
+
+   /**
+    * Checks if the code is expected.
+    *
+    * @param code
+    *           Checked response code.
+    * @return
+    *         true/false according to if the code is expected or not.
+    */
+   private boolean checkResponseCode(final int code) {
+      return expectedResponseCodeList.isEmpty() || expectedResponseCodeList.contains(code);
+   }
+
+   /**
+    * Gets the pool of connections used by the sender.
+    *
+    * @return The connection pool.
+    */
+   NioHttpConnectionPool getConnectionPool() {
+      return pool;
+   }
+
+   /**
+    * Used to read the value of HTTP method.
+    *
+    * @return The HTTP method.
+    */
+   public Method getMethod() {
+      return method;
+   }
+
+   /**
+    * Sets the value of HTTP method.
+    *
+    * @param method
+    *           The HTTP method to set.
+    */
+   public void setMethod(final Method method) {
+      this.method = method;
+   }
+
+   /**
+    * Used to read the value of expectedResponseCodes property.
+    *
+    * @return The expectedResponseCodes.
+    */
+   public String getExpectedResponseCodes() {
+      return expectedResponseCodes;
+   }
+
+   /**
+    * Sets the value of expectedResponseCodes property.
+    *
+    * @param expectedResponseCodes
+    *           The comma separated list of expected response codes.
+    */
+   public void setExpectedResponseCodes(final String expectedResponseCodes) {
+      this.expectedResponseCodes = expectedResponseCodes;
+
+      final List<Integer> codes = new LinkedList<>();
+      for (String code : expectedResponseCodes.split(",")) {
+         codes.add(Integer.parseInt(code.trim()));
+      }
+      expectedResponseCodeList = codes;
+   }
+
+   /**
+    * Used to read the maximal number of connections to the target used at the same time.
+    *
+    * @return The pool size.
+    */
+   public int getPoolSize() {
+      return poolSize;
+   }
+
+   /**
+    * Sets the maximal number of connections to the target used at the same time.
+    *
+    * @param poolSize
+    *           The pool size.
+    */
+   public void setPoolSize(final int poolSize) {
+      this.poolSize = poolSize;
+   }
+
+   /**
+    * Used to read the time after which an idle connection is closed.
+    *
+    * @return The idle timeout in milliseconds.
+    */
+   public long getIdleTimeout() {
+      return idleTimeout;
+   }
+
+   /**
+    * Sets the time after which an idle connection is closed.
+    *
+    * @param idleTimeout
+    *           The idle timeout in milliseconds.
+    */
+   public void setIdleTimeout(final long idleTimeout) {
+      this.idleTimeout = idleTimeout;
+   }
+
+   /**
+    * Used to read the number of selector threads serving the connections.
+    *
+    * @return The number of selector threads.
+    */
+   public int getSelectorThreads() {
+      return selectorThreads;
+   }
+
+   /**
+    * Sets the number of selector threads serving the connections.
+    *
+    * @param selectorThreads
+    *           The number of selector threads.
+    */
+   public void setSelectorThreads(final int selectorThreads) {
+      this.selectorThreads = selectorThreads;
+   }
+
+   /**
+    * Used to read the maximal time to wait for a free connection and for the response.
+    *
+    * @return The response timeout in milliseconds.
+    */
+   public long getResponseTimeout() {
+      return responseTimeout;
+   }
+
+   /**
+    * Sets the maximal time to wait for a free connection and for the response.
+    *
+    * @param responseTimeout
+    *           The response timeout in milliseconds.
+    */
+   public void setResponseTimeout(final long responseTimeout) {
+      this.responseTimeout = responseTimeout;
+   }
+
+   /**
+    * Checks whether the connection reuse metrics are stored in the measurement unit.
+    *
+    * @return True if the metrics are enabled.
+    */
+   public boolean isReuseMetrics() {
+      return reuseMetrics;
+   }
+
+   /**
+    * Enables or disables storing the connection reuse metrics in the measurement unit.
+    *
+    * @param reuseMetrics
+    *           True to enable the metrics.
+    */
+   public void setReuseMetrics(final boolean reuseMetrics) {
+      this.reuseMetrics = reuseMetrics;
+   }
+}
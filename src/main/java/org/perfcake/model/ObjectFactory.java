@@ -148,6 +148,14 @@ public class ObjectFactory {
         return new Scenario.Messages.Message.ValidatorRef();
     }
 
+    /**
+     * Create an instance of {@link Scenario.Messages.Message.Extractor }
+     * 
+     */
+    public Scenario.Messages.Message.Extractor createScenarioMessagesMessageExtractor() {
+        return new Scenario.Messages.Message.Extractor();
+    }
+
     /**
      * Create an instance of {@link Scenario.Reporting.Reporter.Destination.Period }
      * 
@@ -146,10 +146,25 @@ import javax.xml.bind.annotation.XmlType;
  *                                 &lt;/complexContent>
  *                               &lt;/complexType>
  *                             &lt;/element>
+ *                             &lt;element name="extractor" maxOccurs="unbounded" minOccurs="0">
+ *                               &lt;complexType>
+ *                                 &lt;complexContent>
+ *                                   &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
+ *                                     &lt;sequence>
+ *                                       &lt;element ref="{urn:perfcake:scenario:3.0}property" maxOccurs="unbounded" minOccurs="0"/>
+ *                                     &lt;/sequence>
+ *                                     &lt;attribute name="name" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *                                     &lt;attribute name="class" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *                                   &lt;/restriction>
+ *                                 &lt;/complexContent>
+ *                               &lt;/complexType>
+ *                             &lt;/element>
  *                           &lt;/sequence>
  *                           &lt;attribute name="uri" type="{http://www.w3.org/2001/XMLSchema}string" />
  *                           &lt;attribute name="content" type="{http://www.w3.org/2001/XMLSchema}string" />
  *                           &lt;attribute name="multiplicity" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *                           &lt;attribute name="thinkTime" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *                           &lt;attribute name="thinkTimeDistribution" type="{http://www.w3.org/2001/XMLSchema}string" />
  *                         &lt;/restriction>
  *                       &lt;/complexContent>
  *                     &lt;/complexType>
@@ -614,10 +629,25 @@ public class Scenario {
      *                       &lt;/complexContent>
      *                     &lt;/complexType>
      *                   &lt;/element>
+     *                   &lt;element name="extractor" maxOccurs="unbounded" minOccurs="0">
+     *                     &lt;complexType>
+     *                       &lt;complexContent>
+     *                         &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
+     *                           &lt;sequence>
+     *                             &lt;element ref="{urn:perfcake:scenario:3.0}property" maxOccurs="unbounded" minOccurs="0"/>
+     *                           &lt;/sequence>
+     *                           &lt;attribute name="name" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+     *                           &lt;attribute name="class" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+     *                         &lt;/restriction>
+     *                       &lt;/complexContent>
+     *                     &lt;/complexType>
+     *                   &lt;/element>
      *                 &lt;/sequence>
      *                 &lt;attribute name="uri" type="{http://www.w3.org/2001/XMLSchema}string" />
      *                 &lt;attribute name="content" type="{http://www.w3.org/2001/XMLSchema}string" />
      *                 &lt;attribute name="multiplicity" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *                 &lt;attribute name="thinkTime" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *                 &lt;attribute name="thinkTimeDistribution" type="{http://www.w3.org/2001/XMLSchema}string" />
      *               &lt;/restriction>
      *             &lt;/complexContent>
      *           &lt;/complexType>
@@ -690,10 +720,25 @@ public class Scenario {
          *             &lt;/complexContent>
          *           &lt;/complexType>
          *         &lt;/element>
+         *         &lt;element name="extractor" maxOccurs="unbounded" minOccurs="0">
+         *           &lt;complexType>
+         *             &lt;complexContent>
+         *               &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
+         *                 &lt;sequence>
+         *                   &lt;element ref="{urn:perfcake:scenario:3.0}property" maxOccurs="unbounded" minOccurs="0"/>
+         *                 &lt;/sequence>
+         *                 &lt;attribute name="name" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+         *                 &lt;attribute name="class" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+         *               &lt;/restriction>
+         *             &lt;/complexContent>
+         *           &lt;/complexType>
+         *         &lt;/element>
          *       &lt;/sequence>
          *       &lt;attribute name="uri" type="{http://www.w3.org/2001/XMLSchema}string" />
          *       &lt;attribute name="content" type="{http://www.w3.org/2001/XMLSchema}string" />
          *       &lt;attribute name="multiplicity" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *       &lt;attribute name="thinkTime" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *       &lt;attribute name="thinkTimeDistribution" type="{http://www.w3.org/2001/XMLSchema}string" />
          *     &lt;/restriction>
          *   &lt;/complexContent>
          * &lt;/complexType>
@@ -705,19 +750,25 @@ public class Scenario {
         @XmlType(name = "", propOrder = {
             "header",
             "property",
-            "validatorRef"
+            "validatorRef",
+            "extractor"
         })
         public static class Message {
 
             protected List<Header> header;
             protected List<Property> property;
             protected List<Scenario.Messages.Message.ValidatorRef> validatorRef;
+            protected List<Scenario.Messages.Message.Extractor> extractor;
             @XmlAttribute(name = "uri")
             protected String uri;
             @XmlAttribute(name = "content")
             protected String content;
             @XmlAttribute(name = "multiplicity")
             protected String multiplicity;
+            @XmlAttribute(name = "thinkTime")
+            protected String thinkTime;
+            @XmlAttribute(name = "thinkTimeDistribution")
+            protected String thinkTimeDistribution;
 
             /**
              * Gets the value of the header property.
@@ -806,6 +857,35 @@ public class Scenario {
                 return this.validatorRef;
             }
 
+            /**
+             * Gets the value of the extractor property.
+             * 
+             * <p>
+             * This accessor method returns a reference to the live list,
+             * not a snapshot. Therefore any modification you make to the
+             * returned list will be present inside the JAXB object.
+             * This is why there is not a <CODE>set</CODE> method for the extractor property.
+             * 
+             * <p>
+             * For example, to add a new item, do as follows:
+             * <pre>
+             *    getExtractor().add(newItem);
+             * </pre>
+             * 
+             * 
+             * <p>
+             * Objects of the following type(s) are allowed in the list
+             * {@link Scenario.Messages.Message.Extractor }
+             * 
+             * 
+             */
+            public List<Scenario.Messages.Message.Extractor> getExtractor() {
+                if (extractor == null) {
+                    extractor = new ArrayList<Scenario.Messages.Message.Extractor>();
+                }
+                return this.extractor;
+            }
+
             /**
              * Gets the value of the uri property.
              * 
@@ -878,6 +958,54 @@ public class Scenario {
                 this.multiplicity = value;
             }
 
+            /**
+             * Gets the value of the thinkTime property.
+             * 
+             * @return
+             *     possible object is
+             *     {@link String }
+             *     
+             */
+            public String getThinkTime() {
+                return thinkTime;
+            }
+
+            /**
+             * Sets the value of the thinkTime property.
+             * 
+             * @param value
+             *     allowed object is
+             *     {@link String }
+             *     
+             */
+            public void setThinkTime(String value) {
+                this.thinkTime = value;
+            }
+
+            /**
+             * Gets the value of the thinkTimeDistribution property.
+             * 
+             * @return
+             *     possible object is
+             *     {@link String }
+             *     
+             */
+            public String getThinkTimeDistribution() {
+                return thinkTimeDistribution;
+            }
+
+            /**
+             * Sets the value of the thinkTimeDistribution property.
+             * 
+             * @param value
+             *     allowed object is
+             *     {@link String }
+             *     
+             */
+            public void setThinkTimeDistribution(String value) {
+                this.thinkTimeDistribution = value;
+            }
+
 
             /**
              * <p>Java class for anonymous complex type.
@@ -929,6 +1057,119 @@ public class Scenario {
 
             }
 
+
+            /**
+             * <p>Java class for anonymous complex type.
+             * 
+             * <p>The following schema fragment specifies the expected content contained within this class.
+             * 
+             * <pre>
+             * &lt;complexType>
+             *   &lt;complexContent>
+             *     &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
+             *       &lt;sequence>
+             *         &lt;element ref="{urn:perfcake:scenario:3.0}property" maxOccurs="unbounded" minOccurs="0"/>
+             *       &lt;/sequence>
+             *       &lt;attribute name="name" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+             *       &lt;attribute name="class" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+             *     &lt;/restriction>
+             *   &lt;/complexContent>
+             * &lt;/complexType>
+             * </pre>
+             * 
+             * 
+             */
+            @XmlAccessorType(XmlAccessType.FIELD)
+            @XmlType(name = "", propOrder = {
+                "property"
+            })
+            public static class Extractor {
+
+                protected List<Property> property;
+                @XmlAttribute(name = "name", required = true)
+                protected String name;
+                @XmlAttribute(name = "class", required = true)
+                protected String clazz;
+
+                /**
+                 * Gets the value of the property property.
+                 * 
+                 * <p>
+                 * This accessor method returns a reference to the live list,
+                 * not a snapshot. Therefore any modification you make to the
+                 * returned list will be present inside the JAXB object.
+                 * This is why there is not a <CODE>set</CODE> method for the property property.
+                 * 
+                 * <p>
+                 * For example, to add a new item, do as follows:
+                 * <pre>
+                 *    getProperty().add(newItem);
+                 * </pre>
+                 * 
+                 * 
+                 * <p>
+                 * Objects of the following type(s) are allowed in the list
+                 * {@link Property }
+                 * 
+                 * 
+                 */
+                public List<Property> getProperty() {
+                    if (property == null) {
+                        property = new ArrayList<Property>();
+                    }
+                    return this.property;
+                }
+
+                /**
+                 * Gets the value of the name property.
+                 * 
+                 * @return
+                 *     possible object is
+                 *     {@link String }
+                 *     
+                 */
+                public String getName() {
+                    return name;
+                }
+
+                /**
+                 * Sets the value of the name property.
+                 * 
+                 * @param value
+                 *     allowed object is
+                 *     {@link String }
+                 *     
+                 */
+                public void setName(String value) {
+                    this.name = value;
+                }
+
+                /**
+                 * Gets the value of the clazz property.
+                 * 
+                 * @return
+                 *     possible object is
+                 *     {@link String }
+                 *     
+                 */
+                public String getClazz() {
+                    return clazz;
+                }
+
+                /**
+                 * Sets the value of the clazz property.
+                 * 
+                 * @param value
+                 *     allowed object is
+                 *     {@link String }
+                 *     
+                 */
+                public void setClazz(String value) {
+                    this.clazz = value;
+                }
+
+            }
+
         }
 
     }
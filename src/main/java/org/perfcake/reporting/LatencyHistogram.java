@@ -0,0 +1,277 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.reporting;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A compact histogram of response times that can be merged with other histograms and transferred over the network.
+ * The response times are counted in buckets with exponentially growing widths, so the relative error of any value
+ * read from the histogram is under {@link #PRECISION} (i.e. 1 %). The count, the sum, the minimum and the maximum are exact.
+ * This is not thread safe.
+ */
+public class LatencyHistogram {
+
+   /**
+    * The lowest distinguished response time in milliseconds. Lower values are counted in the first bucket.
+    */
+   public static final double LOWEST_VALUE = 0.001;
+
+   /**
+    * The ratio of the upper and the lower bound of a bucket.
+    */
+   public static final double PRECISION = 1.01;
+
+   /**
+    * The number of buckets. The highest distinguished response time is several hours, higher values are counted in the last bucket.
+    */
+   public static final int BUCKETS = 2400;
+
+   /**
+    * The logarithm of {@link #PRECISION} used to compute the bucket of a value.
+    */
+   private static final double LOG_PRECISION = Math.log(PRECISION);
+
+   /**
+    * The number of values in each bucket.
+    */
+   private final long[] counts = new long[BUCKETS];
+
+   /**
+    * The number of all the values.
+    */
+   private long count = 0;
+
+   /**
+    * The sum of all the values.
+    */
+   private double sum = 0;
+
+   /**
+    * The minimal value.
+    */
+   private double min = Double.MAX_VALUE;
+
+   /**
+    * The maximal value.
+    */
+   private double max = -Double.MAX_VALUE;
+
+   /**
+    * Records a response time.
+    *
+    * @param value
+    *           The response time in milliseconds.
+    */
+   public void record(final double value) {
+      counts[bucketOf(value)]++;
+      count++;
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+   }
+
+   /**
+    * Adds all the values recorded in another histogram to this one.
+    *
+    * @param other
+    *           The histogram to be merged.
+    */
+   public void merge(final LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; i++) {
+         counts[i] += other.counts[i];
+      }
+      count += other.count;
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+   }
+
+   /**
+    * Gets the bucket of a value.
+    *
+    * @param value
+    *           The response time in milliseconds.
+    * @return The index of the bucket.
+    */
+   private static int bucketOf(final double value) {
+      if (value < LOWEST_VALUE) {
+         return 0;
+      }
+
+      return (int) Math.min(BUCKETS - 1, Math.floor(Math.log(value / LOWEST_VALUE) / LOG_PRECISION) + 1);
+   }
+
+   /**
+    * Gets the value representing a bucket, i.e. the geometric middle of its bounds.
+    *
+    * @param bucket
+    *           The index of the bucket.
+    * @return The response time in milliseconds.
+    */
+   public static double getBucketValue(final int bucket) {
+      return bucket == 0 ? LOWEST_VALUE / 2 : LOWEST_VALUE * Math.pow(PRECISION, bucket - 0.5);
+   }
+
+   /**
+    * Gets the number of values in a bucket.
+    *
+    * @param bucket
+    *           The index of the bucket.
+    * @return The number of values.
+    */
+   public long getCount(final int bucket) {
+      return counts[bucket];
+   }
+
+   /**
+    * Gets the number of all the recorded values.
+    *
+    * @return The number of values.
+    */
+   public long getCount() {
+      return count;
+   }
+
+   /**
+    * Gets the sum of all the recorded values.
+    *
+    * @return The sum in milliseconds.
+    */
+   public double getSum() {
+      return sum;
+   }
+
+   /**
+    * Gets the minimal recorded value.
+    *
+    * @return The minimal response time in milliseconds, or 0 when the histogram is empty.
+    */
+   public double getMin() {
+      return count == 0 ? 0 : min;
+   }
+
+   /**
+    * Gets the maximal recorded value.
+    *
+    * @return The maximal response time in milliseconds, or 0 when the histogram is empty.
+    */
+   public double getMax() {
+      return count == 0 ? 0 : max;
+   }
+
+   /**
+    * Gets the average of the recorded values.
+    *
+    * @return The average response time in milliseconds, or 0 when the histogram is empty.
+    */
+   public double getMean() {
+      return count == 0 ? 0 : sum / count;
+   }
+
+   /**
+    * Gets the value under which the given percentage of the recorded values lies.
+    *
+    * @param percentile
+    *           The percentile between 0 and 100.
+    * @return The response time in milliseconds, or 0 when the histogram is empty.
+    */
+   public double getValueAtPercentile(final double percentile) {
+      if (count == 0) {
+         return 0;
+      }
+
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += counts[i];
+         if (seen >= rank) {
+            return Math.max(min, Math.min(max, getBucketValue(i)));
+         }
+      }
+
+      return max;
+   }
+
+   /**
+    * Writes the histogram in a compact form omitting the empty buckets.
+    *
+    * @param out
+    *           The output to write to.
+    * @throws IOException
+    *            When it was not possible to write the histogram.
+    */
+   public void writeTo(final DataOutput out) throws IOException {
+      out.writeLong(count);
+      out.writeDouble(sum);
+      out.writeDouble(min);
+      out.writeDouble(max);
+
+      int used = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         if (counts[i] > 0) {
+            used++;
+         }
+      }
+
+      out.writeInt(used);
+      for (int i = 0; i < BUCKETS; i++) {
+         if (counts[i] > 0) {
+            out.writeShort(i);
+            out.writeLong(counts[i]);
+         }
+      }
+   }
+
+   /**
+    * Reads a histogram written by {@link #writeTo(DataOutput)}.
+    *
+    * @param in
+    *           The input to read from.
+    * @return The histogram.
+    * @throws IOException
+    *            When it was not possible to read the histogram.
+    */
+   public static LatencyHistogram readFrom(final DataInput in) throws IOException {
+      final LatencyHistogram histogram = new LatencyHistogram();
+      histogram.count = in.readLong();
+      histogram.sum = in.readDouble();
+      histogram.min = in.readDouble();
+      histogram.max = in.readDouble();
+
+      final int used = in.readInt();
+      for (int i = 0; i < used; i++) {
+         final int bucket = in.readUnsignedShort();
+         if (bucket >= BUCKETS) {
+            throw new IOException("Invalid histogram bucket " + bucket);
+         }
+         histogram.counts[bucket] = in.readLong();
+      }
+
+      return histogram;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("LatencyHistogram [count=%d, mean=%.3f, min=%.3f, median=%.3f, 99th percentile=%.3f, max=%.3f]", count, getMean(), getMin(), getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+   }
+}
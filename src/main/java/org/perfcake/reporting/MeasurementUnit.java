@@ -72,6 +72,36 @@ public class MeasurementUnit implements Serializable {
     */
    private long timeStarted = -1;
 
+   /**
+    * Indicates whether the last measurement is completed asynchronously by {@link #completeMeasure(long)}.
+    */
+   private boolean lastDeferred = false;
+
+   /**
+    * Time when the latest of the asynchronously completed measurements started.
+    */
+   private long deferredStartTime = -1;
+
+   /**
+    * Time when the latest of the asynchronously completed measurements ended.
+    */
+   private long deferredStopTime = -1;
+
+   /**
+    * Total time of the asynchronously completed measurements.
+    */
+   private double deferredTotalTime = 0;
+
+   /**
+    * Number of the asynchronous measurements that are not completed yet.
+    */
+   private transient int pendingMeasures = 0;
+
+   /**
+    * The report manager reporting this unit once all its asynchronous measurements complete, <code>null</code> when the unit was not reported yet.
+    */
+   private transient ReportManager pendingReport = null;
+
    /**
     * Constructor is protected. Use {@link org.perfcake.reporting.ReportManager#newMeasurementUnit()} to obtain a new instance.
     * 
@@ -121,23 +151,107 @@ public class MeasurementUnit implements Serializable {
       timeStarted = System.currentTimeMillis();
       startTime = System.nanoTime();
       stopTime = -1;
+      lastDeferred = false;
+   }
+
+   /**
+    * Starts measuring from a moment in the past. This is used when the time the measurement should have started is known in advance
+    * (e.g. the intended time of sending a message) so that any time spent waiting before the actual start is included in the measurement.
+    * 
+    * @param intendedStartTime
+    *           The moment when the measurement was supposed to start as obtained from {@link System#nanoTime()}.
+    */
+   public void startMeasure(final long intendedStartTime) {
+      timeStarted = System.currentTimeMillis() - (System.nanoTime() - intendedStartTime) / 1_000_000;
+      startTime = intendedStartTime;
+      stopTime = -1;
+      lastDeferred = false;
    }
 
    /**
-    * Stops measuring.
+    * Stops measuring. Has no effect when the current measurement is completed asynchronously.
     */
    public void stopMeasure() {
+      if (lastDeferred) {
+         return;
+      }
+
       stopTime = System.nanoTime();
       totalTime = totalTime + getLastTime();
    }
 
+   /**
+    * Lets the current measurement be completed asynchronously by {@link #completeMeasure(long)} (e.g. when a message is acknowledged
+    * by another thread). The following call to {@link #stopMeasure()} is ignored and the unit is not reported until all its asynchronous
+    * measurements complete.
+    *
+    * @return The start time of the current measurement to be passed to {@link #completeMeasure(long)}.
+    */
+   public long deferMeasure() {
+      synchronized (this) {
+         pendingMeasures++;
+      }
+      lastDeferred = true;
+
+      return startTime;
+   }
+
+   /**
+    * Completes a measurement deferred by {@link #deferMeasure()}. The unit is reported when this was its last pending measurement
+    * and it has already been passed to {@link ReportManager#report(MeasurementUnit)}.
+    *
+    * @param deferredStartTime
+    *           The start time of the measurement as returned by {@link #deferMeasure()}.
+    */
+   public void completeMeasure(final long deferredStartTime) {
+      final long now = System.nanoTime();
+      final ReportManager reportManager;
+
+      synchronized (this) {
+         deferredTotalTime = deferredTotalTime + (now - deferredStartTime) / 1_000_000.0;
+         if (deferredStartTime >= this.deferredStartTime) {
+            this.deferredStartTime = deferredStartTime;
+            deferredStopTime = now;
+         }
+
+         pendingMeasures--;
+         if (pendingMeasures > 0 || pendingReport == null) {
+            return;
+         }
+         reportManager = pendingReport;
+         pendingReport = null;
+      }
+
+      try {
+         reportManager.report(this);
+      } catch (final ReportingException e) {
+         log.warn("Error reporting a measurement unit " + this, e);
+      }
+   }
+
+   /**
+    * Postpones reporting of this unit until all its asynchronous measurements complete.
+    *
+    * @param reportManager
+    *           The report manager to report the unit with.
+    * @return <code>true</code> when the reporting was postponed, <code>false</code> when the unit can be reported right away.
+    */
+   synchronized boolean deferReport(final ReportManager reportManager) {
+      if (pendingMeasures == 0) {
+         return false;
+      }
+
+      pendingReport = reportManager;
+      return true;
+   }
+
    /**
     * Gets total time measured during all measurements done by this Measurement Unit (all time periods between calls to {@link #startMeasure()} and {@link #stopMeasure()} in milliseconds.
     * 
     * @return The total time measured by this unit in milliseconds.
     */
    public double getTotalTime() {
-      return totalTime;
+      return totalTime + deferredTotalTime;
    }
 
    /**
@@ -146,6 +260,9 @@ public class MeasurementUnit implements Serializable {
     * @return Time of the last measurement in milliseconds.
     */
    public double getLastTime() {
+      final long startTime = lastDeferred ? deferredStartTime : this.startTime;
+      final long stopTime = lastDeferred ? deferredStopTime : this.stopTime;
+
       if (startTime == -1 || stopTime == -1) {
          return -1;
       }
@@ -28,6 +28,7 @@ import org.perfcake.reporting.reporters.Reporter;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -75,6 +76,27 @@ public class ReportManager {
       return new MeasurementUnit(runInfo.getNextIteration());
    }
 
+   /**
+    * Create a new {@link org.perfcake.reporting.MeasurementUnit} for the given iteration. The iteration number must have been reserved
+    * in advance using {@link org.perfcake.RunInfo#reserveIterations(long)}. Unlike {@link #newMeasurementUnit()}, this does not check
+    * the remaining iterations or time, only that the measurement has not been stopped.
+    *
+    * @param iteration
+    *       The reserved iteration number.
+    * @return A new measurement unit with the given iteration number, or null if a measurement is not running.
+    */
+   public MeasurementUnit newMeasurementUnit(final long iteration) {
+      if (!runInfo.isStarted()) {
+         return null;
+      }
+
+      if (log.isTraceEnabled()) {
+         log.trace("Creating a new measurement unit.");
+      }
+
+      return new MeasurementUnit(iteration);
+   }
+
    /**
     * Set {@link org.perfcake.RunInfo} for the current measurement run.
     *
@@ -92,8 +114,18 @@ public class ReportManager {
       }
    }
 
+   /**
+    * Gets {@link org.perfcake.RunInfo} of the current measurement run.
+    *
+    * @return The current RunInfo.
+    */
+   public RunInfo getRunInfo() {
+      return runInfo;
+   }
+
    /**
     * Report a newly measured {@link MeasurementUnit}. Each Measurement Unit must be reported exactly once.
+    * A unit with asynchronous measurements in progress (see {@link MeasurementUnit#deferMeasure()}) is reported once they complete.
     *
     * @param mu
     *       A MeasurementUnit to be reported.
@@ -108,6 +140,10 @@ public class ReportManager {
       ReportingException e = null;
 
       if (runInfo.isStarted()) { // cannot use isRunning while we still want the last iteration to be reported
+         if (mu.deferReport(this)) { // reported once its asynchronous measurements complete
+            return;
+         }
+
          for (final Reporter r : getReporters()) {
             try {
                r.report(mu);
@@ -125,6 +161,28 @@ public class ReportManager {
       }
    }
 
+   /**
+    * Reports a {@link org.perfcake.reporting.Measurement} created outside of the reporters (e.g. by a message generator) directly
+    * to all the destinations of all the registered reporters. Each destination receives the measurement just once.
+    *
+    * @param m
+    *       The measurement to be reported.
+    */
+   public void publishToAllDestinations(final Measurement m) {
+      final Set<Destination> destinations = new HashSet<>();
+      for (final Reporter r : reporters) {
+         destinations.addAll(r.getDestinations());
+      }
+
+      for (final Destination d : destinations) {
+         try {
+            d.report(m);
+         } catch (final ReportingException e) {
+            log.warn("Unable to report the measurement " + m + " to the destination " + d + ": ", e);
+         }
+      }
+   }
+
    /**
     * Resets reporting to the zero state. It is used after the warm-up period.
     */
@@ -0,0 +1,89 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.reporting;
+
+/**
+ * A {@link LatencyHistogram} that can be recorded into by many threads at once. The threads are spread over several histograms
+ * by their id so that they do not contend for a single lock, the histograms are merged when drained.
+ */
+public class StripedLatencyHistogram {
+
+   /**
+    * The number of the histograms the threads record into, a power of 2.
+    */
+   private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+   /**
+    * The values recorded since the last drain.
+    */
+   private final Stripe[] stripes = new Stripe[STRIPES];
+
+   /**
+    * Creates a new empty histogram.
+    */
+   public StripedLatencyHistogram() {
+      for (int i = 0; i < STRIPES; i++) {
+         stripes[i] = new Stripe();
+      }
+   }
+
+   /**
+    * Records a value into the stripe of the current thread.
+    *
+    * @param value
+    *           The value in milliseconds.
+    */
+   public void record(final double value) {
+      final Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+      synchronized (stripe) {
+         stripe.histogram.record(value);
+      }
+   }
+
+   /**
+    * Gets the values recorded since the last call and forgets them.
+    *
+    * @return The histogram of the values.
+    */
+   public LatencyHistogram drain() {
+      final LatencyHistogram result = new LatencyHistogram();
+      for (final Stripe stripe : stripes) {
+         final LatencyHistogram histogram;
+         synchronized (stripe) {
+            histogram = stripe.histogram;
+            stripe.histogram = new LatencyHistogram();
+         }
+         result.merge(histogram);
+      }
+
+      return result;
+   }
+
+   /**
+    * A histogram guarded by the stripe's own lock.
+    */
+   private static class Stripe {
+
+      /**
+       * The values recorded in the stripe.
+       */
+      private LatencyHistogram histogram = new LatencyHistogram();
+   }
+}
@@ -117,7 +117,12 @@ public class Scenario {
       }
    }
 
-   AbstractMessageGenerator getGenerator() {
+   /**
+    * Gets the message generator of the scenario.
+    * 
+    * @return The message generator.
+    */
+   public AbstractMessageGenerator getGenerator() {
       return generator;
    }
 
@@ -133,7 +138,12 @@ public class Scenario {
       this.messageSenderManager = messageSenderManager;
    }
 
-   ReportManager getReportManager() {
+   /**
+    * Gets the report manager of the scenario.
+    * 
+    * @return The report manager.
+    */
+   public ReportManager getReportManager() {
       return reportManager;
    }
 
@@ -28,6 +28,8 @@ import org.perfcake.common.Period;
 import org.perfcake.common.PeriodType;
 import org.perfcake.message.Message;
 import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.ThinkTime;
+import org.perfcake.message.extractor.Extractor;
 import org.perfcake.message.generator.AbstractMessageGenerator;
 import org.perfcake.message.sender.MessageSenderManager;
 import org.perfcake.model.Header;
@@ -77,6 +79,7 @@ public class XMLFactory implements ScenarioFactory {
    private static final String DEFAULT_REPORTER_PACKAGE = "org.perfcake.reporting.reporters";
    private static final String DEFAULT_DESTINATION_PACKAGE = "org.perfcake.reporting.destinations";
    private static final String DEFAULT_VALIDATION_PACKAGE = "org.perfcake.validation";
+   private static final String DEFAULT_EXTRACTOR_PACKAGE = "org.perfcake.message.extractor";
    private org.perfcake.model.Scenario scenarioModel;
    private String scenarioConfig;
    private Scenario scenario = null;
@@ -312,10 +315,37 @@ public class XMLFactory implements ScenarioFactory {
                   currentMessageValidatorIds.add(ref.getId());
                }
 
+               ThinkTime currentMessageThinkTime = null;
+               if (m.getThinkTime() != null && !m.getThinkTime().equals("")) {
+                  try {
+                     final ThinkTime.Distribution distribution = m.getThinkTimeDistribution() == null || m.getThinkTimeDistribution().equals("") ? ThinkTime.Distribution.FIXED : ThinkTime.Distribution.valueOf(m.getThinkTimeDistribution().toUpperCase());
+                     currentMessageThinkTime = new ThinkTime(Long.valueOf(m.getThinkTime()), distribution);
+                  } catch (IllegalArgumentException e) {
+                     throw new PerfCakeException(String.format("Invalid think time %s (%s) of a message.", m.getThinkTime(), m.getThinkTimeDistribution()), e);
+                  }
+               }
+
                // create message to be send
-               MessageTemplate currentMessageToSend = new MessageTemplate(currentMessage, currentMessageMultiplicity, currentMessageValidatorIds);
+               MessageTemplate currentMessageToSend = new MessageTemplate(currentMessage, currentMessageMultiplicity, currentMessageValidatorIds, currentMessageThinkTime);
 
-               log.info("'- Message (" + (messageUrl != null ? messageUrl.toString() : "") + "), " + currentMessageMultiplicity + "x");
+               log.info("'- Message (" + (messageUrl != null ? messageUrl.toString() : "") + "), " + currentMessageMultiplicity + "x" + (currentMessageThinkTime != null ? ", think time " + currentMessageThinkTime : ""));
+
+               for (Messages.Message.Extractor e : m.getExtractor()) {
+                  String extractorClass = e.getClazz();
+                  if (!extractorClass.contains(".")) {
+                     extractorClass = DEFAULT_EXTRACTOR_PACKAGE + "." + extractorClass;
+                  }
+
+                  log.info("  '- Extractor " + e.getName() + " (" + extractorClass + ")");
+                  Properties currentExtractorProperties = getPropertiesFromList(e.getProperty());
+                  Utils.logProperties(log, Level.DEBUG, currentExtractorProperties, "   '- ");
+
+                  try {
+                     currentMessageToSend.addExtractor(e.getName(), (Extractor) ObjectFactory.summonInstance(extractorClass, currentExtractorProperties));
+                  } catch (InstantiationException | IllegalAccessException | InvocationTargetException | ClassNotFoundException ex) {
+                     throw new PerfCakeException(String.format("Cannot create the extractor %s: ", e.getName()), ex);
+                  }
+               }
                if (log.isDebugEnabled()) {
                   log.debug("  '- Properties:");
                   Utils.logProperties(log, Level.DEBUG, currentMessageProperties, "   '- ");
@@ -0,0 +1,294 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.util;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Timer for a large number of short delayed tasks. The tasks are stored in a circular array of buckets (the wheel) indexed
+ * by the tick of their deadline. A single thread advances the wheel each tick and runs the tasks in the current bucket, so
+ * scheduling a task costs a constant time regardless of the number of pending tasks.
+ * </p>
+ * <p>
+ * The tasks never run before their deadline, but they can run up to one tick later. They are run by the timer thread,
+ * so they must be short (e.g. submit the actual work to an executor).
+ * </p>
+ */
+public class HashedWheelTimer {
+
+   /**
+    * The timer's logger.
+    */
+   private static final Logger log = Logger.getLogger(HashedWheelTimer.class);
+
+   /**
+    * The default duration of a tick in milliseconds.
+    */
+   public static final long DEFAULT_TICK_DURATION = 10;
+
+   /**
+    * The default number of buckets in the wheel.
+    */
+   public static final int DEFAULT_WHEEL_SIZE = 512;
+
+   /**
+    * A task waiting in the wheel.
+    */
+   private static class Timeout {
+
+      /**
+       * The task to run.
+       */
+      private final Runnable task;
+
+      /**
+       * The deadline of the task as obtained from {@link System#nanoTime()}.
+       */
+      private final long deadline;
+
+      /**
+       * The number of full turns of the wheel before the task expires.
+       */
+      private long remainingRounds;
+
+      private Timeout(final Runnable task, final long deadline) {
+         this.task = task;
+         this.deadline = deadline;
+      }
+   }
+
+   /**
+    * The duration of a tick in nanoseconds.
+    */
+   private final long tickDuration;
+
+   /**
+    * The buckets of the wheel, accessed only by the timer thread.
+    */
+   private final List<ArrayDeque<Timeout>> wheel;
+
+   /**
+    * The mask to compute the bucket index from a tick, the number of buckets is a power of two.
+    */
+   private final int mask;
+
+   /**
+    * Newly scheduled tasks waiting to be placed in the wheel by the timer thread.
+    */
+   private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+   /**
+    * The number of scheduled tasks that have not been run yet.
+    */
+   private final AtomicInteger pending = new AtomicInteger(0);
+
+   /**
+    * The thread advancing the wheel.
+    */
+   private final Thread worker;
+
+   /**
+    * The time of the start of the wheel as obtained from {@link System#nanoTime()}.
+    */
+   private final long startTime;
+
+   /**
+    * Set to true when the timer is stopped.
+    */
+   private volatile boolean stopped = false;
+
+   /**
+    * Creates and starts a new timer with the default tick duration and wheel size.
+    *
+    * @param name
+    *           The name of the timer thread.
+    */
+   public HashedWheelTimer(final String name) {
+      this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+   }
+
+   /**
+    * Creates and starts a new timer.
+    *
+    * @param name
+    *           The name of the timer thread.
+    * @param tickDuration
+    *           The duration of a tick in milliseconds, this is the precision of the timer.
+    * @param wheelSize
+    *           The number of buckets in the wheel, rounded up to a power of two.
+    */
+   public HashedWheelTimer(final String name, final long tickDuration, final int wheelSize) {
+      if (tickDuration <= 0 || wheelSize <= 0) {
+         throw new IllegalArgumentException(String.format("Invalid tick duration %d or wheel size %d.", tickDuration, wheelSize));
+      }
+
+      this.tickDuration = tickDuration * 1_000_000;
+
+      int size = 1;
+      while (size < wheelSize) {
+         size <<= 1;
+      }
+      mask = size - 1;
+      wheel = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+         wheel.add(new ArrayDeque<Timeout>());
+      }
+
+      startTime = System.nanoTime();
+      worker = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            advance();
+         }
+      }, name);
+      worker.setDaemon(true);
+      worker.start();
+   }
+
+   /**
+    * Schedules a task to be run after the given delay.
+    *
+    * @param task
+    *           The task to run.
+    * @param delay
+    *           The delay in milliseconds.
+    */
+   public void schedule(final Runnable task, final long delay) {
+      if (stopped) {
+         throw new IllegalStateException("The timer has already been stopped.");
+      }
+
+      pending.incrementAndGet();
+      newTimeouts.add(new Timeout(task, System.nanoTime() + Math.max(0, delay) * 1_000_000));
+   }
+
+   /**
+    * Gets the number of scheduled tasks that have not been run yet.
+    *
+    * @return The number of pending tasks.
+    */
+   public int getPending() {
+      return pending.get();
+   }
+
+   /**
+    * Stops the timer. The pending tasks are not run.
+    *
+    * @return The pending tasks that have not been run.
+    * @throws InterruptedException
+    *            When waiting for the timer thread to finish was interrupted.
+    */
+   public List<Runnable> stop() throws InterruptedException {
+      stopped = true;
+      worker.interrupt();
+      if (Thread.currentThread() != worker) {
+         worker.join();
+      }
+
+      final List<Runnable> unprocessed = new ArrayList<>();
+      for (final ArrayDeque<Timeout> bucket : wheel) {
+         for (final Timeout timeout : bucket) {
+            unprocessed.add(timeout.task);
+         }
+         bucket.clear();
+      }
+
+      Timeout timeout;
+      while ((timeout = newTimeouts.poll()) != null) {
+         unprocessed.add(timeout.task);
+      }
+      pending.set(0);
+
+      return unprocessed;
+   }
+
+   /**
+    * The main loop of the timer thread. It waits for the end of each tick and then runs the expired tasks.
+    */
+   private void advance() {
+      long tick = 0;
+
+      while (!stopped) {
+         final long tickEnd = startTime + (tick + 1) * tickDuration;
+         long sleep;
+         while ((sleep = tickEnd - System.nanoTime()) > 0 && !stopped) {
+            LockSupport.parkNanos(this, sleep);
+         }
+         if (stopped) {
+            break;
+         }
+
+         transferNewTimeouts(tick);
+         expireTimeouts(wheel.get((int) (tick & mask)));
+         tick++;
+      }
+   }
+
+   /**
+    * Places the newly scheduled tasks to the buckets of the wheel.
+    *
+    * @param tick
+    *           The current tick.
+    */
+   private void transferNewTimeouts(final long tick) {
+      Timeout timeout;
+
+      while ((timeout = newTimeouts.poll()) != null) {
+         final long expiryTick = Math.max(tick, (timeout.deadline - startTime) / tickDuration); // the overdue tasks are run right away
+         timeout.remainingRounds = (expiryTick - tick) / wheel.size();
+         wheel.get((int) (expiryTick & mask)).add(timeout);
+      }
+   }
+
+   /**
+    * Runs the tasks in the given bucket that expire in the current round of the wheel.
+    *
+    * @param bucket
+    *           The bucket of the current tick.
+    */
+   private void expireTimeouts(final ArrayDeque<Timeout> bucket) {
+      final Iterator<Timeout> iterator = bucket.iterator();
+
+      while (iterator.hasNext()) {
+         final Timeout timeout = iterator.next();
+         if (timeout.remainingRounds <= 0) {
+            iterator.remove();
+            pending.decrementAndGet();
+            try {
+               timeout.task.run();
+            } catch (RuntimeException e) {
+               log.error("A timer task failed: ", e);
+            }
+         } else {
+            timeout.remainingRounds--;
+         }
+      }
+   }
+}
@@ -0,0 +1,157 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads lines of a file of an arbitrary size. The file is memory mapped in segments of a fixed size one after another,
+ * so only the currently read line is copied to the heap.
+ */
+public class MappedLineReader implements Closeable {
+
+   /**
+    * The default size of a mapped segment in bytes.
+    */
+   public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+   /**
+    * The file being read.
+    */
+   private final RandomAccessFile file;
+
+   /**
+    * The channel of the file.
+    */
+   private final FileChannel channel;
+
+   /**
+    * The size of the file at the moment it was opened.
+    */
+   private final long size;
+
+   /**
+    * The size of a mapped segment in bytes.
+    */
+   private final int segmentSize;
+
+   /**
+    * The charset used to decode the lines.
+    */
+   private final Charset charset;
+
+   /**
+    * The currently mapped segment.
+    */
+   private MappedByteBuffer segment;
+
+   /**
+    * The position of the current segment in the file.
+    */
+   private long segmentStart = 0;
+
+   /**
+    * The bytes of the line being read.
+    */
+   private byte[] line = new byte[1024];
+
+   /**
+    * Opens the file for reading.
+    *
+    * @param file
+    *           The file to read.
+    * @param segmentSize
+    *           The size of a mapped segment in bytes.
+    * @param charset
+    *           The charset used to decode the lines.
+    * @throws IOException
+    *            When it was not possible to open the file.
+    */
+   public MappedLineReader(final File file, final int segmentSize, final Charset charset) throws IOException {
+      this.file = new RandomAccessFile(file, "r");
+      this.channel = this.file.getChannel();
+      this.size = channel.size();
+      this.segmentSize = segmentSize;
+      this.charset = charset;
+   }
+
+   /**
+    * Reads the next line. The line can be terminated by \n or \r\n, the terminating characters are not included.
+    *
+    * @return The next line, or null at the end of the file.
+    * @throws IOException
+    *            When it was not possible to read the file.
+    */
+   public String readLine() throws IOException {
+      int length = 0;
+
+      while (true) {
+         if (segment == null || !segment.hasRemaining()) {
+            final long position = segment == null ? segmentStart : segmentStart + segment.limit();
+            if (position >= size) {
+               return length > 0 ? toString(length) : null;
+            }
+
+            segmentStart = position;
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+         }
+
+         while (segment.hasRemaining()) {
+            final byte b = segment.get();
+            if (b == '\n') {
+               return toString(length);
+            }
+
+            if (length == line.length) {
+               line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[length++] = b;
+         }
+      }
+   }
+
+   /**
+    * Decodes the line read so far.
+    *
+    * @param length
+    *           The number of bytes of the line.
+    * @return The decoded line.
+    */
+   private String toString(int length) {
+      if (length > 0 && line[length - 1] == '\r') {
+         length--;
+      }
+
+      return new String(line, 0, length, charset);
+   }
+
+   @Override
+   public void close() throws IOException {
+      segment = null;
+      file.close();
+   }
+}
@@ -77,7 +77,7 @@ public class Utils {
          }
          pValue = pg.getProperty(pName, defaultValue);
          if (pValue != null) {
-            filteredString = filteredString.replaceAll(Pattern.quote(matcher.group(1)), pValue);
+            filteredString = filteredString.replaceAll(Pattern.quote(matcher.group(1)), Matcher.quoteReplacement(pValue));
          }
       }
 
@@ -219,6 +219,22 @@ public class Utils {
       return sb.toString();
    }
 
+   /**
+    * Computes the share of an amount (e.g. of iterations or threads) for one of several parties so that the shares of all
+    * the parties differ by one at most and sum up to the amount.
+    * 
+    * @param amount
+    *           The amount to be divided.
+    * @param index
+    *           The index of the party starting from 0.
+    * @param count
+    *           The number of parties.
+    * @return The share of the given party.
+    */
+   public static long share(final long amount, final int index, final int count) {
+      return amount / count + (index < amount % count ? 1 : 0);
+   }
+
    /**
     * Uses {@link PerfCakeConst#DEFAULT_ENCODING_PROPERTY} system property, if this property is not set, <b>UTF-8</b> is used.
     * 
@@ -130,6 +130,26 @@ public class RunInfoTest {
       Assert.assertEquals(ri.getPercentage(), 100d); // after stop, we cannot get over 100
    }
 
+   @Test
+   public void reserveIterationsTest() {
+      final RunInfo ri = new RunInfo(new Period(PeriodType.ITERATION, 100));
+      ri.start();
+
+      for (int i = 0; i < 3; i++) {
+         final IterationRange range = ri.reserveIterations(30);
+         Assert.assertEquals(range.getFirst(), i * 30);
+         Assert.assertEquals(range.getSize(), 30);
+      }
+
+      final IterationRange last = ri.reserveIterations(30);
+      Assert.assertEquals(last.getFirst(), 90);
+      Assert.assertEquals(last.getEnd(), 100); // never reserve more than the duration
+      Assert.assertEquals(ri.getIteration(), 99);
+      Assert.assertFalse(ri.isRunning());
+      Assert.assertNull(ri.reserveIterations(30));
+      Assert.assertEquals(ri.getIteration(), 99);
+   }
+
    @Test
    public void runInfoTimeBasedState() throws InterruptedException {
       final Period p = new Period(PeriodType.TIME, 3000);
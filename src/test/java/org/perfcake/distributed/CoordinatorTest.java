@@ -0,0 +1,106 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.distributed;
+
+import org.perfcake.PerfCakeConst;
+import org.perfcake.ScenarioExecution;
+import org.perfcake.reporting.Measurement;
+import org.perfcake.reporting.destinations.Destination;
+import org.perfcake.reporting.destinations.DummyDestination;
+import org.perfcake.reporting.reporters.Reporter;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a distributed scenario with the workers in separate JVMs.
+ */
+public class CoordinatorTest {
+
+   private static final int WORKERS = 2;
+
+   @Test
+   public void distributedRunTest() throws Exception {
+      final String scenariosDir = getClass().getResource("/scenarios").getPath();
+      final String messagesDir = getClass().getResource("/messages").getPath();
+      System.setProperty(PerfCakeConst.SCENARIOS_DIR_PROPERTY, scenariosDir);
+      System.setProperty(PerfCakeConst.MESSAGES_DIR_PROPERTY, messagesDir);
+
+      final Scenario scenario = new ScenarioLoader().load("test-distributed");
+      final Coordinator coordinator = new Coordinator(scenario, 0, WORKERS);
+      coordinator.setConnectTimeout(60_000);
+
+      final List<Measurement> published = Collections.synchronizedList(new ArrayList<Measurement>());
+      for (final Reporter reporter : scenario.getReportManager().getReporters()) {
+         for (final Destination destination : reporter.getDestinations()) {
+            ((DummyDestination) destination).setReportAssert(new DummyDestination.ReportAssert() {
+               @Override
+               public void report(final Measurement m) {
+                  if (m.get(Coordinator.THROUGHPUT) != null) {
+                     published.add(m);
+                  }
+               }
+            });
+         }
+      }
+
+      final List<Process> workers = new ArrayList<>();
+      try {
+         for (int i = 0; i < WORKERS; i++) {
+            final List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments()); // the same JVM options as the tests
+            command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), ScenarioExecution.class.getName(),
+                  "-s", "test-distributed", "-sd", scenariosDir, "-md", messagesDir, "-c", "localhost:" + coordinator.getPort()));
+
+            final ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            workers.add(pb.start());
+         }
+
+         coordinator.run();
+
+         for (final Process worker : workers) {
+            Assert.assertEquals(worker.waitFor(), 0, "A worker did not finish properly.");
+         }
+      } finally {
+         for (final Process worker : workers) {
+            worker.destroy();
+         }
+      }
+
+      Assert.assertEquals(coordinator.getResults().getCount(), 2000, "The workers were expected to send the results of all the iterations.");
+      Assert.assertEquals(scenario.getReportManager().getRunInfo().getIteration(), 1999, "All the iterations were expected to be reported.");
+      Assert.assertFalse(published.isEmpty(), "The coordinator was expected to publish the results.");
+
+      final Measurement last = published.get(published.size() - 1);
+      Assert.assertEquals(last.getIteration(), 1999, "The last measurement was expected to include all the iterations.");
+      Assert.assertTrue(published.size() < 20, "The coordinator was expected to publish the results in aggregate.");
+   }
+}
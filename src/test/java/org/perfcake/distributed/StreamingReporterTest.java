@@ -0,0 +1,86 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.distributed;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.reporting.LatencyHistogram;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.ReportManager;
+import org.perfcake.reporting.ReportingException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Verifies that {@link StreamingReporter} does not lose the response times reported concurrently.
+ */
+public class StreamingReporterTest {
+
+   private static final int THREADS = 8;
+
+   private static final int REPORTS = 10_000;
+
+   @Test
+   public void concurrentReportTest() throws Exception {
+      final StreamingReporter reporter = new StreamingReporter();
+      final LatencyHistogram drained = new LatencyHistogram();
+      final ReportManager reportManager = new ReportManager();
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, REPORTS));
+      runInfo.start();
+      reportManager.setRunInfo(runInfo);
+
+      final List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+         final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  for (int j = 0; j < REPORTS; j++) {
+                     final MeasurementUnit mu = reportManager.newMeasurementUnit(j);
+                     mu.startMeasure();
+                     mu.stopMeasure();
+                     reporter.doReport(mu);
+                  }
+               } catch (final ReportingException e) {
+                  throw new IllegalStateException(e);
+               }
+            }
+         });
+         threads.add(t);
+         t.start();
+      }
+
+      while (threads.get(0).isAlive()) {
+         drained.merge(reporter.drain()); // drains in the middle of reporting must not lose anything
+         Thread.sleep(1);
+      }
+      for (final Thread t : threads) {
+         t.join();
+      }
+      drained.merge(reporter.drain());
+
+      Assert.assertEquals(drained.getCount(), THREADS * REPORTS);
+      Assert.assertEquals(reporter.drain().getCount(), 0, "Nothing was expected to remain after the drain.");
+   }
+}
@@ -0,0 +1,70 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message;
+
+import org.perfcake.util.Utils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Tests the payloads encoded in advance by {@link org.perfcake.message.MessageTemplate}.
+ */
+public class MessageTemplateTest {
+
+   private static final String PAYLOAD = "I'm the fish, žluťoučký kůň!";
+
+   @Test
+   public void encodedPayloadTest() throws Exception {
+      final String encoding = Utils.getDefaultEncoding();
+      final Properties attributes = new Properties();
+      attributes.setProperty("fish", "salmon");
+
+      // the static payload is encoded once and shared
+      final MessageTemplate staticTemplate = new MessageTemplate(new Message(PAYLOAD), 1, null);
+      final ByteBuffer encoded = staticTemplate.getFilteredMessage(attributes).getEncodedPayload(encoding);
+      Assert.assertEquals(encoded, ByteBuffer.wrap(PAYLOAD.getBytes(encoding)));
+      Assert.assertTrue(encoded.isReadOnly());
+
+      // each buffer has its own position
+      final ByteBuffer other = staticTemplate.getFilteredMessage(attributes).getEncodedPayload(encoding);
+      other.get(new byte[other.remaining()]);
+      Assert.assertFalse(other.hasRemaining());
+      Assert.assertEquals(encoded.remaining(), PAYLOAD.getBytes(encoding).length);
+      Assert.assertNull(staticTemplate.getMessage().getEncodedPayload("UTF-16"));
+
+      // the payload is kept when only the headers change
+      final Message message = new Message(PAYLOAD);
+      message.setHeader("Fish", "#{fish}");
+      final Message filtered = new MessageTemplate(message, 1, null).getFilteredMessage(attributes);
+      Assert.assertEquals(filtered.getHeader("Fish"), "salmon");
+      Assert.assertEquals(filtered.getEncodedPayload(encoding), encoded);
+
+      // the payload with properties is encoded by the senders
+      final MessageTemplate dynamicTemplate = new MessageTemplate(new Message(PAYLOAD + " #{fish}"), 1, null);
+      Assert.assertNull(dynamicTemplate.getFilteredMessage(attributes).getEncodedPayload(encoding));
+
+      // a new payload replaces the encoded one
+      staticTemplate.getMessage().setPayload("Salmon");
+      Assert.assertNull(staticTemplate.getMessage().getEncodedPayload(encoding));
+   }
+}
@@ -0,0 +1,85 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.extractor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Verifies the extraction of values from the responses.
+ */
+public class ExtractorTest {
+
+   @Test
+   public void regExpTest() {
+      final RegExpExtractor extractor = new RegExpExtractor();
+      extractor.setPattern("token=([a-z0-9]+)");
+      Assert.assertEquals(extractor.extract("status=ok\ntoken=abc123&x=y"), "abc123");
+      Assert.assertNull(extractor.extract("status=failed"));
+
+      extractor.setGroup(0);
+      Assert.assertEquals(extractor.extract("token=abc123&x=y"), "token=abc123");
+
+      extractor.setPattern("[0-9]+");
+      extractor.setGroup(-1);
+      Assert.assertEquals(extractor.extract("id 42 of 100"), "42");
+   }
+
+   @Test
+   public void xPathTest() throws Exception {
+      final XPathExtractor extractor = new XPathExtractor();
+      extractor.setExpression("/response/session/@id");
+      Assert.assertEquals(extractor.extract("<response><session id=\"s-1\"/><status>ok</status></response>"), "s-1");
+      Assert.assertNull(extractor.extract("<response><status>ok</status></response>"));
+
+      extractor.setExpression("count(//item)");
+      Assert.assertEquals(extractor.extract("<items><item/><item/></items>"), "2");
+   }
+
+   @Test
+   public void jsonPathTest() {
+      final String json = "{ \"status\": \"ok\", \"skip\": {\"a\": [1, {\"b\": \"}]\"}]}, \"data\": { \"items\": [ {\"token\": \"t\\\"1\\u0041\"}, {\"token\": \"t2\", \"n\": 3.5e2, \"ok\": true, \"none\": null, \"o\": {\"x\": [1, 2]}} ] } }";
+      final JsonPathExtractor extractor = new JsonPathExtractor();
+
+      extractor.setPath("$.data.items[0].token");
+      Assert.assertEquals(extractor.extract(json), "t\"1A");
+
+      extractor.setPath("$.data.items[1]['token']");
+      Assert.assertEquals(extractor.extract(json), "t2");
+
+      extractor.setPath("$.data.items[1].n");
+      Assert.assertEquals(extractor.extract(json), "3.5e2");
+
+      extractor.setPath("$.data.items[1].ok");
+      Assert.assertEquals(extractor.extract(json), "true");
+
+      extractor.setPath("$.data.items[1].o");
+      Assert.assertEquals(extractor.extract(json), "{\"x\": [1, 2]}");
+
+      extractor.setPath("$.data.items[1].none");
+      Assert.assertNull(extractor.extract(json));
+
+      extractor.setPath("$.data.items[2].token");
+      Assert.assertNull(extractor.extract(json));
+
+      extractor.setPath("$.status.missing");
+      Assert.assertNull(extractor.extract(json));
+   }
+}
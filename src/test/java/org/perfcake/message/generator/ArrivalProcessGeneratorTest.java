@@ -0,0 +1,113 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.sender.DummySender;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+
+/**
+ * Verifies the shapes of the arrival processes of {@link ArrivalProcessGenerator}.
+ */
+public class ArrivalProcessGeneratorTest {
+
+   private static final int SAMPLES = 100_000;
+
+   @Test
+   public void exponentialTest() {
+      final ArrivalProcessGenerator generator = new ArrivalProcessGenerator();
+      generator.setRate(1000);
+
+      long time = 0;
+      for (int i = 0; i < SAMPLES; i++) {
+         time = generator.nextArrivalTime(time);
+      }
+
+      final double mean = (double) time / SAMPLES;
+      Assert.assertEquals(mean, 1_000_000d, 20_000d, "The mean interval does not correspond to the rate.");
+   }
+
+   @Test
+   public void onOffTest() {
+      final ArrivalProcessGenerator generator = new ArrivalProcessGenerator();
+      generator.setDistribution(ArrivalProcessGenerator.Distribution.ON_OFF);
+      generator.setRate(1000);
+      generator.setOnPeriod(100);
+      generator.setOffPeriod(300);
+
+      long time = 0;
+      for (int i = 0; i < SAMPLES; i++) {
+         time = generator.nextArrivalTime(time);
+         Assert.assertTrue(time % 400_000_000 < 100_000_000, "A message was scheduled outside of a burst.");
+      }
+
+      final double mean = (double) time / SAMPLES;
+      Assert.assertEquals(mean, 4_000_000d, 100_000d, "The mean interval does not correspond to the bursts.");
+   }
+
+   @Test
+   public void sinusoidalTest() {
+      final ArrivalProcessGenerator generator = new ArrivalProcessGenerator();
+      generator.setDistribution(ArrivalProcessGenerator.Distribution.SINUSOIDAL);
+      generator.setRate(1000);
+      generator.setAmplitude(1000);
+      generator.setPeriod(1000);
+
+      int rising = 0, falling = 0; // the rate is higher in the first half of each period
+      long time = 0;
+      for (int i = 0; i < SAMPLES; i++) {
+         time = generator.nextArrivalTime(time);
+         if (time % 1_000_000_000 < 500_000_000) {
+            rising++;
+         } else {
+            falling++;
+         }
+      }
+
+      final double mean = (double) time / SAMPLES;
+      Assert.assertEquals(mean, 1_000_000d, 20_000d, "The mean interval does not correspond to the rate.");
+      Assert.assertTrue(rising > 3 * falling, "The rate did not follow the sine wave, " + rising + " messages in the first half, " + falling + " in the second.");
+   }
+
+   @Test
+   public void runTest() throws Exception {
+      final ArrivalProcessGenerator generator = new ArrivalProcessGenerator();
+      generator.setRate(2000);
+      generator.setThreads(10);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 1000));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new DummySender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      final long iterations = runInfo.getIteration() + 1;
+      Assert.assertTrue(iterations > 1700 && iterations < 2300, "About 2000 messages were expected to be sent in 1s at 2000 msg/s, but " + iterations + " were sent.");
+   }
+}
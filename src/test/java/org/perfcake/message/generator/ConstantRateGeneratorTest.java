@@ -0,0 +1,102 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *  
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.PerfCakeConst;
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.sender.DummySender;
+import org.perfcake.reporting.ReportManager;
+import org.perfcake.reporting.destinations.Destination;
+import org.perfcake.reporting.destinations.DummyDestination;
+import org.perfcake.reporting.reporters.Reporter;
+import org.perfcake.reporting.reporters.StatsReporter;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.perfcake.scenario.ScenarioLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+/**
+ * Verifies that {@link ConstantRateGenerator} keeps the target rate and measures the response time from the intended send time.
+ */
+public class ConstantRateGeneratorTest {
+
+   @Test
+   public void iterationBoundRateTest() throws Exception {
+      final ConstantRateGenerator generator = new ConstantRateGenerator();
+      generator.setRate(500);
+      generator.setThreads(10);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, 250));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new DummySender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      Assert.assertEquals(runInfo.getIteration(), 249);
+      Assert.assertTrue(duration >= 450 && duration < 1500, "250 messages at 500 msg/s were expected to take about 500ms, but it took " + duration + "ms.");
+   }
+
+   @Test
+   public void timeBoundRateTest() throws Exception {
+      final ConstantRateGenerator generator = new ConstantRateGenerator();
+      generator.setRate(1000);
+      generator.setThreads(10);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 1000));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new DummySender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      final long iterations = runInfo.getIteration() + 1;
+      Assert.assertTrue(iterations > 900 && iterations < 1100, "About 1000 messages were expected to be sent in 1s at 1000 msg/s, but " + iterations + " were sent.");
+   }
+
+   @Test
+   public void coordinatedOmissionTest() throws Exception {
+      System.setProperty(PerfCakeConst.SCENARIOS_DIR_PROPERTY, getClass().getResource("/scenarios").getPath());
+      System.setProperty(PerfCakeConst.MESSAGES_DIR_PROPERTY, getClass().getResource("/messages").getPath());
+      final Scenario scenario = new ScenarioLoader().load("test-constant-rate");
+
+      // the sender needs 10ms per message in a single thread, so the messages scheduled every 5ms must queue up
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      final Field rmField = scenario.getClass().getDeclaredField("reportManager");
+      rmField.setAccessible(true);
+      final ReportManager reportManager = (ReportManager) rmField.get(scenario);
+      final Reporter reporter = reportManager.getReporters().iterator().next();
+      final Destination destination = reporter.getDestinations().iterator().next();
+      final double maximum = (Double) ((DummyDestination) destination).getLastMeasurement().get(StatsReporter.MAXIMUM);
+
+      Assert.assertTrue(maximum > 100d, "The time spent in the queue was not included in the response time, the maximum was only " + maximum + "ms.");
+   }
+}
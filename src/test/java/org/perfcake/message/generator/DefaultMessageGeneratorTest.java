@@ -0,0 +1,259 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.ThinkTime;
+import org.perfcake.message.extractor.RegExpExtractor;
+import org.perfcake.message.sender.DummySender;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.ReportingException;
+import org.perfcake.reporting.destinations.Destination;
+import org.perfcake.reporting.reporters.AbstractReporter;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies the termination of {@link DefaultMessageGenerator} at the end of the measurement, the think times and the sessions.
+ */
+public class DefaultMessageGeneratorTest {
+
+   /**
+    * Counts the reported measurement units.
+    */
+   private static class CountingReporter extends AbstractReporter {
+
+      private final AtomicInteger count = new AtomicInteger(0);
+
+      private volatile double maxTime = 0;
+
+      @Override
+      protected void doReport(final MeasurementUnit mu) throws ReportingException {
+         count.incrementAndGet();
+         synchronized (this) {
+            maxTime = Math.max(maxTime, mu.getTotalTime());
+         }
+      }
+
+      @Override
+      protected void doReset() {
+         count.set(0);
+      }
+
+      @Override
+      public void publishResult(final PeriodType periodType, final Destination d) throws ReportingException {
+         // nothing to publish
+      }
+   }
+
+   /**
+    * Sender that takes the configured time to send a message. The senders are instantiated by their class name,
+    * so the delay is static.
+    */
+   public static class SlowSender extends DummySender {
+
+      private static volatile long delay = 0;
+
+      @Override
+      public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+         Thread.sleep(delay);
+         return super.doSend(message, properties, mu);
+      }
+   }
+
+   /**
+    * Sender that increments the number in the payload of the first message and remembers the number in the header of the second one.
+    */
+   public static class CountingSender extends DummySender {
+
+      private static final AtomicInteger lastCount = new AtomicInteger(0);
+
+      @Override
+      public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+         final String payload = message.getPayload().toString();
+         if (payload.startsWith("n=")) {
+            return "count=" + (Integer.parseInt(payload.substring(2)) + 1);
+         }
+
+         lastCount.set(Integer.parseInt(message.getHeaders().getProperty("X-Count")));
+         return "checked";
+      }
+   }
+
+   /**
+    * Sender that remembers the threads the messages were sent from.
+    */
+   public static class ThreadSender extends DummySender {
+
+      private static final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+      @Override
+      public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+         threads.add(Thread.currentThread());
+         return super.doSend(message, properties, mu);
+      }
+   }
+
+   private static Scenario newScenario(final DefaultMessageGenerator generator, final RunInfo runInfo, final long delay, final CountingReporter reporter) throws Exception {
+      SlowSender.delay = delay;
+
+      return new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new SlowSender()).addReporter(reporter).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+   }
+
+   @Test
+   public void drainTest() throws Exception {
+      final DefaultMessageGenerator generator = new DefaultMessageGenerator();
+      generator.setThreads(10);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, 100));
+      final CountingReporter reporter = new CountingReporter();
+
+      final Scenario scenario = newScenario(generator, runInfo, 100, reporter);
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      Assert.assertEquals(reporter.count.get(), 100, "All the messages were expected to be reported.");
+      Assert.assertEquals(generator.getAbandonedTasks(), 0);
+      Assert.assertTrue(duration >= 1000 && duration < 1400, "100 messages taking 100ms in 10 threads were expected to finish in about 1s, but it took " + duration + "ms.");
+   }
+
+   @Test
+   public void drainTimeoutTest() throws Exception {
+      final DefaultMessageGenerator generator = new DefaultMessageGenerator();
+      Assert.assertTrue(generator.getDrainTimeout() < 0, "The tasks must be waited for without a limit by default.");
+      generator.setThreads(2);
+      generator.setDrainTimeout(100);
+      generator.setMonitoringPeriod(100); // do not wait for a free thread longer than the drain timeout
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, 2));
+      final CountingReporter reporter = new CountingReporter();
+
+      final Scenario scenario = newScenario(generator, runInfo, 5000, reporter);
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      Assert.assertEquals(generator.getAbandonedTasks(), 2, "Both the running tasks were expected to be abandoned.");
+      Assert.assertTrue(duration < 1000, "The generator was expected to stop after the drain timeout, but it took " + duration + "ms.");
+   }
+
+   @Test
+   public void thinkTimeTest() throws Exception {
+      final DefaultMessageGenerator generator = new DefaultMessageGenerator();
+      generator.setThreads(2);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, 200));
+      final CountingReporter reporter = new CountingReporter();
+
+      SlowSender.delay = 0;
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new SlowSender()).addReporter(reporter)
+            .addMessage(new MessageTemplate(new Message("Hello"), 2, new ArrayList<String>(), new ThinkTime(500, ThinkTime.Distribution.FIXED)))
+            .addMessage(new MessageTemplate(new Message("Bye"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      // blocking the threads, 200 iterations with two think times of 500ms in 2 threads would take 100s
+      Assert.assertEquals(reporter.count.get(), 200, "All the iterations were expected to be reported.");
+      Assert.assertEquals(generator.getAbandonedTasks(), 0);
+      Assert.assertTrue(duration >= 1000 && duration < 3000, "The think times were expected not to block the threads, but the run took " + duration + "ms.");
+      Assert.assertTrue(reporter.maxTime < 500, "The think time was expected not to be included in the response time, but it was " + reporter.maxTime + "ms.");
+   }
+
+   @Test
+   public void sessionTest() throws Exception {
+      final DefaultMessageGenerator generator = new DefaultMessageGenerator();
+      generator.setThreads(1); // a single simulated user
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, 20));
+      final CountingReporter reporter = new CountingReporter();
+
+      final RegExpExtractor extractor = new RegExpExtractor();
+      extractor.setPattern("count=(\\d+)");
+      final MessageTemplate increment = new MessageTemplate(new Message("n=#{count:0}"), 1, new ArrayList<String>());
+      increment.addExtractor("count", extractor);
+      final Message check = new Message("check");
+      check.setHeader("X-Count", "#{count}");
+
+      CountingSender.lastCount.set(0);
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new CountingSender()).addReporter(reporter)
+            .addMessage(increment).addMessage(new MessageTemplate(check, 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      // the count extracted from the first response is used in the header of the second message and in the next iterations
+      Assert.assertEquals(reporter.count.get(), 20);
+      Assert.assertEquals(CountingSender.lastCount.get(), 20, "The extracted value was expected to persist in the session across the iterations.");
+   }
+
+   @Test
+   public void virtualThreadsTest() throws Exception {
+      final DefaultMessageGenerator generator = new DefaultMessageGenerator();
+      generator.setThreads(4);
+      generator.setThreadType(AbstractMessageGenerator.ThreadType.VIRTUAL);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, 100));
+      ThreadSender.threads.clear();
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new ThreadSender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      boolean supported;
+      try {
+         Thread.class.getMethod("ofVirtual").invoke(null);
+         supported = true;
+      } catch (final Exception e) {
+         supported = false;
+      }
+
+      if (supported) {
+         Assert.assertTrue(generator.getExecutorService() instanceof ThreadPerTaskExecutor);
+         Assert.assertEquals(ThreadSender.threads.size(), 100, "Each message was expected to be sent from a new virtual thread.");
+         final Method isVirtual = Thread.class.getMethod("isVirtual");
+         for (final Thread thread : ThreadSender.threads) {
+            Assert.assertTrue((Boolean) isVirtual.invoke(thread), "The messages were expected to be sent from virtual threads.");
+         }
+      } else {
+         Assert.assertTrue(generator.getExecutorService() instanceof ThreadPoolExecutor, "Platform threads were expected to be used instead.");
+         Assert.assertTrue(ThreadSender.threads.size() <= 4, "The platform threads were expected to be pooled.");
+      }
+   }
+}
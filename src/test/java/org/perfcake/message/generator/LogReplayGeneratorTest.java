@@ -0,0 +1,136 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.sender.AbstractSender;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verifies that {@link LogReplayGenerator} replays the log records in the original pace.
+ */
+public class LogReplayGeneratorTest {
+
+   /**
+    * Sender that remembers the payloads of all the messages and takes the configured time to send them.
+    */
+   public static class RecordingSender extends AbstractSender {
+
+      private static final List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+
+      private static final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+
+      private static volatile long delay = 0;
+
+      @Override
+      public void init() throws Exception {
+         // nop
+      }
+
+      @Override
+      public void close() {
+         // nop
+      }
+
+      @Override
+      public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+         payloads.add((String) message.getPayload());
+         times.add(System.currentTimeMillis());
+         Thread.sleep(delay);
+         return null;
+      }
+   }
+
+   @Test
+   public void replayTest() throws Exception {
+      final File logFile = File.createTempFile("perfcake", ".log");
+      logFile.deleteOnExit();
+      Files.write(logFile.toPath(), "1000 /a?x=1\n1100 /b?x=$2\ninvalid /c\n1200 /d\n1400 /e\n".getBytes(Charset.forName("UTF-8")));
+
+      final LogReplayGenerator generator = new LogReplayGenerator();
+      generator.setLogFile(logFile.getAbsolutePath());
+      generator.setSpeedup(2);
+      generator.setThreads(1);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 10_000));
+
+      // the last records are still waiting for the only thread when the end of the log is reached
+      RecordingSender.payloads.clear();
+      RecordingSender.delay = 150;
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new RecordingSender()).addMessage(new MessageTemplate(new Message("GET #{LogRecord}"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      Assert.assertEquals(RecordingSender.payloads.toString(), "[GET /a?x=1, GET /b?x=$2, GET /d, GET /e]");
+      Assert.assertTrue(duration >= 600 && duration < 2000, "The 4 records taking 150ms each in a single thread should take about 600ms, but it took " + duration + "ms.");
+   }
+
+   @Test
+   public void splitTest() throws Exception {
+      final File logFile = File.createTempFile("perfcake", ".log");
+      logFile.deleteOnExit();
+      Files.write(logFile.toPath(), "1000 /a\n1100 /b\n1200 /c\n1400 /d\n".getBytes(Charset.forName("UTF-8")));
+
+      final LogReplayGenerator generator = new LogReplayGenerator();
+      generator.setLogFile(logFile.getAbsolutePath());
+      generator.setSpeedup(2);
+      generator.setThreads(1);
+      generator.split(1, 2); // the second worker replays every other record starting with the second one
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 10_000));
+
+      RecordingSender.payloads.clear();
+      RecordingSender.times.clear();
+      RecordingSender.delay = 0;
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new RecordingSender()).addMessage(new MessageTemplate(new Message("GET #{LogRecord}"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      scenario.close();
+
+      Assert.assertEquals(RecordingSender.payloads.toString(), "[GET /b, GET /d]");
+
+      // the records keep their offsets from the first record of the whole log, i.e. 50ms and 200ms
+      final long first = RecordingSender.times.get(0) - start;
+      final long second = RecordingSender.times.get(1) - start;
+      Assert.assertTrue(first >= 45 && first < 150, "The first record of the worker was expected to be sent after 50ms, but it was sent after " + first + "ms.");
+      Assert.assertTrue(second >= 195 && second < 300, "The second record of the worker was expected to be sent after 200ms, but it was sent after " + second + "ms.");
+   }
+}
@@ -0,0 +1,151 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.sender.DummySender;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.ReportingException;
+import org.perfcake.reporting.destinations.Destination;
+import org.perfcake.reporting.reporters.AbstractReporter;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies that {@link ProfileReplayGenerator} follows the rate profile.
+ */
+public class ProfileReplayGeneratorTest {
+
+   /**
+    * Counts the messages sent.
+    */
+   public static class SlowSender extends DummySender {
+
+      private static final AtomicInteger sent = new AtomicInteger(0);
+
+      @Override
+      public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+         sent.incrementAndGet();
+         Thread.sleep(1);
+         return super.doSend(message, properties, mu);
+      }
+   }
+
+   /**
+    * Counts the reported measurement units.
+    */
+   private static class CountingReporter extends AbstractReporter {
+
+      private final AtomicInteger count = new AtomicInteger(0);
+
+      @Override
+      protected void doReport(final MeasurementUnit mu) throws ReportingException {
+         count.incrementAndGet();
+      }
+
+      @Override
+      protected void doReset() {
+         count.set(0);
+      }
+
+      @Override
+      public void publishResult(final PeriodType periodType, final Destination d) throws ReportingException {
+         // nothing to publish
+      }
+   }
+
+   @BeforeClass
+   public void setProfilesDir() {
+      System.setProperty(ProfileReplayGenerator.PROFILES_DIR_PROPERTY, getClass().getResource("/profiles").getPath());
+   }
+
+   private long replay(final boolean loop, final long duration) throws Exception {
+      final ProfileReplayGenerator generator = new ProfileReplayGenerator();
+      generator.setProfile("test-profile.csv");
+      generator.setCompression(2);
+      generator.setLoop(loop);
+      generator.setThreads(10);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, duration));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new DummySender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      return runInfo.getIteration() + 1;
+   }
+
+   @Test
+   public void replayTest() throws Exception {
+      // 1000 msg/s in the first second of the profile, 2000 msg/s on average in the second, both replayed in half a second
+      final long start = System.currentTimeMillis();
+      final long iterations = replay(false, 10_000);
+      final long duration = System.currentTimeMillis() - start;
+
+      Assert.assertTrue(iterations > 1350 && iterations < 1650, "About 1500 messages were expected to be sent, but " + iterations + " were sent.");
+      Assert.assertTrue(duration < 3000, "The generation should end with the end of the profile, but it took " + duration + "ms.");
+   }
+
+   @Test
+   public void loopTest() throws Exception {
+      // the whole profile followed by its first second
+      final long iterations = replay(true, 1500);
+
+      Assert.assertTrue(iterations > 1800 && iterations < 2200, "About 2000 messages were expected to be sent, but " + iterations + " were sent.");
+   }
+
+   @Test
+   public void shortProfileTest() throws Exception {
+      final ProfileReplayGenerator generator = new ProfileReplayGenerator();
+      generator.setProfile("test-profile.csv");
+      generator.setCompression(2);
+      generator.setThreads(1);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 10_000));
+      final CountingReporter reporter = new CountingReporter();
+
+      // a single slow thread cannot keep up with the profile, many messages are still queued when the profile ends
+      SlowSender.sent.set(0);
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new SlowSender()).addReporter(reporter)
+            .addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      final int reported = reporter.count.get();
+      Assert.assertTrue(reported > 1350 && reported < 1650, "All the about 1500 messages of the profile were expected to be reported, but " + reported + " were reported.");
+      Assert.assertEquals(SlowSender.sent.get(), reported, "Each sent message was expected to be reported.");
+      Assert.assertEquals(runInfo.getIteration() + 1, reported);
+      Assert.assertTrue(duration < 9000, "The generation should end with the last message of the profile, but it took " + duration + "ms.");
+   }
+}
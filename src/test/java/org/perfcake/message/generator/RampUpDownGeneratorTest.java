@@ -0,0 +1,85 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.sender.DummySender;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+
+/**
+ * Verifies the rate mode of {@link RampUpDownGenerator}.
+ */
+public class RampUpDownGeneratorTest {
+
+   private static RampUpDownGenerator newRateGenerator() {
+      final RampUpDownGenerator generator = new RampUpDownGenerator();
+      generator.setMode(RampUpDownGenerator.Mode.RATE);
+      generator.setPreRate(1000);
+      generator.setMainRate(3000);
+      generator.setPostRate(1000);
+      generator.setPreDuration(200);
+      generator.setRampUpDuration(200);
+      generator.setMainDuration(200);
+      generator.setRampDownDuration(200);
+
+      return generator;
+   }
+
+   @Test
+   public void rateShapeTest() {
+      final RampUpDownGenerator generator = newRateGenerator();
+
+      Assert.assertEquals(generator.rateAt(100_000_000), 1000d, 0.001);
+      Assert.assertEquals(generator.rateAt(300_000_000), 2000d, 0.001);
+      Assert.assertEquals(generator.rateAt(500_000_000), 3000d, 0.001);
+      Assert.assertEquals(generator.rateAt(650_000_000), 2500d, 0.001);
+      Assert.assertEquals(generator.rateAt(900_000_000), 1000d, 0.001);
+
+      generator.setRampShape(RampUpDownGenerator.RampShape.EXPONENTIAL);
+      Assert.assertEquals(generator.rateAt(300_000_000), 1000d * Math.sqrt(3), 0.001);
+      Assert.assertEquals(generator.rateAt(700_000_000), 1000d * Math.sqrt(3), 0.001);
+   }
+
+   @Test
+   public void rateRunTest() throws Exception {
+      final RampUpDownGenerator generator = newRateGenerator();
+      generator.setThreads(10);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 1000));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new DummySender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      final long iterations = runInfo.getIteration() + 1;
+      Assert.assertTrue(iterations > 1500 && iterations < 2100, "About 1800 messages were expected to be sent, but " + iterations + " were sent.");
+      Assert.assertTrue(runInfo.hasTag(RampUpDownGenerator.Phase.POST.toString()), "The last phase was not tagged.");
+      Assert.assertFalse(runInfo.hasTag(RampUpDownGenerator.Phase.MAIN.toString()), "The tag of a previous phase was not removed.");
+   }
+}
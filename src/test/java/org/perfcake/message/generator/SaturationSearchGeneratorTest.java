@@ -0,0 +1,103 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.sender.AbstractSender;
+import org.perfcake.reporting.Measurement;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.destinations.DummyDestination;
+import org.perfcake.reporting.reporters.ResponseTimeStatsReporter;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Verifies that {@link SaturationSearchGenerator} finds the knee of the throughput/latency curve.
+ */
+public class SaturationSearchGeneratorTest {
+
+   /**
+    * Sender that processes a single message at a time, so the response time grows linearly with the number of threads.
+    */
+   public static class SerialSender extends AbstractSender {
+
+      private static final Lock lock = new ReentrantLock(true);
+
+      @Override
+      public void init() throws Exception {
+         // nop
+      }
+
+      @Override
+      public void close() {
+         // nop
+      }
+
+      @Override
+      public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+         lock.lock();
+         try {
+            Thread.sleep(3);
+         } finally {
+            lock.unlock();
+         }
+         return null;
+      }
+   }
+
+   @Test
+   public void kneeSearchTest() throws Exception {
+      final SaturationSearchGenerator generator = new SaturationSearchGenerator();
+      generator.setThreads(8);
+      generator.setStepDuration(300);
+      generator.setLatencyThreshold(11);
+      generator.setPercentile(50);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 60_000));
+
+      final DummyDestination destination = new DummyDestination();
+      final ResponseTimeStatsReporter reporter = new ResponseTimeStatsReporter();
+      reporter.registerDestination(destination, new Period(PeriodType.ITERATION, 1_000_000));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new SerialSender()).addReporter(reporter).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      // 1, 2, 4 (too slow), 3 threads
+      final Measurement m = destination.getLastMeasurement();
+      Assert.assertEquals(m.get(SaturationSearchGenerator.KNEE_THREADS), 3);
+      Assert.assertTrue(((String) m.get(SaturationSearchGenerator.CURVE)).startsWith("1 threads:"));
+      Assert.assertTrue(duration < 10_000, "The measurement should end after the search is finished, but it took " + duration + "ms.");
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies that {@link ThreadPerTaskExecutor} runs each task in a new thread and respects the limit of the running tasks.
+ */
+public class ThreadPerTaskExecutorTest {
+
+   @Test
+   public void limitTest() throws Exception {
+      final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(3, Executors.defaultThreadFactory());
+      final CountDownLatch release = new CountDownLatch(1);
+      final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+      final AtomicInteger started = new AtomicInteger(0);
+
+      for (int i = 0; i < 10; i++) {
+         executor.execute(new Runnable() {
+            @Override
+            public void run() {
+               threads.add(Thread.currentThread());
+               started.incrementAndGet();
+               try {
+                  release.await();
+               } catch (final InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+            }
+         });
+      }
+
+      Assert.assertEquals(executor.getActiveCount(), 3);
+      Assert.assertEquals(executor.getQueueSize(), 7);
+
+      executor.setLimit(5);
+      Assert.assertEquals(executor.getActiveCount(), 5);
+      Assert.assertEquals(executor.getQueueSize(), 5);
+
+      executor.shutdown();
+      Assert.assertFalse(executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+      release.countDown();
+      Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+      Assert.assertEquals(started.get(), 10, "The queued tasks were expected to run after the shut down.");
+      Assert.assertEquals(threads.size(), 10, "Each task was expected to run in a new thread.");
+      Assert.assertTrue(executor.isTerminated());
+   }
+
+   @Test
+   public void shutdownNowTest() throws Exception {
+      final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(2, Executors.defaultThreadFactory());
+      final AtomicInteger interrupted = new AtomicInteger(0);
+
+      for (int i = 0; i < 5; i++) {
+         executor.execute(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  Thread.sleep(10_000);
+               } catch (final InterruptedException e) {
+                  interrupted.incrementAndGet();
+               }
+            }
+         });
+      }
+
+      final List<Runnable> waiting = executor.shutdownNow();
+      Assert.assertEquals(waiting.size(), 3);
+      Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+      Assert.assertEquals(interrupted.get(), 2, "The running tasks were expected to be interrupted.");
+   }
+}
@@ -0,0 +1,107 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.generator;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.sender.DummySender;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.scenario.Scenario;
+import org.perfcake.scenario.ScenarioBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies that {@link WorkerLoopGenerator} respects both the iteration and time bound run configurations.
+ */
+public class WorkerLoopGeneratorTest {
+
+   /**
+    * Counts the sent messages.
+    */
+   public static class CountingSender extends DummySender {
+
+      private static final AtomicLong sent = new AtomicLong(0);
+
+      @Override
+      public Serializable doSend(final Message message, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+         sent.incrementAndGet();
+         return super.doSend(message, properties, mu);
+      }
+   }
+
+   @Test
+   public void iterationBoundTest() throws Exception {
+      final WorkerLoopGenerator generator = new WorkerLoopGenerator();
+      generator.setThreads(4);
+      generator.setIterationBatchSize(64);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, 10_000));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new DummySender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      Assert.assertEquals(runInfo.getIteration(), 9_999);
+      Assert.assertFalse(runInfo.isStarted());
+   }
+
+   @Test
+   public void timeBoundTest() throws Exception {
+      final WorkerLoopGenerator generator = new WorkerLoopGenerator();
+      generator.setThreads(4);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 500));
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new DummySender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      final long start = System.currentTimeMillis();
+      scenario.run();
+      final long duration = System.currentTimeMillis() - start;
+      scenario.close();
+
+      Assert.assertTrue(runInfo.getIteration() > 0, "No messages were sent.");
+      Assert.assertTrue(duration >= 500 && duration < 1500, "The measurement was expected to take about 500ms, but it took " + duration + "ms.");
+   }
+
+   @Test
+   public void timeBoundIterationCountTest() throws Exception {
+      final WorkerLoopGenerator generator = new WorkerLoopGenerator();
+      generator.setThreads(4);
+      generator.setIterationBatchSize(10_000);
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.TIME, 500));
+      CountingSender.sent.set(0);
+
+      final Scenario scenario = new ScenarioBuilder().setRunInfo(runInfo).setGenerator(generator).setSender(new CountingSender()).addMessage(new MessageTemplate(new Message("Hello"), 1, new ArrayList<String>())).build();
+      scenario.init();
+      scenario.run();
+      scenario.close();
+
+      Assert.assertTrue(CountingSender.sent.get() > 0, "No messages were sent.");
+      Assert.assertEquals(runInfo.getIteration() + 1, CountingSender.sent.get(), "The iteration count was expected to match the messages sent.");
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import static org.perfcake.message.sender.SenderTestHelper.newMeasurementUnit;
+import static org.perfcake.message.sender.SenderTestHelper.send;
+
+import org.perfcake.reporting.MeasurementUnit;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link org.perfcake.message.sender.ChannelSenderDatagram} against a local UDP echo server.
+ */
+public class ChannelSenderDatagramTest {
+
+   private static final String PAYLOAD = "I'm the fish!";
+
+   private DatagramSocket serverSocket;
+
+   private final AtomicInteger receivedPackets = new AtomicInteger();
+
+   @BeforeClass
+   public void startServer() throws IOException {
+      serverSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+
+      final Thread server = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            final DatagramPacket packet = new DatagramPacket(new byte[65_535], 65_535);
+            try {
+               while (true) {
+                  packet.setLength(65_535);
+                  serverSocket.receive(packet);
+                  receivedPackets.incrementAndGet();
+                  if (!new String(packet.getData(), packet.getOffset(), packet.getLength(), "UTF-8").endsWith("silence")) {
+                     serverSocket.send(packet); // the echo
+                  }
+               }
+            } catch (IOException e) {
+               // the server was closed
+            }
+         }
+      });
+      server.setDaemon(true);
+      server.start();
+   }
+
+   @AfterClass
+   public void stopServer() {
+      serverSocket.close();
+   }
+
+   private ChannelSenderDatagram newSender(final int batchSize, final boolean awaitResponse) throws Exception {
+      final Properties properties = new Properties();
+      properties.setProperty("batchSize", String.valueOf(batchSize));
+      properties.setProperty("awaitResponse", String.valueOf(awaitResponse));
+      properties.setProperty("responseTimeout", "300");
+
+      return SenderTestHelper.newSender(ChannelSenderDatagram.class, "127.0.0.1:" + serverSocket.getLocalPort(), properties);
+   }
+
+   @Test
+   public void requestResponseTest() throws Exception {
+      final ChannelSenderDatagram sender = newSender(5, true);
+      try {
+         for (int i = 0; i < 20; i++) {
+            final MeasurementUnit mu = newMeasurementUnit(i);
+            Assert.assertEquals(send(sender, PAYLOAD + i, null, mu), PAYLOAD + i);
+            Assert.assertEquals(mu.getResult(ChannelSenderDatagram.SENT_PACKETS), 5d);
+            Assert.assertEquals(mu.getResult(ChannelSenderDatagram.TIMED_OUT_PACKETS), 0d);
+         }
+         Assert.assertEquals(sender.getSentPackets() + sender.getDroppedPackets(), 100);
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void timeoutTest() throws Exception {
+      final ChannelSenderDatagram sender = newSender(3, true);
+      try {
+         final MeasurementUnit mu = newMeasurementUnit(1);
+         Assert.assertNull(send(sender, "silence", null, mu));
+         Assert.assertEquals(mu.getResult(ChannelSenderDatagram.TIMED_OUT_PACKETS), mu.getResult(ChannelSenderDatagram.SENT_PACKETS));
+
+         // the next batch is not affected
+         Assert.assertEquals(send(sender, PAYLOAD, null, newMeasurementUnit(2)), PAYLOAD);
+         Assert.assertEquals(sender.getTimedOutPackets(), 3);
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void batchTest() throws Exception {
+      final int received = receivedPackets.get();
+      final ChannelSenderDatagram sender = newSender(10, false);
+      try {
+         for (int i = 0; i < 10; i++) {
+            Assert.assertNull(send(sender, PAYLOAD + " silence", null, newMeasurementUnit(i)));
+         }
+      } finally {
+         sender.close();
+      }
+
+      Assert.assertEquals(sender.getSentPackets() + sender.getDroppedPackets(), 100);
+      for (int i = 0; i < 100 && receivedPackets.get() - received < sender.getSentPackets(); i++) {
+         Thread.sleep(10);
+      }
+      // the datagrams might be lost even locally when the server is slow
+      Assert.assertTrue(receivedPackets.get() - received > 0);
+   }
+}
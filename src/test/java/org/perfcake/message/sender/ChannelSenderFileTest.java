@@ -0,0 +1,135 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.perfcake.reporting.MeasurementUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/**
+ * Tests the write modes and the sync policies of {@link org.perfcake.message.sender.ChannelSenderFile}.
+ */
+public class ChannelSenderFileTest {
+
+   private static final String PAYLOAD = "I'm the fish!";
+
+   private static ChannelSenderFile newSender(final File file, final Properties properties) throws Exception {
+      return SenderTestHelper.newSender(ChannelSenderFile.class, file.getPath(), properties);
+   }
+
+   private static MeasurementUnit sendMeasured(final ChannelSenderFile sender, final String payload, final long iteration) throws Exception {
+      final MeasurementUnit mu = SenderTestHelper.newMeasurementUnit(iteration);
+      Assert.assertNull(SenderTestHelper.send(sender, payload, null, mu));
+      return mu;
+   }
+
+   private static int count(final String text, final String part) {
+      int count = 0;
+      for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+         count++;
+      }
+      return count;
+   }
+
+   @Test
+   public void appendTest() throws Exception {
+      final File file = File.createTempFile("perfcake", "append");
+      file.deleteOnExit();
+
+      final Properties properties = new Properties();
+      properties.setProperty("framing", "delimiter");
+      properties.setProperty("syncPolicy", "message");
+      final ChannelSenderFile sender = newSender(file, properties);
+      try {
+         for (int i = 0; i < 10; i++) {
+            final MeasurementUnit mu = sendMeasured(sender, PAYLOAD + i, i);
+            Assert.assertNotNull(mu.getResult(ChannelSenderFile.WRITE_LATENCY));
+            Assert.assertNotNull(mu.getResult(ChannelSenderFile.SYNC_LATENCY));
+         }
+      } finally {
+         sender.close();
+      }
+
+      final StringBuilder expected = new StringBuilder();
+      for (int i = 0; i < 10; i++) {
+         expected.append(PAYLOAD).append(i).append('\n');
+      }
+      Assert.assertEquals(new String(Files.readAllBytes(file.toPath()), "UTF-8"), expected.toString());
+   }
+
+   @Test
+   public void mmapTest() throws Exception {
+      final File file = File.createTempFile("perfcake", "mmap");
+      file.deleteOnExit();
+
+      final Properties properties = new Properties();
+      properties.setProperty("writeMode", "mmap");
+      properties.setProperty("segmentSize", "100");
+      properties.setProperty("syncPolicy", "count");
+      properties.setProperty("syncCount", "3");
+      final ChannelSenderFile first = newSender(file, properties);
+      final ChannelSenderFile second = newSender(file, properties);
+      try {
+         for (int i = 1; i <= 30; i++) {
+            final MeasurementUnit mu = sendMeasured(first, "first", i);
+            Assert.assertEquals(mu.getResult(ChannelSenderFile.SYNC_LATENCY) != null, i % 3 == 0);
+            sendMeasured(second, "second", i);
+         }
+      } finally {
+         first.close();
+         second.close();
+      }
+
+      // the senders write to their own segments
+      final String content = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+      Assert.assertEquals(count(content, "first"), 30);
+      Assert.assertEquals(count(content, "second"), 30);
+      Assert.assertEquals(file.length() % 100, 0);
+   }
+
+   @Test
+   public void randomTest() throws Exception {
+      final File file = File.createTempFile("perfcake", "random");
+      file.deleteOnExit();
+
+      final Properties properties = new Properties();
+      properties.setProperty("writeMode", "random");
+      properties.setProperty("fileSize", "4096");
+      properties.setProperty("syncPolicy", "interval");
+      properties.setProperty("syncInterval", "3600000");
+      final ChannelSenderFile sender = newSender(file, properties);
+      try {
+         for (int i = 0; i < 100; i++) {
+            final MeasurementUnit mu = sendMeasured(sender, PAYLOAD, i);
+            Assert.assertNotNull(mu.getResult(ChannelSenderFile.WRITE_LATENCY));
+            Assert.assertNull(mu.getResult(ChannelSenderFile.SYNC_LATENCY));
+         }
+      } finally {
+         sender.close();
+      }
+
+      Assert.assertTrue(file.length() <= 4096);
+      Assert.assertTrue(file.length() >= PAYLOAD.length());
+   }
+}
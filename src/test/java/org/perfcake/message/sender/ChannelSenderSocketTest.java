@@ -0,0 +1,227 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.message.Message;
+import org.perfcake.message.MessageTemplate;
+import org.perfcake.util.ObjectFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link org.perfcake.message.sender.ChannelSenderSocket} against a local server using the length prefix framing.
+ */
+public class ChannelSenderSocketTest {
+
+   private static final String PAYLOAD = "I'm the fish!";
+
+   private ServerSocket serverSocket;
+
+   private final AtomicInteger acceptedConnections = new AtomicInteger();
+
+   private final AtomicInteger receivedMessages = new AtomicInteger();
+
+   @BeforeClass
+   public void startServer() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+      final Thread acceptor = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               while (true) {
+                  final Socket socket = serverSocket.accept();
+                  acceptedConnections.incrementAndGet();
+                  final Thread handler = new Thread(new Runnable() {
+                     @Override
+                     public void run() {
+                        serve(socket);
+                     }
+                  });
+                  handler.setDaemon(true);
+                  handler.start();
+               }
+            } catch (IOException e) {
+               // the server was closed
+            }
+         }
+      });
+      acceptor.setDaemon(true);
+      acceptor.start();
+   }
+
+   @AfterClass
+   public void stopServer() throws IOException {
+      serverSocket.close();
+   }
+
+   /**
+    * Responds to each message by the message itself, there is no response to the message "silence".
+    */
+   private void serve(final Socket socket) {
+      try (Socket s = socket) {
+         final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+         final DataOutputStream out = new DataOutputStream(s.getOutputStream());
+
+         while (true) {
+            final byte[] request = new byte[in.readInt()];
+            in.readFully(request);
+            receivedMessages.incrementAndGet();
+
+            if (!"silence".equals(new String(request, "UTF-8"))) {
+               final ByteArrayOutputStream response = new ByteArrayOutputStream();
+               new DataOutputStream(response).writeInt(request.length);
+               response.write(request);
+               out.write(response.toByteArray());
+               out.flush();
+            }
+         }
+      } catch (IOException e) {
+         // the connection was closed
+      }
+   }
+
+   private ChannelSenderSocket newSender(final Framing.Type framing) throws Exception {
+      return newSender(framing, new Properties());
+   }
+
+   private ChannelSenderSocket newSender(final Framing.Type framing, final Properties properties) throws Exception {
+      properties.setProperty("target", "127.0.0.1:" + serverSocket.getLocalPort());
+      properties.setProperty("framing", framing.name());
+      properties.setProperty("responseTimeout", "500");
+
+      final ChannelSenderSocket sender = (ChannelSenderSocket) ObjectFactory.summonInstance(ChannelSenderSocket.class.getName(), properties);
+      sender.init();
+      return sender;
+   }
+
+   private static String send(final ChannelSender sender, final Message message) throws Exception {
+      sender.preSend(message, null);
+      try {
+         return (String) sender.send(message, null);
+      } finally {
+         sender.postSend(message);
+      }
+   }
+
+   @Test
+   public void echoTest() throws Exception {
+      final int connections = acceptedConnections.get();
+      final char[] chars = new char[200_000];
+      Arrays.fill(chars, 'x');
+      final String large = new String(chars);
+
+      // the static message is copied to the direct buffer only once
+      final Message staticMessage = new MessageTemplate(new Message(PAYLOAD), 1, null).getFilteredMessage(new Properties());
+
+      final ChannelSenderSocket sender = newSender(Framing.Type.LENGTH_PREFIX);
+      try {
+         for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(send(sender, new Message(PAYLOAD + i)), PAYLOAD + i);
+            Assert.assertEquals(send(sender, staticMessage), PAYLOAD);
+         }
+         Assert.assertEquals(send(sender, new Message(large)), large);
+         Assert.assertEquals(send(sender, staticMessage), PAYLOAD);
+      } finally {
+         sender.close();
+      }
+
+      Assert.assertEquals(acceptedConnections.get(), connections + 1);
+   }
+
+   @Test
+   public void timeoutTest() throws Exception {
+      final int connections = acceptedConnections.get();
+      final ChannelSenderSocket sender = newSender(Framing.Type.LENGTH_PREFIX);
+      try {
+         try {
+            send(sender, new Message("silence"));
+            Assert.fail("The missing response must time out.");
+         } catch (PerfCakeException e) {
+            Assert.assertTrue(e.getMessage().contains("500 ms"));
+         }
+
+         // a new connection is used afterwards
+         Assert.assertEquals(send(sender, new Message(PAYLOAD)), PAYLOAD);
+         Assert.assertEquals(acceptedConnections.get(), connections + 2);
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void maxFrameSizeTest() throws Exception {
+      final char[] chars = new char[2000];
+      Arrays.fill(chars, 'x');
+
+      final Properties properties = new Properties();
+      properties.setProperty("maxFrameSize", "1000");
+      final ChannelSenderSocket sender = newSender(Framing.Type.LENGTH_PREFIX, properties);
+      try {
+         try {
+            send(sender, new Message(new String(chars)));
+            Assert.fail("A response larger than the maximal frame size must fail the message.");
+         } catch (PerfCakeException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertTrue(e.getCause().getMessage().contains("1000 bytes"));
+         }
+
+         Assert.assertEquals(send(sender, new Message(PAYLOAD)), PAYLOAD); // a new connection is used afterwards
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void noFramingTest() throws Exception {
+      final ChannelSenderSocket sender = newSender(Framing.Type.NONE);
+      final int received = receivedMessages.get();
+      try {
+         // the server reads the length prefix
+         final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+         new DataOutputStream(frame).writeInt(7);
+         frame.write("silence".getBytes("UTF-8"));
+
+         Assert.assertNull(send(sender, new Message(new String(frame.toByteArray(), "UTF-8"))));
+      } finally {
+         sender.close();
+      }
+
+      for (int i = 0; i < 50 && receivedMessages.get() == received; i++) {
+         Thread.sleep(10);
+      }
+      Assert.assertEquals(receivedMessages.get(), received + 1);
+   }
+}
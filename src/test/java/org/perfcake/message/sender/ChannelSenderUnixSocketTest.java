@@ -0,0 +1,109 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.perfcake.message.Message;
+import org.perfcake.util.ObjectFactory;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link org.perfcake.message.sender.ChannelSenderUnixSocket} against a local server using the delimiter framing.
+ * The test is skipped on the Java runtimes without the Unix domain socket channels.
+ */
+public class ChannelSenderUnixSocketTest {
+
+   private static final String PAYLOAD = "I'm the fish!";
+
+   private static ServerSocketChannel openServer(final File path) throws IOException {
+      try {
+         final ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+         final ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+         server.bind((SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path.getPath()));
+         return server;
+      } catch (IllegalArgumentException | ReflectiveOperationException e) {
+         throw new SkipException("The Unix domain sockets are not supported.", e);
+      }
+   }
+
+   @Test
+   public void echoTest() throws Exception {
+      final File path = new File(System.getProperty("java.io.tmpdir"), "perfcake-" + System.nanoTime() + ".sock");
+      final ServerSocketChannel server = openServer(path);
+      final AtomicInteger acceptedConnections = new AtomicInteger();
+
+      final Thread acceptor = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               while (true) {
+                  try (SocketChannel channel = server.accept()) { // a single connection at a time is enough
+                     acceptedConnections.incrementAndGet();
+                     final ByteBuffer buffer = ByteBuffer.allocate(1024);
+                     while (channel.read(buffer) >= 0) { // the echo, the sender waits for the delimiter
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                           channel.write(buffer);
+                        }
+                        buffer.clear();
+                     }
+                  }
+               }
+            } catch (IOException e) {
+               // the server was closed
+            }
+         }
+      });
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      final Properties properties = new Properties();
+      properties.setProperty("target", path.getPath());
+      properties.setProperty("framing", "delimiter");
+      final ChannelSenderUnixSocket sender = (ChannelSenderUnixSocket) ObjectFactory.summonInstance(ChannelSenderUnixSocket.class.getName(), properties);
+      sender.init();
+      try {
+         for (int i = 0; i < 50; i++) {
+            final Message message = new Message(PAYLOAD + i);
+            sender.preSend(message, null);
+            Assert.assertEquals(sender.send(message, null), PAYLOAD + i);
+            sender.postSend(message);
+         }
+      } finally {
+         sender.close();
+         server.close();
+         path.delete();
+      }
+
+      Assert.assertEquals(acceptedConnections.get(), 1);
+   }
+}
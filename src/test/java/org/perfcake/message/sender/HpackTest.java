@@ -0,0 +1,86 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link org.perfcake.message.sender.Hpack} using the examples from RFC 7541.
+ */
+public class HpackTest {
+
+   private static byte[] hex(final String hex) {
+      final String digits = hex.replace(" ", "");
+      final byte[] bytes = new byte[digits.length() / 2];
+      for (int i = 0; i < bytes.length; i++) {
+         bytes[i] = (byte) Integer.parseInt(digits.substring(i * 2, i * 2 + 2), 16);
+      }
+      return bytes;
+   }
+
+   private static void assertHeaders(final List<String[]> headers, final String... expected) {
+      Assert.assertEquals(headers.size(), expected.length / 2);
+      for (int i = 0; i < headers.size(); i++) {
+         Assert.assertEquals(headers.get(i)[0], expected[i * 2]);
+         Assert.assertEquals(headers.get(i)[1], expected[i * 2 + 1]);
+      }
+   }
+
+   @Test
+   public void decodeTest() throws Exception {
+      final Hpack.Decoder decoder = new Hpack.Decoder();
+
+      // C.4.1 - C.4.3, requests with Huffman coding sharing the dynamic table
+      byte[] block = hex("8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff");
+      assertHeaders(decoder.decode(block, 0, block.length), ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+
+      block = hex("8286 84be 5886 a8eb 1064 9cbf");
+      assertHeaders(decoder.decode(block, 0, block.length), ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+
+      block = hex("8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf");
+      assertHeaders(decoder.decode(block, 0, block.length), ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value");
+
+      // C.2.1, a literal header field with indexing without Huffman coding
+      block = hex("400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572");
+      assertHeaders(new Hpack.Decoder().decode(block, 0, block.length), "custom-key", "custom-header");
+   }
+
+   @Test
+   public void roundTripTest() throws Exception {
+      final List<String[]> headers = new ArrayList<>();
+      headers.add(new String[] { ":method", "POST" });
+      headers.add(new String[] { ":path", "/fish/salmon?size=large" });
+      headers.add(new String[] { "content-type", "text/xml; charset=utf-8" });
+      headers.add(new String[] { "x-perfcake-test", "\u0001ÿ~{}" });
+      headers.add(new String[] { "cookie", "" });
+
+      final byte[] block = new Hpack.Encoder().encode(headers);
+      final List<String[]> decoded = new Hpack.Decoder().decode(block, 0, block.length);
+
+      Assert.assertEquals(decoded.size(), headers.size());
+      for (int i = 0; i < headers.size(); i++) {
+         Assert.assertEquals(decoded.get(i), headers.get(i));
+      }
+   }
+}
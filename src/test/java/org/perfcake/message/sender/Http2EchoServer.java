@@ -0,0 +1,263 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An embedded HTTP/2 server without TLS (h2c) with the prior knowledge for testing {@link Http2Sender}. It responds to each request
+ * by its body, or by its path when the body is empty, after the configured delay. It announces the limit of concurrent streams and
+ * remembers the maximal number of streams that were open at the same time. The server does not check the flow control windows
+ * of the client, the client announces the maximal ones.
+ */
+public class Http2EchoServer implements Closeable {
+
+   private final ServerSocket serverSocket;
+
+   private final int maxConcurrentStreams;
+
+   private final long delay;
+
+   private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+   private final List<Socket> sockets = new ArrayList<>();
+
+   private final AtomicInteger acceptedConnections = new AtomicInteger();
+
+   private final AtomicInteger openStreams = new AtomicInteger();
+
+   private final AtomicInteger maxOpenStreams = new AtomicInteger();
+
+   private volatile boolean running = true;
+
+   /**
+    * Starts the server on a random local port.
+    *
+    * @param maxConcurrentStreams
+    *           The maximal number of concurrent streams per connection announced to the clients.
+    * @param delay
+    *           The delay of the responses in milliseconds.
+    * @throws IOException
+    *            When the server could not be started.
+    */
+   public Http2EchoServer(final int maxConcurrentStreams, final long delay) throws IOException {
+      this.maxConcurrentStreams = maxConcurrentStreams;
+      this.delay = delay;
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+      final Thread acceptor = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            while (running) {
+               try {
+                  final Socket socket = serverSocket.accept();
+                  synchronized (sockets) {
+                     sockets.add(socket);
+                  }
+                  acceptedConnections.incrementAndGet();
+
+                  final Thread handler = new Thread(new ConnectionHandler(socket), "h2c-echo-connection");
+                  handler.setDaemon(true);
+                  handler.start();
+               } catch (IOException e) {
+                  // the server was closed
+               }
+            }
+         }
+      }, "h2c-echo-acceptor");
+      acceptor.setDaemon(true);
+      acceptor.start();
+   }
+
+   public int getPort() {
+      return serverSocket.getLocalPort();
+   }
+
+   public int getAcceptedConnections() {
+      return acceptedConnections.get();
+   }
+
+   public int getMaxOpenStreams() {
+      return maxOpenStreams.get();
+   }
+
+   @Override
+   public void close() throws IOException {
+      running = false;
+      serverSocket.close();
+      executor.shutdownNow();
+      synchronized (sockets) {
+         for (final Socket socket : sockets) {
+            socket.close();
+         }
+      }
+   }
+
+   /**
+    * Serves a single connection.
+    */
+   private class ConnectionHandler implements Runnable {
+
+      private final Socket socket;
+
+      private final Hpack.Decoder decoder = new Hpack.Decoder();
+
+      private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+      private final Map<Integer, ByteArrayOutputStream> bodies = new HashMap<>();
+
+      private final Map<Integer, String> paths = new HashMap<>();
+
+      private OutputStream out;
+
+      private ConnectionHandler(final Socket socket) {
+         this.socket = socket;
+      }
+
+      @Override
+      public void run() {
+         try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+
+            final byte[] preface = new byte[Http2Frame.PREFACE.length];
+            in.readFully(preface);
+            if (!Arrays.equals(preface, Http2Frame.PREFACE)) {
+               throw new IOException("Invalid connection preface.");
+            }
+
+            synchronized (out) {
+               Http2Frame.writeSettings(out, Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+               out.flush();
+            }
+
+            while (running) {
+               final Http2Frame frame = Http2Frame.read(in, Http2Frame.DEFAULT_MAX_FRAME_SIZE);
+               switch (frame.type) {
+                  case Http2Frame.HEADERS:
+                     final byte[] block = Http2Frame.readHeaderBlock(in, frame, Http2Frame.DEFAULT_MAX_FRAME_SIZE);
+                     for (final String[] header : decoder.decode(block, 0, block.length)) {
+                        if (":path".equals(header[0])) {
+                           paths.put(frame.streamId, header[1]);
+                        }
+                     }
+                     bodies.put(frame.streamId, new ByteArrayOutputStream());
+                     final int open = openStreams.incrementAndGet();
+                     int max;
+                     while ((max = maxOpenStreams.get()) < open && !maxOpenStreams.compareAndSet(max, open)) {
+                        // retry
+                     }
+                     if (frame.hasFlag(Http2Frame.FLAG_END_STREAM)) {
+                        respond(frame.streamId);
+                     }
+                     break;
+                  case Http2Frame.DATA:
+                     bodies.get(frame.streamId).write(frame.payload, frame.dataOffset(), frame.dataLength());
+                     if (frame.payload.length > 0) {
+                        synchronized (out) {
+                           Http2Frame.writeInts(out, Http2Frame.WINDOW_UPDATE, 0, 0, frame.payload.length);
+                           Http2Frame.writeInts(out, Http2Frame.WINDOW_UPDATE, 0, frame.streamId, frame.payload.length);
+                           out.flush();
+                        }
+                     }
+                     if (frame.hasFlag(Http2Frame.FLAG_END_STREAM)) {
+                        respond(frame.streamId);
+                     }
+                     break;
+                  case Http2Frame.SETTINGS:
+                     if (!frame.hasFlag(Http2Frame.FLAG_ACK)) {
+                        synchronized (out) {
+                           Http2Frame.write(out, Http2Frame.SETTINGS, Http2Frame.FLAG_ACK, 0, frame.payload, 0, 0);
+                           out.flush();
+                        }
+                     }
+                     break;
+                  case Http2Frame.PING:
+                     if (!frame.hasFlag(Http2Frame.FLAG_ACK)) {
+                        synchronized (out) {
+                           Http2Frame.write(out, Http2Frame.PING, Http2Frame.FLAG_ACK, 0, frame.payload, 0, frame.payload.length);
+                           out.flush();
+                        }
+                     }
+                     break;
+                  case Http2Frame.GOAWAY:
+                     socket.close();
+                     return;
+                  default:
+                     // nothing to do
+               }
+            }
+         } catch (IOException e) {
+            // the connection was closed
+         }
+      }
+
+      private void respond(final int streamId) {
+         final byte[] requestBody = bodies.remove(streamId).toByteArray();
+         final String path = paths.remove(streamId);
+         final byte[] responseBody = requestBody.length > 0 ? requestBody : path.getBytes(Hpack.ENCODING);
+
+         executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+               final List<String[]> headers = new ArrayList<>();
+               headers.add(new String[] { ":status", "200" });
+               headers.add(new String[] { "content-type", "text/plain" });
+               headers.add(new String[] { "content-length", Integer.toString(responseBody.length) });
+               headers.add(new String[] { "set-cookie", "stream=" + streamId });
+
+               openStreams.decrementAndGet();
+               try {
+                  synchronized (out) {
+                     Http2Frame.writeHeaders(out, streamId, encoder.encode(headers), responseBody.length == 0, Http2Frame.DEFAULT_MAX_FRAME_SIZE);
+                     int offset = 0;
+                     while (offset < responseBody.length) {
+                        final int length = Math.min(Http2Frame.DEFAULT_MAX_FRAME_SIZE, responseBody.length - offset);
+                        Http2Frame.write(out, Http2Frame.DATA, offset + length == responseBody.length ? Http2Frame.FLAG_END_STREAM : 0, streamId, responseBody, offset, length);
+                        offset += length;
+                     }
+                     out.flush();
+                  }
+               } catch (IOException e) {
+                  // the connection was closed
+               }
+            }
+         }, delay, TimeUnit.MILLISECONDS);
+      }
+   }
+}
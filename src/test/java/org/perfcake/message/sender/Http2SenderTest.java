@@ -0,0 +1,169 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import static org.perfcake.message.sender.SenderTestHelper.newMeasurementUnit;
+import static org.perfcake.message.sender.SenderTestHelper.send;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.reporting.MeasurementUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests {@link org.perfcake.message.sender.Http2Sender} against the embedded h2c server.
+ */
+public class Http2SenderTest {
+
+   private static final String PAYLOAD = "I'm the fish!";
+
+   private static Http2Sender newSender(final Http2EchoServer server, final String path, final Properties properties) throws Exception {
+      return SenderTestHelper.newSender(Http2Sender.class, "http://127.0.0.1:" + server.getPort() + path, properties);
+   }
+
+   @Test
+   public void echoTest() throws Exception {
+      try (Http2EchoServer server = new Http2EchoServer(100, 0)) {
+         final Http2Sender sender = newSender(server, "/echo", new Properties());
+         try {
+            for (int i = 0; i < 50; i++) {
+               final MeasurementUnit mu = newMeasurementUnit(i);
+               Assert.assertEquals(send(sender, PAYLOAD + i, null, mu), PAYLOAD + i);
+               Assert.assertTrue((Double) mu.getResult(Http2Sender.STREAM_LATENCY) > 0d);
+               Assert.assertEquals(mu.getResult(Http2Sender.STREAM_CONCURRENCY), 1d);
+            }
+         } finally {
+            sender.close();
+         }
+         Assert.assertEquals(server.getAcceptedConnections(), 1);
+      }
+   }
+
+   @Test
+   public void getTest() throws Exception {
+      try (Http2EchoServer server = new Http2EchoServer(100, 0)) {
+         final Properties properties = new Properties();
+         properties.setProperty("method", "GET");
+         properties.setProperty("expectedResponseCodes", "200");
+         final Http2Sender sender = newSender(server, "/fish?name=salmon", properties);
+         try {
+            Assert.assertEquals(send(sender, PAYLOAD, null, newMeasurementUnit(1)), "/fish?name=salmon");
+         } finally {
+            sender.close();
+         }
+      }
+   }
+
+   @Test
+   public void largeBodyTest() throws Exception {
+      final char[] chars = new char[200_000];
+      Arrays.fill(chars, 'x');
+      final String payload = new String(chars);
+
+      try (Http2EchoServer server = new Http2EchoServer(100, 0)) {
+         final Http2Sender sender = newSender(server, "/echo", new Properties());
+         try {
+            for (int i = 0; i < 3; i++) {
+               Assert.assertEquals(send(sender, payload, null, newMeasurementUnit(i)), payload);
+            }
+         } finally {
+            sender.close();
+         }
+      }
+   }
+
+   @Test
+   public void multiplexingTest() throws Exception {
+      final int threads = 16;
+
+      try (Http2EchoServer server = new Http2EchoServer(4, 50)) {
+         final Properties properties = new Properties();
+         properties.setProperty("connections", "2");
+
+         final List<Http2Sender> senders = new ArrayList<>();
+         final ExecutorService executor = Executors.newFixedThreadPool(threads);
+         try {
+            final List<Future<Double>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+               final Http2Sender sender = newSender(server, "/echo", properties);
+               senders.add(sender);
+               final String payload = PAYLOAD + i;
+               results.add(executor.submit(new Callable<Double>() {
+                  @Override
+                  public Double call() throws Exception {
+                     double maxConcurrency = 0;
+                     for (int j = 0; j < 10; j++) {
+                        final MeasurementUnit mu = newMeasurementUnit(j);
+                        if (!payload.equals(send(sender, payload, null, mu))) {
+                           return -1d;
+                        }
+                        maxConcurrency = Math.max(maxConcurrency, (Double) mu.getResult(Http2Sender.STREAM_CONCURRENCY));
+                     }
+                     return maxConcurrency;
+                  }
+               }));
+            }
+
+            double maxConcurrency = 0;
+            for (final Future<Double> result : results) {
+               Assert.assertTrue(result.get() > 0, "Wrong response received.");
+               maxConcurrency = Math.max(maxConcurrency, result.get());
+            }
+
+            Assert.assertTrue(maxConcurrency > 1, "The streams were not multiplexed.");
+            Assert.assertTrue(maxConcurrency <= 4, "The limit of concurrent streams was exceeded: " + maxConcurrency);
+            Assert.assertTrue(server.getMaxOpenStreams() <= 8, "The limit of concurrent streams was exceeded: " + server.getMaxOpenStreams());
+            Assert.assertEquals(server.getAcceptedConnections(), 2);
+            Assert.assertEquals(senders.get(0).getConnectionPool().getOpenedConnections(), 2);
+         } finally {
+            executor.shutdownNow();
+            for (final Http2Sender sender : senders) {
+               sender.close();
+            }
+         }
+      }
+   }
+
+   @Test
+   public void responseCodeTest() throws Exception {
+      try (Http2EchoServer server = new Http2EchoServer(100, 0)) {
+         final Properties properties = new Properties();
+         properties.setProperty("expectedResponseCodes", "201");
+         final Http2Sender sender = newSender(server, "/echo", properties);
+         try {
+            send(sender, PAYLOAD, null, newMeasurementUnit(1));
+            Assert.fail("An unexpected response code must fail the sending.");
+         } catch (PerfCakeException e) {
+            Assert.assertTrue(e.getMessage().contains("200"));
+         } finally {
+            sender.close();
+         }
+      }
+   }
+}
@@ -19,13 +19,24 @@
  */
 package org.perfcake.message.sender;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import org.perfcake.PerfCakeException;
 import org.perfcake.message.Message;
 import org.perfcake.message.sender.HttpSender.Method;
+import org.perfcake.message.sender.HttpSender.ResponseHandling;
+import org.perfcake.reporting.MeasurementUnit;
 import org.perfcake.util.ObjectFactory;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -223,11 +234,65 @@ public class HttpSenderTest {
       Assert.assertTrue(response.contains("500 Internal Server Error"));
    }
 
+   @Test
+   public void testResponseHandling() throws Exception {
+      final byte[] body = new byte[100_000];
+      Arrays.fill(body, (byte) 'x');
+
+      final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler() {
+         @Override
+         public void handle(final HttpExchange exchange) throws IOException {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+               os.write(body);
+            }
+         }
+      });
+      server.start();
+
+      try {
+         final Properties senderProperties = new Properties();
+         senderProperties.setProperty("method", "GET");
+         senderProperties.setProperty("target", "http://127.0.0.1:" + server.getAddress().getPort() + "/");
+
+         // the response is needed by default
+         HttpSender sender = (HttpSender) ObjectFactory.summonInstance(HttpSender.class.getName(), senderProperties);
+         Assert.assertEquals(sender.getResponseHandling(), ResponseHandling.AUTO);
+         Assert.assertEquals(_sendMessage(sender, null, null, null), new String(body, "UTF-8"));
+
+         // nothing uses the response
+         sender.setResponseNeeded(false);
+         MeasurementUnit mu = SenderTestHelper.newMeasurementUnit(1);
+         Assert.assertNull(_sendMessage(sender, null, null, mu));
+         Assert.assertEquals(mu.getResult(HttpSender.RESPONSE_SIZE), (double) body.length);
+
+         senderProperties.setProperty("responseHandling", "DIGEST");
+         senderProperties.setProperty("digestAlgorithm", "MD5");
+         sender = (HttpSender) ObjectFactory.summonInstance(HttpSender.class.getName(), senderProperties);
+         final StringBuilder expected = new StringBuilder();
+         for (final byte b : MessageDigest.getInstance("MD5").digest(body)) {
+            expected.append(String.format("%02x", b));
+         }
+         for (int i = 0; i < 2; i++) { // the digest is reused
+            mu = SenderTestHelper.newMeasurementUnit(i);
+            Assert.assertEquals(_sendMessage(sender, null, null, mu), expected.toString());
+            Assert.assertEquals(mu.getResult(HttpSender.RESPONSE_SIZE), (double) body.length);
+         }
+      } finally {
+         server.stop(0);
+      }
+   }
+
    private String _sendMessage(MessageSender sender, Message message, Map<String, String> additionalProperties) throws Exception {
+      return _sendMessage(sender, message, additionalProperties, null);
+   }
+
+   private String _sendMessage(MessageSender sender, Message message, Map<String, String> additionalProperties, MeasurementUnit mu) throws Exception {
       String response = null;
       sender.init();
       sender.preSend(message, additionalProperties);
-      response = (String) sender.send(message, additionalProperties, null);
+      response = (String) sender.send(message, additionalProperties, mu);
       sender.postSend(message);
       sender.close();
       return response;
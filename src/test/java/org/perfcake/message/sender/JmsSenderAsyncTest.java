@@ -0,0 +1,231 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.ReportManager;
+import org.perfcake.reporting.reporters.DummyReporter;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.jms.CompletionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.TextMessage;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies the asynchronous sending of {@link JmsSender} with a mocked JMS 2.0 producer whose messages are acknowledged on demand.
+ */
+public class JmsSenderAsyncTest {
+
+   private static final int MAX_IN_FLIGHT = 2;
+
+   private ReportManager reportManager;
+
+   private DummyReporter reporter;
+
+   private MessageProducer producer;
+
+   private BlockingQueue<CompletionListener> listeners;
+
+   private AtomicInteger inFlight;
+
+   private AtomicInteger maxInFlight;
+
+   @BeforeMethod
+   public void startReporting() throws JMSException {
+      listeners = new LinkedBlockingQueue<>();
+      inFlight = new AtomicInteger();
+      maxInFlight = new AtomicInteger();
+      producer = mock(MessageProducer.class);
+      doAnswer(new Answer<Void>() {
+         @Override
+         public Void answer(final InvocationOnMock invocation) {
+            final CompletionListener listener = (CompletionListener) invocation.getArguments()[1];
+            final int current = inFlight.incrementAndGet();
+            synchronized (maxInFlight) {
+               maxInFlight.set(Math.max(maxInFlight.get(), current));
+            }
+            listeners.add(new CompletionListener() {
+               @Override
+               public void onCompletion(final Message message) {
+                  inFlight.decrementAndGet();
+                  listener.onCompletion(message);
+               }
+
+               @Override
+               public void onException(final Message message, final Exception exception) {
+                  inFlight.decrementAndGet();
+                  listener.onException(message, exception);
+               }
+            });
+            return null;
+         }
+      }).when(producer).send(any(Message.class), any(CompletionListener.class));
+
+      reportManager = new ReportManager();
+      reportManager.setRunInfo(new RunInfo(new Period(PeriodType.ITERATION, 1000)));
+      reporter = new DummyReporter();
+      reportManager.registerReporter(reporter);
+      reportManager.start();
+   }
+
+   @AfterMethod
+   public void stopReporting() {
+      reportManager.stop();
+   }
+
+   @Test
+   public void ackLatencyTest() throws Exception {
+      final JmsSender sender = newSender();
+
+      final MeasurementUnit mu = reportManager.newMeasurementUnit();
+      send(sender, mu); // returns once the message is handed over
+      Assert.assertEquals(mu.getResult(JmsSender.IN_FLIGHT), 1d);
+      reportManager.report(mu);
+      Assert.assertNotEquals(reporter.getLastMethod(), "doReport", "The iteration was expected to be reported after the acknowledgement.");
+
+      Thread.sleep(100);
+      take().onCompletion(sender.mess);
+      Assert.assertEquals(reporter.getLastMethod(), "doReport");
+      Assert.assertTrue(mu.getLastTime() >= 100d, "The measured time was expected to include the acknowledgement.");
+      Assert.assertTrue(mu.getTotalTime() >= 100d);
+   }
+
+   @Test
+   public void backPressureTest() throws Exception {
+      final JmsSender sender = newSender();
+
+      final List<MeasurementUnit> mus = new ArrayList<>();
+      for (int i = 0; i < MAX_IN_FLIGHT; i++) {
+         final MeasurementUnit mu = reportManager.newMeasurementUnit();
+         mus.add(mu);
+         send(sender, mu);
+      }
+
+      final List<CompletionListener> sent = new ArrayList<>();
+      for (int i = 0; i < MAX_IN_FLIGHT; i++) {
+         sent.add(take());
+      }
+
+      final MeasurementUnit last = reportManager.newMeasurementUnit();
+      mus.add(last);
+      final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+      final Thread sending = startSending(sender, last, failures);
+      Assert.assertNull(listeners.poll(200, TimeUnit.MILLISECONDS), "The sending was expected to block while the window was full.");
+
+      sent.get(0).onCompletion(sender.mess);
+      sent.add(take());
+      sending.join(5000);
+      Assert.assertFalse(sending.isAlive());
+      for (int i = 1; i < sent.size(); i++) {
+         sent.get(i).onCompletion(sender.mess);
+      }
+
+      Assert.assertTrue(failures.isEmpty(), failures.toString());
+      Assert.assertEquals(maxInFlight.get(), MAX_IN_FLIGHT);
+      for (final MeasurementUnit mu : mus) {
+         Assert.assertTrue((Double) mu.getResult(JmsSender.IN_FLIGHT) <= MAX_IN_FLIGHT);
+         Assert.assertTrue(mu.getLastTime() > 0d);
+      }
+   }
+
+   @Test
+   public void failureTest() throws Exception {
+      final JmsSender sender = newSender();
+
+      final MeasurementUnit mu = reportManager.newMeasurementUnit();
+      send(sender, mu);
+      reportManager.report(mu);
+      take().onException(sender.mess, new JMSException("Not acknowledged"));
+      Assert.assertEquals(reporter.getLastMethod(), "doReport", "The failed message was expected to be reported.");
+
+      // the place of the failed message was freed
+      final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+      final Thread sending = startSending(sender, reportManager.newMeasurementUnit(), failures);
+      sending.join(5000);
+      Assert.assertFalse(sending.isAlive());
+      Assert.assertTrue(failures.isEmpty(), failures.toString());
+      Assert.assertEquals(inFlight.get(), 1);
+   }
+
+   private CompletionListener take() throws InterruptedException {
+      final CompletionListener listener = listeners.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(listener, "A message was expected to be sent.");
+
+      return listener;
+   }
+
+   private JmsSender newSender() throws Exception {
+      final JmsSender sender = new JmsSender();
+      sender.setAsync(true);
+      sender.setMaxInFlight(MAX_IN_FLIGHT);
+      sender.sender = producer;
+      sender.mess = mock(TextMessage.class);
+
+      final Method initAsync = JmsSender.class.getDeclaredMethod("initAsync");
+      initAsync.setAccessible(true);
+      initAsync.invoke(sender);
+
+      return sender;
+   }
+
+   private static void send(final JmsSender sender, final MeasurementUnit mu) throws Exception {
+      mu.startMeasure();
+      sender.doSend(new org.perfcake.message.Message("Hello"), null, mu);
+      mu.stopMeasure();
+   }
+
+   private static Thread startSending(final JmsSender sender, final MeasurementUnit mu, final List<Throwable> failures) {
+      final Thread t = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               send(sender, mu);
+            } catch (final Exception e) {
+               failures.add(e);
+            }
+         }
+      });
+      t.start();
+
+      return t;
+   }
+}
@@ -25,21 +25,26 @@ import org.jboss.arquillian.testng.Arquillian;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.spec.JavaArchive;
 import org.perfcake.PerfCakeException;
+import org.perfcake.reporting.MeasurementUnit;
 import org.perfcake.util.ObjectFactory;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import javax.annotation.Resource;
 import javax.jms.BytesMessage;
+import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
 import javax.jms.Message;
 import javax.jms.ObjectMessage;
 import javax.jms.Queue;
+import javax.jms.Session;
 import javax.jms.TextMessage;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * @author Lenka Vašková <vaskova.lenka@gmail.com>
@@ -459,4 +464,146 @@ public class JmsSenderTest extends Arquillian {
       }
    }
 
+   @Test
+   public void testAsyncFallback() throws Exception {
+      Properties props = new Properties();
+      props.setProperty("messagetType", "STRING");
+      props.setProperty("target", "queue/test");
+      props.setProperty("async", "true");
+      props.setProperty("maxInFlight", "2");
+
+      JmsSender sender = (JmsSender) ObjectFactory.summonInstance(JmsSender.class.getName(), props);
+
+      Assert.assertEquals(sender.isAsync(), true);
+      Assert.assertEquals(sender.getMaxInFlight(), 2);
+
+      final int count = 10;
+      try {
+         sender.init();
+
+         // make sure the destination is empty
+         Assert.assertNull(JmsHelper.readMessage(factory, 500, queue));
+
+         for (int i = 0; i < count; i++) {
+            MeasurementUnit mu = sendMeasured(sender, "Hello World " + i + "!", i);
+
+            // the HornetQ client implements JMS 1.1, the messages are sent synchronously (see JmsSenderAsyncTest for the asynchronous sending)
+            Assert.assertNull(mu.getResult(JmsSender.IN_FLIGHT));
+         }
+      } finally {
+         sender.close();
+      }
+
+      for (int i = 0; i < count; i++) {
+         Message response = JmsHelper.readMessage(factory, 500, queue);
+         Assert.assertTrue(response instanceof TextMessage);
+         Assert.assertEquals(((TextMessage) response).getText(), "Hello World " + i + "!");
+      }
+
+      // make sure the destination is empty
+      Assert.assertNull(JmsHelper.readMessage(factory, 500, queue));
+   }
+
+   @Test
+   public void testTransactedBatches() throws Exception {
+      Properties props = new Properties();
+      props.setProperty("messagetType", "STRING");
+      props.setProperty("target", "queue/test");
+      props.setProperty("transacted", "true");
+      props.setProperty("commitEvery", "3");
+
+      JmsSender sender = (JmsSender) ObjectFactory.summonInstance(JmsSender.class.getName(), props);
+
+      Assert.assertEquals(sender.getCommitEvery(), 3);
+      Assert.assertEquals(sender.getCommitInterval(), 0);
+
+      try {
+         sender.init();
+
+         // make sure the destination is empty
+         Assert.assertNull(JmsHelper.readMessage(factory, 500, queue));
+
+         // the first two messages are not committed yet
+         for (int i = 0; i < 2; i++) {
+            MeasurementUnit mu = sendMeasured(sender, "Batch " + i, i);
+            Assert.assertNull(mu.getResult(JmsSender.COMMIT_LATENCY));
+         }
+         Assert.assertNull(JmsHelper.readMessage(factory, 500, queue));
+
+         // the third message completes the batch
+         MeasurementUnit mu = sendMeasured(sender, "Batch 2", 2);
+         Assert.assertNotNull(mu.getResult(JmsSender.COMMIT_LATENCY));
+         for (int i = 0; i < 3; i++) {
+            Message response = JmsHelper.readMessage(factory, 500, queue);
+            Assert.assertTrue(response instanceof TextMessage);
+            Assert.assertEquals(((TextMessage) response).getText(), "Batch " + i);
+         }
+
+         // a batch older than the commit interval is committed by the next message
+         sender.setCommitEvery(0);
+         sender.setCommitInterval(200);
+         sendMeasured(sender, "Late 0", 3);
+         Thread.sleep(300);
+         mu = sendMeasured(sender, "Late 1", 4);
+         Assert.assertNotNull(mu.getResult(JmsSender.COMMIT_LATENCY));
+         for (int i = 0; i < 2; i++) {
+            Message response = JmsHelper.readMessage(factory, 500, queue);
+            Assert.assertTrue(response instanceof TextMessage);
+            Assert.assertEquals(((TextMessage) response).getText(), "Late " + i);
+         }
+
+         // make sure the destination is empty
+         Assert.assertNull(JmsHelper.readMessage(factory, 500, queue));
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void testSharedConnections() throws Exception {
+      final int senders = 4;
+      final MessageSenderManager msm = new MessageSenderManager();
+      msm.setSenderPoolSize(senders);
+      msm.setSenderClass(JmsSender.class.getName());
+      msm.setMessageSenderProperty("target", "queue/test");
+      msm.setMessageSenderProperty("sharedConnections", "2");
+      msm.init();
+
+      try {
+         // make sure the destination is empty
+         Assert.assertNull(JmsHelper.readMessage(factory, 500, queue));
+
+         final Set<Connection> connections = new HashSet<>();
+         final Set<Session> sessions = new HashSet<>();
+         for (int i = 0; i < senders; i++) {
+            JmsSender sender = (JmsSender) msm.acquireSender();
+            Assert.assertEquals(sender.getSharedConnections(), 2);
+            connections.add(sender.connection);
+            sessions.add(sender.session);
+            sendMeasured(sender, "Shared " + i, i);
+         }
+
+         // the sessions are spread over the shared connections
+         Assert.assertEquals(connections.size(), 2);
+         Assert.assertEquals(sessions.size(), senders);
+
+         for (int i = 0; i < senders; i++) {
+            Message response = JmsHelper.readMessage(factory, 500, queue);
+            Assert.assertTrue(response instanceof TextMessage);
+            Assert.assertEquals(((TextMessage) response).getText(), "Shared " + i);
+         }
+
+         // make sure the destination is empty
+         Assert.assertNull(JmsHelper.readMessage(factory, 500, queue));
+      } finally {
+         msm.releaseAllSenders();
+         msm.close();
+      }
+   }
+
+   private static MeasurementUnit sendMeasured(final JmsSender sender, final String payload, final long iteration) throws Exception {
+      final MeasurementUnit mu = SenderTestHelper.newMeasurementUnit(iteration);
+      SenderTestHelper.send(sender, payload, null, mu);
+      return mu;
+   }
 }
@@ -0,0 +1,239 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import static org.perfcake.message.sender.SenderTestHelper.newMeasurementUnit;
+import static org.perfcake.message.sender.SenderTestHelper.send;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.reporting.MeasurementUnit;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests {@link org.perfcake.message.sender.NioHttpSender} against a local HTTP server.
+ */
+public class NioHttpSenderTest {
+
+   private static final String PAYLOAD = "I'm the fish!";
+
+   private HttpServer server;
+
+   private String target;
+
+   @BeforeClass
+   public void startServer() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/echo", new HttpHandler() {
+         @Override
+         public void handle(final HttpExchange exchange) throws IOException {
+            respond(exchange, 200, readBody(exchange), false);
+         }
+      });
+      server.createContext("/chunked", new HttpHandler() {
+         @Override
+         public void handle(final HttpExchange exchange) throws IOException {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 10_000; i++) {
+               sb.append(i).append(';');
+            }
+            respond(exchange, 200, sb.toString().getBytes("UTF-8"), true);
+         }
+      });
+      server.createContext("/error", new HttpHandler() {
+         @Override
+         public void handle(final HttpExchange exchange) throws IOException {
+            respond(exchange, 500, "Fish rotten".getBytes("UTF-8"), false);
+         }
+      });
+      server.setExecutor(Executors.newFixedThreadPool(8));
+      server.start();
+
+      target = "http://127.0.0.1:" + server.getAddress().getPort();
+   }
+
+   @AfterClass
+   public void stopServer() {
+      server.stop(0);
+   }
+
+   private static byte[] readBody(final HttpExchange exchange) throws IOException {
+      final ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (InputStream is = exchange.getRequestBody()) {
+         final byte[] buffer = new byte[1024];
+         int read;
+         while ((read = is.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+         }
+      }
+      return body.toByteArray();
+   }
+
+   private static void respond(final HttpExchange exchange, final int code, final byte[] body, final boolean chunked) throws IOException {
+      exchange.getResponseHeaders().add("Set-Cookie", "fish=salmon");
+      exchange.sendResponseHeaders(code, chunked ? 0 : body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+         os.write(body);
+      }
+   }
+
+   private NioHttpSender newSender(final String path, final Properties properties) throws Exception {
+      return SenderTestHelper.newSender(NioHttpSender.class, target + path, properties);
+   }
+
+   @Test
+   public void keepAliveTest() throws Exception {
+      final Properties properties = new Properties();
+      properties.setProperty("reuseMetrics", "true");
+      final NioHttpSender sender = newSender("/echo", properties);
+
+      try {
+         for (int i = 0; i < 100; i++) {
+            final MeasurementUnit mu = newMeasurementUnit(i);
+            Assert.assertEquals(send(sender, PAYLOAD, null, mu), PAYLOAD);
+            Assert.assertEquals(mu.getResult(NioHttpSender.CONNECTION_REUSE), i == 0 ? 0d : 1d);
+            Assert.assertEquals(mu.getResult(NioHttpSender.OPEN_CONNECTIONS), 1d);
+         }
+
+         Assert.assertEquals(sender.getConnectionPool().getOpenedConnections(), 1);
+         Assert.assertEquals(sender.getConnectionPool().getReusedConnections(), 99);
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void chunkedTest() throws Exception {
+      final Properties properties = new Properties();
+      properties.setProperty("method", "GET");
+      final NioHttpSender sender = newSender("/chunked", properties);
+
+      try {
+         for (int i = 0; i < 3; i++) {
+            final String response = (String) send(sender, PAYLOAD, null, null);
+            Assert.assertTrue(response.startsWith("0;1;2;"));
+            Assert.assertTrue(response.endsWith(";9999;"));
+         }
+         Assert.assertEquals(sender.getConnectionPool().getOpenedConnections(), 1);
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void sharedPoolTest() throws Exception {
+      final Properties properties = new Properties();
+      properties.setProperty("poolSize", "3");
+      properties.setProperty("selectorThreads", "2");
+
+      final List<NioHttpSender> senders = new ArrayList<>();
+      final ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+         final List<Future<Integer>> results = new ArrayList<>();
+         for (int i = 0; i < 8; i++) {
+            final NioHttpSender sender = newSender("/echo", properties);
+            senders.add(sender);
+            results.add(executor.submit(new Callable<Integer>() {
+               @Override
+               public Integer call() throws Exception {
+                  int correct = 0;
+                  for (int j = 0; j < 50; j++) {
+                     if (PAYLOAD.equals(send(sender, PAYLOAD, null, null))) {
+                        correct++;
+                     }
+                  }
+                  return correct;
+               }
+            }));
+         }
+
+         for (final Future<Integer> result : results) {
+            Assert.assertEquals(result.get().intValue(), 50);
+         }
+
+         final NioHttpConnectionPool pool = senders.get(0).getConnectionPool();
+         for (final NioHttpSender sender : senders) {
+            Assert.assertSame(sender.getConnectionPool(), pool);
+         }
+         Assert.assertTrue(pool.getOpenedConnections() <= 3, "Opened " + pool.getOpenedConnections() + " connections.");
+         Assert.assertEquals(pool.getReusedConnections() + pool.getOpenedConnections(), 400);
+      } finally {
+         executor.shutdownNow();
+         for (final NioHttpSender sender : senders) {
+            sender.close();
+         }
+      }
+   }
+
+   @Test
+   public void idleTimeoutTest() throws Exception {
+      final Properties properties = new Properties();
+      properties.setProperty("idleTimeout", "200");
+      final NioHttpSender sender = newSender("/echo", properties);
+
+      try {
+         Assert.assertEquals(send(sender, PAYLOAD, null, null), PAYLOAD);
+         Assert.assertEquals(sender.getConnectionPool().getOpenConnections(), 1);
+
+         Thread.sleep(600);
+         Assert.assertEquals(sender.getConnectionPool().getOpenConnections(), 0);
+
+         Assert.assertEquals(send(sender, PAYLOAD, null, null), PAYLOAD);
+         Assert.assertEquals(sender.getConnectionPool().getOpenedConnections(), 2);
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void responseCodeTest() throws Exception {
+      final Properties properties = new Properties();
+      properties.setProperty("expectedResponseCodes", "200, 201");
+      final NioHttpSender sender = newSender("/error", properties);
+
+      try {
+         send(sender, PAYLOAD, null, null);
+         Assert.fail("An unexpected response code must fail the sending.");
+      } catch (PerfCakeException e) {
+         Assert.assertTrue(e.getMessage().contains("500"));
+      } finally {
+         sender.close();
+      }
+   }
+}
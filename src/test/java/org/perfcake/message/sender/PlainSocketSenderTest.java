@@ -0,0 +1,289 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.perfcake.PerfCakeException;
+import org.perfcake.message.Message;
+import org.perfcake.util.ObjectFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the framing and the persistent connections of {@link org.perfcake.message.sender.PlainSocketSender}.
+ */
+public class PlainSocketSenderTest {
+
+   private static final String PAYLOAD = "I'm the fish!";
+
+   private ServerSocket serverSocket;
+
+   private final AtomicInteger acceptedConnections = new AtomicInteger();
+
+   /**
+    * The framing the server expects.
+    */
+   private volatile Framing.Type framing;
+
+   /**
+    * Indicates whether the server closes the connection after each response.
+    */
+   private volatile boolean closeAfterResponse = false;
+
+   @BeforeMethod
+   public void startServer() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      acceptedConnections.set(0);
+
+      final Thread acceptor = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               while (true) {
+                  final Socket socket = serverSocket.accept();
+                  acceptedConnections.incrementAndGet();
+                  final Thread handler = new Thread(new Runnable() {
+                     @Override
+                     public void run() {
+                        serve(socket);
+                     }
+                  });
+                  handler.setDaemon(true);
+                  handler.start();
+               }
+            } catch (IOException e) {
+               // the server was closed
+            }
+         }
+      });
+      acceptor.setDaemon(true);
+      acceptor.start();
+   }
+
+   @AfterMethod
+   public void stopServer() throws IOException {
+      serverSocket.close();
+   }
+
+   /**
+    * Responds to each message by the message repeated twice, or by the message itself for the fixed size framing. The response is written
+    * in small parts.
+    */
+   private void serve(final Socket socket) {
+      try (Socket s = socket) {
+         final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+         final OutputStream out = s.getOutputStream();
+
+         while (true) {
+            final byte[] request;
+            switch (framing) {
+               case LENGTH_PREFIX:
+                  request = new byte[in.readInt()];
+                  in.readFully(request);
+                  break;
+               case DELIMITER:
+                  request = readLine(in);
+                  break;
+               default:
+                  request = new byte[64];
+                  in.readFully(request);
+            }
+
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            if (framing == Framing.Type.LENGTH_PREFIX) {
+               new DataOutputStream(response).writeInt(request.length * 2);
+            }
+            if (framing == Framing.Type.FIXED_SIZE) {
+               response.write(request);
+            } else {
+               response.write(request);
+               response.write(request);
+            }
+            if (framing == Framing.Type.DELIMITER) {
+               response.write('\n');
+            }
+
+            final byte[] bytes = response.toByteArray();
+            for (int i = 0; i < bytes.length; i += 1000) {
+               out.write(bytes, i, Math.min(1000, bytes.length - i));
+               out.flush();
+               Thread.sleep(1);
+            }
+
+            if (closeAfterResponse) {
+               return;
+            }
+         }
+      } catch (IOException | InterruptedException e) {
+         // the connection was closed
+      }
+   }
+
+   private static byte[] readLine(final InputStream in) throws IOException {
+      final ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != '\n') {
+         if (b < 0) {
+            throw new EOFException();
+         }
+         line.write(b);
+      }
+      return line.toByteArray();
+   }
+
+   private PlainSocketSender newSender(final Framing.Type type, final boolean persistent) throws Exception {
+      framing = type;
+      final Properties properties = new Properties();
+      properties.setProperty("target", "127.0.0.1:" + serverSocket.getLocalPort());
+      properties.setProperty("framing", type.name());
+      properties.setProperty("frameSize", "64");
+      properties.setProperty("persistentConnection", String.valueOf(persistent));
+
+      final PlainSocketSender sender = (PlainSocketSender) ObjectFactory.summonInstance(PlainSocketSender.class.getName(), properties);
+      sender.init();
+      return sender;
+   }
+
+   private static String send(final PlainSocketSender sender, final String payload) throws Exception {
+      final Message message = new Message(payload);
+      sender.preSend(message, null);
+      try {
+         return (String) sender.send(message, null);
+      } finally {
+         sender.postSend(message);
+      }
+   }
+
+   @Test
+   public void lengthPrefixTest() throws Exception {
+      final char[] chars = new char[50_000];
+      Arrays.fill(chars, 'x');
+      final String large = new String(chars);
+
+      final PlainSocketSender sender = newSender(Framing.Type.LENGTH_PREFIX, true);
+      try {
+         for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(send(sender, PAYLOAD + i), PAYLOAD + i + PAYLOAD + i);
+         }
+         Assert.assertEquals(send(sender, large), large + large);
+      } finally {
+         sender.close();
+      }
+
+      Assert.assertEquals(acceptedConnections.get(), 1);
+   }
+
+   @Test
+   public void delimiterTest() throws Exception {
+      final PlainSocketSender sender = newSender(Framing.Type.DELIMITER, false);
+      try {
+         for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(send(sender, PAYLOAD + i), PAYLOAD + i + PAYLOAD + i);
+         }
+      } finally {
+         sender.close();
+      }
+
+      Assert.assertEquals(acceptedConnections.get(), 5);
+   }
+
+   @Test
+   public void fixedSizeTest() throws Exception {
+      final PlainSocketSender sender = newSender(Framing.Type.FIXED_SIZE, true);
+      try {
+         final String response = send(sender, PAYLOAD);
+         Assert.assertEquals(response.length(), 64);
+         Assert.assertTrue(response.startsWith(PAYLOAD + "\u0000"));
+
+         final char[] chars = new char[65];
+         Arrays.fill(chars, 'x');
+         try {
+            send(sender, new String(chars));
+            Assert.fail("A message larger than the frame must not be sent.");
+         } catch (PerfCakeException e) {
+            Assert.assertTrue(e.getMessage().contains("64 bytes"));
+         }
+      } finally {
+         sender.close();
+      }
+   }
+
+   @Test
+   public void reconnectTest() throws Exception {
+      final PlainSocketSender sender = newSender(Framing.Type.LENGTH_PREFIX, true);
+      closeAfterResponse = true;
+      try {
+         for (int i = 0; i < 3; i++) { // the connection closed by the server is replaced
+            Assert.assertEquals(send(sender, PAYLOAD + i), PAYLOAD + i + PAYLOAD + i);
+         }
+      } finally {
+         sender.close();
+         closeAfterResponse = false;
+      }
+
+      Assert.assertEquals(acceptedConnections.get(), 3);
+   }
+
+   @Test
+   public void maxFrameSizeTest() throws Exception {
+      final char[] chars = new char[600];
+      Arrays.fill(chars, 'x');
+
+      final PlainSocketSender sender = newSender(Framing.Type.LENGTH_PREFIX, true);
+      sender.setMaxFrameSize(1000);
+      sender.init();
+      try {
+         try {
+            send(sender, new String(chars)); // the response of 1200 bytes is announced in its header
+            Assert.fail("A response larger than the maximal frame size must fail the message.");
+         } catch (PerfCakeException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertTrue(e.getCause().getMessage().contains("1000 bytes"));
+         }
+
+         Assert.assertEquals(send(sender, PAYLOAD), PAYLOAD + PAYLOAD); // a new connection is opened
+      } finally {
+         sender.close();
+      }
+
+      Assert.assertEquals(acceptedConnections.get(), 2);
+   }
+
+   @Test(expectedExceptions = PerfCakeException.class)
+   public void persistentWithoutFramingTest() throws Exception {
+      newSender(Framing.Type.NONE, true);
+   }
+}
@@ -0,0 +1,108 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.message.sender;
+
+import org.perfcake.RunInfo;
+import org.perfcake.common.Period;
+import org.perfcake.common.PeriodType;
+import org.perfcake.message.Message;
+import org.perfcake.reporting.MeasurementUnit;
+import org.perfcake.reporting.ReportManager;
+import org.perfcake.util.ObjectFactory;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Creates the senders and the measurement units for the sender tests and sends the messages the same way as the generators do.
+ */
+public class SenderTestHelper {
+
+   /**
+    * The report manager of a measurement that never ends, it only creates the measurement units.
+    */
+   private static final ReportManager reportManager = new ReportManager();
+
+   static {
+      final RunInfo runInfo = new RunInfo(new Period(PeriodType.ITERATION, Long.MAX_VALUE));
+      runInfo.start();
+      reportManager.setRunInfo(runInfo);
+   }
+
+   private SenderTestHelper() {
+   }
+
+   /**
+    * Creates and initializes a new sender.
+    *
+    * @param type
+    *           The class of the sender.
+    * @param target
+    *           The target of the sender.
+    * @param properties
+    *           The other properties of the sender, the target is added to them.
+    * @return The initialized sender.
+    * @throws Exception
+    *            When the sender could not be created or initialized.
+    */
+   public static <T extends MessageSender> T newSender(final Class<T> type, final String target, final Properties properties) throws Exception {
+      properties.setProperty("target", target);
+      final T sender = type.cast(ObjectFactory.summonInstance(type.getName(), properties));
+      sender.init();
+      return sender;
+   }
+
+   /**
+    * Creates a new measurement unit.
+    *
+    * @param iteration
+    *           The iteration number.
+    * @return The measurement unit.
+    */
+   public static MeasurementUnit newMeasurementUnit(final long iteration) {
+      return reportManager.newMeasurementUnit(iteration);
+   }
+
+   /**
+    * Sends a new message with the given payload, the post-send phase is run even when the sending fails.
+    *
+    * @param sender
+    *           The sender.
+    * @param payload
+    *           The message payload.
+    * @param properties
+    *           The additional properties, or null.
+    * @param mu
+    *           The measurement unit, or null.
+    * @return The response.
+    * @throws Exception
+    *            When the message could not be sent.
+    */
+   public static Serializable send(final MessageSender sender, final String payload, final Map<String, String> properties, final MeasurementUnit mu) throws Exception {
+      final Message message = new Message(payload);
+      sender.preSend(message, properties);
+      try {
+         return sender.send(message, properties, mu);
+      } finally {
+         sender.postSend(message);
+      }
+   }
+}
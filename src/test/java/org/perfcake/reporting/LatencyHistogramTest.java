@@ -0,0 +1,101 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.reporting;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Verifies the precision, merging and serialization of {@link LatencyHistogram} and the recording into {@link StripedLatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+   @Test
+   public void precisionTest() {
+      final LatencyHistogram histogram = new LatencyHistogram();
+      for (int i = 1; i <= 1000; i++) {
+         histogram.record(i);
+      }
+
+      Assert.assertEquals(histogram.getCount(), 1000);
+      Assert.assertEquals(histogram.getSum(), 500_500d, 0.001);
+      Assert.assertEquals(histogram.getMin(), 1d);
+      Assert.assertEquals(histogram.getMax(), 1000d);
+      Assert.assertEquals(histogram.getValueAtPercentile(50), 500d, 5d);
+      Assert.assertEquals(histogram.getValueAtPercentile(99), 990d, 9.9d);
+      Assert.assertEquals(histogram.getValueAtPercentile(100), 1000d, 10d);
+   }
+
+   @Test
+   public void mergeAndSerializationTest() throws IOException {
+      final LatencyHistogram first = new LatencyHistogram();
+      final LatencyHistogram second = new LatencyHistogram();
+      for (int i = 0; i < 100; i++) {
+         first.record(1);
+         second.record(100);
+      }
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      second.writeTo(new DataOutputStream(bytes));
+      Assert.assertTrue(bytes.size() < 100, "The histogram was not written in a compact form.");
+
+      first.merge(LatencyHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+      Assert.assertEquals(first.getCount(), 200);
+      Assert.assertEquals(first.getMean(), 50.5d, 0.001);
+      Assert.assertEquals(first.getMin(), 1d);
+      Assert.assertEquals(first.getMax(), 100d);
+      Assert.assertEquals(first.getValueAtPercentile(50), 1d, 0.01d);
+      Assert.assertEquals(first.getValueAtPercentile(51), 100d, 1d);
+   }
+
+   @Test
+   public void stripedRecordingTest() throws InterruptedException {
+      final StripedLatencyHistogram histogram = new StripedLatencyHistogram();
+      final Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+         final int value = i + 1;
+         threads[i] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               for (int j = 0; j < 10_000; j++) {
+                  histogram.record(value);
+               }
+            }
+         });
+         threads[i].start();
+      }
+      for (final Thread t : threads) {
+         t.join();
+      }
+
+      final LatencyHistogram drained = histogram.drain();
+      Assert.assertEquals(drained.getCount(), 80_000);
+      Assert.assertEquals(drained.getMin(), 1d);
+      Assert.assertEquals(drained.getMax(), 8d);
+      Assert.assertEquals(histogram.drain().getCount(), 0, "The drained values were expected to be forgotten.");
+   }
+}
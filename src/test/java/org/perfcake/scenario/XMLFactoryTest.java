@@ -27,6 +27,8 @@ import org.perfcake.common.Period;
 import org.perfcake.common.PeriodType;
 import org.perfcake.message.Message;
 import org.perfcake.message.MessageTemplate;
+import org.perfcake.message.ThinkTime;
+import org.perfcake.message.extractor.RegExpExtractor;
 import org.perfcake.message.generator.AbstractMessageGenerator;
 import org.perfcake.message.generator.DefaultMessageGenerator;
 import org.perfcake.message.sender.MessageSenderManager;
@@ -121,6 +123,7 @@ public class XMLFactoryTest {
          // Message 1
          final MessageTemplate mts1 = messageStore.get(0);
          Assert.assertEquals(mts1.getMultiplicity(), new Long(10), "message1 multiplicity");
+         Assert.assertNull(mts1.getThinkTime(), "message1 think time");
          final Message m1 = mts1.getMessage();
          // Message 1 content
          Assert.assertEquals(m1.getPayload(), MESSAGE1_CONTENT, "message1 content");
@@ -147,6 +150,10 @@ public class XMLFactoryTest {
          // Message 2
          final MessageTemplate mts2 = messageStore.get(1);
          Assert.assertEquals(mts2.getMultiplicity(), new Long(1), "message2 multiplicity");
+         Assert.assertEquals(mts2.getThinkTime().getMean(), 500, "message2 think time");
+         Assert.assertEquals(mts2.getThinkTime().getDistribution(), ThinkTime.Distribution.EXPONENTIAL, "message2 think time distribution");
+         Assert.assertEquals(mts2.getExtractors().size(), 1, "message2 extractors count");
+         Assert.assertEquals(((RegExpExtractor) mts2.getExtractors().get("fish")).getPattern(), "(\\w*fish\\w*)", "message2 extractor pattern");
          final Message m2 = mts2.getMessage();
          // Message 2 content
          Assert.assertEquals(m2.getPayload(), MESSAGE2_CONTENT, "message2 content");
@@ -0,0 +1,86 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies that {@link HashedWheelTimer} runs the tasks neither before nor much after their deadlines.
+ */
+public class HashedWheelTimerTest {
+
+   @Test
+   public void scheduleTest() throws Exception {
+      final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, 4); // the longer delays need several rounds of the wheel
+      final long[] delays = { 0, 5, 30, 45, 100, 250 };
+      final ConcurrentHashMap<Long, Long> lateness = new ConcurrentHashMap<>();
+      final CountDownLatch latch = new CountDownLatch(delays.length);
+
+      try {
+         for (final long delay : delays) {
+            final long deadline = System.nanoTime() + delay * 1_000_000;
+            timer.schedule(new Runnable() {
+               @Override
+               public void run() {
+                  lateness.put(delay, System.nanoTime() - deadline);
+                  latch.countDown();
+               }
+            }, delay);
+         }
+
+         Assert.assertTrue(latch.await(5, TimeUnit.SECONDS), "All the tasks were expected to run.");
+         Assert.assertEquals(timer.getPending(), 0);
+         for (final long delay : delays) {
+            final long late = lateness.get(delay) / 1_000_000;
+            Assert.assertTrue(late >= 0 && late < 100, String.format("The task with the delay of %d ms ran %d ms after its deadline.", delay, late));
+         }
+      } finally {
+         timer.stop();
+      }
+   }
+
+   @Test
+   public void stopTest() throws Exception {
+      final HashedWheelTimer timer = new HashedWheelTimer("test-timer");
+      final Runnable task = new Runnable() {
+         @Override
+         public void run() {
+            Assert.fail("The task was not expected to run.");
+         }
+      };
+      timer.schedule(task, 10_000);
+      Thread.sleep(50); // let the task get into the wheel
+
+      Assert.assertEquals(timer.getPending(), 1);
+      Assert.assertEquals(timer.stop().size(), 1, "The pending task was expected to be returned.");
+
+      try {
+         timer.schedule(task, 0);
+         Assert.fail("A stopped timer was expected to refuse new tasks.");
+      } catch (IllegalStateException e) {
+         // expected
+      }
+   }
+}
@@ -0,0 +1,51 @@
+/*
+ * -----------------------------------------------------------------------\
+ * PerfCake
+ *
+ * Copyright (C) 2010 - 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package org.perfcake.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * Verifies that {@link MappedLineReader} reads lines spanning multiple mapped segments.
+ */
+public class MappedLineReaderTest {
+
+   @Test
+   public void readLinesTest() throws IOException {
+      final Charset utf8 = Charset.forName("UTF-8");
+      final File file = File.createTempFile("perfcake", ".log");
+      file.deleteOnExit();
+      Files.write(file.toPath(), "first line\r\nsecond longer line\n\nčtvrtý řádek\nlast".getBytes(utf8));
+
+      try (MappedLineReader reader = new MappedLineReader(file, 5, utf8)) { // the segments are shorter than the lines
+         Assert.assertEquals(reader.readLine(), "first line");
+         Assert.assertEquals(reader.readLine(), "second longer line");
+         Assert.assertEquals(reader.readLine(), "");
+         Assert.assertEquals(reader.readLine(), "čtvrtý řádek");
+         Assert.assertEquals(reader.readLine(), "last");
+         Assert.assertNull(reader.readLine());
+      }
+   }
+}
@@ -90,6 +90,10 @@ public class UtilsTest {
 
       filtered = Utils.filterProperties(filteredString, matcher, new DefaultPropertyGetter(testProperties));
       Assert.assertEquals(filtered, "Sound system in Blue Oyster test");
+
+      testProperties.setProperty("bar", "$1 \\ $2"); // the value must be inserted literally
+      filtered = Utils.filterProperties(filteredString, matcher, new DefaultPropertyGetter(testProperties));
+      Assert.assertEquals(filtered, "Sound system in $1 \\ $2 test");
    }
    
    @Test